@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+import java.util.List;
+
+/**
+ * A {@link CompletionListener} that can be notified of the successful completion of a number of
+ * send operations with a single call.  When a message is sent with
+ * {@link SendOptions.SendOptionsBuilder#setBatchedCompletion(boolean)} set, and its completion
+ * arrives at the same time as that of other messages sent using the same listener, then the listener's
+ * {@link #onSuccessBatch(NonBlockingClient, List)} method is called once for all of them, in place of
+ * calling {@link #onSuccess(NonBlockingClient, Object)} for each message.  For example:
+ * <pre>
+ * NonBlockingClient client = // ... initialization code
+ *
+ * SendOptions opts = SendOptions.builder().setQos(QOS.AT_LEAST_ONCE).setBatchedCompletion(true).build();
+ * for (int i = 0; i &lt; 1000; ++i) {
+ *     client.send("/kittens", "Hello kitty " + i, null, opts, listener, i);
+ * }
+ * </pre>
+ * Failures are always reported individually, using {@link #onError(NonBlockingClient, Object, Exception)}.
+ */
+public interface BatchCompletionListener<T> extends CompletionListener<T> {
+
+    /**
+     * Called to indicate that a number of operations completed successfully.
+     * @param client the client that the listener was registered against.
+     * @param contexts the objects that were supplied when the listener was registered
+     *                 for each of the operations, in the order that the operations were
+     *                 requested.
+     */
+    void onSuccessBatch(NonBlockingClient client, List<T> contexts);
+}
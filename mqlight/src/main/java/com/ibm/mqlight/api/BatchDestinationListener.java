@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+import java.util.List;
+
+/**
+ * A {@link DestinationListener} that is passed a number of message deliveries with a single call.
+ * Deliveries are grouped together when they arrive from the network at the same time, up to the
+ * batch size set using {@link SubscribeOptions.SubscribeOptionsBuilder#setBatchSize(int)}.  Setting
+ * {@link SubscribeOptions.SubscribeOptionsBuilder#setBatchDelay(long, java.util.concurrent.TimeUnit)}
+ * allows deliveries that arrive over a period of time to be grouped together.  For example:
+ * <pre>
+ * NonBlockingClient client = // ... initialization code
+ *
+ * SubscribeOptions opts = SubscribeOptions.builder().setBatchSize(500).setBatchDelay(100, TimeUnit.MILLISECONDS).build();
+ * client.subscribe("/kittens", opts, new BatchDestinationListener&lt;Void&gt;() {
+ *     public void onMessages(NonBlockingClient client, Void context, List&lt;Delivery&gt; deliveries) {
+ *         // ... insert the deliveries into a database as a single transaction
+ *     }
+ *     // ... other methods
+ * }, null, null);
+ * </pre>
+ * Malformed messages are always passed, individually, to
+ * {@link #onMalformed(NonBlockingClient, Object, MalformedDelivery)} - after any batch of the
+ * deliveries that arrived before them.  The {@link #onMessage(NonBlockingClient, Object, Delivery)}
+ * method is not called.
+ */
+public interface BatchDestinationListener<T> extends DestinationListener<T> {
+
+    /**
+     * Invoked to deliver a number of messages to the client.
+     * @param client the client that this <code>BatchDestinationListener</code> was registered with.
+     * @param context the context object that was supplied when this instance of the
+     *                <code>BatchDestinationListener</code> was registered with the <code>NonBlockingClient</code>.
+     * @param deliveries the deliveries, in the order that they were received.  This list will
+     *                   always contain at least one delivery.
+     */
+    void onMessages(NonBlockingClient client, T context, List<Delivery> deliveries);
+}
@@ -30,7 +30,36 @@ public interface BytesDelivery extends Delivery {
      *         <em>belongs</em> to application at the point this object is supplied to the
      *         <code>DeliveryListener</code>.  That is to say that once passed to the
      *         <code>DeliveryListener</code> the client will never modify the data held
-     *         in this buffer.
+     *         in this buffer.  For a subscription that uses pooled deliveries, the buffer is
+     *         instead a read-only view of data that belongs to the client, and is only valid until
+     *         the delivery is released (see {@link #retain()}).
+     * @throws IllegalStateException if the data of a pooled delivery has been released.
      */
     ByteBuffer getData();
+
+    /**
+     * Keeps the payload of a pooled delivery (see
+     * {@link SubscribeOptions.SubscribeOptionsBuilder#setPooledDeliveries(boolean)}) valid after the
+     * <code>DestinationListener</code> method, that the delivery was supplied to, returns.  Each call
+     * to this method must be matched by a call to {@link #release()}.  A pooled delivery polled from
+     * a {@link PullSubscription} already holds a reference to its payload, so need not be retained.
+     * This method has no effect for deliveries that are not pooled.
+     * @return the instance of <code>BytesDelivery</code> that this method was invoked on.
+     * @throws IllegalStateException if the payload has already been released.
+     */
+    BytesDelivery retain() throws IllegalStateException;
+
+    /**
+     * Releases a reference to the payload of a pooled delivery.  The application holds a reference:
+     * <ul>
+     * <li>for each call it has made to {@link #retain()}, and</li>
+     * <li>for a delivery polled from a {@link PullSubscription}, which is handed to the application
+     *     holding a reference - so must be released once, without first calling
+     *     {@link #retain()}.</li>
+     * </ul>
+     * Once all references are released the buffer returned by {@link #getData()} must no longer be
+     * used.  This method has no effect for deliveries that are not pooled.
+     * @throws IllegalStateException if the payload has already been released.
+     */
+    void release() throws IllegalStateException;
 }
@@ -36,19 +36,47 @@ public class ClientOptions {
 
     private static final Logger logger = LoggerFactory.getLogger(ClientOptions.class);
 
+    /**
+     * How a client with more than one connection (see {@link ClientOptionsBuilder#setConnections(int)})
+     * chooses the connection to send each message over.
+     */
+    public enum SendDistribution {
+        /**
+         * Messages sent to the same topic always use the same connection, so are sent in order.
+         */
+        TOPIC,
+        /**
+         * Each message uses the next connection in turn.  Messages sent to the same topic may
+         * arrive out of order.
+         */
+        ROUND_ROBIN
+    }
+
     private final String id;
     private final String user;
     private final String password;
     private final SSLOptions sslOptions;
-
-    private ClientOptions(String id, String user, String password, SSLOptions sslOptions) {
+    private final int maxRetainedLinks;
+    private final long lowWaterMark;
+    private final long highWaterMark;
+    private final int connections;
+    private final SendDistribution sendDistribution;
+
+    private ClientOptions(String id, String user, String password, SSLOptions sslOptions, int maxRetainedLinks,
+            long lowWaterMark, long highWaterMark, int connections, SendDistribution sendDistribution) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, id, user, "******", sslOptions);
+        logger.entry(this, methodName, id, user, "******", sslOptions, maxRetainedLinks, lowWaterMark, highWaterMark,
+                connections, sendDistribution);
 
         this.id = id;
         this.user = user;
         this.password = password;
         this.sslOptions = sslOptions;
+        this.maxRetainedLinks = maxRetainedLinks;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.connections = connections;
+        this.sendDistribution = sendDistribution;
 
         logger.exit(this, methodName);
     }
@@ -69,6 +97,41 @@ public class ClientOptions {
         return sslOptions;
     }
 
+    /**
+     * @return the maximum number of sending links the client keeps open, or zero if there is no limit.
+     */
+    public int getMaxRetainedLinks() {
+        return maxRetainedLinks;
+    }
+
+    /**
+     * @return the number of bytes of buffered messages at, or below, which the client notifies that it has drained.
+     */
+    public long getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * @return the number of bytes of buffered messages at which the client's send methods return <code>false</code>.
+     */
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the number of connections the client opens to the server.
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return how a client with more than one connection chooses the connection to send each message over.
+     */
+    public SendDistribution getSendDistribution() {
+        return sendDistribution;
+    }
+
     @Override
     public String toString() {
         return super.toString()
@@ -76,6 +139,11 @@ public class ClientOptions {
                 + ", user=" + user
                 + ", password=" + (password == null ? null : "******")
                 + ", sslOption=" + sslOptions.toString()
+                + ", maxRetainedLinks=" + maxRetainedLinks
+                + ", lowWaterMark=" + lowWaterMark
+                + ", highWaterMark=" + highWaterMark
+                + ", connections=" + connections
+                + ", sendDistribution=" + sendDistribution
                 + "]";
     }
 
@@ -152,6 +220,31 @@ public class ClientOptions {
         return new ClientOptionsBuilder();
     }
 
+    /**
+     * @param options the options to start from.
+     * @return a new instance of the {@link ClientOptionsBuilder} object, initialised with the
+     * settings of <code>options</code>.
+     */
+    public static ClientOptionsBuilder builder(ClientOptions options) {
+        final ClientOptionsBuilder builder = new ClientOptionsBuilder();
+        builder.id = options.id;
+        builder.user = options.user;
+        builder.password = options.password;
+        builder.keyStoreFile = options.sslOptions.getKeyStoreFile();
+        builder.keyStoreFilePassphrase = options.sslOptions.getKeyStoreFilePassphrase();
+        builder.certFile = options.sslOptions.getTrustCertificateFile();
+        builder.verifyName = options.sslOptions.getVerifyName();
+        builder.clientCertFile = options.sslOptions.getClientCertificateFile();
+        builder.clientKeyFile = options.sslOptions.getClientKeyFile();
+        builder.clientKeyFilePassphrase = options.sslOptions.getClientKeyFilePassphrase();
+        builder.maxRetainedLinks = options.maxRetainedLinks;
+        builder.lowWaterMark = options.lowWaterMark;
+        builder.highWaterMark = options.highWaterMark;
+        builder.connections = options.connections;
+        builder.sendDistribution = options.sendDistribution;
+        return builder;
+    }
+
     /**
      * A builder for <code>ClientOptions</code> objects.
      */
@@ -167,6 +260,11 @@ public class ClientOptions {
         private File clientCertFile = null;
         private File clientKeyFile = null;
         private String clientKeyFilePassphrase = null;
+        private int maxRetainedLinks = 0;
+        private long lowWaterMark = 32 * 1024;
+        private long highWaterMark = 64 * 1024;
+        private int connections = 1;
+        private SendDistribution sendDistribution = SendDistribution.TOPIC;
 
         private ClientOptionsBuilder() {}
 
@@ -411,6 +509,132 @@ public class ClientOptions {
             return this;
         }
 
+        /**
+         * Limits the number of sending links that the client keeps open.  A sending link is opened for each topic
+         * that messages are sent to with the {@link SendOptions.SendOptionsBuilder#setRetainLink(boolean)} option
+         * set.  Once this limit is reached, sending to a new topic closes the least recently used link (that has no
+         * messages waiting to be confirmed by the server).  This bounds the resources used by clients that send
+         * messages to a large number of distinct topics.
+         *
+         * @param maxRetainedLinks the maximum number of sending links to keep open, or zero (the default) for no limit.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a negative value is specified.
+         */
+        public ClientOptionsBuilder setMaxRetainedLinks(int maxRetainedLinks) throws IllegalArgumentException {
+            final String methodName = "setMaxRetainedLinks";
+            logger.entry(this, methodName, maxRetainedLinks);
+
+            if (maxRetainedLinks < 0) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Maximum retained links value '" + maxRetainedLinks + "' is invalid, must be zero or greater");
+                logger.throwing(this,  methodName, exception);
+                throw exception;
+            }
+            this.maxRetainedLinks = maxRetainedLinks;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the limits on the memory used to buffer messages that have been sent, but not yet written to the
+         * network (or, for messages sent "at least once", not yet confirmed by the server).  The limits are
+         * expressed as the number of bytes of encoded message data.  Once the amount of buffered data reaches the
+         * high water mark, the client's <code>send</code> methods return <code>false</code>; the
+         * {@link NonBlockingClientListener#onDrain(NonBlockingClient, Object)} notification is then delivered once
+         * the amount falls to, or below, the low water mark.
+         *
+         * @param lowWaterMark the number of bytes at, or below, which the client notifies that it has drained.  The default
+         *                     is 32 KiB.
+         * @param highWaterMark the number of bytes at which the client indicates that it has a backlog of messages.
+         *                      The default is 64 KiB.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if <code>lowWaterMark</code> is negative, <code>highWaterMark</code> is
+         *                                  not greater than zero, or <code>lowWaterMark</code> is greater than
+         *                                  <code>highWaterMark</code>.
+         */
+        public ClientOptionsBuilder setWaterMarks(long lowWaterMark, long highWaterMark) throws IllegalArgumentException {
+            final String methodName = "setWaterMarks";
+            logger.entry(this, methodName, lowWaterMark, highWaterMark);
+
+            if (lowWaterMark < 0) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Low water mark value '" + lowWaterMark + "' is invalid, must be zero or greater");
+                logger.throwing(this,  methodName, exception);
+                throw exception;
+            }
+            if (highWaterMark <= 0) {
+                final IllegalArgumentException exception = new IllegalArgumentException("High water mark value '" + highWaterMark + "' is invalid, must be greater than zero");
+                logger.throwing(this,  methodName, exception);
+                throw exception;
+            }
+            if (lowWaterMark > highWaterMark) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Low water mark value '" + lowWaterMark + "' is invalid, must not be greater than the high water mark value '" + highWaterMark + "'");
+                logger.throwing(this,  methodName, exception);
+                throw exception;
+            }
+            this.lowWaterMark = lowWaterMark;
+            this.highWaterMark = highWaterMark;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the number of connections that the client opens to the server.  With more than one
+         * connection, the client uses each under its own client identifier: the client's identifier
+         * followed by an underscore and the number of the connection, starting from 0.  Messages are
+         * sent over the connections as set by {@link #setSendDistribution(SendDistribution)}.  Each
+         * subscription without a share name uses one of the connections, chosen by its topic pattern.
+         * Each subscription with a share name is made on every connection, so that the server
+         * spreads the messages at the shared destination across them - if any connection fails to
+         * make the subscription, it is removed from the others.  Pull subscriptions and publishers
+         * use the connection chosen by their topic pattern.
+         *
+         * @param connections the number of connections.  The default is 1.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if <code>connections</code> is less than 1.
+         */
+        public ClientOptionsBuilder setConnections(int connections) throws IllegalArgumentException {
+            final String methodName = "setConnections";
+            logger.entry(this, methodName, connections);
+
+            if (connections < 1) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Connections value '" + connections + "' is invalid, must be 1 or greater");
+                logger.throwing(this,  methodName, exception);
+                throw exception;
+            }
+            this.connections = connections;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets how a client with more than one connection chooses the connection to send each
+         * message over.
+         *
+         * @param sendDistribution the distribution to use.  The default is {@link SendDistribution#TOPIC}.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if <code>sendDistribution</code> is <code>null</code>.
+         */
+        public ClientOptionsBuilder setSendDistribution(SendDistribution sendDistribution) throws IllegalArgumentException {
+            final String methodName = "setSendDistribution";
+            logger.entry(this, methodName, sendDistribution);
+
+            if (sendDistribution == null) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Send distribution cannot be null");
+                logger.throwing(this,  methodName, exception);
+                throw exception;
+            }
+            this.sendDistribution = sendDistribution;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
         /**
          * @return an instance of the <code>ClientOptions</code> object, built using the various
          *         settings of this <code>ClientOptionsBuilder</code> class at the point this method
@@ -418,7 +642,8 @@ public class ClientOptions {
          */
         public ClientOptions build() {
             final SSLOptions sslOptions = new SSLOptions(keyStoreFile, keyStoreFilePassphrase, certFile, verifyName, clientCertFile, clientKeyFile, clientKeyFilePassphrase);
-            return new ClientOptions(id, user, password, sslOptions);
+            return new ClientOptions(id, user, password, sslOptions, maxRetainedLinks, lowWaterMark, highWaterMark,
+                    connections, sendDistribution);
         }
     }
 }
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ibm.mqlight.api.callback.CallbackService;
+import com.ibm.mqlight.api.impl.callback.ThreadPoolCallbackService;
+import com.ibm.mqlight.api.impl.network.NettyNetworkService;
+import com.ibm.mqlight.api.impl.timer.TimerServiceImpl;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+import com.ibm.mqlight.api.network.NetworkService;
+import com.ibm.mqlight.api.timer.TimerService;
+
+/**
+ * The threads, and the services built on them, that can be shared by many instances of
+ * <code>NonBlockingClient</code>.  A runtime owns a pool of threads for running callbacks into
+ * application code, a thread for running timers, and a Netty event loop group for network I/O.
+ * Each client created with {@link NonBlockingClient#create(String, ClientOptions, ClientRuntime, NonBlockingClientListener, Object)}
+ * uses these, rather than creating a callback thread pool of its own.  For example:
+ * <pre>
+ * ClientRuntime runtime = ClientRuntime.builder().setCallbackThreads(8).build();
+ * NonBlockingClient client1 = NonBlockingClient.create("amqp://localhost", null, runtime, listener, null);
+ * NonBlockingClient client2 = NonBlockingClient.create("amqp://localhost", null, runtime, listener, null);
+ * ...
+ * runtime.shutdown();
+ * runtime.awaitTermination(10, TimeUnit.SECONDS);
+ * </pre>
+ * The clients using a runtime should all be stopped before the runtime is shut down.
+ */
+public class ClientRuntime {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClientRuntime.class);
+
+    private final ThreadPoolCallbackService callbackService;
+    private final ScheduledThreadPoolExecutor timerExecutor;
+    private final TimerService timerService;
+    private final EventLoopGroup eventLoopGroup;
+    private final NetworkService networkService;
+    private final boolean eventLoopAffinity;
+    private final AtomicBoolean shutdown = new AtomicBoolean(false);
+
+    private ClientRuntime(int callbackThreads, int networkThreads, boolean eventLoopAffinity) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, callbackThreads, networkThreads, eventLoopAffinity);
+
+        callbackService = new ThreadPoolCallbackService(callbackThreads);
+        timerExecutor = TimerServiceImpl.newExecutor();
+        timerService = new TimerServiceImpl(timerExecutor);
+        eventLoopGroup = new NioEventLoopGroup(networkThreads);
+        networkService = new NettyNetworkService(eventLoopGroup);
+        this.eventLoopAffinity = eventLoopAffinity;
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * @return the service used to run callbacks into application code, for clients using this runtime.
+     */
+    public CallbackService getCallbackService() {
+        return callbackService;
+    }
+
+    /**
+     * @return the service used to make network connections, for clients using this runtime.
+     */
+    public NetworkService getNetworkService() {
+        return networkService;
+    }
+
+    /**
+     * @return the service used to schedule timers, for clients using this runtime.
+     */
+    public TimerService getTimerService() {
+        return timerService;
+    }
+
+    /**
+     * @return <code>true</code> if each client's protocol processing runs on the network event loop
+     *         thread of its connection.
+     * @see ClientRuntimeBuilder#setEventLoopAffinity(boolean)
+     */
+    public boolean getEventLoopAffinity() {
+        return eventLoopAffinity;
+    }
+
+    /**
+     * @return <code>true</code> if {@link #shutdown()} has been called.
+     */
+    public boolean isShutdown() {
+        return shutdown.get();
+    }
+
+    /**
+     * Starts an orderly shut down of the threads owned by this runtime.  Callbacks which have
+     * already been scheduled are still run, but no further clients can be created using this runtime.
+     * Calling this method more than once has no further effect.
+     */
+    public void shutdown() {
+        final String methodName = "shutdown";
+        logger.entry(this, methodName);
+
+        if (!shutdown.getAndSet(true)) {
+            callbackService.shutdown();
+            timerExecutor.shutdown();
+            eventLoopGroup.shutdownGracefully(0, 500, TimeUnit.MILLISECONDS);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Waits for the threads owned by this runtime to end, after {@link #shutdown()} has been called.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of <code>timeout</code>.
+     * @return <code>true</code> if all of the threads have ended, or <code>false</code> if the
+     *         timeout elapsed first.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final String methodName = "awaitTermination";
+        logger.entry(this, methodName, timeout, unit);
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final boolean terminated = callbackService.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                && timerExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                && eventLoopGroup.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+        logger.exit(this, methodName, terminated);
+
+        return terminated;
+    }
+
+    /**
+     * @return a new instance of <code>ClientRuntimeBuilder</code>, used to create a runtime.
+     */
+    public static ClientRuntimeBuilder builder() {
+        return new ClientRuntimeBuilder();
+    }
+
+    /**
+     * A builder for <code>ClientRuntime</code> objects.
+     */
+    public static class ClientRuntimeBuilder {
+
+        private int callbackThreads = 5;
+        private int networkThreads = 0;
+        private boolean eventLoopAffinity = false;
+
+        private ClientRuntimeBuilder() {}
+
+        /**
+         * @param callbackThreads the maximum number of threads used to run callbacks into
+         *                        application code.  The default is 5.
+         * @return the instance of <code>ClientRuntimeBuilder</code> that this method was called on.
+         * @throws IllegalArgumentException if <code>callbackThreads</code> is less than 1.
+         */
+        public ClientRuntimeBuilder setCallbackThreads(int callbackThreads) throws IllegalArgumentException {
+            final String methodName = "setCallbackThreads";
+            logger.entry(this, methodName, callbackThreads);
+
+            if (callbackThreads < 1) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Callback threads (" + callbackThreads + ") must be at least 1.");
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+            this.callbackThreads = callbackThreads;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * @param networkThreads the number of threads used for network I/O, or 0 to use Netty's
+         *                       default (twice the number of processors).  The default is 0.
+         * @return the instance of <code>ClientRuntimeBuilder</code> that this method was called on.
+         * @throws IllegalArgumentException if <code>networkThreads</code> is negative.
+         */
+        public ClientRuntimeBuilder setNetworkThreads(int networkThreads) throws IllegalArgumentException {
+            final String methodName = "setNetworkThreads";
+            logger.entry(this, methodName, networkThreads);
+
+            if (networkThreads < 0) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Network threads (" + networkThreads + ") cannot be negative.");
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+            this.networkThreads = networkThreads;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Determines which threads run a client's protocol processing.  By default this runs on
+         * whichever thread has work for it: a network thread when data arrives, an application
+         * thread when a message is sent, or a timer thread.  When set to <code>true</code>, once
+         * a client has connected, all of its protocol processing runs on the network event loop
+         * thread that performs its connection's I/O.  This keeps each connection's state on one
+         * thread, and spreads connections across the event loop threads.
+         * @param eventLoopAffinity whether to run each client's protocol processing on its
+         *                          connection's event loop.  The default is <code>false</code>.
+         * @return the instance of <code>ClientRuntimeBuilder</code> that this method was called on.
+         */
+        public ClientRuntimeBuilder setEventLoopAffinity(boolean eventLoopAffinity) {
+            this.eventLoopAffinity = eventLoopAffinity;
+            return this;
+        }
+
+        /**
+         * @return a new instance of <code>ClientRuntime</code>, which owns the threads it was
+         *         configured with, until it is shut down.
+         */
+        public ClientRuntime build() {
+            return new ClientRuntime(callbackThreads, networkThreads, eventLoopAffinity);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of the controller that sizes the credit window for a subscription made with adaptive
+ * credit enabled (see {@link SubscribeOptions.SubscribeOptionsBuilder#setAdaptiveCredit(boolean)}).
+ * The values are a live view of the controller, updated as deliveries are received and settled.
+ */
+public interface CreditMetrics {
+
+    /**
+     * @return the most credit that will be given to the server, as set using
+     *         {@link SubscribeOptions.SubscribeOptionsBuilder#setCredit(int)}.
+     */
+    int getMaxCredit();
+
+    /**
+     * @return the current size of the credit window: the number of deliveries that the server
+     *         may have sent, but which have not yet been settled, that the controller aims for.
+     */
+    int getCreditWindow();
+
+    /**
+     * @return the number of deliveries outstanding when credit was last considered: those that
+     *         have been received but not yet settled, plus the credit the server has not yet used.
+     */
+    int getOutstanding();
+
+    /**
+     * @return the smoothed rate, in deliveries per second, at which deliveries are being settled.
+     */
+    double getSettleRate();
+
+    /**
+     * @param unit the unit to return the time in.
+     * @return the shortest recently measured time between credit being given to the server, while
+     *         the subscription had none, and the next delivery arriving.  Zero if no time has been
+     *         measured yet.
+     */
+    long getRoundTripTime(TimeUnit unit);
+}
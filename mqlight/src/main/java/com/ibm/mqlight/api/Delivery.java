@@ -55,6 +55,25 @@ public interface Delivery {
      */
     void confirm() throws StateException;
 
+    /**
+     * Confirms receipt of this delivery, together with every other delivery for the same subscription
+     * that arrived before it and which has not yet been confirmed.  The deliveries are settled together,
+     * so link credit is replenished, and the server is told of the confirmations, once for all of them.
+     * <p>
+     * Unlike {@link #confirm()}, it is not an error to call this method for a delivery that has
+     * already been confirmed: any earlier deliveries that are still unconfirmed are confirmed.
+     *
+     * @throws StateException if confirmation is not applicable or required. This is the case if any of the following
+     *                        conditions are true:
+     *                        <ul>
+     *                        <li>the quality of service is {@link QOS#AT_MOST_ONCE}.</li>
+     *                        <li>auto confirmation of delivery is enabled.</li>
+     *                        <li>the network state is such that delivery cannot be confirmed.</li>
+     *                        </ul>
+     * @see NonBlockingClient#confirm(java.util.Collection)
+     */
+    void confirmUpTo() throws StateException;
+
     /**
      * @return the quality of service used to receive the messaging being delivered.
      */
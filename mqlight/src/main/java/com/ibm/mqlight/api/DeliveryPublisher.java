@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+/**
+ * Publishes the message deliveries from a destination to a {@link DeliverySubscriber}, with the
+ * flow of messages from the server driven by the subscriber's demand: link credit is only given to
+ * the server as the subscriber requests more deliveries.  For example:
+ * <pre>
+ * NonBlockingClient client = // ... initialization code
+ *
+ * DeliveryPublisher publisher = client.createPublisher("/kittens", SubscribeOptions.builder().setCredit(100).build());
+ * publisher.subscribe(new DeliverySubscriber() {
+ *     private DeliverySubscription subscription;
+ *     public void onSubscribe(DeliverySubscription subscription) {
+ *         this.subscription = subscription;
+ *         subscription.request(10);
+ *     }
+ *     public void onNext(Delivery delivery) {
+ *         // ... process the delivery
+ *         subscription.request(1);
+ *     }
+ *     // ... other methods
+ * });
+ * </pre>
+ * The interfaces, and the rules that govern them, are those of the Reactive Streams
+ * <code>Publisher</code>, <code>Subscriber</code> and <code>Subscription</code> (and so also of
+ * <code>java.util.concurrent.Flow</code>).  This means that an adapter to either of those APIs
+ * only needs to delegate each method.
+ * <p>
+ * A publisher subscribes to the destination when a subscriber subscribes to it, and unsubscribes
+ * when the subscription is cancelled.  Only one subscriber may subscribe to each publisher.
+ */
+public interface DeliveryPublisher {
+
+    /**
+     * Subscribes to the destination, and passes its deliveries to a subscriber once it requests them.
+     * The subscriber's {@link DeliverySubscriber#onSubscribe(DeliverySubscription)} method is called
+     * first, before this method returns.  If the subscribe fails, or this publisher already has a
+     * subscriber, then the subscriber's {@link DeliverySubscriber#onError(Throwable)} method is called.
+     *
+     * @param subscriber the subscriber to pass deliveries to.
+     * @throws IllegalArgumentException if <code>subscriber</code> is <code>null</code>.
+     */
+    void subscribe(DeliverySubscriber subscriber) throws IllegalArgumentException;
+}
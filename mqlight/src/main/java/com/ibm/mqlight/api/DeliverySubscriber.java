@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+/**
+ * Receives the deliveries published by a {@link DeliveryPublisher}.  The methods of a subscriber are
+ * never called concurrently, and {@link #onNext(Delivery)} is never called more times than the
+ * number of deliveries requested.
+ */
+public interface DeliverySubscriber {
+
+    /**
+     * Called once, when the subscriber subscribes, and before any other method.  No deliveries are
+     * passed to the subscriber until they are requested using {@link DeliverySubscription#request(long)}.
+     *
+     * @param subscription the subscription, used to request deliveries or cancel the subscription.
+     */
+    void onSubscribe(DeliverySubscription subscription);
+
+    /**
+     * Called for each requested delivery.  Deliveries for subscriptions that automatically confirm
+     * deliveries are confirmed when this method returns.
+     *
+     * @param delivery the delivery, which is a {@link MalformedDelivery} if the message is malformed.
+     */
+    void onNext(Delivery delivery);
+
+    /**
+     * Called if the subscription fails, or the destination is unsubscribed from because of an error.
+     * No other method is called afterwards.
+     *
+     * @param error the reason for the failure.
+     */
+    void onError(Throwable error);
+
+    /**
+     * Called when the destination is unsubscribed from, other than by cancelling the subscription,
+     * (for example, because the client has been stopped).  No other method is called afterwards.
+     */
+    void onComplete();
+}
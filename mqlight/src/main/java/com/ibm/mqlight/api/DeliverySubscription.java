@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+/**
+ * The subscription of a {@link DeliverySubscriber} to a {@link DeliveryPublisher}.  The methods of
+ * a subscription may be called from any thread.
+ */
+public interface DeliverySubscription {
+
+    /**
+     * Requests more deliveries.  The deliveries requested, but not yet passed to the subscriber,
+     * determine the link credit given to the server - up to the credit set in the
+     * {@link SubscribeOptions} that the publisher was created with.
+     *
+     * @param n the number of additional deliveries to request.  <code>Long.MAX_VALUE</code>
+     *          requests an unbounded number of deliveries.  A value of zero or less cancels the
+     *          subscription, and passes an <code>IllegalArgumentException</code> to the subscriber's
+     *          {@link DeliverySubscriber#onError(Throwable)} method.
+     */
+    void request(long n);
+
+    /**
+     * Cancels the subscription, unsubscribing from the destination.  Deliveries that are already in
+     * flight may still be passed to the subscriber.
+     */
+    void cancel();
+}
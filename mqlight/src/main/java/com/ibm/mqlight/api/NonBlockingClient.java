@@ -20,6 +20,8 @@ package com.ibm.mqlight.api;
 
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import com.google.gson.Gson;
@@ -27,6 +29,7 @@ import com.google.gson.GsonBuilder;
 import com.ibm.mqlight.api.callback.CallbackService;
 import com.ibm.mqlight.api.endpoint.EndpointService;
 import com.ibm.mqlight.api.impl.NonBlockingClientImpl;
+import com.ibm.mqlight.api.impl.StripedNonBlockingClient;
 import com.ibm.mqlight.api.network.NetworkService;
 import com.ibm.mqlight.api.timer.TimerService;
 
@@ -101,9 +104,40 @@ public abstract class NonBlockingClient {
     public static <T> NonBlockingClient create(String service, ClientOptions options,
             NonBlockingClientListener<T> listener, T context)
     throws IllegalArgumentException {
+        if (options != null && options.getConnections() > 1) {
+            return StripedNonBlockingClient.create(service, options, listener, context);
+        }
         return new NonBlockingClientImpl(service, options, listener, context);
     }
 
+    /**
+     * Creates a new instance of the <code>NonBlockingClient</code> in starting state.  The client
+     * uses the callback, network and timer services of the specified runtime, which can be shared
+     * with many other clients.
+     * @param service a URI for the service to connect to, as for
+     *        {@link NonBlockingClient#create(String, ClientOptions, NonBlockingClientListener, Object)}.
+     * @param options a set of options that determine the behaviour of the client.
+     * @param runtime the runtime providing the threads that the client uses.  Cannot be null.
+     * @param listener a listener that is notified of major life-cycle events for the client.
+     * @param context a context object that is passed into the listener.  This can be used within the listener code to
+     *                identify the specific instance of the create method relating to the listener invocation.
+     * @param <T> the type of the context, used to propagate an arbitrary object between method calls on an
+     *            instance of this object, and the various listeners that are used to provide notification
+     *            of client related events.
+     * @return a new instance of <code>NonBlockingClient</code>
+     * @throws IllegalArgumentException thrown if one or more of the <code>options</code> is not valid, or if
+     *                                  <code>runtime</code> is null.
+     * @throws IllegalStateException thrown if <code>runtime</code> has been shut down.
+     */
+    public static <T> NonBlockingClient create(String service, ClientOptions options, ClientRuntime runtime,
+            NonBlockingClientListener<T> listener, T context)
+    throws IllegalArgumentException, IllegalStateException {
+        if (options != null && options.getConnections() > 1) {
+            return StripedNonBlockingClient.create(service, options, runtime, listener, context);
+        }
+        return new NonBlockingClientImpl(service, options, runtime, listener, context);
+    }
+
     /**
      * Creates a new instance of the <code>NonBlockingClient</code> in starting state.  The client
      * will use the set of plugable services, provided as arguments to this method.
@@ -131,6 +165,9 @@ public abstract class NonBlockingClient {
                                                NonBlockingClientListener<T>listener,
                                                T context)
     throws IllegalArgumentException {
+        if (options != null && options.getConnections() > 1) {
+            return StripedNonBlockingClient.create(endpointService, callbackService, networkService, timerService, gsonBuilder, options, listener, context);
+        }
         return new NonBlockingClientImpl(endpointService, callbackService, networkService, timerService, gsonBuilder, options, listener, context);
     }
 
@@ -318,6 +355,36 @@ public abstract class NonBlockingClient {
      */
     public abstract <T> boolean sendJson(String topic, String json, Map<String, Object> properties, SendOptions sendOptions, CompletionListener<T> listener, T context)
             throws StoppedException, IllegalArgumentException;
+
+    /**
+     * Sends a batch of messages to a topic.  This is equivalent to calling one of the <code>send</code> methods for each
+     * item in the batch, except that the whole batch is passed to the client's network processing as a single unit of
+     * work and is flushed to the network in a single write.  This significantly reduces the per-message overhead when
+     * sending bursts of small messages.
+     * @param topic the topic to send the messages to. Cannot be null.
+     * @param data the messages to send, in the order they should be sent.  Each item must be either a <code>String</code>
+     *             or a <code>ByteBuffer</code>.  Cannot be null or empty.
+     * @param properties a {@link Map} of properties that will be carried alongside each of the messages.  Keys must be
+     *                   non-null and values must be one of the following types: <code>null</code>, <code>Boolean</code>,
+     *                   <code>Byte</code>, <code>Short</code>, <code>Integer</code>, <code>Long</code>, <code>Float</code>,
+     *                   <code>Double</code>, <code>byte[]</code>, and <code>String</code>.
+     * @param sendOptions a set of options that determine how the send operation works.  These apply to every message in
+     *                    the batch.
+     * @param listener a listener object that is notified once every message in the batch has been sent.  This is
+     *                 notified of success if every message was sent successfully (using the same criteria as the
+     *                 <code>send</code> methods) or, otherwise, of the first error reported for any message in the batch.
+     * @param context a context object that is passed into the listener.
+     * @param <T> the type of the context, used to propagate an arbitrary object between method calls on an
+     *            instance of this object, and the various listeners that are used to provide notification
+     *            of client related events.
+     * @return a <code>boolean</code> <code>true</code> if the messages were sent
+     *         immediately, or <code>false</code> if the messages were buffered in
+     *         memory due to a backlog of messages to send over the network)
+     * @throws StoppedException if the client is in stopped or stopping state when this method is invoked.
+     * @throws IllegalArgumentException if an invalid value is specified for one of the arguments.
+     */
+    public abstract <T> boolean sendBatch(String topic, List<?> data, Map<String, Object> properties, SendOptions sendOptions, CompletionListener<T> listener, T context)
+            throws StoppedException, IllegalArgumentException;
     /**
      * Send a message to the MQ Light server.  This is equivalent to calling:
      * <code>send(topic, data, properties, SendOptions.builder().build(), listener, context)</code>
@@ -680,6 +747,51 @@ public abstract class NonBlockingClient {
         return subscribe(topicPattern, defaultSubscribeOptions, destListener, compListener, context);
     }
 
+    /**
+     * Subscribes to a destination, returning a {@link PullSubscription} that the application polls
+     * for deliveries, instead of passing them to a {@link DestinationListener}.  Deliveries are held
+     * in a prefetch buffer, bounded by the credit set in <code>subOptions</code>, and link credit is
+     * only given back to the server as the application takes deliveries from the buffer.
+     * <p>
+     * The batch size, batch delay and ordering options do not apply to a pull subscription.  The
+     * subscription is ended by calling {@link #unsubscribe(String, String, int, CompletionListener, Object)}
+     * in the same way as for any other subscription.
+     *
+     * @param topicPattern the topic pattern to subscribe to.  Cannot be null.
+     * @param subOptions a set of options that control the behaviour of the destination subscribed to
+     *                   and influence how this client receives messages from the destination.
+     * @param compListener a listener that is notified when the subscribe operation completes.  If a
+     *                     value of <code>null</code> is specified then no-one is notified.
+     * @param context a context object that is passed into the listener registered using this method.
+     * @param <T> the type of the context.
+     * @return the subscription, from which deliveries can be polled once the subscribe operation
+     *         completes.
+     * @throws SubscribedException if the client is already subscribed to the destination identified by a combination
+     *                             of the topic pattern and share options.
+     * @throws StoppedException if the client is in stopped or stopping state when this method is invoked.
+     * @throws IllegalArgumentException if an invalid value is specified for one of the arguments.
+     */
+    public abstract <T> PullSubscription pullSubscribe(String topicPattern, SubscribeOptions subOptions,
+                                                       CompletionListener<T> compListener, T context)
+    throws SubscribedException, StoppedException, IllegalArgumentException;
+
+    /**
+     * Creates a {@link DeliveryPublisher}, which subscribes to a destination when a
+     * {@link DeliverySubscriber} subscribes to it.  Link credit for the destination is only given to
+     * the server as the subscriber requests deliveries, up to the credit set in <code>subOptions</code>.
+     * <p>
+     * Deliveries are always passed to the subscriber in order, so ordering by message key is not
+     * applied to the deliveries of a publisher.
+     *
+     * @param topicPattern the topic pattern to subscribe to.  Cannot be null.
+     * @param subOptions a set of options that control the behaviour of the destination subscribed to
+     *                   and influence how this client receives messages from the destination.
+     * @return the publisher.
+     * @throws IllegalArgumentException if an invalid value is specified for one of the arguments.
+     */
+    public abstract DeliveryPublisher createPublisher(String topicPattern, SubscribeOptions subOptions)
+    throws IllegalArgumentException;
+
     /**
      * Unsubscribes from a destination.  Once complete, this stops messages received by the destination
      * from being sent to this client.
@@ -803,4 +915,37 @@ public abstract class NonBlockingClient {
     throws UnsubscribedException, StoppedException, IllegalArgumentException {
         return unsubscribe(topicPattern, null, listener, context);
     }
+
+    /**
+     * Confirms receipt of a number of deliveries.  This has the same effect as calling
+     * {@link Delivery#confirm()} for each of the deliveries, but the deliveries are settled together -
+     * so link credit is replenished, and the server is told of the confirmations, once for the whole
+     * collection.  This suits applications that confirm deliveries after committing the work they
+     * represent in batches.
+     * <p>
+     * Each delivery is checked before any of them are confirmed, so that if an exception is thrown
+     * none of the deliveries will have been confirmed.
+     *
+     * @param deliveries the deliveries to confirm.  Each delivery must have been received by this
+     *                   client.
+     * @throws StateException if confirmation is not applicable to one or more of the deliveries, for
+     *                        any of the reasons described by {@link Delivery#confirm()}.
+     * @throws IllegalArgumentException if <code>deliveries</code> is <code>null</code>, or contains a
+     *                                  <code>null</code> value or a delivery that was not received by
+     *                                  this client.
+     * @see Delivery#confirmUpTo()
+     */
+    public abstract void confirm(Collection<? extends Delivery> deliveries) throws StateException, IllegalArgumentException;
+
+    /**
+     * Returns the state of the controller that sizes the credit window for a subscription made with
+     * adaptive credit enabled (see {@link SubscribeOptions.SubscribeOptionsBuilder#setAdaptiveCredit(boolean)}).
+     *
+     * @param topicPattern the topic pattern that was subscribed to.
+     * @param share the share name that was subscribed with, or <code>null</code> for a private destination.
+     * @return a live view of the controller's state, or <code>null</code> if the client is not subscribed
+     *         to the destination, or did not subscribe with adaptive credit enabled.
+     * @throws IllegalArgumentException if <code>topicPattern</code> is <code>null</code>.
+     */
+    public abstract CreditMetrics getCreditMetrics(String topicPattern, String share) throws IllegalArgumentException;
 }
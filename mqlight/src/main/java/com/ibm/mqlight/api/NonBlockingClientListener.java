@@ -80,6 +80,10 @@ public interface NonBlockingClientListener<T> {
      * Called as a notification when the client has flushed any buffered messages to the network. This notification
      * can be used in conjunction with the value returned by a {@link NonBlockingClient#send} method to efficiently
      * send messages without buffering a large number of messages in memory allocated by the client.
+     * <p>
+     * The notification is delivered, after a send method has returned <code>false</code>, once the amount of buffered
+     * message data falls to, or below, the low water mark set using
+     * {@link ClientOptions.ClientOptionsBuilder#setWaterMarks(long, long)}.
      * 
      * @param client a reference to the client that the listener was registered for and this notification pertains to.
      * @param context the context object that was specified when the listener was registered.
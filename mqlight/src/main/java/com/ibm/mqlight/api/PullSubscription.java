@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A subscription from which the application fetches message deliveries, when it has capacity to
+ * process them, rather than having them passed to a {@link DestinationListener}.  For example:
+ * <pre>
+ * NonBlockingClient client = // ... initialization code
+ *
+ * SubscribeOptions opts = SubscribeOptions.builder().setCredit(500).build();
+ * PullSubscription subscription = client.pullSubscribe("/kittens", opts, null, null);
+ * while (!subscription.isUnsubscribed()) {
+ *     List&lt;Delivery&gt; deliveries = subscription.poll(1, TimeUnit.SECONDS, 100);
+ *     // ... process the deliveries
+ * }
+ * </pre>
+ * Deliveries are held in a prefetch buffer until they are polled.  The buffer is bounded by the
+ * credit set using {@link SubscribeOptions.SubscribeOptionsBuilder#setCredit(int)}: link credit is
+ * only given back to the server as deliveries are taken from the buffer (or, for an at least once
+ * subscription that does not automatically confirm deliveries, as the deliveries are confirmed).
+ * <p>
+ * Deliveries are created, and automatically confirmed (if applicable), on the thread that polls
+ * for them.  Instances may be polled from any number of threads.
+ */
+public interface PullSubscription {
+
+    /**
+     * Takes deliveries from the prefetch buffer, waiting for at least one delivery to arrive if the
+     * buffer is empty.  Malformed messages are returned, as {@link MalformedDelivery} instances,
+     * alongside the other deliveries.
+     * <p>
+     * When the subscription uses pooled deliveries (see
+     * {@link SubscribeOptions.SubscribeOptionsBuilder#setPooledDeliveries(boolean)}), each
+     * {@link BytesDelivery} returned holds a reference to the pooled buffer containing its data.
+     * The application must call {@link BytesDelivery#release()} once it has finished with the data.
+     *
+     * @param timeout the longest time to wait for a delivery.  Zero returns straight away.
+     * @param unit the unit of <code>timeout</code>.
+     * @param maxMessages the most deliveries to return.
+     * @return the deliveries, in the order that they were received.  This is empty if no delivery
+     *         arrived within the timeout, or the subscription has ended and the buffer is empty.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     * @throws IllegalArgumentException if <code>timeout</code> is negative, <code>unit</code> is
+     *                                  <code>null</code> or <code>maxMessages</code> is less than 1.
+     */
+    List<Delivery> poll(long timeout, TimeUnit unit, int maxMessages) throws InterruptedException, IllegalArgumentException;
+
+    /**
+     * @return the number of deliveries held in the prefetch buffer.
+     */
+    int getBufferedCount();
+
+    /**
+     * @return <code>true</code> once the client has been unsubscribed from the destination (for
+     *         example, by calling {@link NonBlockingClient#unsubscribe(String, String, CompletionListener, Object)},
+     *         or because the client has stopped).  Deliveries still in the prefetch buffer at
+     *         this point are discarded.
+     */
+    boolean isUnsubscribed();
+}
@@ -37,14 +37,16 @@ public class SendOptions {
     private final QOS qos;
     private final long ttl;
     private final boolean retainLink;
+    private final boolean batchedCompletion;
 
-    private SendOptions(QOS qos, long ttl, boolean retainLink) {
+    private SendOptions(QOS qos, long ttl, boolean retainLink, boolean batchedCompletion) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, qos, ttl);
+        logger.entry(this, methodName, qos, ttl, retainLink, batchedCompletion);
 
         this.qos = qos;
         this.ttl = ttl;
         this.retainLink = retainLink;
+        this.batchedCompletion = batchedCompletion;
 
         logger.exit(this, methodName);
     }
@@ -61,6 +63,10 @@ public class SendOptions {
         return retainLink;
     }
 
+    public final boolean getBatchedCompletion() {
+        return batchedCompletion;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(super.toString());
@@ -70,6 +76,8 @@ public class SendOptions {
           .append(ttl)
           .append(", retainLink=")
           .append(retainLink)
+          .append(", batchedCompletion=")
+          .append(batchedCompletion)
           .append("]");
         return sb.toString();
     }
@@ -89,6 +97,7 @@ public class SendOptions {
         private QOS qos = QOS.AT_MOST_ONCE;
         private long ttl = 0;
         private boolean retainLink = true;
+        private boolean batchedCompletion = false;
 
         private SendOptionsBuilder() {}
 
@@ -158,12 +167,36 @@ public class SendOptions {
 
             return this;
         }
+
+        /**
+         * Set the batchedCompletion option.  False by default, when set to true the client notifies the
+         * successful completion of messages that complete together (for example, messages sent "at least
+         * once" that are confirmed by the same data received from the server) from a single callback,
+         * rather than running a separate callback for each message.  If the completion listener is a
+         * {@link BatchCompletionListener} then it is passed the context of each message in a single call to
+         * {@link BatchCompletionListener#onSuccessBatch(NonBlockingClient, java.util.List)}; otherwise its
+         * <code>onSuccess</code> method is called for each message in turn.
+         * @param batchedCompletion true if successful completions should be notified in batches.
+         * @return the instance of <code>SendOptionsBuilder</code> that this method was
+         *         called on.
+         */
+        public SendOptionsBuilder setBatchedCompletion(boolean batchedCompletion) {
+            final String methodName = "setBatchedCompletion";
+            logger.entry(this, methodName, batchedCompletion);
+
+            this.batchedCompletion = batchedCompletion;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
         /**
          * @return an instance of SendOptions based on the current settings of
          *         this builder.
          */
         public SendOptions build() {
-            return new SendOptions(qos, ttl, retainLink);
+            return new SendOptions(qos, ttl, retainLink, batchedCompletion);
         }
     }
 
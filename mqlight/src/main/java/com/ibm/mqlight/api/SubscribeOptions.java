@@ -35,21 +35,60 @@ public class SubscribeOptions {
 
     private static final Logger logger = LoggerFactory.getLogger(SubscribeOptions.class);
 
+    /**
+     * Determines which message deliveries, arriving at a subscription, must be passed to
+     * the application's {@link DestinationListener} in the order that they were received.
+     * Deliveries that do not need to be ordered relative to one another may be passed to
+     * the listener concurrently, using different threads.
+     */
+    public enum Ordering {
+        /**
+         * Deliveries are ordered with respect to all other callbacks made by the client.
+         * This is the default.
+         */
+        CLIENT,
+        /**
+         * Deliveries are ordered with respect to other deliveries for the same subscription.
+         * Deliveries for different subscriptions may be processed concurrently.
+         */
+        SUBSCRIPTION,
+        /**
+         * Deliveries are ordered with respect to other deliveries, for the same subscription,
+         * that carry the same value for a named message property (see
+         * {@link SubscribeOptionsBuilder#setOrderingKey(String)}).  Deliveries that do not
+         * carry the property are ordered with respect to each other.
+         */
+        MESSAGE_KEY
+    }
+
     private final boolean autoConfirm;
     private final int credit;
     private final QOS qos;
     private final String shareName;
     private final long ttl;
-
-    private SubscribeOptions(boolean autoConfirm, int credit, QOS qos, String shareName, long ttl) {
+    private final Ordering ordering;
+    private final String orderingKey;
+    private final boolean pooledDeliveries;
+    private final int batchSize;
+    private final long batchDelay;
+    private final boolean adaptiveCredit;
+
+    private SubscribeOptions(boolean autoConfirm, int credit, QOS qos, String shareName, long ttl, Ordering ordering, String orderingKey,
+                             boolean pooledDeliveries, int batchSize, long batchDelay, boolean adaptiveCredit) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, autoConfirm, credit, qos, shareName, ttl);
+        logger.entry(this, methodName, autoConfirm, credit, qos, shareName, ttl, ordering, orderingKey, pooledDeliveries, batchSize, batchDelay, adaptiveCredit);
 
         this.autoConfirm = autoConfirm;
         this.credit = credit;
         this.qos = qos;
         this.shareName = shareName;
         this.ttl = ttl;
+        this.ordering = ordering;
+        this.orderingKey = orderingKey;
+        this.pooledDeliveries = pooledDeliveries;
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+        this.adaptiveCredit = adaptiveCredit;
 
         logger.exit(this, methodName);
     }
@@ -74,6 +113,33 @@ public class SubscribeOptions {
         return ttl;
     }
 
+    public Ordering getOrdering() {
+        return ordering;
+    }
+
+    public String getOrderingKey() {
+        return orderingKey;
+    }
+
+    public boolean getPooledDeliveries() {
+        return pooledDeliveries;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the batch delay, in milliseconds.
+     */
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    public boolean getAdaptiveCredit() {
+        return adaptiveCredit;
+    }
+
     @Override
     public String toString() {
         return super.toString()
@@ -81,7 +147,13 @@ public class SubscribeOptions {
                 + ", credit=" + credit
                 + ", qos=" + qos
                 + ", share=" + shareName
-                + ", ttl=" + ttl + "]";
+                + ", ttl=" + ttl
+                + ", ordering=" + ordering
+                + ", orderingKey=" + orderingKey
+                + ", pooledDeliveries=" + pooledDeliveries
+                + ", batchSize=" + batchSize
+                + ", batchDelay=" + batchDelay
+                + ", adaptiveCredit=" + adaptiveCredit + "]";
     }
 
     /**
@@ -101,6 +173,12 @@ public class SubscribeOptions {
         private QOS qos = QOS.AT_MOST_ONCE;
         private String shareName = null;
         private long ttl = 0;
+        private Ordering ordering = Ordering.CLIENT;
+        private String orderingKey = null;
+        private boolean pooledDeliveries = false;
+        private int batchSize = 1024;
+        private long batchDelay = 0;
+        private boolean adaptiveCredit = false;
 
         private SubscribeOptionsBuilder() {}
 
@@ -256,12 +334,165 @@ public class SubscribeOptions {
             return this;
         }
 
+        /**
+         * Determines which deliveries must be passed to the destination listener in the order
+         * they were received.  The default, if this option is not set, is
+         * {@link Ordering#CLIENT} - meaning that all deliveries are processed, one at a time,
+         * in the same order as every other callback made by the client.
+         * @param ordering the required ordering, either {@link Ordering#CLIENT} or
+         *                 {@link Ordering#SUBSCRIPTION}.  To order deliveries based on a
+         *                 message property use {@link #setOrderingKey(String)}.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if an invalid <code>ordering</code> value is specified.
+         */
+        public SubscribeOptionsBuilder setOrdering(Ordering ordering) throws IllegalArgumentException {
+            final String methodName = "setOrdering";
+            logger.entry(this, methodName, ordering);
+
+            if (ordering == null) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Ordering value cannot be null");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            if (ordering == Ordering.MESSAGE_KEY) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Ordering by message key requires a property name, use setOrderingKey instead");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            this.ordering = ordering;
+            this.orderingKey = null;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Orders deliveries based on the value of a message property.  Deliveries that carry the
+         * same value for the property are passed to the destination listener in the order they
+         * were received, while deliveries with different values may be processed concurrently.
+         * Calling this method sets the ordering to {@link Ordering#MESSAGE_KEY}.
+         * @param propertyName the name of the message property whose value is used as the ordering
+         *                     key.  Cannot be null or empty.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if an invalid <code>propertyName</code> value is specified.
+         */
+        public SubscribeOptionsBuilder setOrderingKey(String propertyName) throws IllegalArgumentException {
+            final String methodName = "setOrderingKey";
+            logger.entry(this, methodName, propertyName);
+
+            if (propertyName == null || propertyName.isEmpty()) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Ordering key property name cannot be null or empty");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            this.ordering = Ordering.MESSAGE_KEY;
+            this.orderingKey = propertyName;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Determines whether the payload of bytes deliveries is left in the (pooled) buffer that
+         * the client received it into, rather than being copied into a new array for each message.
+         * @param pooledDeliveries When set to <code>true</code> the {@link BytesDelivery#getData()}
+         *                         method returns a read-only view of the pooled buffer.  The buffer is
+         *                         returned to the pool when the
+         *                         {@code DestinationListener#onMessage(NonBlockingClient, Object, Delivery)}
+         *                         method returns, unless the application calls {@link BytesDelivery#retain()}
+         *                         (in which case it must later call {@link BytesDelivery#release()}).
+         *                         Bytes deliveries polled from a {@link PullSubscription} hold the
+         *                         reference to their buffer, so the application must call
+         *                         {@link BytesDelivery#release()} once it has finished with each one.
+         *                         When set to <code>false</code> (the default) the payload is copied, and
+         *                         the data belongs to the application.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         */
+        public SubscribeOptionsBuilder setPooledDeliveries(boolean pooledDeliveries) {
+            this.pooledDeliveries = pooledDeliveries;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of deliveries that are passed to a {@link BatchDestinationListener}
+         * with a single call.  This option only applies when the destination listener is a
+         * <code>BatchDestinationListener</code>.
+         * @param batchSize the maximum batch size, which must be greater than 0.  The default if
+         *                  this is not specified is 1024.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if an invalid <code>batchSize</code> value is specified.
+         */
+        public SubscribeOptionsBuilder setBatchSize(int batchSize) throws IllegalArgumentException {
+            final String methodName = "setBatchSize";
+            logger.entry(this, methodName, batchSize);
+
+            if (batchSize < 1) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Batch size '" + batchSize + "' is invalid, must be > 0");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            this.batchSize = batchSize;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the longest time that a delivery is held back, waiting for further deliveries to
+         * arrive, before it is passed to a {@link BatchDestinationListener}.  This option only
+         * applies when the destination listener is a <code>BatchDestinationListener</code>.
+         * @param batchDelay the maximum delay, the default being 0 - meaning that a batch is made
+         *                   up of the deliveries that arrive from the network at the same time.
+         *                   This must not be negative.
+         * @param unit {@link TimeUnit} of the given {@code batchDelay} argument
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if an invalid <code>batchDelay</code> value is specified.
+         */
+        public SubscribeOptionsBuilder setBatchDelay(long batchDelay, TimeUnit unit) throws IllegalArgumentException {
+            final String methodName = "setBatchDelay";
+            logger.entry(this, methodName, batchDelay, unit);
+
+            if (batchDelay < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Batch delay '" + batchDelay + "' is invalid, must be >= 0");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            this.batchDelay = TimeUnit.MILLISECONDS.convert(batchDelay, unit);
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Determines whether the amount of credit given to the server is adjusted to suit how
+         * quickly messages are being processed.  In adaptive mode the credit window is sized from
+         * the measured rate at which deliveries are settled and the round trip time to the server,
+         * so that a fast consumer does not stall waiting for credit to be replenished, and a slow
+         * consumer does not buffer many more messages than it can process.  The value set using
+         * {@link #setCredit(int)} becomes the most credit that will be given.
+         * <p>
+         * The state of the adaptive credit controller is available from
+         * {@link NonBlockingClient#getCreditMetrics(String, String)}.
+         *
+         * @param adaptiveCredit <code>true</code> to size the credit window adaptively, or
+         *                       <code>false</code> (the default) for a fixed window of credit.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         */
+        public SubscribeOptionsBuilder setAdaptiveCredit(boolean adaptiveCredit) {
+            this.adaptiveCredit = adaptiveCredit;
+            return this;
+        }
+
         /**
          * @return an instance of SubscribeOptions based on the current settings of
          *         this builder.
          */
         public SubscribeOptions build() {
-            return new SubscribeOptions(autoConfirm, credit, qos, shareName, ttl);
+            return new SubscribeOptions(autoConfirm, credit, qos, shareName, ttl, ordering, orderingKey, pooledDeliveries, batchSize, batchDelay, adaptiveCredit);
         }
     }
 }
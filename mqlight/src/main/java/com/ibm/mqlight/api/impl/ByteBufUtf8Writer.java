@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Writer;
+
+/**
+ * A {@link Writer} that encodes characters as UTF-8 directly into a Netty {@link ByteBuf}, which
+ * grows as required.  This allows JSON to be serialized into an encode buffer without building an
+ * intermediate <code>String</code> (or the byte array that encoding the string would require).
+ * <p>
+ * As with {@link String#getBytes(java.nio.charset.Charset)}, unpaired surrogates are encoded as
+ * <code>'?'</code>.  Instances are intended to be reused, by calling {@link #setByteBuf(ByteBuf)}
+ * before each use.
+ */
+class ByteBufUtf8Writer extends Writer {
+
+    private static final byte REPLACEMENT = '?';
+
+    private ByteBuf buf;
+    private char highSurrogate = 0;
+
+    void setByteBuf(ByteBuf buf) {
+        this.buf = buf;
+        highSurrogate = 0;
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        for (int i = off; i < off + len; ++i) {
+            writeChar(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        for (int i = off; i < off + len; ++i) {
+            writeChar(str.charAt(i));
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) {
+        final CharSequence sequence = csq == null ? "null" : csq;
+        for (int i = start; i < end; ++i) {
+            writeChar(sequence.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+        final CharSequence sequence = csq == null ? "null" : csq;
+        return append(sequence, 0, sequence.length());
+    }
+
+    private void writeChar(char c) {
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int codePoint = Character.toCodePoint(high, c);
+                buf.writeByte(0xf0 | (codePoint >> 18));
+                buf.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                buf.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                buf.writeByte(0x80 | (codePoint & 0x3f));
+                return;
+            }
+            buf.writeByte(REPLACEMENT);
+        }
+
+        if (c < 0x80) {
+            buf.writeByte(c);
+        } else if (c < 0x800) {
+            buf.writeByte(0xc0 | (c >> 6));
+            buf.writeByte(0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buf.writeByte(REPLACEMENT);
+        } else {
+            buf.writeByte(0xe0 | (c >> 12));
+            buf.writeByte(0x80 | ((c >> 6) & 0x3f));
+            buf.writeByte(0x80 | (c & 0x3f));
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Characters are written straight into the buffer, so there is nothing to flush
+    }
+
+    /**
+     * Completes the encoding, writing a replacement for any trailing unpaired high surrogate.
+     * The underlying buffer is not released.
+     */
+    @Override
+    public void close() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            buf.writeByte(REPLACEMENT);
+        }
+    }
+}
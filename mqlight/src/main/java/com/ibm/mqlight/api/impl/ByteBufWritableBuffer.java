@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+import org.apache.qpid.proton.codec.WritableBuffer;
+
+/**
+ * Adapts a Netty {@link ByteBuf} so that proton can encode directly into it.  The position of
+ * the proton buffer is the writer index of the <code>ByteBuf</code>, which grows as required - so
+ * encoding never fails with a <code>BufferOverflowException</code>.
+ * <p>
+ * Instances are intended to be reused, by calling {@link #setByteBuf(ByteBuf)} before each encode.
+ */
+class ByteBufWritableBuffer implements WritableBuffer {
+
+    private ByteBuf buf;
+
+    void setByteBuf(ByteBuf buf) {
+        this.buf = buf;
+    }
+
+    @Override
+    public void put(byte b) {
+        buf.writeByte(b);
+    }
+
+    @Override
+    public void putFloat(float f) {
+        buf.writeFloat(f);
+    }
+
+    @Override
+    public void putDouble(double d) {
+        buf.writeDouble(d);
+    }
+
+    @Override
+    public void put(byte[] src, int offset, int length) {
+        buf.writeBytes(src, offset, length);
+    }
+
+    @Override
+    public void putShort(short s) {
+        buf.writeShort(s);
+    }
+
+    @Override
+    public void putInt(int i) {
+        buf.writeInt(i);
+    }
+
+    @Override
+    public void putLong(long l) {
+        buf.writeLong(l);
+    }
+
+    @Override
+    public boolean hasRemaining() {
+        return buf.maxWritableBytes() > 0;
+    }
+
+    @Override
+    public int remaining() {
+        return buf.maxWritableBytes();
+    }
+
+    @Override
+    public int position() {
+        return buf.writerIndex();
+    }
+
+    @Override
+    public void position(int position) {
+        if (position > buf.capacity()) {
+            buf.ensureWritable(position - buf.writerIndex());
+        }
+        buf.writerIndex(position);
+    }
+
+    @Override
+    public void put(ByteBuffer src) {
+        buf.writeBytes(src);
+    }
+
+    @Override
+    public int limit() {
+        return buf.maxCapacity();
+    }
+}
@@ -18,23 +18,48 @@
  */
 package com.ibm.mqlight.api.impl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.IllegalReferenceCountException;
+
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 import com.ibm.mqlight.api.BytesDelivery;
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
 
 class BytesDeliveryImpl extends DeliveryImpl implements BytesDelivery {
 
+    private static final Logger logger = LoggerFactory.getLogger(BytesDeliveryImpl.class);
+
     private final ByteBuffer data;
+    private final ByteBuf pooledBuf;
     
-    protected BytesDeliveryImpl(NonBlockingClientImpl client, QOS qos, String shareName, String topic, 
-                                String topicPattern, long ttl, ByteBuffer data, Map<String, Object> properties, DeliveryRequest req) {
-        super(client, qos, shareName, topic, topicPattern, ttl, properties, req);
+    protected BytesDeliveryImpl(NonBlockingClientImpl client, QOS qos, String shareName, String topicPattern,
+                                org.apache.qpid.proton.message.Message msg, ByteBuffer data, DeliveryRequest req) {
+        this(client, qos, shareName, topicPattern, msg, data, null, req);
+    }
+
+    /**
+     * @param pooledBuf the pooled buffer that <code>data</code> is a view of, or <code>null</code> if
+     *                  the data belongs to the application.
+     */
+    protected BytesDeliveryImpl(NonBlockingClientImpl client, QOS qos, String shareName, String topicPattern,
+                                org.apache.qpid.proton.message.Message msg, ByteBuffer data, ByteBuf pooledBuf, DeliveryRequest req) {
+        super(client, qos, shareName, topicPattern, msg, req);
         this.data = data;
+        this.pooledBuf = pooledBuf;
     }
     
+    /**
+     * @return <code>true</code> if the data is a view of a pooled buffer, which is released by
+     *         calling {@link #release()}.
+     */
+    boolean isPooled() {
+        return pooledBuf != null;
+    }
+
     @Override
     public Type getType() {
         return Type.BYTES;
@@ -42,7 +67,48 @@ class BytesDeliveryImpl extends DeliveryImpl implements BytesDelivery {
 
     @Override
     public ByteBuffer getData() {
+        if (pooledBuf != null && pooledBuf.refCnt() == 0) {
+            final IllegalStateException exception = new IllegalStateException("The delivery data has been released");
+            logger.throwing(this, "getData", exception);
+            throw exception;
+        }
         return data;
     }
 
+    @Override
+    public BytesDelivery retain() throws IllegalStateException {
+        final String methodName = "retain";
+        logger.entry(this, methodName);
+
+        if (pooledBuf != null) {
+            try {
+                pooledBuf.retain();
+            } catch (IllegalReferenceCountException e) {
+                final IllegalStateException exception = new IllegalStateException("The delivery data has been released", e);
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+        }
+
+        logger.exit(this, methodName, this);
+        return this;
+    }
+
+    @Override
+    public void release() throws IllegalStateException {
+        final String methodName = "release";
+        logger.entry(this, methodName);
+
+        if (pooledBuf != null) {
+            try {
+                pooledBuf.release();
+            } catch (IllegalReferenceCountException e) {
+                final IllegalStateException exception = new IllegalStateException("The delivery data has already been released", e);
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
 }
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.mqlight.api.BatchCompletionListener;
+import com.ibm.mqlight.api.CompletionListener;
+import com.ibm.mqlight.api.impl.callback.CallbackPromiseImpl;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * Collects the successful completion of a number of operations, so that their listeners can be
+ * notified from a single callback rather than from a callback each.  Consecutive completions
+ * for the same {@link BatchCompletionListener} are notified with one call to its
+ * <code>onSuccessBatch</code> method.
+ */
+class CompletionBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompletionBatch.class);
+
+    private final NonBlockingClientImpl client;
+    private final List<CompletionListener<?>> listeners = new ArrayList<>();
+    private final List<Object> contexts = new ArrayList<>();
+
+    CompletionBatch(NonBlockingClientImpl client) {
+        this.client = client;
+    }
+
+    <T> void add(CompletionListener<T> listener, T context) {
+        listeners.add(listener);
+        contexts.add(context);
+    }
+
+    /**
+     * Runs a single callback that notifies all of the listeners added to the batch.
+     */
+    void dispatch() {
+        final String methodName = "dispatch";
+        logger.entry(this, methodName);
+
+        if (!listeners.isEmpty()) {
+            client.run(new Runnable() {
+                public void run() {
+                    notifyListeners();
+                }
+            }, client, new CallbackPromiseImpl(client, true));
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void notifyListeners() {
+        int index = 0;
+        while (index < listeners.size()) {
+            final CompletionListener listener = listeners.get(index);
+            if (listener instanceof BatchCompletionListener) {
+                int end = index + 1;
+                while (end < listeners.size() && listeners.get(end) == listener) {
+                    ++end;
+                }
+                ((BatchCompletionListener) listener).onSuccessBatch(client.getFacade(), new ArrayList<>(contexts.subList(index, end)));
+                index = end;
+            } else {
+                listener.onSuccess(client.getFacade(), contexts.get(index));
+                ++index;
+            }
+        }
+    }
+}
@@ -66,7 +66,7 @@ public class CompletionFuture<T> implements Promise<T> {
         if (l != null) {
           client.run(new Runnable() {
                 public void run() {
-                    l.onSuccess(client, c);
+                    l.onSuccess(client.getFacade(), c);
                 }
             }, client, new CallbackPromiseImpl(client, true));
         }
@@ -74,6 +74,33 @@ public class CompletionFuture<T> implements Promise<T> {
         logger.exit(this, methodName);
     }
     
+    /**
+     * Completes the promise successfully, adding the notification of its listener to a batch
+     * rather than running a callback just for this promise.
+     */
+    void setSuccessBatched(CompletionBatch batch) throws IllegalStateException {
+        final String methodName = "setSuccessBatched";
+        logger.entry(this, methodName, batch);
+
+        final CompletionListener<T> l;
+        final T c;
+        synchronized(this) {
+            if (complete) {
+                final IllegalStateException ex = new IllegalStateException("Promise already completed");
+                logger.throwing(this,  methodName, ex);
+                throw ex;
+            }
+            complete = true;
+            l = listener;
+            c = context;
+        }
+        if (l != null) {
+            batch.add(l, c);
+        }
+
+        logger.exit(this, methodName);
+    }
+
     public void setFailure(final Exception exception) throws IllegalStateException {
         final String methodName = "postFailure";
         logger.entry(this, methodName, exception);
@@ -94,7 +121,7 @@ public class CompletionFuture<T> implements Promise<T> {
         if (l != null) {
             client.run(new Runnable() {
                 public void run() {
-                    l.onError(client, c, cause);
+                    l.onError(client.getFacade(), c, cause);
                 }
             }, client, new CallbackPromiseImpl(client, true));
         }
@@ -122,14 +149,14 @@ public class CompletionFuture<T> implements Promise<T> {
                 else if (listener != null) {
                     callbackService.run(new Runnable() {
                         public void run() {
-                            listener.onError(client, context, cause);
+                            listener.onError(client.getFacade(), context, cause);
                         }
                     }, client, new CallbackPromiseImpl(client, true));
                 }
             } else if (listener != null) {
                 callbackService.run(new Runnable() {
                     public void run() {
-                        listener.onSuccess(client, context);
+                        listener.onSuccess(client.getFacade(), context);
                     }
                 }, client, new CallbackPromiseImpl(client, true));
             }
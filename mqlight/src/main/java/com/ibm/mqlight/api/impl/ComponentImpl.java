@@ -18,7 +18,9 @@
  */
 package com.ibm.mqlight.api.impl;
 
-import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.ibm.mqlight.api.logging.FFDCProbeId;
 import com.ibm.mqlight.api.logging.Logger;
@@ -35,46 +37,108 @@ public abstract class ComponentImpl implements Component {
         }
     };
 
-    private final LinkedList<Message> queue = new LinkedList<>();
-    private boolean scheduled = false;
+    /**
+     * The maximum number of messages delivered while holding the component
+     * monitor.  When draining on a dedicated executor, this is also the number
+     * of messages delivered before the drain is resubmitted to the executor.
+     */
+    static final int BATCH_SIZE = 64;
+
+    private final Mailbox mailbox = new Mailbox();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile Executor executor;
+    private final Runnable drainTask = new Runnable() {
+        @Override public void run() {
+            deliverMessages();
+        }
+    };
     protected final Object componentMonitor = new Object();
 
+    /**
+     * Creates a component whose messages are delivered by the thread that tells
+     * it a message while it is idle.
+     */
+    protected ComponentImpl() {
+        this(null);
+    }
+
+    /**
+     * Creates a component whose messages are delivered by the specified executor.
+     * @param executor used to deliver messages to the component, or {@code null}
+     *                 to deliver them on the thread that tells the component a
+     *                 message while it is idle.
+     */
+    protected ComponentImpl(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Changes the executor used to deliver messages to the component.  Messages are
+     * still only delivered by one thread at a time, so this can be called
+     * while messages are being delivered - including from {@link #onReceive(Message)}.
+     * @param executor used to deliver subsequent messages to the component, or
+     *                 {@code null} to deliver them on the thread that tells the
+     *                 component a message while it is idle.
+     */
+    protected void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     public void tell(Message message, Component self) {
         final String methodName = "tell";
         logger.entry(this, methodName, message, self);
 
         message.setSender(self);
-        boolean execute;
-        synchronized(queue) {
-            queue.addLast(message);
-            execute = !scheduled;
-            if (execute) scheduled = true;
-        }
-        if (execute) deliverMessages();
+        mailbox.offer(message);
+        if (scheduled.compareAndSet(false, true) && !handOff()) deliverMessages();
 
         logger.exit(this, methodName);
     }
 
+    /**
+     * Hands delivery of this component's messages to its executor, if it has one.
+     * @return {@code true} if the executor accepted the work, otherwise the caller
+     *         must deliver the messages itself.
+     */
+    private boolean handOff() {
+        final Executor executor = this.executor;
+        if (executor == null) return false;
+        try {
+            executor.execute(drainTask);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.data(this, "handOff", e);
+            return false;
+        }
+    }
+
     private void deliverMessages() {
         final String methodName = "deliverMessages";
         logger.entry(this, methodName);
 
         while(true) {
-            Message message = null;
-            synchronized(queue) {
-                if (queue.isEmpty()) {
-                    scheduled = false;
-                    break;
+            int delivered = 0;
+            synchronized(componentMonitor) {
+                Message message;
+                while (delivered < BATCH_SIZE && (message = mailbox.poll()) != null) {
+                    ++delivered;
+                    try {
+                        onReceive(message);
+                    } catch (Throwable e) {
+                        logger.ffdc(methodName, FFDCProbeId.PROBE_001, e);
+                    }
                 }
-                else message = queue.removeFirst();
             }
-            synchronized(componentMonitor) {
-              try {
-                onReceive(message);
-              } catch (Throwable e) {
-                logger.ffdc(methodName, FFDCProbeId.PROBE_001, e);
-              }
+
+            if (delivered == BATCH_SIZE) {
+                // Give an executor thread back to other work, keeping this
+                // component scheduled.
+                if (handOff()) break;
+                continue;
             }
+
+            scheduled.set(false);
+            if (mailbox.isEmpty() || !scheduled.compareAndSet(false, true)) break;
         }
 
         logger.exit(this, methodName);
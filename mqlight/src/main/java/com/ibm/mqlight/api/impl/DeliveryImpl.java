@@ -18,8 +18,12 @@
  */
 package com.ibm.mqlight.api.impl;
 
+import java.net.URI;
+import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.qpid.proton.amqp.Binary;
+
 import com.ibm.mqlight.api.Delivery;
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.StateException;
@@ -31,15 +35,23 @@ public abstract class DeliveryImpl implements Delivery {
 
     private static final Logger logger = LoggerFactory.getLogger(DeliveryImpl.class);
 
+    private static final String NOT_CONFIRMABLE_MESSAGE =
+            "Cannot confirm delivery because of either an interruption to the network "
+            + "connection to the MQ Light server, or because the client is no longer subscribed to the "
+            + "destination that the message was received from";
+
     private final NonBlockingClientImpl client;
     private final QOS qos;
     private final String share;
-    private final String topic;
     private final String topicPattern;
     private final long ttl;
-    private final Map<String, Object> properties;
     private final DeliveryRequest deliveryRequest;
-    private boolean confirmed = false;
+
+    // The topic and properties are extracted from the message the first time they are asked for,
+    // so that applications which only use the message data do not pay for them
+    private final org.apache.qpid.proton.message.Message msg;
+    private volatile String topic;
+    private volatile Map<String, Object> properties;
 
     protected DeliveryImpl(NonBlockingClientImpl client, QOS qos, String share, String topic, String topicPattern, long ttl, Map<String, Object> properties, DeliveryRequest deliveryRequest) {
         final String methodName = "<init>";
@@ -53,6 +65,36 @@ public abstract class DeliveryImpl implements Delivery {
         this.ttl = ttl;
         this.properties = properties;
         this.deliveryRequest = deliveryRequest;
+        this.msg = null;
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Creates a delivery whose topic and properties are only extracted from the message when
+     * {@link #getTopic()} and {@link #getProperties()} are called.
+     *
+     * @param msg the decoded message, or <code>null</code> if the message data could not be decoded
+     *            (in which case the delivery has an empty topic, no properties and a ttl of 0).
+     */
+    protected DeliveryImpl(NonBlockingClientImpl client, QOS qos, String share, String topicPattern,
+                           org.apache.qpid.proton.message.Message msg, DeliveryRequest deliveryRequest) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, client, qos, share, topicPattern, msg, deliveryRequest);
+
+        this.client = client;
+        this.qos = qos;
+        this.share = share;
+        this.topicPattern = topicPattern;
+        this.deliveryRequest = deliveryRequest;
+        this.msg = msg;
+        if (msg == null) {
+            ttl = 0;
+            topic = "";
+            properties = new HashMap<>();
+        } else {
+            ttl = msg.getTtl();
+        }
 
         logger.exit(this, methodName);
     }
@@ -65,25 +107,52 @@ public abstract class DeliveryImpl implements Delivery {
         final String methodName = "confirm";
         logger.entry(this, methodName);
 
+        final DeliveryRequest request = getConfirmableRequest();
+        if (!request.confirm()) {
+            if (request.isConfirmed()) {
+                throw new StateException("Delivery has already been confirmed");
+            } else {
+                throw new StateException(NOT_CONFIRMABLE_MESSAGE);
+            }
+        }
+        client.doDelivery(request);
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    public void confirmUpTo() throws StateException {
+        final String methodName = "confirmUpTo";
+        logger.entry(this, methodName);
+
+        if (!client.doDeliveriesUpTo(getConfirmableRequest())) {
+            throw new StateException(NOT_CONFIRMABLE_MESSAGE);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * @return the request to settle in order to confirm this delivery.
+     * @throws StateException if the delivery does not need to be confirmed, because it was received
+     *                        at most once or with auto confirmation enabled.
+     */
+    DeliveryRequest getConfirmableRequest() throws StateException {
         if (deliveryRequest == null) {
             if (qos == QOS.AT_MOST_ONCE) {
                 throw new StateException("Confirming the receipt of delivery is applicable only when 'at least once' quality of service has been requested");
             } else {
                 throw new StateException("Subscription has autoConfirm option set to true");
             }
-        } else {
-            if (confirmed) {
-                throw new StateException("Delivery has already been confirmed");
-            } else if (!client.doDelivery(deliveryRequest)) {
-                throw new StateException("Cannot confirm delivery because of either an interruption to the network "
-                        + "connection to the MQ Light server, or because the client is no longer subscribed to the "
-                        + "destination that the message was received from");
-            } else {
-                confirmed = true;
-            }
         }
+        return deliveryRequest;
+    }
 
-        logger.exit(this, methodName);
+    /**
+     * @return the client that received this delivery.
+     */
+    NonBlockingClientImpl getClient() {
+        return client;
     }
 
     @Override
@@ -98,7 +167,12 @@ public abstract class DeliveryImpl implements Delivery {
 
     @Override
     public String getTopic() {
-        return topic;
+        String result = topic;
+        if (result == null && msg != null) {
+            result = getTopic(msg);
+            topic = result;
+        }
+        return result;
     }
 
     @Override
@@ -113,6 +187,56 @@ public abstract class DeliveryImpl implements Delivery {
 
     @Override
     public Map<String, Object> getProperties() {
+        Map<String, Object> result = properties;
+        if (result == null && msg != null) {
+            result = getProperties(msg);
+            properties = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the topic that a message was sent to, based on the path of its address, or an empty
+     *         string if the address is not set or is not valid.
+     */
+    static String getTopic(org.apache.qpid.proton.message.Message msg) {
+        String topic = null;
+        if (msg.getAddress() != null) {
+            try {
+                topic = URI.create(msg.getAddress()).getPath();
+            } catch(IllegalArgumentException e) {
+            }
+        }
+        if (topic == null) topic = "";
+        else if (topic.startsWith("/")) topic = topic.substring(1);
+        return topic;
+    }
+
+    /**
+     * @return the application properties of a message that have a string key and a value of one
+     *         of the types that the client supports.
+     */
+    static Map<String, Object> getProperties(org.apache.qpid.proton.message.Message msg) {
+        Map<String, Object> properties = new HashMap<>();
+        if ((msg.getApplicationProperties() != null) && (msg.getApplicationProperties().getValue() != null)) {
+            Map<?, ?> msgMap = msg.getApplicationProperties().getValue();
+            for (Map.Entry<?, ?> entry : msgMap.entrySet()) {
+                if (entry.getKey() instanceof String) {
+                    Object value = entry.getValue();
+                    if (value == null) {
+                        properties.put((String)entry.getKey(), null);
+                    } else if (value instanceof Binary) {
+                        properties.put((String)entry.getKey(), ((Binary)value).getArray());
+                    } else {
+                        for (int i = 0; i < NonBlockingClientImpl.validPropertyValueTypes.length; ++i) {
+                            if (NonBlockingClientImpl.validPropertyValueTypes[i].isAssignableFrom(value.getClass())) {
+                                properties.put((String)entry.getKey(), value);
+                            }
+                        }
+                    }
+                }
+            }
+        }
         return properties;
     }
 }
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ibm.mqlight.api.CompletionListener;
+import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DeliveryPublisher;
+import com.ibm.mqlight.api.DeliverySubscriber;
+import com.ibm.mqlight.api.DeliverySubscription;
+import com.ibm.mqlight.api.DestinationListener;
+import com.ibm.mqlight.api.MalformedDelivery;
+import com.ibm.mqlight.api.NonBlockingClient;
+import com.ibm.mqlight.api.StoppedException;
+import com.ibm.mqlight.api.SubscribeOptions;
+import com.ibm.mqlight.api.SubscribedException;
+import com.ibm.mqlight.api.UnsubscribedException;
+import com.ibm.mqlight.api.impl.callback.CallbackPromiseImpl;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * Publishes the deliveries of a subscription to a single {@link DeliverySubscriber}.  This is
+ * registered as the subscription's {@link DestinationListener}, so deliveries (and the end of the
+ * subscription) are passed on through the callback service, in order.  Errors raised on the
+ * application's thread - by an invalid request, or a failure to subscribe - are passed on through
+ * the callback service too, using the same ordering context as the deliveries.
+ * <p>
+ * The subscriber's demand is accounted for by the client, on its own thread: the deliveries that
+ * have been requested but not yet received, and the link credit that has been given to the server
+ * but not yet used.  Credit is only given when the link credit falls short of the demand (capped at
+ * the subscription's credit) by at least a quarter of the subscription's credit - or has run out.
+ */
+class DeliveryPublisherImpl implements DeliveryPublisher, DeliverySubscription, DestinationListener<Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryPublisherImpl.class);
+
+    private final NonBlockingClientImpl client;
+    private final String topicPattern;
+    private final SubscribeOptions subOptions;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicBoolean subscribeRequested = new AtomicBoolean(false);
+    private final AtomicBoolean unsubscribeRequested = new AtomicBoolean(false);
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+    private volatile DeliverySubscriber subscriber;
+    // The ordering context that deliveries are passed on with, once the subscription's wrapper exists
+    private volatile Object orderingCtx;
+
+    // Only used on the client's thread
+    private long demand = 0;
+    private int linkCredit = 0;
+    NonBlockingClientImpl.SubData subData = null;
+
+    DeliveryPublisherImpl(NonBlockingClientImpl client, String topicPattern, SubscribeOptions subOptions) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, client, topicPattern, subOptions);
+
+        this.client = client;
+        this.topicPattern = topicPattern;
+        this.subOptions = subOptions;
+        this.orderingCtx = client;
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Called by the wrapper for the subscription, which passes on the deliveries.
+     */
+    void attach(DestinationListenerWrapper<?> wrapper) {
+        orderingCtx = wrapper.getOrderingContext();
+    }
+
+    @Override
+    public void subscribe(DeliverySubscriber subscriber) throws IllegalArgumentException {
+        final String methodName = "subscribe";
+        logger.entry(this, methodName, subscriber);
+
+        if (subscriber == null) {
+            final IllegalArgumentException exception = new IllegalArgumentException("DeliverySubscriber cannot be null");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new DeliverySubscription() {
+                @Override
+                public void request(long n) {}
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("The publisher already has a subscriber"));
+        } else {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+            // A subscriber that cancels from onSubscribe never has a subscription made for it
+            if (!cancelled.get()) {
+                try {
+                    client.subscribe(topicPattern, subOptions, this, new CompletionListener<Void>() {
+                        @Override
+                        public void onSuccess(NonBlockingClient client, Void context) {}
+                        @Override
+                        public void onError(NonBlockingClient client, Void context, Exception exception) {
+                            terminate(exception);
+                        }
+                    }, null);
+                    subscribeRequested.set(true);
+                } catch (SubscribedException|StoppedException e) {
+                    terminate(e);
+                }
+                // Cancelled (on another thread) while the subscription was being requested
+                if (cancelled.get()) {
+                    unsubscribe();
+                }
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    public void request(long n) {
+        final String methodName = "request";
+        logger.entry(this, methodName, n);
+
+        if (n <= 0) {
+            terminate(new IllegalArgumentException("The number of deliveries requested must be greater than zero"));
+            cancel();
+        } else if (!terminated.get()) {
+            client.tell(new InternalDemand(this, n), client);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    public void cancel() {
+        final String methodName = "cancel";
+        logger.entry(this, methodName);
+
+        if (cancelled.compareAndSet(false, true) && subscribeRequested.get()) {
+            unsubscribe();
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Unsubscribes, once only, after the subscription has been requested and then cancelled.
+     */
+    private void unsubscribe() {
+        final String methodName = "unsubscribe";
+        logger.entry(this, methodName);
+
+        if (subscribeRequested.get() && unsubscribeRequested.compareAndSet(false, true)) {
+            try {
+                client.unsubscribe(topicPattern, subOptions.getShareName(), null, null);
+            } catch (UnsubscribedException|StoppedException e) {
+                // Already unsubscribed, so there is nothing to cancel
+                logger.data(this, methodName, "Subscription already ended: {}", e);
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Passes the end of the subscription to the subscriber, unless it has cancelled the subscription
+     * or been told already.  The subscriber is told through the callback service, after any
+     * deliveries already passed to it.
+     *
+     * @param error the reason that the subscription ended, or <code>null</code> if it ended normally.
+     */
+    private void terminate(final Throwable error) {
+        if (!cancelled.get() && terminated.compareAndSet(false, true)) {
+            client.run(new Runnable() {
+                @Override
+                public void run() {
+                    if (error == null) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(error);
+                    }
+                }
+            }, orderingCtx, new CallbackPromiseImpl(client, true));
+        }
+    }
+
+    /**
+     * Adds to the number of deliveries requested.  Called on the client's thread.
+     */
+    void addDemand(long n) {
+        demand = (Long.MAX_VALUE - demand < n) ? Long.MAX_VALUE : demand + n;
+    }
+
+    /**
+     * Accounts for a delivery arriving.  Called on the client's thread.
+     */
+    void deliveryReceived() {
+        if (linkCredit > 0) --linkCredit;
+        if (demand > 0 && demand != Long.MAX_VALUE) --demand;
+    }
+
+    /**
+     * Forgets the link credit given to the server, as the link has been remade.  Called on the
+     * client's thread.
+     */
+    void linkRemade() {
+        linkCredit = 0;
+    }
+
+    /**
+     * Works out how much more link credit to give the server, and assumes that it will be given.
+     * Called on the client's thread.
+     *
+     * @param maxCredit the subscription's credit, which caps the link credit given to the server.
+     * @return the credit to give the server, or 0 for none.
+     */
+    int creditToFlow(int maxCredit) {
+        final int credit = (int)Math.min(demand, maxCredit) - linkCredit;
+        if (credit <= 0 || (linkCredit > 0 && credit < Math.max(1, maxCredit / 4))) {
+            return 0;
+        }
+        linkCredit += credit;
+        return credit;
+    }
+
+    @Override
+    public void onMessage(NonBlockingClient client, Void context, Delivery delivery) {
+        if (!terminated.get()) {
+            subscriber.onNext(delivery);
+        }
+    }
+
+    @Override
+    public void onMalformed(NonBlockingClient client, Void context, MalformedDelivery delivery) {
+        onMessage(client, context, delivery);
+    }
+
+    @Override
+    public void onUnsubscribed(NonBlockingClient client, Void context, String topicPattern, String share, Exception error) {
+        terminate(error);
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryPublisherImpl [topicPattern=" + topicPattern + ", subOptions=" + subOptions + "]";
+    }
+}
@@ -18,39 +18,71 @@
  */
 package com.ibm.mqlight.api.impl;
 
-import java.net.URI;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
-import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
 import org.apache.qpid.proton.codec.DecodeException;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.ibm.mqlight.api.BatchDestinationListener;
 import com.ibm.mqlight.api.Delivery;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.MalformedDelivery;
 import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.SubscribeOptions.Ordering;
 import com.ibm.mqlight.api.callback.CallbackService;
 import com.ibm.mqlight.api.impl.callback.CallbackPromiseImpl;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+import com.ibm.mqlight.api.impl.timer.TimerPromiseImpl;
 import com.ibm.mqlight.api.logging.Logger;
 import com.ibm.mqlight.api.logging.LoggerFactory;
+import com.ibm.mqlight.api.timer.TimerService;
 
 class DestinationListenerWrapper<T> {
 
     private static final Logger logger = LoggerFactory.getLogger(DestinationListenerWrapper.class);
 
     private final NonBlockingClientImpl client;
-    private final GsonBuilder gsonBuilder;
+    // Built once, when the subscription is made, and shared by all of its JSON deliveries
+    private final Gson gson;
     private final DestinationListener<T> listener;
     private final T context;
+    private final Ordering ordering;
+    private final String orderingKey;
+    private final boolean pooledDeliveries;
+
+    // Deliveries for a batch listener are collected here (by the client's thread) until the
+    // batch is full, the network read they arrived in has been processed, or the batch delay
+    // has elapsed.
+    private final BatchDestinationListener<T> batchListener;
+    private final int batchSize;
+    private final long batchDelay;
+    private List<DeliveryRequest> batch;
+    private QOS batchQos;
+    private boolean batchAutoConfirm;
+    private TimerPromiseImpl batchTimer = null;
+
+    // Deliveries for a pull subscription are added to its buffer, and created when polled for
+    private final PullSubscriptionImpl<T> pullSubscription;
+
+    // The number of distinct ordering contexts that message keys are hashed onto, when
+    // deliveries are ordered by message key.  Using a fixed set of context objects keeps
+    // the same key on the same context while bounding the memory used for an unbounded
+    // number of keys.
+    static final int ORDERING_KEY_STRIPES = 32;
+    private final Object[] keyStripes;
 
     private static final Symbol malformedConditionSymbol = Symbol.getSymbol("x-opt-message-malformed-condition");
     private static final Symbol malformedDescriptionSymbol = Symbol.getSymbol("x-opt-message-malformed-description");
@@ -58,38 +90,171 @@ class DestinationListenerWrapper<T> {
     private static final Symbol malformedMQMDCCSIDSymbol = Symbol.getSymbol("x-opt-message-malformed-MQMD.CodedCharSetId");
 
     protected DestinationListenerWrapper(NonBlockingClientImpl client, GsonBuilder gsonBuilder, DestinationListener<T> listener, T context) {
+        this(client, gsonBuilder, listener, context, Ordering.CLIENT, null, false);
+    }
+
+    protected DestinationListenerWrapper(NonBlockingClientImpl client, GsonBuilder gsonBuilder, DestinationListener<T> listener, T context,
+                                         Ordering ordering, String orderingKey, boolean pooledDeliveries) {
+        this(client, gsonBuilder, listener, context, ordering, orderingKey, pooledDeliveries, 1024, 0);
+    }
+
+    protected DestinationListenerWrapper(NonBlockingClientImpl client, GsonBuilder gsonBuilder, DestinationListener<T> listener, T context,
+                                         Ordering ordering, String orderingKey, boolean pooledDeliveries, int batchSize, long batchDelay) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, gsonBuilder, listener, context);
+        logger.entry(this, methodName, client, gsonBuilder, listener, context, ordering, orderingKey, pooledDeliveries, batchSize, batchDelay);
 
         this.client = client;
-        this.gsonBuilder = gsonBuilder;
+        this.gson = gsonBuilder == null ? new Gson() : gsonBuilder.create();
         this.listener = listener;
         this.context = context;
+        if (ordering == null) {
+            this.ordering = Ordering.CLIENT;
+        } else if (ordering == Ordering.MESSAGE_KEY && listener instanceof DeliveryPublisherImpl) {
+            // A publisher's subscriber must be passed its deliveries one at a time
+            this.ordering = Ordering.SUBSCRIPTION;
+        } else {
+            this.ordering = ordering;
+        }
+        this.orderingKey = orderingKey;
+        this.pooledDeliveries = pooledDeliveries;
+        this.batchListener = listener instanceof BatchDestinationListener ? (BatchDestinationListener<T>)listener : null;
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+        this.batch = batchListener == null ? null : new ArrayList<DeliveryRequest>();
+        this.pullSubscription = listener instanceof PullSubscriptionImpl ? (PullSubscriptionImpl<T>)listener : null;
+        if (pullSubscription != null) {
+            pullSubscription.attach(this);
+        }
+        if (this.ordering == Ordering.MESSAGE_KEY) {
+            keyStripes = new Object[ORDERING_KEY_STRIPES];
+            for (int i = 0; i < keyStripes.length; ++i) keyStripes[i] = new Object();
+        } else {
+            keyStripes = null;
+        }
+        if (listener instanceof DeliveryPublisherImpl) {
+            ((DeliveryPublisherImpl)listener).attach(this);
+        }
 
         logger.exit(this, methodName);
     }
 
+    /**
+     * @return the publisher that the subscription was made for, or <code>null</code> if the
+     *         subscription was not made by a {@link DeliveryPublisherImpl}.
+     */
+    protected DeliveryPublisherImpl getDeliveryPublisher() {
+        return listener instanceof DeliveryPublisherImpl ? (DeliveryPublisherImpl)listener : null;
+    }
+
+    /**
+     * @return the ordering context used for callbacks that relate to the subscription as a whole
+     *         (for example: notification that the subscription has been unsubscribed).
+     */
+    protected Object getOrderingContext() {
+        return ordering == Ordering.CLIENT ? client : this;
+    }
+
+    /**
+     * @return every ordering context that this subscription can pass to the callback service.
+     *         The client uses this to wait for all outstanding deliveries to be processed.
+     */
+    protected Object[] getOrderingContexts() {
+        if (keyStripes == null) {
+            return new Object[] { getOrderingContext() };
+        }
+        final Object[] result = new Object[keyStripes.length + 1];
+        result[0] = getOrderingContext();
+        System.arraycopy(keyStripes, 0, result, 1, keyStripes.length);
+        return result;
+    }
+
+    /**
+     * Determines the ordering context for a delivery, when ordering by message key.
+     * @param msg the decoded message, or <code>null</code> if the message could not be decoded.
+     * @return the ordering context for the delivery.
+     */
+    private Object getKeyOrderingContext(org.apache.qpid.proton.message.Message msg) {
+        Object key = null;
+        if (msg != null && msg.getApplicationProperties() != null && msg.getApplicationProperties().getValue() != null) {
+            key = msg.getApplicationProperties().getValue().get(orderingKey);
+        }
+        if (key == null) {
+            return getOrderingContext();
+        }
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return keyStripes[(hash & 0x7fffffff) % keyStripes.length];
+    }
+
+    private static org.apache.qpid.proton.message.Message decode(ByteBuf data) {
+        try {
+            return MessageDecoder.decode(data);
+        } catch(BufferOverflowException | BufferUnderflowException | DecodeException e) {
+            return null;
+        }
+    }
+
     protected void onUnsubscribed(final CallbackService callbackService, final String topicPattern, final String share, final Exception error) {
         final String methodName = "onUnsubscribed";
         logger.entry(this, methodName, callbackService, topicPattern, share, error);
 
+        // Deliveries that arrived before the subscription ended are passed on first
+        dispatchBatch(callbackService);
+
         if (listener != null) {
             callbackService.run(new Runnable() {
                 @Override
                 public void run() {
-                    listener.onUnsubscribed(client, context, topicPattern, share, error);
+                    listener.onUnsubscribed(client.getFacade(), context, topicPattern, share, error);
                 }
-            }, client, new CallbackPromiseImpl(client, true));
+            }, getOrderingContext(), new CallbackPromiseImpl(client, true));
         }
 
         logger.exit(this, methodName);
     }
 
-    protected void onDelivery(final CallbackService callbackService, final DeliveryRequest deliveryRequest, final QOS qos, final boolean autoConfirm) {
+    /**
+     * Passes a delivery to the listener.  When the listener is a {@link BatchDestinationListener}
+     * the delivery is added to the current batch, and only passed on when the batch is full or
+     * {@link #onDeliveriesRead(CallbackService, TimerService)} is called.
+     *
+     * @return <code>true</code> if the delivery is being held in a batch that is not yet full.
+     */
+    protected boolean onDelivery(final CallbackService callbackService, final DeliveryRequest deliveryRequest, final QOS qos, final boolean autoConfirm) {
 
         final String methodName = "onDelivery";
         logger.entry(this, methodName, callbackService, deliveryRequest, qos, autoConfirm);
 
+        if (pullSubscription != null) {
+            pullSubscription.add(deliveryRequest, qos, autoConfirm);
+            logger.exit(this, methodName, false);
+            return false;
+        }
+
+        if (batchListener != null) {
+            batch.add(deliveryRequest);
+            batchQos = qos;
+            batchAutoConfirm = autoConfirm;
+            final boolean pending = batch.size() < batchSize;
+            if (!pending) {
+                dispatchBatch(callbackService);
+            }
+            logger.exit(this, methodName, pending);
+            return pending;
+        }
+
+        // When ordering by message key the message must be decoded before it is passed to the
+        // callback service, so that the key can be used to select the ordering context.
+        final org.apache.qpid.proton.message.Message decodedMsg;
+        final Object orderingCtx;
+        if (ordering == Ordering.MESSAGE_KEY) {
+            decodedMsg = decode(deliveryRequest.buf);
+            orderingCtx = getKeyOrderingContext(decodedMsg);
+        } else {
+            decodedMsg = null;
+            orderingCtx = getOrderingContext();
+        }
+
         callbackService.run(new Runnable() {
             @Override
             public void run() {
@@ -98,153 +263,286 @@ class DestinationListenerWrapper<T> {
 
                 // take ownership of the message data and release it from the DeliveryRequest, this
                 // will avoids retaining the message data until the DeliveryRequest completes
-                // settlement.  This buffer will be retained if an error occurs parsing, otherwise
-                // it will be be naturally garbage collected after this method exits
-                byte[] data = deliveryRequest.buf;
+                // settlement.  The (pooled) buffer is released when this method exits, any data
+                // handed to the application having been copied out of it - unless the subscription
+                // uses pooled deliveries, in which case the application can retain the buffer
+                final ByteBuf data = deliveryRequest.buf;
                 deliveryRequest.buf = null;
+                try {
+                    final Delivery delivery = createDelivery(deliveryRequest, decodedMsg, data, qos, autoConfirm);
+                    if (delivery instanceof MalformedDelivery) {
+                        listener.onMalformed(client.getFacade(), context, (MalformedDelivery)delivery);
+                    } else {
+                        listener.onMessage(client.getFacade(), context, delivery);
+                    }
+                } finally {
+                    if (data != null) data.release();
+                }
 
-                MalformedDelivery.MalformedReason malformedReason = null;
-                String malformedDescription = null;
-                String malformedMQMDFormat = null;
-                int malformedMQMDCCSID = 0;
+                if (autoConfirm && deliveryRequest.confirm()) {
+                    client.doDelivery(deliveryRequest);
+                }
 
-                byte[] payloadBytes = null;
-                String payloadString = null;
-                boolean payloadIsJson = false;
+                logger.exit(this, methodName);
+            }
+        }, orderingCtx, new CallbackPromiseImpl(client, true));
 
-                org.apache.qpid.proton.message.Message msg = Proton.message();
-                try {
-                    msg.decode(data, 0, data.length);
-                } catch(BufferOverflowException | BufferUnderflowException | DecodeException e) {
-                    malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
-                    malformedDescription = "The message could not be decoded because the message data is not a valid AMQP message";
+        logger.exit(this, methodName, false);
+        return false;
+    }
+
+    /**
+     * Called once all of the data from the network read, that the batched deliveries arrived in,
+     * has been processed.  The batch is passed to the listener, unless a batch delay has been set -
+     * in which case a timer is started (if it is not already running) to pass the batch on later.
+     */
+    protected void onDeliveriesRead(CallbackService callbackService, TimerService timer) {
+        final String methodName = "onDeliveriesRead";
+        logger.entry(this, methodName, callbackService, timer);
+
+        if (batchDelay == 0) {
+            dispatchBatch(callbackService);
+        } else if (batchTimer == null && !batch.isEmpty()) {
+            batchTimer = new TimerPromiseImpl(client, this);
+            timer.schedule(batchDelay, batchTimer);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Called when a timer started by {@link #onDeliveriesRead(CallbackService, TimerService)} pops.
+     * The timer is ignored if the batch it was started for has already been passed on.
+     */
+    protected void onBatchTimer(CallbackService callbackService, TimerPromiseImpl promise) {
+        final String methodName = "onBatchTimer";
+        logger.entry(this, methodName, callbackService, promise);
+
+        if (promise == batchTimer) {
+            dispatchBatch(callbackService);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    private void dispatchBatch(final CallbackService callbackService) {
+        final String methodName = "dispatchBatch";
+        logger.entry(this, methodName, callbackService);
+
+        batchTimer = null;
+        if (batchListener != null && !batch.isEmpty()) {
+            final List<DeliveryRequest> requests = batch;
+            final QOS qos = batchQos;
+            final boolean autoConfirm = batchAutoConfirm;
+            batch = new ArrayList<>();
+            callbackService.run(new Runnable() {
+                @Override
+                public void run() {
+                    final String methodName = "run";
+                    logger.entry(this, methodName);
 
-                    payloadBytes = data;
+                    deliverBatch(requests, qos, autoConfirm);
+
+                    logger.exit(this, methodName);
                 }
+            }, getOrderingContext(), new CallbackPromiseImpl(client, true));
+        }
 
-                Map<String, Object> properties = new HashMap<>();
-                if (malformedReason == null) {
-                    Object msgBodyValue = ((AmqpValue)msg.getBody()).getValue();
-                    if (msgBodyValue instanceof Binary) {
-                        Binary binaryValue = (Binary)msgBodyValue;
-                        if ((binaryValue.getArrayOffset() == 0) && (binaryValue.getArray().length == binaryValue.getLength())) {
-                            payloadBytes = binaryValue.getArray();
-                        } else {
-                            payloadBytes = new byte[binaryValue.getLength()];
-                            System.arraycopy(binaryValue.getArray(), binaryValue.getArrayOffset(), payloadBytes, 0, binaryValue.getLength());
-                        }
-                    } else if (msgBodyValue instanceof String) {
-                        payloadString = (String)msgBodyValue;
-                        payloadIsJson = "application/json".equalsIgnoreCase(msg.getContentType());
-                    } else {
-                        malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
-                        malformedDescription = "The message payload uses an AMQP format that the MQ Light client cannot process";
+        logger.exit(this, methodName);
+    }
 
-                        payloadBytes = data;
+    private void deliverBatch(List<DeliveryRequest> requests, QOS qos, boolean autoConfirm) {
+        final ByteBuf[] data = new ByteBuf[requests.size()];
+        try {
+            List<Delivery> deliveries = new ArrayList<>(requests.size());
+            for (int i = 0; i < data.length; ++i) {
+                final DeliveryRequest deliveryRequest = requests.get(i);
+                data[i] = deliveryRequest.buf;
+                deliveryRequest.buf = null;
+                final Delivery delivery = createDelivery(deliveryRequest, null, data[i], qos, autoConfirm);
+                if (delivery instanceof MalformedDelivery) {
+                    // Pass on the deliveries that arrived before the malformed one first
+                    if (!deliveries.isEmpty()) {
+                        batchListener.onMessages(client.getFacade(), context, deliveries);
+                        deliveries = new ArrayList<>(data.length - i);
                     }
+                    batchListener.onMalformed(client.getFacade(), context, (MalformedDelivery)delivery);
+                } else {
+                    deliveries.add(delivery);
+                }
+            }
+            if (!deliveries.isEmpty()) {
+                batchListener.onMessages(client.getFacade(), context, deliveries);
+            }
+        } finally {
+            for (ByteBuf buf : data) {
+                if (buf != null) buf.release();
+            }
+        }
 
-                    if ((msg.getApplicationProperties() != null) && (msg.getApplicationProperties().getValue() != null)) {
-                        Map<?, ?> msgMap = msg.getApplicationProperties().getValue();
-                        for (Map.Entry<?, ?> entry : msgMap.entrySet()) {
-                            if (entry.getKey() instanceof String) {
-                                Object value = entry.getValue();
-                                if (value == null) {
-                                    properties.put((String)entry.getKey(), null);
-                                } else if (value instanceof Binary) {
-                                    properties.put((String)entry.getKey(), ((Binary)value).getArray());
-                                } else {
-                                    for (int i = 0; i < NonBlockingClientImpl.validPropertyValueTypes.length; ++i) {
-                                        if (NonBlockingClientImpl.validPropertyValueTypes[i].isAssignableFrom(value.getClass())) {
-                                            properties.put((String)entry.getKey(), value);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
+        if (autoConfirm) {
+            for (DeliveryRequest deliveryRequest : requests) {
+                if (deliveryRequest.confirm()) {
+                    client.doDelivery(deliveryRequest);
                 }
+            }
+        }
+    }
 
-                String parts[] = new SubscriptionTopic(deliveryRequest.topicPattern).split();
-                String shareName = parts[1];
-                String topicPattern = parts[0];
-                long ttl = 0;
-                String topic = "";
-                if (malformedReason == null) {
-                    try {
-                        topic = URI.create(msg.getAddress()).getPath();
-                    } catch(IllegalArgumentException e) {
-                    }
-                    if (topic == null) topic = "";
-                    else if (topic.startsWith("/")) topic = topic.substring(1);
-                    ttl = msg.getTtl();
-
-                    if (msg.getDeliveryAnnotations() != null) {
-                        Map<Symbol, Object> annotations = msg.getDeliveryAnnotations().getValue();
-                        if (annotations.containsKey(malformedConditionSymbol) &&
-                            annotations.get(malformedConditionSymbol) instanceof Symbol) {
-                            String condition = annotations.get(malformedConditionSymbol).toString();
-                            if (condition.equals("FORMATNOMAPPING")) {
-                                malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
-                            } else if (condition.equals("JMSNOMAPPING")) {
-                                malformedReason = MalformedDelivery.MalformedReason.JMSNOMAPPING;
-                            } else if (condition.equals("PAYLOADENCODING")) {
-                                malformedReason = MalformedDelivery.MalformedReason.PAYLOADENCODING;
-                            } else if (condition.equals("PAYLOADNOTAMQP")) {
-                                malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
-                            }
-
-                            if (malformedReason != null &&
-                                annotations.containsKey(malformedDescriptionSymbol) &&
-                                annotations.get(malformedDescriptionSymbol) instanceof String) {
-                                malformedDescription = (String)annotations.get(malformedDescriptionSymbol);
-
-                                if (annotations.containsKey(malformedMQMDFormatSymbol) &&
-                                    annotations.get(malformedMQMDFormatSymbol) instanceof String) {
-                                    malformedMQMDFormat = (String)annotations.get(malformedMQMDFormatSymbol);
-                                }
-
-                                if (annotations.containsKey(malformedMQMDCCSIDSymbol) &&
-                                    annotations.get(malformedMQMDCCSIDSymbol) instanceof Integer) {
-                                    malformedMQMDCCSID = (Integer)annotations.get(malformedMQMDCCSIDSymbol);
-                                }
-                            }
-                        }
+    /**
+     * Creates the deliveries for delivery requests that have been taken from a pull subscription's
+     * buffer, confirming them if the subscription confirms automatically.  At least once deliveries
+     * that can no longer be confirmed are dropped, as the server will deliver them again.  A pooled
+     * bytes delivery is handed the reference to its buffer, which the application releases.
+     */
+    List<Delivery> takeDeliveries(List<DeliveryRequest> requests, QOS qos, boolean autoConfirm) {
+        final String methodName = "takeDeliveries";
+        logger.entry(this, methodName, requests, qos, autoConfirm);
+
+        final List<Delivery> deliveries = new ArrayList<>(requests.size());
+        for (DeliveryRequest deliveryRequest : requests) {
+            final ByteBuf data = deliveryRequest.buf;
+            deliveryRequest.buf = null;
+            boolean handedOff = false;
+            try {
+                if (qos == QOS.AT_LEAST_ONCE && deliveryRequest.isInvalidated()) {
+                    logger.data(this, methodName, "Dropping delivery that can no longer be confirmed: {}", deliveryRequest);
+                } else {
+                    final Delivery delivery = createDelivery(deliveryRequest, null, data, qos, autoConfirm);
+                    handedOff = delivery instanceof BytesDeliveryImpl && ((BytesDeliveryImpl)delivery).isPooled();
+                    deliveries.add(delivery);
+                    if (autoConfirm && deliveryRequest.confirm()) {
+                        client.doDelivery(deliveryRequest);
                     }
                 }
+            } finally {
+                if (data != null && !handedOff) data.release();
+            }
+        }
 
-                if (payloadBytes != null) {
-                    if (malformedReason == null) {
-                        BytesDeliveryImpl delivery = new BytesDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, ByteBuffer.wrap(payloadBytes), properties, autoConfirm ? null : deliveryRequest);
-                        listener.onMessage(client, context, delivery);
-                    } else {
-                        MalformedDeliveryImpl delivery = new MalformedDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, ByteBuffer.wrap(payloadBytes),
-                                properties, autoConfirm ? null : deliveryRequest, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
-                        listener.onMalformed(client, context, delivery);
-                    }
+        logger.exit(this, methodName, deliveries);
+
+        return deliveries;
+    }
+
+    /**
+     * Decodes a message, and creates the delivery to pass to the listener.
+     *
+     * @param decodedMsg the already decoded message, or <code>null</code> if the message data has
+     *                   not been decoded.
+     * @param data the message data.
+     * @return the delivery, which is a {@link MalformedDelivery} if the message is malformed.
+     */
+    private Delivery createDelivery(DeliveryRequest deliveryRequest, org.apache.qpid.proton.message.Message decodedMsg, ByteBuf data, QOS qos, boolean autoConfirm) {
+        MalformedDelivery.MalformedReason malformedReason = null;
+        String malformedDescription = null;
+        String malformedMQMDFormat = null;
+        int malformedMQMDCCSID = 0;
+
+        byte[] payloadBytes = null;
+        ByteBuffer payloadView = null;
+        String payloadString = null;
+        boolean payloadIsJson = false;
+
+        org.apache.qpid.proton.message.Message msg = decodedMsg == null ? decode(data) : decodedMsg;
+        if (msg == null) {
+            malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
+            malformedDescription = "The message could not be decoded because the message data is not a valid AMQP message";
+
+            payloadBytes = ByteBufUtil.getBytes(data);
+        }
+
+        if (malformedReason == null) {
+            Object msgBodyValue = ((AmqpValue)msg.getBody()).getValue();
+            if (msgBodyValue instanceof Binary) {
+                Binary binaryValue = (Binary)msgBodyValue;
+                if (pooledDeliveries) {
+                    payloadView = ByteBuffer.wrap(binaryValue.getArray(), binaryValue.getArrayOffset(), binaryValue.getLength()).slice().asReadOnlyBuffer();
+                } else if ((binaryValue.getArrayOffset() == 0) && (binaryValue.getArray().length == binaryValue.getLength())) {
+                    payloadBytes = binaryValue.getArray();
                 } else {
-                    if (malformedReason == null) {
-                        Delivery delivery;
-                        if (payloadIsJson) {
-                            delivery = new JsonDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadString, gsonBuilder, properties, autoConfirm ? null : deliveryRequest);
-                        } else {
-                            delivery = new StringDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadString, properties, autoConfirm ? null : deliveryRequest);
+                    payloadBytes = new byte[binaryValue.getLength()];
+                    System.arraycopy(binaryValue.getArray(), binaryValue.getArrayOffset(), payloadBytes, 0, binaryValue.getLength());
+                }
+            } else if (msgBodyValue instanceof String) {
+                payloadString = (String)msgBodyValue;
+                payloadIsJson = "application/json".equalsIgnoreCase(msg.getContentType());
+            } else {
+                malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
+                malformedDescription = "The message payload uses an AMQP format that the MQ Light client cannot process";
+
+                payloadBytes = ByteBufUtil.getBytes(data);
+            }
+        }
+
+        // The subscription was resolved when it was made, so (unless the delivery was made
+        // without reference to it) the topic needs no parsing
+        final SubscriptionTopic subscriptionTopic = deliveryRequest.subscription == null ?
+                new SubscriptionTopic(deliveryRequest.topicPattern) : deliveryRequest.subscription.getTopic();
+        String shareName = subscriptionTopic.getShare();
+        String topicPattern = subscriptionTopic.getTopicPattern();
+        // The topic and properties are left in the message until the application asks for
+        // them.  Delivery annotations are only present (and need checking) when the server
+        // has marked the message as malformed
+        if (malformedReason == null) {
+            if (msg.getDeliveryAnnotations() != null) {
+                Map<Symbol, Object> annotations = msg.getDeliveryAnnotations().getValue();
+                if (annotations.containsKey(malformedConditionSymbol) &&
+                    annotations.get(malformedConditionSymbol) instanceof Symbol) {
+                    String condition = annotations.get(malformedConditionSymbol).toString();
+                    if (condition.equals("FORMATNOMAPPING")) {
+                        malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
+                    } else if (condition.equals("JMSNOMAPPING")) {
+                        malformedReason = MalformedDelivery.MalformedReason.JMSNOMAPPING;
+                    } else if (condition.equals("PAYLOADENCODING")) {
+                        malformedReason = MalformedDelivery.MalformedReason.PAYLOADENCODING;
+                    } else if (condition.equals("PAYLOADNOTAMQP")) {
+                        malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
+                    }
+
+                    if (malformedReason != null &&
+                        annotations.containsKey(malformedDescriptionSymbol) &&
+                        annotations.get(malformedDescriptionSymbol) instanceof String) {
+                        malformedDescription = (String)annotations.get(malformedDescriptionSymbol);
+
+                        if (annotations.containsKey(malformedMQMDFormatSymbol) &&
+                            annotations.get(malformedMQMDFormatSymbol) instanceof String) {
+                            malformedMQMDFormat = (String)annotations.get(malformedMQMDFormatSymbol);
+                        }
+
+                        if (annotations.containsKey(malformedMQMDCCSIDSymbol) &&
+                            annotations.get(malformedMQMDCCSIDSymbol) instanceof Integer) {
+                            malformedMQMDCCSID = (Integer)annotations.get(malformedMQMDCCSIDSymbol);
                         }
-                        listener.onMessage(client, context, delivery);
-                    } else {
-                        MalformedDeliveryImpl delivery = new MalformedDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, ByteBuffer.wrap(payloadString.getBytes(Charset.forName("UTF-8"))),
-                                properties, autoConfirm ? null : deliveryRequest, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
-                        listener.onMalformed(client, context, delivery);
                     }
                 }
+            }
+        }
 
-                if (autoConfirm) {
-                    client.doDelivery(deliveryRequest);
+        final DeliveryRequest request = autoConfirm ? null : deliveryRequest;
+        if (payloadView != null && malformedReason == null) {
+            return new BytesDeliveryImpl(client, qos, shareName, topicPattern, msg, payloadView, data, request);
+        } else if (payloadView != null) {
+            return new MalformedDeliveryImpl(client, qos, shareName, topicPattern, msg, ByteBuffer.wrap(ByteBufUtil.getBytes(data)),
+                    request, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
+        } else if (payloadBytes != null) {
+            if (malformedReason == null) {
+                return new BytesDeliveryImpl(client, qos, shareName, topicPattern, msg, ByteBuffer.wrap(payloadBytes), request);
+            } else {
+                return new MalformedDeliveryImpl(client, qos, shareName, topicPattern, msg, ByteBuffer.wrap(payloadBytes),
+                        request, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
+            }
+        } else {
+            if (malformedReason == null) {
+                if (payloadIsJson) {
+                    return new JsonDeliveryImpl(client, qos, shareName, topicPattern, msg, payloadString, gson, request);
+                } else {
+                    return new StringDeliveryImpl(client, qos, shareName, topicPattern, msg, payloadString, request);
                 }
-
-                logger.exit(this, methodName);
+            } else {
+                return new MalformedDeliveryImpl(client, qos, shareName, topicPattern, msg, ByteBuffer.wrap(payloadString.getBytes(Charset.forName("UTF-8"))),
+                        request, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
             }
-        }, client, new CallbackPromiseImpl(client, true));
-
-        logger.exit(this, methodName);
+        }
     }
 }
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * Requests that a delivery, and all of the unconfirmed deliveries that arrived before it for the
+ * same subscription, are confirmed.  Processed by the client, which is the only component that
+ * knows which deliveries are still awaiting confirmation.
+ */
+class InternalConfirm extends Message {
+
+    private static final Logger logger = LoggerFactory.getLogger(InternalConfirm.class);
+
+    final DeliveryRequest request;
+    InternalConfirm(DeliveryRequest request) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, request);
+
+        this.request = request;
+
+        logger.exit(this, methodName);
+    }
+}
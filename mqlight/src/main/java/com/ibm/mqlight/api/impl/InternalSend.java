@@ -33,19 +33,33 @@ class InternalSend<T> extends Message implements QueueableWork {
     final ByteBuf buf;
     final int length;
     final boolean retainLink;
+    final boolean batchedCompletion;
     final CompletionFuture<T> future;
 
-    InternalSend(NonBlockingClientImpl client, String topic, QOS qos, ByteBuf buf, int length, boolean retainLink) {
+    InternalSend(NonBlockingClientImpl client, String topic, QOS qos, ByteBuf buf, int length, boolean retainLink, boolean batchedCompletion) {
+        this(new CompletionFuture<T>(client), topic, qos, buf, length, retainLink, batchedCompletion);
+    }
+
+    InternalSend(CompletionFuture<T> future, String topic, QOS qos, ByteBuf buf, int length, boolean retainLink, boolean batchedCompletion) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, topic, qos, buf, length);
+        logger.entry(this, methodName, future, topic, qos, buf, length, retainLink, batchedCompletion);
 
-        this.future = new CompletionFuture<>(client);
+        this.future = future;
         this.topic = topic;
         this.qos = qos;
         this.buf = buf;
         this.length = length;
         this.retainLink = retainLink;
+        this.batchedCompletion = batchedCompletion;
 
         logger.exit(this, methodName);
     }
+
+    /**
+     * Releases the (pooled) buffer holding the encoded message.  This is called once, when
+     * the send is completed or failed and the encoded data is no longer needed.
+     */
+    void releaseBuf() {
+        buf.release();
+    }
 }
\ No newline at end of file
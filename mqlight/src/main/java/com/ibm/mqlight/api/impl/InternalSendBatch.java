@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * A batch of sends, passed between the client and engine as a single message.  Each member of the
+ * batch is an {@link InternalSend} in its own right (so that it can be individually re-sent, or
+ * failed, should the connection be lost) but completes the batch's future, once, when the last
+ * member completes.
+ */
+class InternalSendBatch<T> extends Message {
+
+    private static final Logger logger = LoggerFactory.getLogger(InternalSendBatch.class);
+
+    final List<InternalSend<Void>> sends;
+    final CompletionFuture<T> future;
+    private final NonBlockingClientImpl client;
+    private int outstanding;
+    private Exception cause = null;
+
+    InternalSendBatch(NonBlockingClientImpl client, int size) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, client, size);
+
+        this.client = client;
+        this.future = new CompletionFuture<>(client);
+        this.sends = new ArrayList<>(size);
+        this.outstanding = size;
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * @return a future for a member of the batch, which completes the batch's future (with the
+     *         first failure reported by any member) when it is the last member to complete.
+     */
+    CompletionFuture<Void> newMemberFuture() {
+        return new MemberFuture(client);
+    }
+
+    private void memberComplete(Exception exception) {
+        final String methodName = "memberComplete";
+        logger.entry(this, methodName, exception);
+
+        final boolean complete;
+        final Exception batchCause;
+        synchronized(this) {
+            if (cause == null) cause = exception;
+            complete = --outstanding == 0;
+            batchCause = cause;
+        }
+        if (complete) {
+            if (batchCause == null) {
+                future.setSuccess(null);
+            } else {
+                future.setFailure(batchCause);
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    private class MemberFuture extends CompletionFuture<Void> {
+        private MemberFuture(NonBlockingClientImpl client) {
+            super(client);
+        }
+
+        @Override
+        public void setSuccess(Void result) throws IllegalStateException {
+            super.setSuccess(result);
+            memberComplete(null);
+        }
+
+        @Override
+        public void setFailure(Exception exception) throws IllegalStateException {
+            super.setFailure(exception);
+            memberComplete(exception);
+        }
+    }
+}
@@ -21,6 +21,8 @@ package com.ibm.mqlight.api.impl;
 import com.google.gson.GsonBuilder;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.SubscribeOptions.Ordering;
+import com.ibm.mqlight.api.impl.engine.CreditController;
 import com.ibm.mqlight.api.logging.Logger;
 import com.ibm.mqlight.api.logging.LoggerFactory;
 
@@ -35,11 +37,13 @@ class InternalSubscribe<T> extends Message implements QueueableWork {
     final boolean autoConfirm;
     final long ttl;
     final DestinationListenerWrapper<T> destListener;
+    final CreditController creditController;
 
     InternalSubscribe(NonBlockingClientImpl client, SubscriptionTopic topic, QOS qos, int credit, boolean autoConfirm, long ttl,
-                      GsonBuilder gsonBuilder, DestinationListener<T> destListener, T context) {
+                      GsonBuilder gsonBuilder, DestinationListener<T> destListener, T context, Ordering ordering, String orderingKey,
+                      boolean pooledDeliveries, int batchSize, long batchDelay, boolean adaptiveCredit) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, topic, qos, credit, autoConfirm, ttl, gsonBuilder, destListener, context);
+        logger.entry(this, methodName, client, topic, qos, credit, autoConfirm, ttl, gsonBuilder, destListener, context, ordering, orderingKey, pooledDeliveries, batchSize, batchDelay, adaptiveCredit);
 
         future = new CompletionFuture<>(client);
         this.topic = topic;
@@ -47,7 +51,8 @@ class InternalSubscribe<T> extends Message implements QueueableWork {
         this.credit = credit;
         this.autoConfirm = autoConfirm;
         this.ttl = ttl;
-        this.destListener = new DestinationListenerWrapper<>(client, gsonBuilder, destListener, context);
+        this.destListener = new DestinationListenerWrapper<>(client, gsonBuilder, destListener, context, ordering, orderingKey, pooledDeliveries, batchSize, batchDelay);
+        this.creditController = adaptiveCredit ? new CreditController(credit) : null;
 
         logger.exit(this, methodName);
     }
@@ -18,10 +18,7 @@
  */
 package com.ibm.mqlight.api.impl;
 
-import java.util.Map;
-
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
@@ -36,50 +33,38 @@ public class JsonDeliveryImpl extends DeliveryImpl implements JsonDelivery {
     private static final Logger logger = LoggerFactory.getLogger(JsonDeliveryImpl.class);
 
     private final String jsonString;
-    private final GsonBuilder gsonBuilder;
 
-    private Gson gson;
-    private JsonParser jsonParser;
+    // Shared by all of the deliveries for a subscription.  Gson instances are immutable and
+    // thread safe, so no locking is needed to use it.
+    private final Gson gson;
 
     protected JsonDeliveryImpl(NonBlockingClientImpl client, QOS qos,
-                               String share, String topic, String topicPattern, long ttl,
-                               String data, GsonBuilder gsonBuilder,
-                               Map<String, Object> properties, DeliveryRequest deliveryRequest) {
-        super(client, qos, share, topic, topicPattern, ttl, properties, deliveryRequest);
+                               String share, String topicPattern, org.apache.qpid.proton.message.Message msg,
+                               String data, Gson gson, DeliveryRequest deliveryRequest) {
+        super(client, qos, share, topicPattern, msg, deliveryRequest);
 
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, qos, share, topic, topicPattern, ttl, data, gsonBuilder, properties, deliveryRequest);
+        logger.entry(this, methodName, client, qos, share, topicPattern, msg, data, gson, deliveryRequest);
 
         jsonString = data;
-        this.gsonBuilder = gsonBuilder;
+        this.gson = gson;
 
         logger.exit(this, methodName);
     }
 
-    private void init() {
-        if (gson == null) {
-            gson = gsonBuilder.create();
-        }
-    }
-
     @Override
-    public synchronized <T> T getData(Class<T> classOfT) throws JsonSyntaxException {
-        init();
+    public <T> T getData(Class<T> classOfT) throws JsonSyntaxException {
         return gson.fromJson(jsonString, classOfT);
     }
 
     @Override
     public <T> T getData(java.lang.reflect.Type typeOfT) throws JsonSyntaxException {
-        init();
         return gson.fromJson(jsonString, typeOfT);
     }
 
     @Override
-    public synchronized JsonElement getData() throws JsonSyntaxException {
-        if (jsonParser == null) {
-            jsonParser = new JsonParser();
-        }
-        return jsonParser.parse(jsonString);
+    public JsonElement getData() throws JsonSyntaxException {
+        return JsonParser.parseString(jsonString);
     }
 
     @Override
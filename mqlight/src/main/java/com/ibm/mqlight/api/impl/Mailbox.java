@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free, multiple producer, single consumer queue of {@link Message}s,
+ * used as the mailbox of a {@link ComponentImpl}.
+ * <p>
+ * Messages are linked directly through their {@link Message#mailboxNext} field,
+ * so enqueuing a message does not normally allocate. A message which is already
+ * linked into a mailbox (because the same instance has been told twice) is
+ * wrapped in an envelope node instead.
+ * <p>
+ * {@link #offer(Message)} may be called from any thread. {@link #poll()} must
+ * only be called by one thread at a time - the owning component guarantees this
+ * by only allowing a single thread to deliver its messages.
+ */
+final class Mailbox {
+
+    /** Node used to wrap a message which is already linked into a mailbox. */
+    private static final class Envelope extends Message {
+        private final Message message;
+        private Envelope(Message message) {
+            this.message = message;
+        }
+        @Override Message unwrapMailboxNode() {
+            return message;
+        }
+    }
+
+    private final Message stub = new Envelope(null);
+
+    /** The most recently enqueued node.  Updated by producers. */
+    private final AtomicReference<Message> head = new AtomicReference<>(stub);
+
+    /** The next node to dequeue.  Only accessed by the consumer. */
+    private Message tail = stub;
+
+    /**
+     * Adds a message to the mailbox.
+     * @param message the message to add.
+     */
+    void offer(Message message) {
+        offerNode(message.claimMailboxNode() ? message : new Envelope(message));
+    }
+
+    private void offerNode(Message node) {
+        node.mailboxNext = null;
+        final Message prev = head.getAndSet(node);
+        prev.mailboxNext = node;
+    }
+
+    /**
+     * Removes the oldest message from the mailbox.
+     * @return the message, or {@code null} if the mailbox is empty.
+     */
+    Message poll() {
+        Message node = tail;
+        Message next = node.mailboxNext;
+        if (node == stub) {
+            if (next == null) {
+                if (head.get() == stub) return null;
+                next = awaitNext(stub);
+            }
+            node = next;
+            next = node.mailboxNext;
+        }
+
+        if (next == null) {
+            if (node == head.get()) {
+                // node is the last in the mailbox: put the stub behind it, so
+                // that it can be unlinked.
+                offerNode(stub);
+            }
+            next = awaitNext(node);
+        }
+
+        tail = next;
+        final Message result = node.unwrapMailboxNode();
+        if (result == node) node.releaseMailboxNode();
+        return result;
+    }
+
+    /**
+     * @return {@code true} if no messages have been added to the mailbox since
+     *         it was last drained.  This may be called from any thread, and may
+     *         report that the mailbox is not empty while another thread is
+     *         draining it.
+     */
+    boolean isEmpty() {
+        return head.get() == stub;
+    }
+
+    /**
+     * Waits for a producer, which has swapped itself in as head, to link itself
+     * behind the specified node.  This only spins for the window between the
+     * two steps of {@link #offerNode(Message)}.
+     */
+    private static Message awaitNext(Message node) {
+        Message next;
+        while ((next = node.mailboxNext) == null) {
+            Thread.yield();
+        }
+        return next;
+    }
+}
@@ -19,7 +19,6 @@
 package com.ibm.mqlight.api.impl;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 import com.ibm.mqlight.api.MalformedDelivery;
 import com.ibm.mqlight.api.QOS;
@@ -36,13 +35,13 @@ public class MalformedDeliveryImpl extends BytesDeliveryImpl implements Malforme
     private final String format;
     private final int ccsid;
 
-    protected MalformedDeliveryImpl(NonBlockingClientImpl client, QOS qos, String shareName, String topic, String topicPattern, long ttl,
-                                    ByteBuffer data, Map<String, Object> properties, DeliveryRequest req, MalformedReason reason,
+    protected MalformedDeliveryImpl(NonBlockingClientImpl client, QOS qos, String shareName, String topicPattern,
+                                    org.apache.qpid.proton.message.Message msg, ByteBuffer data, DeliveryRequest req, MalformedReason reason,
                                     String malformedDescription, String malformedMQMDFormat, int malformedMQMDCCSID) {
-        super(client, qos, shareName, topic, topicPattern, ttl, data, properties, req);
+        super(client, qos, shareName, topicPattern, msg, data, req);
 
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, qos, shareName, topic, topicPattern, ttl, data, properties, req, reason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
+        logger.entry(this, methodName, client, qos, shareName, topicPattern, msg, data, req, reason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
 
         this.reason = reason;
         this.description = malformedDescription;
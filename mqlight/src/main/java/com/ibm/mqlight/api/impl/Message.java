@@ -18,9 +18,41 @@
  */
 package com.ibm.mqlight.api.impl;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 public abstract class Message {
 
+    private static final AtomicIntegerFieldUpdater<Message> queuedUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(Message.class, "queued");
+
     private Component sender = null;
+
+    /** Link to the next message in a {@link Mailbox}, when this message is used as its own node. */
+    volatile Message mailboxNext = null;
+
+    /** Non-zero while this message is linked into a {@link Mailbox}. */
+    private volatile int queued = 0;
+
+    /**
+     * Claims this message for use as a mailbox node.
+     * @return {@code true} if the message was not already linked into a mailbox.
+     */
+    boolean claimMailboxNode() {
+        return queuedUpdater.compareAndSet(this, 0, 1);
+    }
+
+    /** Releases the claim taken by {@link #claimMailboxNode()}. */
+    void releaseMailboxNode() {
+        queued = 0;
+    }
+
+    /**
+     * @return the message that should be delivered to the component when this
+     *         node is removed from a mailbox.
+     */
+    Message unwrapMailboxNode() {
+        return this;
+    }
     
     public Component getSender() {
         return sender;
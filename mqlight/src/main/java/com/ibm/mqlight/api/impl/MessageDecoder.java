@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Footer;
+import org.apache.qpid.proton.amqp.messaging.Header;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.codec.AMQPDefinedTypes;
+import org.apache.qpid.proton.codec.DecodeException;
+import org.apache.qpid.proton.codec.DecoderImpl;
+import org.apache.qpid.proton.codec.EncoderImpl;
+import org.apache.qpid.proton.message.Message;
+
+/**
+ * Decodes proton messages from (pooled) buffers.  This differs from <code>Message.decode()</code>
+ * in that a binary AMQP value body is not copied: the body of the decoded message is a
+ * <code>Binary</code> that refers to the bytes held in the buffer.  The message is therefore only
+ * valid for as long as the buffer is.
+ */
+class MessageDecoder {
+
+    /** Constructors for the (small or full width) ulong descriptor of an AMQP value body section. */
+    private static final byte SMALL_ULONG = 0x53;
+    private static final byte ULONG = (byte) 0x80;
+    private static final long AMQP_VALUE_CODE = 0x77;
+
+    /** Constructors for binary data with a one, and a four, byte length. */
+    private static final byte VBIN8 = (byte) 0xa0;
+    private static final byte VBIN32 = (byte) 0xb0;
+
+    private static final ThreadLocal<DecoderImpl> threadDecoder = new ThreadLocal<DecoderImpl>() {
+        @Override
+        protected DecoderImpl initialValue() {
+            final DecoderImpl decoder = new DecoderImpl();
+            AMQPDefinedTypes.registerAllTypes(decoder, new EncoderImpl(decoder));
+            return decoder;
+        }
+    };
+
+    /**
+     * Decodes the readable bytes of a buffer, which must be backed by an array, into a message.
+     *
+     * @param buf the buffer to decode.  This is not modified.
+     * @return the decoded message.
+     * @throws DecodeException if the data is not a valid AMQP message.
+     * @throws java.nio.BufferUnderflowException if the data is truncated.
+     */
+    static Message decode(ByteBuf buf) {
+        final ByteBuffer buffer = ByteBuffer.wrap(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+        final DecoderImpl decoder = threadDecoder.get();
+        decoder.setByteBuffer(buffer);
+        try {
+            final Message msg = Proton.message();
+            while (buffer.hasRemaining()) {
+                Section section = binaryValue(buffer);
+                if (section == null) {
+                    final Object value = decoder.readObject();
+                    if (!(value instanceof Section)) {
+                        throw new DecodeException("Unexpected message section: " + value);
+                    }
+                    section = (Section) value;
+                }
+
+                if (section instanceof Header) {
+                    msg.setHeader((Header) section);
+                } else if (section instanceof DeliveryAnnotations) {
+                    msg.setDeliveryAnnotations((DeliveryAnnotations) section);
+                } else if (section instanceof MessageAnnotations) {
+                    msg.setMessageAnnotations((MessageAnnotations) section);
+                } else if (section instanceof Properties) {
+                    msg.setProperties((Properties) section);
+                } else if (section instanceof ApplicationProperties) {
+                    msg.setApplicationProperties((ApplicationProperties) section);
+                } else if (section instanceof Footer) {
+                    msg.setFooter((Footer) section);
+                } else {
+                    msg.setBody(section);
+                }
+            }
+            return msg;
+        } finally {
+            decoder.setByteBuffer(null);
+        }
+    }
+
+    /**
+     * If the buffer is positioned at an AMQP value section holding binary data, returns the
+     * section (referring to the data in place) and moves the buffer past it.
+     *
+     * @return the section, or <code>null</code> if the buffer holds some other section.
+     */
+    private static AmqpValue binaryValue(ByteBuffer buffer) {
+        int position = buffer.position();
+        final int limit = buffer.limit();
+        if (limit - position < 4 || buffer.get(position) != 0x00) {
+            return null;
+        }
+        if (buffer.get(position + 1) == SMALL_ULONG && buffer.get(position + 2) == AMQP_VALUE_CODE) {
+            position += 3;
+        } else if (buffer.get(position + 1) == ULONG && limit - position >= 11 && buffer.getLong(position + 2) == AMQP_VALUE_CODE) {
+            position += 10;
+        } else {
+            return null;
+        }
+
+        final byte constructor = buffer.get(position);
+        final int length;
+        if (constructor == VBIN8 && limit - position >= 2) {
+            length = buffer.get(position + 1) & 0xff;
+            position += 2;
+        } else if (constructor == VBIN32 && limit - position >= 5) {
+            length = buffer.getInt(position + 1);
+            position += 5;
+        } else {
+            return null;
+        }
+        if (length < 0 || length > limit - position) {
+            return null;    // Let the proton decoder report the problem
+        }
+
+        buffer.position(position + length);
+        return new AmqpValue(new Binary(buffer.array(), buffer.arrayOffset() + position, length));
+    }
+}
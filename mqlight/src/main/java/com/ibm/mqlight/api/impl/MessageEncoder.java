@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.lang.reflect.Type;
+import java.nio.BufferOverflowException;
+import java.util.Map;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.ProtonJMessage;
+
+import com.google.gson.Gson;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * Encodes proton messages into pooled buffers.  The buffer is sized from an upper-bound estimate
+ * of the encoded message, so that (unlike growing a buffer each time the encode overflows) the
+ * message is normally encoded exactly once, whatever its size.
+ */
+class MessageEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageEncoder.class);
+
+    /** Allowance for the message header, properties section and section descriptors. */
+    static final int FIXED_OVERHEAD = 128;
+
+    /** Allowance for the type constructor and size/count fields of each encoded value. */
+    static final int VALUE_OVERHEAD = 16;
+
+    /** Encoding of the descriptor for an AMQP value body section (a small ulong of 0x77). */
+    private static final byte[] AMQP_VALUE_DESCRIPTOR = new byte[] {0x00, 0x53, 0x77};
+
+    /** Constructor for a UTF-8 string with a four byte length. */
+    private static final byte STR32_UTF8 = (byte) 0xb1;
+
+    /**
+     * Per-thread state that is reused from one send to the next.  A message is always encoded on
+     * the thread that is sending it, before the send method returns, so the same proton message
+     * (and the sections it allocates) can be reused for each send made on that thread.
+     */
+    private static class ThreadState {
+        private final Message protonMsg = Proton.message();
+        private final ByteBufWritableBuffer writableBuffer = new ByteBufWritableBuffer();
+        private final ByteBufUtf8Writer utf8Writer = new ByteBufUtf8Writer();
+        private int lastJsonLength = 0;
+        private String topic = null;
+        private String address = null;
+    }
+
+    private static final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    /**
+     * Returns this thread's reusable message, reset to carry the specified body and content type.
+     * The message must be encoded, using {@link #encode(Message)}, before the next call to this
+     * method on the same thread.  Encoding the message clears its body and application properties.
+     */
+    static Message reusableMessage(Section body, String contentType) {
+        final Message protonMsg = threadState.get().protonMsg;
+        protonMsg.setBody(body);
+        protonMsg.setContentType(contentType);
+        protonMsg.setApplicationProperties(null);
+        return protonMsg;
+    }
+
+    /**
+     * @return the AMQP address for a topic.  The last address built on each thread is remembered,
+     *         as applications commonly send many messages to the same topic.
+     */
+    static String address(String topic) {
+        final ThreadState state = threadState.get();
+        if (!topic.equals(state.topic)) {
+            state.address = "amqp:///" + topic;
+            state.topic = topic;
+        }
+        return state.address;
+    }
+
+    /**
+     * Encodes a message into a buffer obtained from the pooled allocator.  The caller owns the
+     * returned buffer, and is responsible for releasing it.
+     *
+     * @param protonMsg the message to encode.
+     * @return a buffer whose readable bytes are the encoded message.
+     */
+    static ByteBuf encode(Message protonMsg) {
+        final String methodName = "encode";
+        logger.entry(methodName, protonMsg);
+
+        final ByteBuf buf = encode(protonMsg, 0);
+
+        logger.exit(methodName, buf);
+
+        return buf;
+    }
+
+    /**
+     * Encodes a message, without a body, followed by an AMQP value body section containing the
+     * JSON serialization of an object.  The JSON is written as UTF-8 straight into the encode
+     * buffer (and its length filled in afterwards) so no intermediate <code>String</code> is built.
+     * <p>
+     * No locking is required: <code>Gson</code> instances may be shared between threads.
+     *
+     * @param protonMsg the message to encode, which must not have a body.
+     * @param gson used to serialize the object.
+     * @param json the object to serialize.
+     * @param type the generic type of the object, or <code>null</code> to use its class.
+     * @return a buffer whose readable bytes are the encoded message.
+     */
+    static ByteBuf encodeJson(Message protonMsg, Gson gson, Object json, Type type) {
+        final String methodName = "encodeJson";
+        logger.entry(methodName, protonMsg, json, type);
+
+        final ThreadState state = threadState.get();
+
+        // Size the buffer from the last JSON body serialized on this thread, as applications
+        // typically send many similar objects
+        final ByteBuf buf = encode(protonMsg, AMQP_VALUE_DESCRIPTOR.length + 5 + state.lastJsonLength);
+        try {
+            buf.writeBytes(AMQP_VALUE_DESCRIPTOR);
+            buf.writeByte(STR32_UTF8);
+            final int lengthIndex = buf.writerIndex();
+            buf.writeInt(0);
+
+            state.utf8Writer.setByteBuf(buf);
+            try {
+                if (type == null) {
+                    gson.toJson(json, state.utf8Writer);
+                } else {
+                    gson.toJson(json, type, state.utf8Writer);
+                }
+                state.utf8Writer.close();
+            } finally {
+                state.utf8Writer.setByteBuf(null);
+            }
+
+            final int length = buf.writerIndex() - lengthIndex - 4;
+            buf.setInt(lengthIndex, length);
+            state.lastJsonLength = length;
+        } catch (RuntimeException e) {
+            buf.release();
+            logger.throwing(methodName, e);
+            throw e;
+        }
+
+        logger.exit(methodName, buf);
+
+        return buf;
+    }
+
+    private static ByteBuf encode(Message protonMsg, int additionalCapacity) {
+        try {
+            return encodeMessage(protonMsg, additionalCapacity);
+        } finally {
+            // Once encoded, this thread's reusable message has no need of the body and properties -
+            // which may be large (or the application's own array) - so they are not kept reachable
+            // until the thread next sends
+            if (protonMsg == threadState.get().protonMsg) {
+                protonMsg.setBody(null);
+                protonMsg.setApplicationProperties(null);
+            }
+        }
+    }
+
+    private static ByteBuf encodeMessage(Message protonMsg, int additionalCapacity) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(estimateEncodedSize(protonMsg) + additionalCapacity);
+        if (protonMsg instanceof ProtonJMessage) {
+            // Encode straight into the buffer, which grows if the estimate proves too small
+            final ByteBufWritableBuffer writableBuffer = threadState.get().writableBuffer;
+            writableBuffer.setByteBuf(buf);
+            try {
+                ((ProtonJMessage) protonMsg).encode(writableBuffer);
+            } finally {
+                writableBuffer.setByteBuf(null);
+            }
+        } else {
+            int length;
+            while (true) {
+                try {
+                    length = protonMsg.encode(buf.array(), buf.arrayOffset(), buf.capacity());
+                    break;
+                } catch(BufferOverflowException boe) {
+                    final int capacity = buf.capacity() * 2;
+                    buf.release();
+                    buf = PooledByteBufAllocator.DEFAULT.heapBuffer(capacity);
+                }
+            }
+            buf.writerIndex(length);
+        }
+        return buf;
+    }
+
+    /**
+     * @return an upper bound on the number of bytes needed to encode the message body, address,
+     *         content type and application properties (as set by the client's send methods).
+     */
+    static int estimateEncodedSize(Message protonMsg) {
+        int size = FIXED_OVERHEAD + estimateValueSize(protonMsg.getAddress())
+                + estimateValueSize(protonMsg.getContentType());
+
+        final ApplicationProperties applicationProperties = protonMsg.getApplicationProperties();
+        if (applicationProperties != null && applicationProperties.getValue() != null) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) applicationProperties.getValue()).entrySet()) {
+                size += estimateValueSize(entry.getKey()) + estimateValueSize(entry.getValue());
+            }
+        }
+
+        if (protonMsg.getBody() instanceof AmqpValue) {
+            size += estimateValueSize(((AmqpValue) protonMsg.getBody()).getValue());
+        }
+
+        return size;
+    }
+
+    private static int estimateValueSize(Object value) {
+        final int size;
+        if (value instanceof String) {
+            size = utf8Length((String) value);
+        } else if (value instanceof Binary) {
+            size = ((Binary) value).getLength();
+        } else {
+            size = 0;  // Fixed size types (or null) fit within the per-value overhead
+        }
+        return size + VALUE_OVERHEAD;
+    }
+
+    /**
+     * @return the number of bytes needed to encode the string as UTF-8.  Surrogate pairs are
+     *         over-estimated (as six bytes rather than four), which is safe for sizing purposes.
+     */
+    static int utf8Length(String value) {
+        final int chars = value.length();
+        int length = chars;
+        for (int i = 0; i < chars; ++i) {
+            final char c = value.charAt(i);
+            if (c >= 0x80) {
+                length += (c >= 0x800) ? 2 : 1;
+            }
+        }
+        return length;
+    }
+}
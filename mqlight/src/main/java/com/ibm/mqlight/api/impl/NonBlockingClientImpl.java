@@ -22,14 +22,21 @@ import io.netty.buffer.ByteBuf;
 
 import java.lang.reflect.Type;
 import java.net.URI;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Binary;
@@ -41,13 +48,18 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.ibm.mqlight.api.ClientException;
 import com.ibm.mqlight.api.ClientOptions;
+import com.ibm.mqlight.api.ClientRuntime;
 import com.ibm.mqlight.api.ClientState;
 import com.ibm.mqlight.api.CompletionListener;
+import com.ibm.mqlight.api.CreditMetrics;
+import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DeliveryPublisher;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.NetworkException;
 import com.ibm.mqlight.api.NonBlockingClient;
 import com.ibm.mqlight.api.NonBlockingClientListener;
 import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.PullSubscription;
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.ReplacedException;
 import com.ibm.mqlight.api.SendOptions;
@@ -69,18 +81,24 @@ import com.ibm.mqlight.api.impl.endpoint.EndpointPromiseImpl;
 import com.ibm.mqlight.api.impl.endpoint.EndpointResponse;
 import com.ibm.mqlight.api.impl.endpoint.ExhaustedResponse;
 import com.ibm.mqlight.api.impl.endpoint.SingleEndpointService;
+import com.ibm.mqlight.api.impl.engine.BatchedSendResponse;
 import com.ibm.mqlight.api.impl.engine.CloseRequest;
 import com.ibm.mqlight.api.impl.engine.CloseResponse;
+import com.ibm.mqlight.api.impl.engine.CreditController;
+import com.ibm.mqlight.api.impl.engine.DeliveriesReadNotification;
+import com.ibm.mqlight.api.impl.engine.DeliveriesResponse;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
-import com.ibm.mqlight.api.impl.engine.DeliveryResponse;
 import com.ibm.mqlight.api.impl.engine.DisconnectNotification;
 import com.ibm.mqlight.api.impl.engine.DrainNotification;
 import com.ibm.mqlight.api.impl.engine.Engine;
 import com.ibm.mqlight.api.impl.engine.EngineConnection;
+import com.ibm.mqlight.api.impl.engine.FlowRequest;
 import com.ibm.mqlight.api.impl.engine.OpenRequest;
 import com.ibm.mqlight.api.impl.engine.OpenResponse;
+import com.ibm.mqlight.api.impl.engine.SendBatchRequest;
 import com.ibm.mqlight.api.impl.engine.SendRequest;
 import com.ibm.mqlight.api.impl.engine.SendResponse;
+import com.ibm.mqlight.api.impl.engine.SettlementQueue;
 import com.ibm.mqlight.api.impl.engine.SubscribeRequest;
 import com.ibm.mqlight.api.impl.engine.SubscribeResponse;
 import com.ibm.mqlight.api.impl.engine.UnsubscribeRequest;
@@ -106,6 +124,9 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     private final EndpointService endpointService;
     private final CallbackService callbackService;
     private final ComponentImpl engine;
+    private final NonBlockingClient facade;
+    // Confirmed deliveries, queued by any thread, waiting to be settled by the engine
+    private final SettlementQueue settlements;
     private final TimerService timer;
     private final GsonBuilder gsonBuilder;
     private final Gson gson;
@@ -119,6 +140,9 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     private final LinkedList<InternalStart<?>> pendingStarts = new LinkedList<>();
     private final LinkedList<InternalStop<?>> pendingStops = new LinkedList<>();
     private final String clientId;
+    private final int maxRetainedLinks;
+    private final long lowWaterMark;
+    private final long highWaterMark;
     private TimerPromiseImpl timerPromise = null;
     private final LinkedList<QueueableWork> pendingWork = new LinkedList<>();
 
@@ -132,8 +156,10 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
 
     private boolean remakingInboundLinks = false;
 
-    private int undrainedSends = 0;
-    private boolean pendingDrain = false;
+    /** The number of bytes of encoded messages that have been sent, but whose buffers have not yet been released. */
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    /** Set when a send method has returned false, and cleared when the onDrain notification is delivered. */
+    private final AtomicBoolean pendingDrain = new AtomicBoolean();
 
     private boolean stoppedByUser = false;
     private ClientException lastException = null;
@@ -143,6 +169,18 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     // topic pattern -> information about subscribed destination
     private final HashMap<SubscriptionTopic, SubData> subscribedDestinations = new HashMap<>();
 
+    // topic pattern -> credit controller of an adaptive credit subscription.  Kept in step with
+    // subscribedDestinations, so that getCreditMetrics() can be called from any thread
+    private final ConcurrentHashMap<SubscriptionTopic, CreditController> creditControllers = new ConcurrentHashMap<>();
+
+    // Ordering contexts of unsubscribed destinations that may still have callbacks outstanding.  Each
+    // is removed, by the callback service, once the callbacks queued against it have run
+    private final Set<Object> unflushedOrderingContexts = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    // Destination listeners holding a partial batch of deliveries, which are told once the network
+    // read that the deliveries arrived in has been processed
+    private final Set<DestinationListenerWrapper<?>> pendingBatches = new LinkedHashSet<>();
+
     static class SubData {
         private enum State {
             BROKEN,         // A link attach has previously been attempted - but the client's connection to the server is currently broken
@@ -152,35 +190,58 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         }
         State state = State.ATTACHING;
         private final LinkedList<QueueableWork> pending = new LinkedList<>();
-        private final Set<DeliveryRequest> pendingDeliveries = new HashSet<>();
+        // At least once deliveries awaiting settlement, in the order that they arrived
+        private final Set<DeliveryRequest> pendingDeliveries = new LinkedHashSet<>();
+        private long deliveryCount = 0;
+        // Set once the subscription is no longer known to the client, so that anything still
+        // referring to it (for example, a delivery that was in flight) is not acted on
+        private boolean removed = false;
+        final SubscriptionDescriptor descriptor;
         final DestinationListenerWrapper<?> listener;
-        private final QOS qos;
+        // The publisher whose subscriber's demand drives the link credit, or null
+        final DeliveryPublisherImpl publisher;
         private final int credit;
-        private final boolean autoConfirm;
         private final long ttl;
+        private final CreditController creditController;
 
         InternalSubscribe<?> inProgressSubscribe;
         InternalUnsubscribe<?> inProgressUnsubscribe;
 
-        public SubData(DestinationListenerWrapper<?> listener, QOS qos, int credit, boolean autoConfirm, long ttl) {
+        public SubData(SubscriptionTopic topic, DestinationListenerWrapper<?> listener, QOS qos, int credit, boolean autoConfirm, long ttl, CreditController creditController) {
+            this.publisher = listener.getDeliveryPublisher();
+            this.descriptor = new SubscriptionDescriptor(topic, qos, autoConfirm, publisher != null, listener, this);
             this.listener = listener;
-            this.qos = qos;
             this.credit = credit;
-            this.autoConfirm = autoConfirm;
             this.ttl = ttl;
+            this.creditController = creditController;
+        }
+
+        /**
+         * Forgets the deliveries awaiting settlement, and stops them from being confirmed, because
+         * the link that they arrived on has gone.
+         */
+        void invalidatePendingDeliveries() {
+            for (DeliveryRequest dr : pendingDeliveries) {
+                dr.invalidate();
+            }
+            pendingDeliveries.clear();
         }
 
         @Override
         public String toString() {
             return "SubData [state=" + state + ", pending=" + pending + ", pendingDeliveries="
-                    + pendingDeliveries + ", listener=" + listener + ", qos=" + qos + ", credit="
-                    + credit + ", autoConfirm=" + autoConfirm + ", ttl=" + ttl
+                    + pendingDeliveries + ", descriptor=" + descriptor + ", credit="
+                    + credit + ", ttl=" + ttl + ", creditController=" + creditController
                     + ", inProgressSubscribe=" + inProgressSubscribe + ", inProgressUnsubscribe="
                     + inProgressUnsubscribe + "]";
         }
     }
 
     protected String generateClientId() {
+        return newClientId();
+    }
+
+    static String newClientId() {
         SecureRandom sr = new SecureRandom();
         String i = Integer.toHexString(sr.nextInt());
         while(i.length() < 8) i = "0" + i;
@@ -195,8 +256,25 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             ClientOptions options,
             NonBlockingClientListener<T>listener,
             T context) {
+        this(endpointService, callbackService, engine, timerService, gsonBuilder, options, null, listener, context);
+    }
+
+    /**
+     * @param facade the client passed to application listeners in place of this client, or
+     *               <code>null</code> to pass this client.  This allows several instances to
+     *               act on behalf of a single {@link StripedNonBlockingClient}.
+     */
+    protected <T> NonBlockingClientImpl(EndpointService endpointService,
+            CallbackService callbackService,
+            ComponentImpl engine,
+            TimerService timerService,
+            GsonBuilder gsonBuilder,
+            ClientOptions options,
+            NonBlockingClient facade,
+            NonBlockingClientListener<T>listener,
+            T context) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, callbackService, engine, timerService, gsonBuilder, options, listener, context);
+        logger.entry(this, methodName, callbackService, engine, timerService, gsonBuilder, options, facade, listener, context);
 
         if (endpointService == null) {
           final IllegalArgumentException exception = new IllegalArgumentException("EndpointService cannot be null");
@@ -221,12 +299,17 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         }
         this.endpointService = endpointService;
         this.callbackService = callbackService;
+        this.facade = facade == null ? this : facade;
         this.engine = engine;
+        this.settlements = new SettlementQueue(engine, this);
         this.timer = timerService;
         this.gsonBuilder = gsonBuilder == null ? new GsonBuilder() : gsonBuilder;
         this.gson = this.gsonBuilder.create();
         if (options == null) options = defaultClientOptions;
         clientId = options.getId() != null ? options.getId() : generateClientId();
+        maxRetainedLinks = options.getMaxRetainedLinks();
+        lowWaterMark = options.getLowWaterMark();
+        highWaterMark = options.getHighWaterMark();
         logger.setClientId(clientId);
         clientListener = new NonBlockingClientListenerWrapper<>(this, listener, context);
         stateMachine = NonBlockingFSMFactory.newStateMachine(this);
@@ -246,13 +329,39 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     }
 
     public <T> NonBlockingClientImpl(String service, ClientOptions options, NonBlockingClientListener<T> listener, T context) {
-        this(service == null ? new BluemixEndpointService(null, null)
+        this(endpointService(service, options),
+                new ThreadPoolCallbackService(5), new NettyNetworkService(),
+                new TimerServiceImpl(), null, options, listener, context);
+    }
+
+    public <T> NonBlockingClientImpl(String service, ClientOptions options, ClientRuntime runtime, NonBlockingClientListener<T> listener, T context) {
+        this(endpointService(service, options),
+                runtimeServices(runtime).getCallbackService(),
+                new Engine(runtime.getNetworkService(), runtime.getTimerService(), runtime.getEventLoopAffinity()),
+                runtime.getTimerService(), null, options, listener, context);
+    }
+
+    static EndpointService endpointService(String service, ClientOptions options) {
+        return service == null ? new BluemixEndpointService(null, null)
                 : new SingleEndpointService(service,
                         options == null ? null : options.getUser(),
                         options == null ? null : options.getPassword(),
-                        options == null ? null : options.getSSLOptions()),
-                new ThreadPoolCallbackService(5), new NettyNetworkService(),
-                new TimerServiceImpl(), null, options, listener, context);
+                        options == null ? null : options.getSSLOptions());
+    }
+
+    static ClientRuntime runtimeServices(ClientRuntime runtime) {
+        final String methodName = "runtimeServices";
+        if (runtime == null) {
+            final IllegalArgumentException exception = new IllegalArgumentException("ClientRuntime argument cannot be null");
+            logger.throwing(methodName, exception);
+            throw exception;
+        }
+        if (runtime.isShutdown()) {
+            final IllegalStateException exception = new IllegalStateException("ClientRuntime has been shut down");
+            logger.throwing(methodName, exception);
+            throw exception;
+        }
+        return runtime;
     }
 
     @Override
@@ -260,6 +369,13 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         return clientId;
     }
 
+    /**
+     * @return the client passed to application listeners.
+     */
+    NonBlockingClient getFacade() {
+        return facade;
+    }
+
     @Override
     public String getService() {
         return serviceUri;
@@ -284,8 +400,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
           logger.throwing(this, methodName, exception);
           throw exception;
         }
-        org.apache.qpid.proton.message.Message protonMsg = Proton.message();
-        protonMsg.setBody(new AmqpValue(data));
+        org.apache.qpid.proton.message.Message protonMsg = MessageEncoder.reusableMessage(new AmqpValue(data), null);
 
         final boolean result = send(topic, protonMsg, properties, sendOptions == null ? defaultSendOptions : sendOptions, listener, context);
 
@@ -306,12 +421,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
           logger.throwing(this, methodName, exception);
           throw exception;
         }
-        org.apache.qpid.proton.message.Message protonMsg = Proton.message();
-        int pos = data.position();
-        byte[] dataBytes = new byte[data.remaining()];
-        data.get(dataBytes);
-        data.position(pos);
-        protonMsg.setBody(new AmqpValue(new Binary(dataBytes)));
+        org.apache.qpid.proton.message.Message protonMsg = MessageEncoder.reusableMessage(new AmqpValue(toBinary(data)), null);
         final boolean result = send(topic, protonMsg, properties, sendOptions == null ? defaultSendOptions : sendOptions, listener, context);
 
         logger.exit(this, methodName, result);
@@ -326,11 +436,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "send";
         logger.entry(this, methodName, topic, json, properties, sendOptions, listener, context);
 
-        String jsonString;
-        synchronized(gson) {
-            jsonString = gson.toJson(json);
-        }
-        final boolean result = sendJson(topic, jsonString, properties, sendOptions, listener, context);
+        final boolean result = sendJson(topic, json, null, properties, sendOptions == null ? defaultSendOptions : sendOptions, listener, context);
 
         logger.exit(this, methodName, result);
 
@@ -344,11 +450,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "send";
         logger.entry(this, methodName, topic, json, type, properties, sendOptions, listener, context);
 
-        String jsonString;
-        synchronized(gson) {
-            jsonString = gson.toJson(json, type);
-        }
-        final boolean result = sendJson(topic, jsonString, properties, sendOptions, listener, context);
+        final boolean result = sendJson(topic, json, type, properties, sendOptions == null ? defaultSendOptions : sendOptions, listener, context);
 
         logger.exit(this, methodName, result);
 
@@ -363,9 +465,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "sendJson";
         logger.entry(this, methodName, topic, json, properties, sendOptions, listener, context);
 
-        org.apache.qpid.proton.message.Message protonMsg = Proton.message();
-        protonMsg.setBody(new AmqpValue(json));
-        protonMsg.setContentType("application/json");
+        org.apache.qpid.proton.message.Message protonMsg = MessageEncoder.reusableMessage(new AmqpValue(json), "application/json");
         final boolean result = send(topic, protonMsg, properties, sendOptions == null ? defaultSendOptions : sendOptions, listener, context);
 
         logger.exit(this, methodName, result);
@@ -402,10 +502,214 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
           throw exception;
         }
 
-        protonMsg.setAddress("amqp:///" + topic);
-        protonMsg.setTtl(sendOptions.getTtl());
-        Map<String, Object> amqpProperties = new HashMap<>();
+        final ByteBuf buf = encode(topic, protonMsg, toApplicationProperties(properties), sendOptions);
+        final boolean result = send(topic, buf, sendOptions, listener, context);
+
+        logger.exit(this, methodName, result);
+
+        return result;
+    }
+
+    /**
+     * Sends an object as JSON.  The object is serialized straight into the encode buffer, without
+     * holding any lock, so threads sending JSON through the same client do not contend.
+     */
+    private <T> boolean sendJson(String topic, Object json, Type type,
+                                 Map<String, Object> properties,
+                                 SendOptions sendOptions, CompletionListener<T> listener, T context) throws StoppedException {
+        final String methodName = "sendJson";
+        logger.entry(this, methodName, topic, json, type, properties, sendOptions, listener, context);
+
+        if (topic == null) {
+          final IllegalArgumentException exception = new IllegalArgumentException("topic cannot be null");
+          logger.throwing(this, methodName, exception);
+          throw exception;
+        }
+
+        final org.apache.qpid.proton.message.Message protonMsg = MessageEncoder.reusableMessage(null, "application/json");
+        setHeaders(topic, protonMsg, toApplicationProperties(properties), sendOptions);
+        final ByteBuf buf = MessageEncoder.encodeJson(protonMsg, gson, json, type);
+        final boolean result = send(topic, buf, sendOptions, listener, context);
+
+        logger.exit(this, methodName, result);
+
+        return result;
+    }
+
+    private <T> boolean send(String topic, ByteBuf buf, SendOptions sendOptions, CompletionListener<T> listener, T context) throws StoppedException {
+        final String methodName = "send";
+        logger.entry(this, methodName, topic, buf, sendOptions, listener, context);
+
+        InternalSend<T> is = new InternalSend<T>(this, topic, sendOptions.getQos(), buf, buf.readableBytes(), sendOptions.getRetainLink(), sendOptions.getBatchedCompletion());
+        boolean result = bufferedBytes.addAndGet(is.length) < highWaterMark;
+        tell(is, this);
+
+        try {
+          is.future.setListener(callbackService, listener, context);
+        } catch (StoppedException e) {
+          logger.throwing(this, methodName, e);
+          throw e;
+        } catch (StateException e) {
+          IllegalStateException exception = new IllegalStateException("Unexpected state exception", e);
+          logger.ffdc(methodName, FFDCProbeId.PROBE_001, exception, this);
+          logger.throwing(this, methodName, e);
+          throw exception;
+        }
+
+        if (!result) {
+            requestDrain();
+        }
+
+        logger.exit(this, methodName, result);
+
+        return result;
+    }
+
+    @Override
+    public <T> boolean sendBatch(String topic, List<?> data, Map<String, Object> properties,
+            SendOptions sendOptions, CompletionListener<T> listener, T context)
+            throws StoppedException {
+        final String methodName = "sendBatch";
+        logger.entry(this, methodName, topic, data, properties, sendOptions, listener, context);
+
+        if (topic == null) {
+          final IllegalArgumentException exception = new IllegalArgumentException("topic cannot be null");
+          logger.throwing(this, methodName, exception);
+          throw exception;
+        }
+        if (data == null || data.isEmpty()) {
+          final IllegalArgumentException exception = new IllegalArgumentException("data cannot be null or empty");
+          logger.throwing(this, methodName, exception);
+          throw exception;
+        }
+        if (sendOptions == null) sendOptions = defaultSendOptions;
+
+        // Validate the whole batch before encoding any of it, so that no (pooled) buffers are
+        // left allocated if an argument is rejected
+        final ApplicationProperties applicationProperties = toApplicationProperties(properties);
+        final List<org.apache.qpid.proton.message.Message> protonMsgs = new ArrayList<>(data.size());
+        for (Object item : data) {
+            org.apache.qpid.proton.message.Message protonMsg = Proton.message();
+            if (item instanceof String) {
+                protonMsg.setBody(new AmqpValue(item));
+            } else if (item instanceof ByteBuffer) {
+                protonMsg.setBody(new AmqpValue(toBinary((ByteBuffer)item)));
+            } else {
+                final IllegalArgumentException exception = new IllegalArgumentException(
+                        "data can only contain String and ByteBuffer values, not: " + (item == null ? "null" : item.getClass().getName()));
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+            protonMsgs.add(protonMsg);
+        }
+
+        final InternalSendBatch<T> batch = new InternalSendBatch<>(this, protonMsgs.size());
+        for (org.apache.qpid.proton.message.Message protonMsg : protonMsgs) {
+            final ByteBuf buf = encode(topic, protonMsg, applicationProperties, sendOptions);
+            // The batch already completes with a single callback, so its members are never batched
+            batch.sends.add(new InternalSend<Void>(batch.newMemberFuture(), topic, sendOptions.getQos(), buf, buf.readableBytes(), sendOptions.getRetainLink(), false));
+        }
+        long length = 0;
+        for (InternalSend<Void> is : batch.sends) {
+            length += is.length;
+        }
+        boolean result = bufferedBytes.addAndGet(length) < highWaterMark;
+        tell(batch, this);
+
+        try {
+          batch.future.setListener(callbackService, listener, context);
+        } catch (StoppedException e) {
+          logger.throwing(this, methodName, e);
+          throw e;
+        } catch (StateException e) {
+          IllegalStateException exception = new IllegalStateException("Unexpected state exception", e);
+          logger.ffdc(methodName, FFDCProbeId.PROBE_001, exception, this);
+          logger.throwing(this, methodName, e);
+          throw exception;
+        }
+
+        if (!result) {
+            requestDrain();
+        }
+
+        logger.exit(this, methodName, result);
+
+        return result;
+    }
+
+    /**
+     * Completes an outstanding send, once the engine has finished with it.
+     *
+     * @param batch if not null, collects the successful completion of sends made with the
+     *              batchedCompletion option, so that they can be notified with a single callback.
+     */
+    private void completeSend(SendRequest request, Exception cause, CompletionBatch batch) {
+        InternalSend<?> is = outstandingSends.remove(request);
+        if (is != null) {
+            // Only release the buffer when the send is still outstanding, as an InternalSend
+            // that has been re-queued (following a reconnect) must retain its encoded data
+            releaseSend(is);
+            if (cause != null) {
+                is.future.setFailure(cause);
+            } else if (batch != null && is.batchedCompletion) {
+                is.future.setSuccessBatched(batch);
+            } else {
+                is.future.setSuccess(null);
+            }
+        }
+    }
+
+    /**
+     * Releases the buffer holding an encoded message, and stops counting it against the water marks.
+     */
+    private void releaseSend(InternalSend<?> is) {
+        is.releaseBuf();
+        bufferedBytes.addAndGet(-is.length);
+    }
+
+    /**
+     * Records that a send method has returned false, so that the onDrain notification is delivered once the
+     * amount of buffered data falls to the low water mark.  If the data has already drained (on another thread)
+     * then a notification is queued, so that the drain cannot be missed.
+     */
+    private void requestDrain() {
+        pendingDrain.set(true);
+        if (bufferedBytes.get() <= lowWaterMark) {
+            tell(new DrainNotification(), this);
+        }
+    }
+
+    /**
+     * Delivers the onDrain notification if a send method has returned false, and the amount of buffered data has
+     * since fallen to the low water mark.
+     */
+    private void notifyIfDrained() {
+        if (bufferedBytes.get() <= lowWaterMark && pendingDrain.compareAndSet(true, false)) {
+            clientListener.onDrain(callbackService);
+        }
+    }
+
+    static Binary toBinary(ByteBuffer data) {
+        final Binary result;
+        if (data.hasArray()) {
+            // The message is encoded before the send method returns, so the application's backing
+            // array can be referenced directly rather than copied
+            result = new Binary(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            byte[] dataBytes = new byte[data.remaining()];
+            data.duplicate().get(dataBytes);
+            result = new Binary(dataBytes);
+        }
+        return result;
+    }
+
+    private ApplicationProperties toApplicationProperties(Map<String, Object> properties) {
+        final String methodName = "toApplicationProperties";
+        logger.entry(this, methodName, properties);
+
+        ApplicationProperties result = null;
         if ((properties != null) && !properties.isEmpty()) {
+            Map<String, Object> amqpProperties = new HashMap<>();
             for (Map.Entry<String, Object> entry : properties.entrySet()) {
                 if (!isValidPropertyValue(entry.getValue())) {
                     final IllegalArgumentException exception = new IllegalArgumentException(
@@ -435,45 +739,30 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                     amqpProperties.put(entry.getKey(), entry.getValue());
                 }
             }
-            protonMsg.setApplicationProperties(new ApplicationProperties(amqpProperties));
-        }
-
-        byte data[] = new byte[2 * 1024];
-        int length;
-        while (true) {
-            try {
-                length = protonMsg.encode(data,  0,  data.length);
-                break;
-            } catch(BufferOverflowException boe) {
-                data = new byte[data.length * 2];
-            }
-        }
-
-        final ByteBuf buf = io.netty.buffer.Unpooled.wrappedBuffer(data);
-        InternalSend<T> is = new InternalSend<T>(this, topic, sendOptions.getQos(), buf, length, sendOptions.getRetainLink());
-        ++undrainedSends;
-        tell(is, this);
-
-        try {
-          is.future.setListener(callbackService, listener, context);
-        } catch (StoppedException e) {
-          logger.throwing(this, methodName, e);
-          throw e;
-        } catch (StateException e) {
-          IllegalStateException exception = new IllegalStateException("Unexpected state exception", e);
-          logger.ffdc(methodName, FFDCProbeId.PROBE_001, exception, this);
-          logger.throwing(this, methodName, e);
-          throw exception;
+            result = new ApplicationProperties(amqpProperties);
         }
 
-        boolean result = undrainedSends < 2;
-        pendingDrain |= !result;
-
         logger.exit(this, methodName, result);
 
         return result;
     }
 
+    /**
+     * Encodes a message into a pooled buffer, which is released once the send completes (or fails).
+     */
+    private ByteBuf encode(String topic, org.apache.qpid.proton.message.Message protonMsg,
+                           ApplicationProperties applicationProperties, SendOptions sendOptions) {
+        setHeaders(topic, protonMsg, applicationProperties, sendOptions);
+        return MessageEncoder.encode(protonMsg);
+    }
+
+    private void setHeaders(String topic, org.apache.qpid.proton.message.Message protonMsg,
+                            ApplicationProperties applicationProperties, SendOptions sendOptions) {
+        protonMsg.setAddress(MessageEncoder.address(topic));
+        protonMsg.setTtl(sendOptions.getTtl());
+        protonMsg.setApplicationProperties(applicationProperties);
+    }
+
     @Override
     public <T> NonBlockingClient start(CompletionListener<T> listener, T context) throws StoppedException {
         final String methodName = "start";
@@ -544,7 +833,9 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final SubscriptionTopic subTopic = new SubscriptionTopic(topicPattern, subOptions.getShareName());
         boolean autoConfirm = subOptions.getAutoConfirm() || subOptions.getQOS() == QOS.AT_MOST_ONCE;
         InternalSubscribe<T> is =
-                new InternalSubscribe<>(this, subTopic, subOptions.getQOS(), subOptions.getCredit(), autoConfirm, Math.round(subOptions.getTtl() / 1000.0), gsonBuilder, destListener, context);
+                new InternalSubscribe<>(this, subTopic, subOptions.getQOS(), subOptions.getCredit(), autoConfirm, Math.round(subOptions.getTtl() / 1000.0), gsonBuilder, destListener, context,
+                        subOptions.getOrdering(), subOptions.getOrderingKey(), subOptions.getPooledDeliveries(),
+                        subOptions.getBatchSize(), subOptions.getBatchDelay(), subOptions.getAdaptiveCredit());
         tell(is, this);
 
         try {
@@ -564,6 +855,49 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         return this;
     }
 
+    @Override
+    public <T> PullSubscription pullSubscribe(String topicPattern, SubscribeOptions subOptions,
+            final CompletionListener<T> compListener, T context)
+            throws SubscribedException, StoppedException, IllegalArgumentException {
+        final String methodName = "pullSubscribe";
+        logger.entry(this, methodName, topicPattern, subOptions, compListener, context);
+
+        final PullSubscriptionImpl<T> subscription = new PullSubscriptionImpl<>();
+        subscribe(topicPattern, subOptions, subscription, new CompletionListener<T>() {
+            @Override
+            public void onSuccess(NonBlockingClient client, T context) {
+                if (compListener != null) compListener.onSuccess(client, context);
+            }
+            @Override
+            public void onError(NonBlockingClient client, T context, Exception exception) {
+                // The subscription will never be made, so there is nothing to wait for
+                subscription.setUnsubscribed();
+                if (compListener != null) compListener.onError(client, context, exception);
+            }
+        }, context);
+
+        logger.exit(this, methodName, subscription);
+
+        return subscription;
+    }
+
+    @Override
+    public DeliveryPublisher createPublisher(String topicPattern, SubscribeOptions subOptions) throws IllegalArgumentException {
+        final String methodName = "createPublisher";
+        logger.entry(this, methodName, topicPattern, subOptions);
+
+        if (topicPattern == null) {
+          final IllegalArgumentException exception = new IllegalArgumentException("Topic pattern cannot be null");
+          logger.throwing(this, methodName, exception);
+          throw exception;
+        }
+        final DeliveryPublisher publisher = new DeliveryPublisherImpl(this, topicPattern, subOptions == null ? defaultSubscribeOptions : subOptions);
+
+        logger.exit(this, methodName, publisher);
+
+        return publisher;
+    }
+
     @Override
     public <T> NonBlockingClient unsubscribe(String topicPattern, String share, int ttl, CompletionListener<T> listener, T context)
     throws UnsubscribedException, StoppedException, IllegalArgumentException {
@@ -642,6 +976,78 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         return this;
     }
 
+    @Override
+    public void confirm(Collection<? extends Delivery> deliveries) throws StateException, IllegalArgumentException {
+        final String methodName = "confirm";
+        logger.entry(this, methodName, deliveries);
+
+        if (deliveries == null) {
+          final IllegalArgumentException exception = new IllegalArgumentException("Deliveries cannot be null");
+          logger.throwing(this, methodName, exception);
+          throw exception;
+        }
+
+        // Check all of the deliveries before confirming any of them
+        final List<DeliveryRequest> requests = new ArrayList<>(deliveries.size());
+        for (Delivery delivery : deliveries) {
+          if (!(delivery instanceof DeliveryImpl) || ((DeliveryImpl) delivery).getClient() != this) {
+            final IllegalArgumentException exception = new IllegalArgumentException("Delivery " + delivery + " was not received by this client");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+          }
+          final DeliveryRequest request;
+          try {
+            request = ((DeliveryImpl) delivery).getConfirmableRequest();
+          } catch (StateException e) {
+            logger.throwing(this, methodName, e);
+            throw e;
+          }
+          if (request.isConfirmed()) {
+            final StateException exception = new StateException("Delivery has already been confirmed");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+          }
+          if (request.isInvalidated()) {
+            final StateException exception = new StateException("Cannot confirm delivery because of either an interruption to the network "
+                + "connection to the MQ Light server, or because the client is no longer subscribed to the "
+                + "destination that the message was received from");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+          }
+          requests.add(request);
+        }
+
+        // Claim the deliveries, skipping any confirmed by another thread since they were checked
+        final List<DeliveryRequest> claimed = new ArrayList<>(requests.size());
+        for (DeliveryRequest request : requests) {
+          if (request.confirm()) {
+            claimed.add(request);
+          }
+        }
+        if (!claimed.isEmpty()) {
+          settlements.addAll(claimed);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    public CreditMetrics getCreditMetrics(String topicPattern, String share) throws IllegalArgumentException {
+        final String methodName = "getCreditMetrics";
+        logger.entry(this, methodName, topicPattern, share);
+
+        if (topicPattern == null) {
+          final IllegalArgumentException exception = new IllegalArgumentException("Topic pattern cannot be null");
+          logger.throwing(this, methodName, exception);
+          throw exception;
+        }
+        final CreditMetrics result = creditControllers.get(new SubscriptionTopic(topicPattern, share));
+
+        logger.exit(this, methodName, result);
+
+        return result;
+    }
+
     protected void onReceive(Message message) {
         final String methodName = "onReceive";
         logger.entry(this, methodName, message);
@@ -683,20 +1089,43 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             } else if (NonBlockingClientState.queueingWorkStates.contains(state)) {
                 pendingWork.addLast(is);
             } else {  // Assume state is in NonBlockingClientState.sendFail
+                releaseSend(is);
                 is.future.setFailure(new StoppedException("Cannot send messages because the client is in stopped state"));
+                notifyIfDrained();
+            }
+
+        } else if (message instanceof InternalSendBatch) {
+            InternalSendBatch<?> isb = (InternalSendBatch<?>)message;
+            NonBlockingClientState state = stateMachine.getState();
+            if (NonBlockingClientState.acceptingWorkStates.contains(state)) {
+                List<SendRequest> requests = new ArrayList<>(isb.sends.size());
+                for (InternalSend<?> is : isb.sends) {
+                    SendRequest sr = new SendRequest(currentConnection, is.topic, is.buf, is.length, is.qos, is.retainLink);
+                    outstandingSends.put(sr, is);
+                    requests.add(sr);
+                }
+                engine.tell(new SendBatchRequest(requests), this);
+            } else if (NonBlockingClientState.queueingWorkStates.contains(state)) {
+                pendingWork.addAll(isb.sends);
+            } else {  // Assume state is in NonBlockingClientState.sendFail
+                for (InternalSend<?> is : isb.sends) {
+                    releaseSend(is);
+                    is.future.setFailure(new StoppedException("Cannot send messages because the client is in stopped state"));
+                }
+                notifyIfDrained();
             }
 
         } else if (message instanceof SendResponse) {
             SendResponse sr = (SendResponse)message;
-            sr.request.releaseBuf();
-            InternalSend<?> is = outstandingSends.remove(sr.request);
-            if (is != null) {
-                if (sr.cause == null) {
-                    is.future.setSuccess(null);
-                } else {
-                    is.future.setFailure(sr.cause);
-                }
+            completeSend(sr.request, sr.cause, null);
+            notifyIfDrained();
+        } else if (message instanceof BatchedSendResponse) {
+            final CompletionBatch batch = new CompletionBatch(this);
+            for (SendRequest request : ((BatchedSendResponse)message).requests) {
+                completeSend(request, null, batch);
             }
+            batch.dispatch();
+            notifyIfDrained();
         } else if (message instanceof InternalStart) {
             pendingStarts.addLast((InternalStart<?>)message);
             stateMachine.fire(NonBlockingClientTrigger.START);
@@ -707,11 +1136,21 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             currentConnection = null;
             stateMachine.fire(NonBlockingClientTrigger.CLOSE_RESP);
         } else if (message instanceof PopResponse) {
-            timerPromise = null;
-            stateMachine.fire(NonBlockingClientTrigger.TIMER_RESP_POP);
+            final TimerPromiseImpl promise = ((PopResponse)message).promise;
+            if (promise.getContext() instanceof DestinationListenerWrapper) {
+                ((DestinationListenerWrapper<?>)promise.getContext()).onBatchTimer(callbackService, promise);
+            } else {
+                timerPromise = null;
+                stateMachine.fire(NonBlockingClientTrigger.TIMER_RESP_POP);
+            }
         } else if (message instanceof CancelResponse) {
-            timerPromise = null;
-            stateMachine.fire(NonBlockingClientTrigger.TIMER_RESP_CANCEL);
+            final TimerPromiseImpl promise = ((CancelResponse)message).promise;
+            if (promise.getContext() instanceof DestinationListenerWrapper) {
+                ((DestinationListenerWrapper<?>)promise.getContext()).onBatchTimer(callbackService, promise);
+            } else {
+                timerPromise = null;
+                stateMachine.fire(NonBlockingClientTrigger.TIMER_RESP_CANCEL);
+            }
         } else if (message instanceof InternalSubscribe) {
             InternalSubscribe<?> is = (InternalSubscribe<?>)message;
             NonBlockingClientState state = stateMachine.getState();
@@ -719,20 +1158,24 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                 SubData sd = subscribedDestinations.get(is.topic);
                 if (sd == null) {
                     // Not already subscribed - so subscribe...
-                    SubscribeRequest sr = new SubscribeRequest(currentConnection, is.topic, is.qos, is.credit, is.ttl);
-                    sd = new SubData(is.destListener, is.qos, is.credit, is.autoConfirm, is.ttl);
+                    sd = new SubData(is.topic, is.destListener, is.qos, is.credit, is.autoConfirm, is.ttl, is.creditController);
+                    SubscribeRequest sr = new SubscribeRequest(currentConnection, is.topic, is.qos, is.credit, is.ttl, is.creditController, sd.descriptor);
                     sd.inProgressSubscribe = is;
                     sd.state = SubData.State.ATTACHING;
-                    subscribedDestinations.put(is.topic, sd);
+                    putSubscription(is.topic, sd);
                     engine.tell(sr, this);
+                    if (sd.publisher != null) {
+                        sd.publisher.subData = sd;
+                        sd.publisher.linkRemade();
+                        flowDemand(sd);
+                    }
                 } else if (sd.pending.isEmpty()) {
                     // Already subscribed - no pending actions on the subscription.
                     if (sd.state == SubData.State.ATTACHING || sd.state == SubData.State.ESTABLISHED) {
                         // Operation fails because it is attempting to subscribed to an already subscribed destination
-                        String[] topicElements = is.topic.split();
-                        String errMsg = "Cannot subscribe because the client is already subscribed to topic '" + topicElements[0] + "'";
-                        if (topicElements[1] != null) {
-                            errMsg = errMsg + " and share '" + topicElements[1] + "'.";
+                        String errMsg = "Cannot subscribe because the client is already subscribed to topic '" + is.topic.getTopicPattern() + "'";
+                        if (is.topic.getShare() != null) {
+                            errMsg = errMsg + " and share '" + is.topic.getShare() + "'.";
                         }
                         is.future.setFailure(new SubscribedException(errMsg));
                     } else {
@@ -788,7 +1231,8 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                         sd.inProgressSubscribe.future.setFailure(sr.error);
                         sd.inProgressSubscribe = null;
                     }
-                    subscribedDestinations.remove(sr.topic);
+                    removeSubscription(sr.topic);
+                    sd.removed = true;
                 }
             }
         } else if (message instanceof InternalUnsubscribe) {
@@ -815,6 +1259,9 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                         iu.future.setFailure(se);
                     } else if (sd.state == SubData.State.ESTABLISHED) {
                         sd.state = SubData.State.DETATCHING;
+                        for (DeliveryRequest dr : sd.pendingDeliveries) {
+                            dr.invalidate();
+                        }
                         sd.inProgressUnsubscribe = iu;
                         engine.tell(new UnsubscribeRequest(currentConnection, amqpTopic, iu.zeroTtl), this);
                     }
@@ -832,10 +1279,12 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             // This needs to be tolerant of receiving an unsubscribe response before we've issued an
             // unsubscribe request (in the case that the server closes the link)
             UnsubscribeResponse ur = (UnsubscribeResponse)message;
-            SubData sd = subscribedDestinations.remove(ur.topic);
+            SubData sd = removeSubscription(ur.topic);
             if (sd != null) {
-                String[] parts = ur.topic.split();
-                sd.listener.onUnsubscribed(callbackService, parts[0], parts[1], ur.error);
+                sd.removed = true;
+                sd.invalidatePendingDeliveries();
+                sd.listener.onUnsubscribed(callbackService, ur.topic.getTopicPattern(), ur.topic.getShare(), ur.error);
+                trackUnflushed(sd.listener.getOrderingContexts());
                 if (sd.inProgressUnsubscribe != null) {
                     sd.inProgressUnsubscribe.future.setSuccess(null);
                     sd.inProgressUnsubscribe = null;
@@ -863,34 +1312,64 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             }
         } else if (message instanceof DeliveryRequest) {
             DeliveryRequest dr = (DeliveryRequest)message;
-            final SubData sd = subscribedDestinations.get(new SubscriptionTopic(dr.topicPattern));
+            final SubData sd = getSubData(dr);
             if (sd == null) {
                 logger.data(methodName, "DeliveryRequest: subscribedDestination not found for " + dr.topicPattern);
+                if (dr.buf != null) {
+                    dr.buf.release();
+                    dr.buf = null;
+                }
             } else {
                 if (dr.qos == QOS.AT_LEAST_ONCE) {
+                    dr.sequence = ++sd.deliveryCount;
                     sd.pendingDeliveries.add(dr);
                 }
-                sd.listener.onDelivery(callbackService, dr, sd.qos, sd.autoConfirm);
+                if (sd.state != SubData.State.ESTABLISHED) {
+                    // e.g. an unsubscribe is in progress, so the delivery cannot be confirmed
+                    dr.invalidate();
+                }
+                if (sd.listener.onDelivery(callbackService, dr, sd.descriptor.getQOS(), sd.descriptor.getAutoConfirm())) {
+                    pendingBatches.add(sd.listener);
+                }
+                if (sd.publisher != null) {
+                    sd.publisher.deliveryReceived();
+                    flowDemand(sd);
+                }
             }
-        } else if (message instanceof DeliveryResponse) {
+        } else if (message instanceof DeliveriesReadNotification) {
+            for (DestinationListenerWrapper<?> listener : pendingBatches) {
+                listener.onDeliveriesRead(callbackService, timer);
+            }
+            pendingBatches.clear();
+        } else if (message instanceof DeliveriesResponse) {
             // delivery settlement has been actioned client-side
-            final DeliveryRequest dr = ((DeliveryResponse) message).request;
-            final SubData sd =
-                    subscribedDestinations.get(new SubscriptionTopic(dr.topicPattern));
-
-            if (sd != null) {
-                final boolean success = (dr.qos == QOS.AT_MOST_ONCE || sd.pendingDeliveries.remove(dr));
-                if (!success) {
-                    logger.data("Unexpected DeliveryResponse received {} from {} ", dr, message.getSender());
-                }
-
-                // if we've now cleared the backlog of pending deliveries, requeue any pending work for the sub
-                if (sd.pendingDeliveries.isEmpty()) {
-                    while (!sd.pending.isEmpty()) {
-                        Message m = (Message) sd.pending.removeFirst();
-                        tell(m, m.getSender()); // Put this back into the queue of events
+            for (DeliveryRequest dr : ((DeliveriesResponse) message).requests) {
+                deliverySettled(dr, message);
+            }
+        } else if (message instanceof InternalDemand) {
+            final InternalDemand demand = (InternalDemand) message;
+            demand.publisher.addDemand(demand.n);
+            final SubData sd = demand.publisher.subData;
+            if (sd != null && !sd.removed) {
+                flowDemand(sd);
+            }
+        } else if (message instanceof InternalConfirm) {
+            final DeliveryRequest request = ((InternalConfirm) message).request;
+            final SubData sd = getSubData(request);
+            if (sd != null && sd.state == SubData.State.ESTABLISHED) {
+                // Claim each unconfirmed delivery that arrived no later than the requested one
+                final List<DeliveryRequest> requests = new ArrayList<>();
+                for (DeliveryRequest dr : sd.pendingDeliveries) {
+                    if (dr.sequence > request.sequence) break;
+                    if (dr.confirm()) {
+                        requests.add(dr);
                     }
                 }
+                if (!requests.isEmpty()) {
+                    settlements.addAll(requests);
+                }
+            } else {
+                logger.data(methodName, "InternalConfirm: subscription not established for " + request.topicPattern);
             }
         } else if (message instanceof DisconnectNotification) {
             remakingInboundLinks = false;
@@ -917,11 +1396,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         } else if (message instanceof FlushResponse) {
             stateMachine.fire(NonBlockingClientTrigger.INBOUND_WORK_COMPLETE);
         } else if (message instanceof DrainNotification) {
-            undrainedSends = 0;
-            if (pendingDrain) {
-                pendingDrain = false;
-                clientListener.onDrain(callbackService);
-            }
+            notifyIfDrained();
         } else if (message instanceof CallbackExceptionNotification) {
             Exception exception = ((CallbackExceptionNotification)message).exception;
             logger.data(this, methodName, "Exception thrown from inside callback", exception);
@@ -959,7 +1434,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "openConnection";
         logger.entry(this, methodName);
 
-        engine.tell(new OpenRequest(currentEndpoint, clientId), this);
+        engine.tell(new OpenRequest(currentEndpoint, clientId, maxRetainedLinks), this);
 
         logger.exit(this, methodName);
     }
@@ -971,7 +1446,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
 
         for (Map.Entry<SubscriptionTopic, SubData> entry : subscribedDestinations.entrySet()) {
             final SubData sd = entry.getValue();
-            sd.pendingDeliveries.clear();
+            sd.invalidatePendingDeliveries();
         }
         engine.tell(new CloseRequest(currentConnection), this);
 
@@ -1014,8 +1489,12 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             for (Map.Entry<SubscriptionTopic, SubData>entry : subscribedDestinations.entrySet()) {
                 SubData data = entry.getValue();
                 data.state = SubData.State.ATTACHING;
-                SubscribeRequest sr = new SubscribeRequest(currentConnection, entry.getKey(), data.qos, data.credit, data.ttl);
+                SubscribeRequest sr = new SubscribeRequest(currentConnection, entry.getKey(), data.descriptor.getQOS(), data.credit, data.ttl, data.creditController, data.descriptor);
                 engine.tell(sr, this);
+                if (data.publisher != null) {
+                    data.publisher.linkRemade();
+                    flowDemand(data);
+                }
             }
         }
 
@@ -1041,48 +1520,47 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "cleanup";
         logger.entry(this, methodName);
 
-        // Fire a drain notification if required.
-        undrainedSends = 0;
-        if (pendingDrain) {
-            pendingDrain = false;
-            clientListener.onDrain(callbackService);
-        }
-
         // Flush any pending subscribe operations into pending work queue
+        final Set<Object> orderingContexts = new LinkedHashSet<>(unflushedOrderingContexts);
         for (Map.Entry<SubscriptionTopic, SubData> entry : subscribedDestinations.entrySet()) {
             SubData subData = entry.getValue();
+            Collections.addAll(orderingContexts, subData.listener.getOrderingContexts());
             if (subData.inProgressSubscribe != null) {
                 subData.inProgressSubscribe.future.setFailure(new StoppedException("Cannot subscribe because the client is in stopped state"));
                 subData.inProgressSubscribe = null;
             }
             if (subData.state == SubData.State.ESTABLISHED) {
-                String parts[] = entry.getKey().split();
-                subData.listener.onUnsubscribed(callbackService, parts[0], parts[1], null);
+                subData.listener.onUnsubscribed(callbackService, entry.getKey().getTopicPattern(), entry.getKey().getShare(), null);
             }
             if (subData.inProgressUnsubscribe != null) {
                 subData.inProgressUnsubscribe.future.setFailure(new StoppedException("Cannot unsubscribe because the client is in stopped state"));
                 subData.inProgressUnsubscribe = null;
             }
-            subData.pendingDeliveries.clear();
+            subData.removed = true;
+            subData.invalidatePendingDeliveries();
             while (!subData.pending.isEmpty()) {
                 pendingWork.addLast(subData.pending.removeFirst());
             }
         }
         subscribedDestinations.clear();
+        creditControllers.clear();
 
         // For any inflight sends - fail AT_LEAST_ONCE, succeed AT_MOST_ONCE
         for (InternalSend<?> send : outstandingSends.values()) {
+            releaseSend(send);
             if (send.qos == QOS.AT_MOST_ONCE) {
                 send.future.setSuccess(null);
             } else {
                 send.future.setFailure(new StoppedException("Cannot send messages because the client is in stopped state"));
             }
         }
+        outstandingSends.clear();
 
         // Fail any pending work
         for (QueueableWork work : pendingWork) {
             if (work instanceof InternalSend<?>) {
                 InternalSend<?> is = (InternalSend<?>)work;
+                releaseSend(is);
                 StoppedException stoppedException = new StoppedException("Cannot send messages because the client is in stopped state");
                 is.future.setFailure(stoppedException);
             } else if (work instanceof InternalSubscribe<?>) {
@@ -1095,6 +1573,10 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                 iu.future.setFailure(stoppedException);
             }
         }
+        pendingWork.clear();
+
+        // Fire a drain notification if required.
+        notifyIfDrained();
 
         timerPromise = null;
         currentConnection = null;
@@ -1103,10 +1585,58 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
 
         // Ask the callback service to notify us when it has completed any previously
         // requested callback invocations (via a FlushResponse message to the onReceive() method)
-        callbackService.run(new Runnable() {
-            @Override
-            public void run() {}
-        }, this, new CallbackPromiseImpl(this, false));
+        orderingContexts.remove(this);
+        flushCallbacks(orderingContexts.iterator());
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Records the ordering contexts of a subscription that has been removed, until the callbacks
+     * already queued against them have run, so that {@link #cleanup()} can wait for those callbacks.
+     */
+    private void trackUnflushed(Object[] orderingContexts) {
+        final String methodName = "trackUnflushed";
+        logger.entry(this, methodName, orderingContexts);
+
+        for (final Object orderingCtx : orderingContexts) {
+            if (orderingCtx != this && unflushedOrderingContexts.add(orderingCtx)) {
+                callbackService.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        unflushedOrderingContexts.remove(orderingCtx);
+                    }
+                }, orderingCtx, new CallbackPromiseImpl(this, true));
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Runs an empty callback against each ordering context in turn, and finally against the
+     * client itself.  As each callback is only scheduled once the previous one has run, the
+     * final callback (which results in a {@link FlushResponse}) runs only after all of the
+     * callbacks previously requested against any of the ordering contexts have completed.
+     */
+    private void flushCallbacks(final Iterator<Object> orderingContexts) {
+        final String methodName = "flushCallbacks";
+        logger.entry(this, methodName, orderingContexts);
+
+        if (orderingContexts.hasNext()) {
+            final Object orderingCtx = orderingContexts.next();
+            callbackService.run(new Runnable() {
+                @Override
+                public void run() {
+                    flushCallbacks(orderingContexts);
+                }
+            }, orderingCtx, new CallbackPromiseImpl(this, true));
+        } else {
+            callbackService.run(new Runnable() {
+                @Override
+                public void run() {}
+            }, this, new CallbackPromiseImpl(this, false));
+        }
 
         logger.exit(this, methodName);
     }
@@ -1264,14 +1794,10 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "breakInboundLinks";
         logger.entry(this, methodName);
 
-        undrainedSends = 0;
-        if (pendingDrain) {
-            pendingDrain = false;
-            clientListener.onDrain(callbackService);
-        }
         for (InternalSend<?> sendRequest : outstandingSends.values()) {
             if (sendRequest.qos == QOS.AT_MOST_ONCE) {
                 // We don't know if the message made it or not - but based on this QOS - we have to assume it did...
+                releaseSend(sendRequest);
                 sendRequest.future.setSuccess(null);
             } else {
                 // And for this QOS - we can be pessimistic and assume it didn't...
@@ -1279,10 +1805,11 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             }
         }
         outstandingSends.clear();
+        notifyIfDrained();
 
         for (Map.Entry<SubscriptionTopic, SubData>entry : subscribedDestinations.entrySet()) {
             final SubData subData = entry.getValue();
-            subData.pendingDeliveries.clear();
+            subData.invalidatePendingDeliveries();
             while (!subData.pending.isEmpty()) {
                 pendingWork.addLast(subData.pending.removeFirst());
             }
@@ -1293,28 +1820,102 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     }
 
     /**
-     * Pass a {@link DeliveryResponse} back to the engine which will settle the delivery (in the
-     * AT_LEAST_ONCE case) and flow deliveryCount++ and link-credit to the remote end
+     * Queue a delivery, that the caller has claimed using {@link DeliveryRequest#confirm()}, to be
+     * settled by the engine.  The engine settles the delivery (in the AT_LEAST_ONCE case) and flows
+     * link-credit to the remote end.  This may be called from any thread, and takes no locks.
      *
      * @param request the {@link DeliveryRequest} to process.
-     * @return true == it might have worked, false == it really didn't work!
      */
-    protected boolean doDelivery(DeliveryRequest request) {
+    protected void doDelivery(DeliveryRequest request) {
         final String methodName = "doDelivery";
         logger.entry(this, methodName, request);
 
-        final SubData sd =
-                subscribedDestinations.get(new SubscriptionTopic(request.topicPattern));
-        boolean result = false;
-        if (sd == null) {
-            logger.data(methodName, "subscribedDestination not found for " + request.topicPattern);
-        } else if (sd.state == SubData.State.ESTABLISHED) {
-            result = (request.qos == QOS.AT_MOST_ONCE || sd.pendingDeliveries.contains(request));
-            if (result) {
-                engine.tell(new DeliveryResponse(request), this);
+        settlements.add(request);
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Gives the server more link credit for a subscription made by a {@link DeliveryPublisherImpl},
+     * if its subscriber's demand calls for it and the subscription's link is (being) attached.
+     */
+    private void flowDemand(SubData sd) {
+        if (sd.state == SubData.State.ATTACHING || sd.state == SubData.State.ESTABLISHED) {
+            final int credit = sd.publisher.creditToFlow(sd.credit);
+            if (credit > 0) {
+                engine.tell(new FlowRequest(currentConnection, sd.descriptor.getTopic(), credit), this);
             }
+        }
+    }
+
+    private void putSubscription(SubscriptionTopic topic, SubData sd) {
+        subscribedDestinations.put(topic, sd);
+        if (sd.creditController != null) {
+            creditControllers.put(topic, sd.creditController);
+        }
+    }
+
+    private SubData removeSubscription(SubscriptionTopic topic) {
+        creditControllers.remove(topic);
+        return subscribedDestinations.remove(topic);
+    }
+
+    /**
+     * @return the client's state for the subscription that a delivery was made for, or
+     *         <code>null</code> if the client is no longer subscribed.  Deliveries normally refer to
+     *         their subscription directly - only those that do not are looked up by topic.
+     */
+    private SubData getSubData(DeliveryRequest dr) {
+        final SubData sd;
+        if (dr.subscription != null) {
+            sd = dr.subscription.subData;
+        } else {
+            sd = subscribedDestinations.get(new SubscriptionTopic(dr.topicPattern));
+        }
+        return (sd == null || sd.removed) ? null : sd;
+    }
+
+    /**
+     * Removes a delivery, that the engine has settled, from those pending for its subscription.
+     */
+    private void deliverySettled(DeliveryRequest dr, Message message) {
+        final SubData sd = getSubData(dr);
+
+        if (sd != null) {
+            final boolean success = (dr.qos == QOS.AT_MOST_ONCE || sd.pendingDeliveries.remove(dr));
+            if (!success) {
+                logger.data("Unexpected settlement received {} from {} ", dr, message.getSender());
+            }
+
+            // if we've now cleared the backlog of pending deliveries, requeue any pending work for the sub
+            if (sd.pendingDeliveries.isEmpty()) {
+                while (!sd.pending.isEmpty()) {
+                    Message m = (Message) sd.pending.removeFirst();
+                    tell(m, m.getSender()); // Put this back into the queue of events
+                }
+            }
+        }
+    }
+
+    /**
+     * Confirm a delivery, and all of the unconfirmed deliveries that arrived before it for the same
+     * subscription.  The deliveries to confirm are worked out when the client processes the request,
+     * and are then added to the client's {@link SettlementQueue}, so that the engine settles them
+     * together (in response to a {@link com.ibm.mqlight.api.impl.engine.SettleRequest}).
+     *
+     * @param request the {@link DeliveryRequest} of the latest delivery to confirm.
+     * @return true == it might have worked, false == it really didn't work!
+     */
+    protected boolean doDeliveriesUpTo(DeliveryRequest request) {
+        final String methodName = "doDeliveriesUpTo";
+        logger.entry(this, methodName, request);
+
+        boolean result = false;
+        if (request.isInvalidated()) {
+            logger.data(methodName, "delivery can no longer be confirmed: " + request);
         } else {
-            logger.data(methodName, "subscription not in ESTABLISHED state for: " + sd);
+            tell(new InternalConfirm(request), this);
+            result = true;
         }
 
         logger.exit(this, methodName, result);
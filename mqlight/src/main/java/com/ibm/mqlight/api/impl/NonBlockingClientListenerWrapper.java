@@ -51,7 +51,7 @@ class NonBlockingClientListenerWrapper<T>{
         if (listener != null) {
             callbackService.run(new Runnable() {
                 public void run() {
-                    listener.onRestarted(client, context);
+                    listener.onRestarted(client.getFacade(), context);
                 }
             }, client, new CallbackPromiseImpl(client, true));
         }
@@ -66,7 +66,7 @@ class NonBlockingClientListenerWrapper<T>{
         if (listener != null) {
             callbackService.run(new Runnable() {
                 public void run() {
-                    listener.onRetrying(client, context, exception);
+                    listener.onRetrying(client.getFacade(), context, exception);
                 }
             }, client, new CallbackPromiseImpl(client, true));
         }
@@ -81,7 +81,7 @@ class NonBlockingClientListenerWrapper<T>{
         if (listener != null) {
             callbackService.run(new Runnable() {
                 public void run() {
-                    listener.onStarted(client, context);
+                    listener.onStarted(client.getFacade(), context);
                 }
             }, client, new CallbackPromiseImpl(client, true));
         }
@@ -96,7 +96,7 @@ class NonBlockingClientListenerWrapper<T>{
         if (listener != null) {
             callbackService.run(new Runnable() {
                 public void run() {
-                    listener.onStopped(client, context, exception);
+                    listener.onStopped(client.getFacade(), context, exception);
                 }
             }, client, new CallbackPromiseImpl(client, true));
         }
@@ -111,7 +111,7 @@ class NonBlockingClientListenerWrapper<T>{
         if (listener != null) {
             callbackService.run(new Runnable() {
                 public void run() {
-                    listener.onDrain(client, context);
+                    listener.onDrain(client.getFacade(), context);
                 }
             }, client, new CallbackPromiseImpl(client, true));
         }
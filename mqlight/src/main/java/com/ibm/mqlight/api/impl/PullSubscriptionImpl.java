@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DestinationListener;
+import com.ibm.mqlight.api.MalformedDelivery;
+import com.ibm.mqlight.api.NonBlockingClient;
+import com.ibm.mqlight.api.PullSubscription;
+import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * Holds the deliveries for a pull subscription until the application polls for them.  The client's
+ * thread adds each delivery request as it arrives (without involving the callback service), and the
+ * polling thread creates the delivery - then confirms it, if the subscription confirms automatically.
+ * Until then the delivery is unsettled, and so keeps using one unit of the subscription's credit.
+ * <p>
+ * This is registered, in place of an application's listener, as the subscription's
+ * {@link DestinationListener} - so that it is told when the subscription ends.
+ */
+class PullSubscriptionImpl<T> implements PullSubscription, DestinationListener<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PullSubscriptionImpl.class);
+
+    private final ArrayDeque<DeliveryRequest> buffer = new ArrayDeque<>();
+    private DestinationListenerWrapper<T> wrapper;
+    private QOS qos;
+    private boolean autoConfirm;
+    private boolean unsubscribed = false;
+
+    /**
+     * Called by the wrapper for the subscription, which creates the deliveries.
+     */
+    synchronized void attach(DestinationListenerWrapper<T> wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    /**
+     * Adds a delivery request to the buffer.  Called on the client's thread.
+     */
+    synchronized void add(DeliveryRequest request, QOS qos, boolean autoConfirm) {
+        final String methodName = "add";
+        logger.entry(this, methodName, request, qos, autoConfirm);
+
+        if (unsubscribed) {
+            // The subscription has ended, so the delivery will never be polled for
+            release(request);
+            logger.exit(this, methodName);
+            return;
+        }
+        buffer.addLast(request);
+        this.qos = qos;
+        this.autoConfirm = autoConfirm;
+        if (buffer.size() == 1) {
+            notifyAll();
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Marks the subscription as ended, discarding any buffered deliveries (so that their buffers
+     * are returned to the pool, even if the application stops polling) and waking any threads
+     * waiting for deliveries.
+     */
+    synchronized void setUnsubscribed() {
+        final String methodName = "setUnsubscribed";
+        logger.entry(this, methodName);
+
+        unsubscribed = true;
+        while (!buffer.isEmpty()) {
+            release(buffer.removeFirst());
+        }
+        notifyAll();
+
+        logger.exit(this, methodName);
+    }
+
+    private static void release(DeliveryRequest request) {
+        if (request.buf != null) {
+            request.buf.release();
+            request.buf = null;
+        }
+    }
+
+    @Override
+    public List<Delivery> poll(long timeout, TimeUnit unit, int maxMessages) throws InterruptedException, IllegalArgumentException {
+        final String methodName = "poll";
+        logger.entry(this, methodName, timeout, unit, maxMessages);
+
+        if (timeout < 0) {
+            final IllegalArgumentException exception = new IllegalArgumentException("Timeout cannot be negative");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+        if (unit == null) {
+            final IllegalArgumentException exception = new IllegalArgumentException("TimeUnit cannot be null");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+        if (maxMessages < 1) {
+            final IllegalArgumentException exception = new IllegalArgumentException("Maximum number of messages must be at least 1");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+
+        final List<DeliveryRequest> requests;
+        final DestinationListenerWrapper<T> wrapper;
+        final QOS qos;
+        final boolean autoConfirm;
+        synchronized(this) {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (buffer.isEmpty() && !unsubscribed) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            requests = new ArrayList<>(Math.min(maxMessages, buffer.size()));
+            while (requests.size() < maxMessages && !buffer.isEmpty()) {
+                requests.add(buffer.removeFirst());
+            }
+            wrapper = this.wrapper;
+            qos = this.qos;
+            autoConfirm = this.autoConfirm;
+        }
+
+        final List<Delivery> result;
+        if (requests.isEmpty()) {
+            result = Collections.emptyList();
+        } else {
+            result = wrapper.takeDeliveries(requests, qos, autoConfirm);
+        }
+
+        logger.exit(this, methodName, result);
+
+        return result;
+    }
+
+    @Override
+    public synchronized int getBufferedCount() {
+        return buffer.size();
+    }
+
+    @Override
+    public synchronized boolean isUnsubscribed() {
+        return unsubscribed;
+    }
+
+    @Override
+    public void onMessage(NonBlockingClient client, T context, Delivery delivery) {
+        // Deliveries are added to the buffer, rather than passed to this method
+    }
+
+    @Override
+    public void onMalformed(NonBlockingClient client, T context, MalformedDelivery delivery) {
+        // Deliveries are added to the buffer, rather than passed to this method
+    }
+
+    @Override
+    public void onUnsubscribed(NonBlockingClient client, T context, String topicPattern, String share, Exception error) {
+        setUnsubscribed();
+    }
+}
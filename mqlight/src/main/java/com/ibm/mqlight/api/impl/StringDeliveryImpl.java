@@ -18,8 +18,6 @@
  */
 package com.ibm.mqlight.api.impl;
 
-import java.util.Map;
-
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.StringDelivery;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
@@ -32,11 +30,11 @@ class StringDeliveryImpl extends DeliveryImpl implements StringDelivery {
   
     private final String data;
     
-    protected StringDeliveryImpl(NonBlockingClientImpl client, QOS qos, String share, String topic, 
-                                 String topicPattern, long ttl, String data, Map<String, Object> properties, DeliveryRequest deliveryRequest) {
-        super(client, qos, share, topic, topicPattern, ttl, properties, deliveryRequest);
+    protected StringDeliveryImpl(NonBlockingClientImpl client, QOS qos, String share, String topicPattern,
+                                 org.apache.qpid.proton.message.Message msg, String data, DeliveryRequest deliveryRequest) {
+        super(client, qos, share, topicPattern, msg, deliveryRequest);
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, qos, share, topic, topicPattern, ttl, data, properties, deliveryRequest);
+        logger.entry(this, methodName, client, qos, share, topicPattern, msg, data, deliveryRequest);
         
         this.data = data;
         
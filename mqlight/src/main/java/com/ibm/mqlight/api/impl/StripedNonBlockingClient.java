@@ -0,0 +1,786 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.GsonBuilder;
+import com.ibm.mqlight.api.BatchDestinationListener;
+import com.ibm.mqlight.api.ClientException;
+import com.ibm.mqlight.api.ClientOptions;
+import com.ibm.mqlight.api.ClientOptions.SendDistribution;
+import com.ibm.mqlight.api.ClientRuntime;
+import com.ibm.mqlight.api.ClientState;
+import com.ibm.mqlight.api.CompletionListener;
+import com.ibm.mqlight.api.CreditMetrics;
+import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DeliveryPublisher;
+import com.ibm.mqlight.api.DestinationListener;
+import com.ibm.mqlight.api.MalformedDelivery;
+import com.ibm.mqlight.api.NonBlockingClient;
+import com.ibm.mqlight.api.NonBlockingClientListener;
+import com.ibm.mqlight.api.PullSubscription;
+import com.ibm.mqlight.api.SendOptions;
+import com.ibm.mqlight.api.StartingException;
+import com.ibm.mqlight.api.StateException;
+import com.ibm.mqlight.api.StoppedException;
+import com.ibm.mqlight.api.SubscribeOptions;
+import com.ibm.mqlight.api.SubscribedException;
+import com.ibm.mqlight.api.UnsubscribedException;
+import com.ibm.mqlight.api.callback.CallbackService;
+import com.ibm.mqlight.api.endpoint.EndpointService;
+import com.ibm.mqlight.api.impl.callback.ThreadPoolCallbackService;
+import com.ibm.mqlight.api.impl.engine.Engine;
+import com.ibm.mqlight.api.impl.network.NettyNetworkService;
+import com.ibm.mqlight.api.impl.timer.TimerServiceImpl;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+import com.ibm.mqlight.api.network.NetworkService;
+import com.ibm.mqlight.api.timer.TimerService;
+
+/**
+ * A client that spreads its work over several connections to the same server (see
+ * {@link ClientOptions.ClientOptionsBuilder#setConnections(int)}).  Each connection is made by a
+ * {@link NonBlockingClientImpl} - a stripe - with a client identifier derived from this client's.
+ * <ul>
+ * <li>Messages are sent over the stripe chosen by the {@link SendDistribution} option.</li>
+ * <li>A subscription without a share name is made on the stripe chosen by its topic pattern,
+ *     as are pull subscriptions and publishers.</li>
+ * <li>A subscription with a share name is made on every stripe, so that the server spreads the
+ *     messages at the shared destination across the connections.  Its destination listener is
+ *     told it has been unsubscribed once every stripe has been.  If any stripe fails to make the
+ *     subscription, it is unsubscribed from the other stripes again, and the subscribe fails.
+ *     (Messages may be passed to the destination listener before this happens.)</li>
+ * </ul>
+ * The stripes that hold each subscription are recorded, so that unsubscribing only involves them.
+ * Listeners are passed this client, rather than the stripe.  Callbacks for different stripes
+ * may run at the same time, on different threads.
+ */
+public class StripedNonBlockingClient extends NonBlockingClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(StripedNonBlockingClient.class);
+
+    private static final int MAX_CLIENT_ID_LENGTH = 256;
+
+    /** Creates one of the stripes of a striped client. */
+    interface StripeFactory {
+        NonBlockingClientImpl create(ClientOptions options, NonBlockingClient facade,
+                                     NonBlockingClientListener<Integer> listener, Integer stripe);
+    }
+
+    public static <T> NonBlockingClient create(final String service, ClientOptions options,
+                                               NonBlockingClientListener<T> listener, T context) {
+        // The stripes share the services that a single client would have used
+        final CallbackService callbackService = new ThreadPoolCallbackService(5);
+        final NetworkService networkService = new NettyNetworkService();
+        final TimerService timerService = new TimerServiceImpl();
+        return new StripedNonBlockingClient(options, new StripeFactory() {
+            @Override
+            public NonBlockingClientImpl create(ClientOptions stripeOptions, NonBlockingClient facade,
+                                                NonBlockingClientListener<Integer> stripeListener, Integer stripe) {
+                return new NonBlockingClientImpl(NonBlockingClientImpl.endpointService(service, stripeOptions),
+                        callbackService, new Engine(networkService, timerService), timerService, null,
+                        stripeOptions, facade, stripeListener, stripe);
+            }
+        }, listener, context);
+    }
+
+    public static <T> NonBlockingClient create(final String service, ClientOptions options, final ClientRuntime runtime,
+                                               NonBlockingClientListener<T> listener, T context) {
+        NonBlockingClientImpl.runtimeServices(runtime);
+        return new StripedNonBlockingClient(options, new StripeFactory() {
+            @Override
+            public NonBlockingClientImpl create(ClientOptions stripeOptions, NonBlockingClient facade,
+                                                NonBlockingClientListener<Integer> stripeListener, Integer stripe) {
+                return new NonBlockingClientImpl(NonBlockingClientImpl.endpointService(service, stripeOptions),
+                        runtime.getCallbackService(),
+                        new Engine(runtime.getNetworkService(), runtime.getTimerService(), runtime.getEventLoopAffinity()),
+                        runtime.getTimerService(), null, stripeOptions, facade, stripeListener, stripe);
+            }
+        }, listener, context);
+    }
+
+    public static <T> NonBlockingClient create(final EndpointService endpointService,
+                                               final CallbackService callbackService,
+                                               final NetworkService networkService,
+                                               final TimerService timerService,
+                                               final GsonBuilder gsonBuilder,
+                                               ClientOptions options,
+                                               NonBlockingClientListener<T> listener,
+                                               T context) {
+        return new StripedNonBlockingClient(options, new StripeFactory() {
+            @Override
+            public NonBlockingClientImpl create(ClientOptions stripeOptions, NonBlockingClient facade,
+                                                NonBlockingClientListener<Integer> stripeListener, Integer stripe) {
+                return new NonBlockingClientImpl(endpointService, callbackService, new Engine(networkService, timerService),
+                        timerService, gsonBuilder, stripeOptions, facade, stripeListener, stripe);
+            }
+        }, listener, context);
+    }
+
+    private final String id;
+    private final SendDistribution sendDistribution;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final NonBlockingClientImpl[] stripes;
+    private final Map<SubscriptionTopic, NonBlockingClientImpl[]> subscriptions = new HashMap<>();
+
+    protected <T> StripedNonBlockingClient(ClientOptions options, StripeFactory factory,
+                                           NonBlockingClientListener<T> listener, T context) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, options, factory, listener, context);
+
+        id = options.getId() != null ? options.getId() : NonBlockingClientImpl.newClientId();
+        sendDistribution = options.getSendDistribution();
+        stripes = new NonBlockingClientImpl[options.getConnections()];
+        final StripeListener<T> stripeListener = new StripeListener<>(stripes.length, listener, context);
+        for (int i = 0; i < stripes.length; ++i) {
+            final ClientOptions stripeOptions = ClientOptions.builder(options)
+                    .setId(stripeId(id, i))
+                    .setConnections(1)
+                    .build();
+            stripes[i] = factory.create(stripeOptions, this, stripeListener, i);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * @return the client identifier used by a stripe: the striped client's identifier, shortened
+     *         if needed, followed by an underscore and the stripe number.
+     */
+    static String stripeId(String id, int stripe) {
+        final String suffix = "_" + stripe;
+        if (id.length() + suffix.length() > MAX_CLIENT_ID_LENGTH) {
+            id = id.substring(0, MAX_CLIENT_ID_LENGTH - suffix.length());
+        }
+        return id + suffix;
+    }
+
+    /**
+     * Aggregates the life-cycle events of the stripes into those of the striped client.  The
+     * client is started once all of its stripes are, and stopped once all of its stripes are.
+     */
+    private static class StripeListener<T> implements NonBlockingClientListener<Integer> {
+
+        private final NonBlockingClientListener<T> listener;
+        private final T context;
+        private final boolean[] started;
+        private final boolean[] stopped;
+        private int startedCount = 0;
+        private int stoppedCount = 0;
+        private ClientException stoppedException = null;
+
+        private StripeListener(int stripes, NonBlockingClientListener<T> listener, T context) {
+            this.listener = listener;
+            this.context = context;
+            started = new boolean[stripes];
+            stopped = new boolean[stripes];
+        }
+
+        private boolean setStarted(int stripe) {
+            if (stopped[stripe]) {
+                stopped[stripe] = false;
+                --stoppedCount;
+            }
+            if (started[stripe]) return false;
+            started[stripe] = true;
+            return ++startedCount == started.length;
+        }
+
+        private void clearStarted(int stripe) {
+            if (started[stripe]) {
+                started[stripe] = false;
+                --startedCount;
+            }
+        }
+
+        // The application's listener is called once the monitor has been released, as a listener
+        // that blocks (or waits on another stripe's callback) would otherwise hold up every stripe
+
+        @Override
+        public void onStarted(NonBlockingClient client, Integer stripe) {
+            final boolean allStarted;
+            synchronized(this) {
+                allStarted = setStarted(stripe);
+            }
+            if (allStarted && listener != null) listener.onStarted(client, context);
+        }
+
+        @Override
+        public void onRestarted(NonBlockingClient client, Integer stripe) {
+            final boolean allStarted;
+            synchronized(this) {
+                allStarted = setStarted(stripe);
+            }
+            if (allStarted && listener != null) listener.onRestarted(client, context);
+        }
+
+        @Override
+        public void onRetrying(NonBlockingClient client, Integer stripe, ClientException exception) {
+            synchronized(this) {
+                clearStarted(stripe);
+            }
+            if (listener != null) listener.onRetrying(client, context, exception);
+        }
+
+        @Override
+        public void onStopped(NonBlockingClient client, Integer stripe, ClientException exception) {
+            final boolean allStopped;
+            ClientException reported = null;
+            synchronized(this) {
+                clearStarted(stripe);
+                if (stopped[stripe]) return;
+                stopped[stripe] = true;
+                if (stoppedException == null) stoppedException = exception;
+                allStopped = ++stoppedCount == stopped.length;
+                if (allStopped) {
+                    reported = stoppedException;
+                    stoppedException = null;
+                }
+            }
+            if (allStopped && listener != null) listener.onStopped(client, context, reported);
+        }
+
+        @Override
+        public void onDrain(NonBlockingClient client, Integer stripe) {
+            if (listener != null) listener.onDrain(client, context);
+        }
+    }
+
+    /**
+     * Completes an operation performed on several stripes: successfully once every stripe has
+     * succeeded, or with the first error reported by any stripe.
+     */
+    private static class AggregateCompletion<T> implements CompletionListener<T> {
+
+        private final CompletionListener<T> listener;
+        private int remaining;
+        private boolean failed = false;
+
+        private AggregateCompletion(CompletionListener<T> listener, int stripes) {
+            this.listener = listener;
+            this.remaining = stripes;
+        }
+
+        @Override
+        public void onSuccess(NonBlockingClient client, T context) {
+            final boolean complete;
+            synchronized(this) {
+                complete = --remaining == 0 && !failed;
+            }
+            if (complete && listener != null) listener.onSuccess(client, context);
+        }
+
+        @Override
+        public void onError(NonBlockingClient client, T context, Exception exception) {
+            final boolean first;
+            synchronized(this) {
+                --remaining;
+                first = !failed;
+                failed = true;
+            }
+            if (first && listener != null) listener.onError(client, context, exception);
+        }
+    }
+
+    /**
+     * Tracks a shared subscription as it is made on every stripe.  If any stripe fails to
+     * subscribe, the stripes that did subscribe are unsubscribed again, so that the subscription
+     * is either made on every stripe or on none of them.  The application's completion listener
+     * is called once every stripe has completed.
+     */
+    private class SharedSubscribe<T> {
+
+        private final SubscriptionTopic topic;
+        private final NonBlockingClientImpl[] holders;
+        private final SharedDestinationListener<T> destListener;
+        private final CompletionListener<T> listener;
+        private final boolean[] subscribed = new boolean[stripes.length];
+        private int remaining = stripes.length;
+        private Exception error = null;
+        private boolean abandoned = false;
+
+        private SharedSubscribe(SubscriptionTopic topic, NonBlockingClientImpl[] holders,
+                                SharedDestinationListener<T> destListener, CompletionListener<T> listener) {
+            this.topic = topic;
+            this.holders = holders;
+            this.destListener = destListener;
+            this.listener = listener;
+        }
+
+        private CompletionListener<T> completionFor(final int stripe) {
+            return new CompletionListener<T>() {
+                @Override
+                public void onSuccess(NonBlockingClient client, T context) {
+                    final boolean rollBack;
+                    final boolean complete;
+                    synchronized(SharedSubscribe.this) {
+                        subscribed[stripe] = true;
+                        rollBack = error != null;
+                        complete = --remaining == 0;
+                    }
+                    if (rollBack) rollBack(stripe);
+                    if (complete) complete(client, context);
+                }
+
+                @Override
+                public void onError(NonBlockingClient client, T context, Exception exception) {
+                    final boolean complete;
+                    synchronized(SharedSubscribe.this) {
+                        complete = --remaining == 0;
+                    }
+                    fail(exception);
+                    if (complete) complete(client, context);
+                }
+            };
+        }
+
+        /**
+         * Called if a stripe cannot make the subscription, when the subscribe method throws
+         * an exception rather than calling the completion listener.
+         */
+        private void abandon(Exception exception) {
+            synchronized(this) {
+                abandoned = true;
+            }
+            fail(exception);
+        }
+
+        private void fail(Exception exception) {
+            final List<Integer> rollBack = new ArrayList<>();
+            synchronized(this) {
+                if (error != null) return;
+                error = exception;
+                for (int i = 0; i < subscribed.length; ++i) {
+                    if (subscribed[i]) rollBack.add(i);
+                }
+            }
+            forget(topic, holders);
+            if (destListener != null) destListener.rollBack();
+            for (int stripe : rollBack) rollBack(stripe);
+        }
+
+        private void rollBack(int stripe) {
+            final String methodName = "rollBack";
+            logger.entry(this, methodName, stripe);
+
+            try {
+                stripes[stripe].unsubscribe(topic.getTopicPattern(), topic.getShare(), null, null);
+            } catch (UnsubscribedException | StoppedException e) {
+                // The stripe is no longer subscribed
+                logger.data(this, methodName, "Stripe {} is not subscribed: {}", stripe, e);
+            }
+
+            logger.exit(this, methodName);
+        }
+
+        private void complete(NonBlockingClient client, T context) {
+            final Exception reported;
+            synchronized(this) {
+                if (abandoned) return;
+                reported = error;
+            }
+            if (listener == null) return;
+            if (reported == null) {
+                listener.onSuccess(client, context);
+            } else {
+                listener.onError(client, context, reported);
+            }
+        }
+    }
+
+    /**
+     * The destination listener for a shared subscription, which is made on every stripe.  The
+     * application's listener is told it has been unsubscribed once every stripe has been - unless
+     * the subscription was rolled back, as a subscription that could not be made is not reported
+     * as unsubscribed.
+     */
+    private static class SharedDestinationListener<T> implements DestinationListener<T> {
+
+        private final DestinationListener<T> listener;
+        private int remaining;
+        private boolean rolledBack = false;
+        private Exception error = null;
+
+        private SharedDestinationListener(DestinationListener<T> listener, int stripes) {
+            this.listener = listener;
+            this.remaining = stripes;
+        }
+
+        private synchronized void rollBack() {
+            rolledBack = true;
+        }
+
+        @Override
+        public void onMessage(NonBlockingClient client, T context, Delivery delivery) {
+            listener.onMessage(client, context, delivery);
+        }
+
+        @Override
+        public void onMalformed(NonBlockingClient client, T context, MalformedDelivery delivery) {
+            listener.onMalformed(client, context, delivery);
+        }
+
+        @Override
+        public void onUnsubscribed(NonBlockingClient client, T context, String topicPattern, String share, Exception error) {
+            final boolean complete;
+            final Exception reported;
+            synchronized(this) {
+                if (this.error == null) this.error = error;
+                complete = --remaining == 0 && !rolledBack;
+                reported = this.error;
+            }
+            if (complete) listener.onUnsubscribed(client, context, topicPattern, share, reported);
+        }
+    }
+
+    private static class SharedBatchDestinationListener<T> extends SharedDestinationListener<T>
+            implements BatchDestinationListener<T> {
+
+        private final BatchDestinationListener<T> batchListener;
+
+        private SharedBatchDestinationListener(BatchDestinationListener<T> listener, int stripes) {
+            super(listener, stripes);
+            this.batchListener = listener;
+        }
+
+        @Override
+        public void onMessages(NonBlockingClient client, T context, List<Delivery> deliveries) {
+            batchListener.onMessages(client, context, deliveries);
+        }
+    }
+
+    /**
+     * Records the stripes that hold a subscription, so that it is only unsubscribed from those.
+     */
+    private void remember(SubscriptionTopic topic, NonBlockingClientImpl... holders) {
+        synchronized(subscriptions) {
+            subscriptions.put(topic, holders);
+        }
+    }
+
+    /**
+     * Removes the record of the stripes that hold a subscription.
+     * @param holders the record to remove, or <code>null</code> to remove whichever is held.
+     * @return the stripes that held the subscription, or <code>null</code> if none were recorded.
+     */
+    private NonBlockingClientImpl[] forget(SubscriptionTopic topic, NonBlockingClientImpl[] holders) {
+        synchronized(subscriptions) {
+            final NonBlockingClientImpl[] result = subscriptions.get(topic);
+            if (result != null && (holders == null || holders == result)) {
+                subscriptions.remove(topic);
+                return result;
+            }
+            return null;
+        }
+    }
+
+    private NonBlockingClientImpl[] holders(SubscriptionTopic topic) {
+        synchronized(subscriptions) {
+            return subscriptions.get(topic);
+        }
+    }
+
+    private NonBlockingClientImpl stripeFor(String topic) {
+        if (topic == null || stripes.length == 1) return stripes[0];
+        return stripes[(topic.hashCode() & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private NonBlockingClientImpl sendStripe(String topic) {
+        if (sendDistribution == SendDistribution.ROUND_ROBIN) {
+            return stripes[(nextStripe.getAndIncrement() & Integer.MAX_VALUE) % stripes.length];
+        }
+        return stripeFor(topic);
+    }
+
+    /**
+     * @return the number of connections that this client spreads its work over.
+     */
+    public int getConnections() {
+        return stripes.length;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getService() {
+        return stripes[0].getService();
+    }
+
+    /**
+     * @return the state of the client, derived from the states of its stripes.  If some, but not
+     *         all, of the stripes have stopped (for example, because one stopped on an error) the
+     *         client reports {@link ClientState#STOPPING}, as it does not start them again by itself:
+     *         the application should stop the client, and start it again if required.
+     */
+    @Override
+    public ClientState getState() {
+        boolean allStarted = true;
+        boolean allStopped = true;
+        boolean anyStopped = false;
+        boolean retrying = false;
+        for (NonBlockingClientImpl stripe : stripes) {
+            final ClientState state = stripe.getState();
+            if (state == ClientState.STOPPING) return ClientState.STOPPING;
+            allStarted &= state == ClientState.STARTED;
+            allStopped &= state == ClientState.STOPPED;
+            anyStopped |= state == ClientState.STOPPED;
+            retrying |= state == ClientState.RETRYING;
+        }
+        if (allStarted) return ClientState.STARTED;
+        if (allStopped) return ClientState.STOPPED;
+        if (anyStopped) return ClientState.STOPPING;
+        return retrying ? ClientState.RETRYING : ClientState.STARTING;
+    }
+
+    @Override
+    public <T> boolean send(String topic, String data, Map<String, Object> properties, SendOptions sendOptions,
+            CompletionListener<T> listener, T context) throws StoppedException, IllegalArgumentException {
+        return sendStripe(topic).send(topic, data, properties, sendOptions, listener, context);
+    }
+
+    @Override
+    public <T> boolean send(String topic, ByteBuffer data, Map<String, Object> properties, SendOptions sendOptions,
+            CompletionListener<T> listener, T context) throws StoppedException, IllegalArgumentException {
+        return sendStripe(topic).send(topic, data, properties, sendOptions, listener, context);
+    }
+
+    @Override
+    public <T> boolean send(String topic, Object json, Map<String, Object> properties, SendOptions sendOptions,
+            CompletionListener<T> listener, T context) throws StoppedException, IllegalArgumentException {
+        return sendStripe(topic).send(topic, json, properties, sendOptions, listener, context);
+    }
+
+    @Override
+    public <T> boolean send(String topic, Object json, Type type, Map<String, Object> properties, SendOptions sendOptions,
+            CompletionListener<T> listener, T context) throws StoppedException, IllegalArgumentException {
+        return sendStripe(topic).send(topic, json, type, properties, sendOptions, listener, context);
+    }
+
+    @Override
+    public <T> boolean sendJson(String topic, String json, Map<String, Object> properties, SendOptions sendOptions,
+            CompletionListener<T> listener, T context) throws StoppedException, IllegalArgumentException {
+        return sendStripe(topic).sendJson(topic, json, properties, sendOptions, listener, context);
+    }
+
+    @Override
+    public <T> boolean sendBatch(String topic, List<?> data, Map<String, Object> properties, SendOptions sendOptions,
+            CompletionListener<T> listener, T context) throws StoppedException, IllegalArgumentException {
+        return sendStripe(topic).sendBatch(topic, data, properties, sendOptions, listener, context);
+    }
+
+    @Override
+    public <T> NonBlockingClient start(CompletionListener<T> listener, T context) throws StoppedException {
+        final String methodName = "start";
+        logger.entry(this, methodName, listener, context);
+
+        final CompletionListener<T> completion = listener == null ? null : new AggregateCompletion<>(listener, stripes.length);
+        for (NonBlockingClientImpl stripe : stripes) {
+            stripe.start(completion, context);
+        }
+
+        logger.exit(this, methodName, this);
+
+        return this;
+    }
+
+    @Override
+    public <T> void stop(CompletionListener<T> listener, T context) throws StartingException {
+        final String methodName = "stop";
+        logger.entry(this, methodName, listener, context);
+
+        final CompletionListener<T> completion = listener == null ? null : new AggregateCompletion<>(listener, stripes.length);
+        for (NonBlockingClientImpl stripe : stripes) {
+            stripe.stop(completion, context);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    public <T> NonBlockingClient subscribe(String topicPattern, SubscribeOptions subOptions,
+            DestinationListener<T> destListener, CompletionListener<T> compListener, T context)
+            throws SubscribedException, StoppedException, IllegalArgumentException {
+        final String methodName = "subscribe";
+        logger.entry(this, methodName, topicPattern, subOptions, destListener, compListener, context);
+
+        final SubscriptionTopic topic = new SubscriptionTopic(topicPattern, subOptions == null ? null : subOptions.getShareName());
+        if (!topic.isShared() || stripes.length == 1) {
+            final NonBlockingClientImpl stripe = stripeFor(topicPattern);
+            stripe.subscribe(topicPattern, subOptions, destListener, compListener, context);
+            remember(topic, stripe);
+        } else {
+            SharedDestinationListener<T> shared = null;
+            if (destListener instanceof BatchDestinationListener) {
+                shared = new SharedBatchDestinationListener<>((BatchDestinationListener<T>)destListener, stripes.length);
+            } else if (destListener != null) {
+                shared = new SharedDestinationListener<>(destListener, stripes.length);
+            }
+            final NonBlockingClientImpl[] holders = stripes.clone();
+            final SharedSubscribe<T> subscribe = new SharedSubscribe<>(topic, holders, shared, compListener);
+            remember(topic, holders);
+            for (int i = 0; i < stripes.length; ++i) {
+                try {
+                    stripes[i].subscribe(topicPattern, subOptions, shared, subscribe.completionFor(i), context);
+                } catch (RuntimeException e) {
+                    // Unsubscribe the stripes that have already been asked to subscribe
+                    subscribe.abandon(e);
+                    logger.throwing(this, methodName, e);
+                    throw e;
+                }
+            }
+        }
+
+        logger.exit(this, methodName, this);
+
+        return this;
+    }
+
+    @Override
+    public <T> PullSubscription pullSubscribe(String topicPattern, SubscribeOptions subOptions,
+            CompletionListener<T> compListener, T context)
+            throws SubscribedException, StoppedException, IllegalArgumentException {
+        final SubscriptionTopic topic = new SubscriptionTopic(topicPattern, subOptions == null ? null : subOptions.getShareName());
+        final NonBlockingClientImpl stripe = stripeFor(topicPattern);
+        final PullSubscription result = stripe.pullSubscribe(topicPattern, subOptions, compListener, context);
+        remember(topic, stripe);
+        return result;
+    }
+
+    @Override
+    public DeliveryPublisher createPublisher(String topicPattern, SubscribeOptions subOptions) throws IllegalArgumentException {
+        // The publisher subscribes when it is subscribed to, which is done on this stripe - the
+        // same stripe that unsubscribe uses for subscriptions that it has no record of
+        return stripeFor(topicPattern).createPublisher(topicPattern, subOptions);
+    }
+
+    @Override
+    public <T> NonBlockingClient unsubscribe(String topicPattern, String share, int ttl, CompletionListener<T> listener, T context)
+            throws UnsubscribedException, StoppedException, IllegalArgumentException {
+        final String methodName = "unsubscribe";
+        logger.entry(this, methodName, topicPattern, share, ttl, listener, context);
+
+        unsubscribe(topicPattern, share, Integer.valueOf(ttl), listener, context);
+
+        logger.exit(this, methodName, this);
+
+        return this;
+    }
+
+    @Override
+    public <T> NonBlockingClient unsubscribe(String topicPattern, String share, CompletionListener<T> listener, T context)
+            throws UnsubscribedException, StoppedException, IllegalArgumentException {
+        final String methodName = "unsubscribe";
+        logger.entry(this, methodName, topicPattern, share, listener, context);
+
+        unsubscribe(topicPattern, share, null, listener, context);
+
+        logger.exit(this, methodName, this);
+
+        return this;
+    }
+
+    /**
+     * Unsubscribes the stripes that hold a subscription.  A subscription with no record is
+     * unsubscribed from the stripe chosen by its topic pattern, which reports the error if the
+     * client is not subscribed.
+     */
+    private <T> void unsubscribe(String topicPattern, String share, Integer ttl, CompletionListener<T> listener, T context)
+            throws UnsubscribedException, StoppedException, IllegalArgumentException {
+        final SubscriptionTopic topic = new SubscriptionTopic(topicPattern, share);
+        NonBlockingClientImpl[] holders = forget(topic, null);
+        if (holders == null) holders = new NonBlockingClientImpl[] {stripeFor(topicPattern)};
+
+        final CompletionListener<T> completion = listener == null || holders.length == 1
+                ? listener : new AggregateCompletion<>(listener, holders.length);
+        for (int i = 0; i < holders.length; ++i) {
+            try {
+                if (ttl == null) {
+                    holders[i].unsubscribe(topicPattern, share, completion, context);
+                } else {
+                    holders[i].unsubscribe(topicPattern, share, ttl, completion, context);
+                }
+            } catch (RuntimeException e) {
+                // The stripes that have not been asked to unsubscribe still hold the subscription,
+                // as does this stripe if it rejected the arguments
+                final int from = e instanceof IllegalArgumentException ? i : i + 1;
+                if (from < holders.length) {
+                    remember(topic, Arrays.copyOfRange(holders, from, holders.length));
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void confirm(Collection<? extends Delivery> deliveries) throws StateException, IllegalArgumentException {
+        final String methodName = "confirm";
+        logger.entry(this, methodName, deliveries);
+
+        if (deliveries == null) {
+            final IllegalArgumentException exception = new IllegalArgumentException("Deliveries cannot be null");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+
+        // Group the deliveries by the stripe that received them, checking they were all received by this client
+        final IdentityHashMap<NonBlockingClientImpl, List<Delivery>> byStripe = new IdentityHashMap<>();
+        for (NonBlockingClientImpl stripe : stripes) byStripe.put(stripe, new ArrayList<Delivery>());
+        for (Delivery delivery : deliveries) {
+            final List<Delivery> stripeDeliveries = delivery instanceof DeliveryImpl
+                    ? byStripe.get(((DeliveryImpl)delivery).getClient()) : null;
+            if (stripeDeliveries == null) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Delivery " + delivery + " was not received by this client");
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+            stripeDeliveries.add(delivery);
+        }
+        for (Map.Entry<NonBlockingClientImpl, List<Delivery>> entry : byStripe.entrySet()) {
+            if (!entry.getValue().isEmpty()) entry.getKey().confirm(entry.getValue());
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    public CreditMetrics getCreditMetrics(String topicPattern, String share) throws IllegalArgumentException {
+        final NonBlockingClientImpl[] holders = holders(new SubscriptionTopic(topicPattern, share));
+        if (holders == null) return stripeFor(topicPattern).getCreditMetrics(topicPattern, share);
+
+        // A shared subscription is made on every stripe - report one of them
+        CreditMetrics result = null;
+        for (int i = 0; result == null && i < holders.length; ++i) {
+            result = holders[i].getCreditMetrics(topicPattern, share);
+        }
+        return result;
+    }
+}
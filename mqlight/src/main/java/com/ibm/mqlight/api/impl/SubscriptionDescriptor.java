@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import com.ibm.mqlight.api.QOS;
+
+/**
+ * Describes a subscription, as made by the client: resolved once, when the subscription is made,
+ * and then carried (by reference) on each delivery for the subscription.  This means that
+ * delivering a message needs no parsing of the topic, or lookups keyed by it.
+ * <p>
+ * Instances are immutable.
+ */
+public final class SubscriptionDescriptor {
+
+    private final SubscriptionTopic topic;
+    private final QOS qos;
+    private final boolean autoConfirm;
+    private final boolean creditOnDemand;
+    final DestinationListenerWrapper<?> listener;
+
+    // The client's (mutable) state for the subscription that this describes
+    final NonBlockingClientImpl.SubData subData;
+
+    SubscriptionDescriptor(SubscriptionTopic topic, QOS qos, boolean autoConfirm, boolean creditOnDemand,
+                           DestinationListenerWrapper<?> listener, NonBlockingClientImpl.SubData subData) {
+        this.topic = topic;
+        this.qos = qos;
+        this.autoConfirm = autoConfirm;
+        this.creditOnDemand = creditOnDemand;
+        this.listener = listener;
+        this.subData = subData;
+    }
+
+    public SubscriptionTopic getTopic() {
+        return topic;
+    }
+
+    public String getTopicPattern() {
+        return topic.getTopicPattern();
+    }
+
+    public String getShare() {
+        return topic.getShare();
+    }
+
+    public QOS getQOS() {
+        return qos;
+    }
+
+    public boolean getAutoConfirm() {
+        return autoConfirm;
+    }
+
+    /**
+     * @return <code>true</code> if link credit is only given to the server when the application
+     *         asks for more deliveries, rather than as deliveries are settled.
+     */
+    public boolean getCreditOnDemand() {
+        return creditOnDemand;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionDescriptor [topic=" + topic + ", qos=" + qos + ", autoConfirm=" + autoConfirm
+                + ", creditOnDemand=" + creditOnDemand + "]";
+    }
+}
@@ -28,6 +28,11 @@ public class SubscriptionTopic {
   
   private final String topic;
   private final boolean shared;
+
+  // The topic pattern and share name that the topic is made up from, parsed once (when the
+  // subscription is made, or the link is named) rather than each time they are needed
+  private final String topicPattern;
+  private final String share;
   
   public SubscriptionTopic(String topicPattern, String shareName) {
     final String methodName = "<init>";
@@ -37,6 +42,7 @@ public class SubscriptionTopic {
     if (shareName == null || "".equals(shareName)) {
         subTopic = "private:" + topicPattern;
         shared = false;
+        share = null;
     } else {
         if (shareName.contains(":")) {
           final IllegalArgumentException exception = new IllegalArgumentException("Share name cannot contain a colon (:) character");
@@ -45,8 +51,10 @@ public class SubscriptionTopic {
         }
         subTopic = "share:" + shareName + ":" + topicPattern;
         shared = true;
+        share = shareName;
     }
     topic = subTopic;
+    this.topicPattern = topicPattern;
     
     logger.exit(this, methodName);
   }
@@ -56,6 +64,14 @@ public class SubscriptionTopic {
     logger.entry(this, methodName, topic);
     this.topic = topic;
     shared = false;
+    if (topic.startsWith("share:")) {
+        final int colon = topic.indexOf(':', "share:".length());
+        share = topic.substring("share:".length(), colon);
+        topicPattern = topic.substring(colon + 1);
+    } else {
+        share = null;
+        topicPattern = topic.startsWith("private:") ? topic.substring("private:".length()) : topic;
+    }
     logger.exit(this, methodName);
   }
 
@@ -67,28 +83,28 @@ public class SubscriptionTopic {
     return shared;
   }
 
-  public String[] split() {
-    final String methodName = "split";
-    logger.entry(methodName);
-
-    String topicPattern;
-    String share;
-    if (topic.startsWith("share:")) {
-        share = topic.substring("share:".length());
-        topicPattern = share.substring(share.indexOf(':')+1);
-        share = share.substring(0, share.indexOf(':'));
-    } else {
-        topicPattern = topic.substring("private:".length());
-        share = null;
-    }
+  /**
+   * @return the topic pattern that the subscription was made with.
+   */
+  public String getTopicPattern() {
+    return topicPattern;
+  }
 
-    final String [] result = new String[] {topicPattern, share};
+  /**
+   * @return the share name that the subscription was made with, or <code>null</code> for a
+   *         private subscription.
+   */
+  public String getShare() {
+    return share;
+  }
 
-    logger.exit(methodName, result);
+  /**
+   * @return a two element array of the topic pattern and share name (or <code>null</code>).
+   */
+  public String[] split() {
+    return new String[] {topicPattern, share};
+  }
 
-    return result;
-}
-  
   public String toString() {
     return topic;
   }
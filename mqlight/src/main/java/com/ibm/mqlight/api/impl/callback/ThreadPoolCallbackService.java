@@ -106,6 +106,7 @@ public class ThreadPoolCallbackService implements CallbackService {
 
     private final int poolSize;
     private final WorkList workLists[];
+    private final ThreadPoolExecutor executor;
 
     static class ThreadPoolCallbackServiceThreadFactory implements ThreadFactory {
         final ThreadFactory factory = Executors.defaultThreadFactory();
@@ -124,7 +125,7 @@ public class ThreadPoolCallbackService implements CallbackService {
         this.poolSize = poolSize;
         workLists = new WorkList[poolSize];
 
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, poolSize, 500, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadPoolCallbackServiceThreadFactory());
+        executor = new ThreadPoolExecutor(0, poolSize, 500, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadPoolCallbackServiceThreadFactory());
         for (int i = 0; i < poolSize; ++i) workLists[i] = new WorkList(executor);
 
         logger.exit(this, methodName);
@@ -142,4 +143,29 @@ public class ThreadPoolCallbackService implements CallbackService {
         logger.exit(this, methodName);
     }
 
+    /**
+     * Stops the service from accepting any further callbacks.  Callbacks which
+     * have already been accepted are still run.
+     */
+    public void shutdown() {
+        final String methodName = "shutdown";
+        logger.entry(this, methodName);
+
+        executor.shutdown();
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Waits for callbacks accepted before {@link #shutdown()} to complete.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of <code>timeout</code>.
+     * @return {@code true} if the service has terminated, {@code false} if the
+     *         timeout elapsed first.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
 }
@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import java.util.List;
+
+import com.ibm.mqlight.api.impl.Message;
+
+/**
+ * Notifies the successful completion of one or more sends, in the order that they completed.  All
+ * of the at most once sends whose data was written to the network by a single write, and all of the
+ * at least once sends settled by the data from a single network read, are completed by one of these
+ * messages rather than by a {@link SendResponse} each.
+ */
+public class BatchedSendResponse extends Message {
+
+    public final List<SendRequest> requests;
+    public BatchedSendResponse(List<SendRequest> requests) {
+        this.requests = requests;
+    }
+}
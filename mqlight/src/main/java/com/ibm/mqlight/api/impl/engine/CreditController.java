@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.mqlight.api.CreditMetrics;
+
+/**
+ * Sizes the credit window for a subscription from the rate at which its deliveries are settled
+ * and the round trip time to the server - in the style of a bandwidth-delay product estimator.
+ * The window is the number of deliveries that can be settled in a round trip, with some headroom,
+ * so that a fast consumer is not left waiting for credit to reach the server, and a slow consumer
+ * is not sent many more messages than it can process.
+ * <p>
+ * While the window limits the rate that deliveries can be settled, the measured rate (and so the
+ * window) roughly doubles each round trip.  Once the consumer, rather than the window, limits the
+ * rate the window settles at the size needed to keep the consumer busy.
+ * <p>
+ * The controller is updated by the Engine's thread.  The values exposed through
+ * {@link CreditMetrics} may be read from any thread.
+ */
+public class CreditController implements CreditMetrics {
+
+    /** The smallest window used, unless the maximum credit is smaller still. */
+    static final int MIN_WINDOW = 8;
+
+    /** The window used until the rate and round trip time have been measured. */
+    static final int INITIAL_WINDOW = 64;
+
+    /** How much larger than the measured bandwidth-delay product the window is made. */
+    static final double GAIN = 2.0;
+
+    /** The shortest period over which the settle rate is sampled. */
+    static final long RATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** The weight given to each new sample of the settle rate. */
+    static final double RATE_WEIGHT = 0.25;
+
+    /**
+     * How long the minimum round trip time is kept for before a larger sample replaces it.  Samples
+     * include any time that the server had no messages to send, so only the smallest is trusted.
+     */
+    static final long RTT_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int maxCredit;
+    private final int minWindow;
+
+    private long sampleStart;
+    private int settledInSample = 0;
+    private long flowTime = -1;
+    private long rttTime;
+
+    private volatile int window;
+    private volatile int outstanding = 0;
+    private volatile double rate = 0;   // deliveries per nanosecond
+    private volatile long rtt = 0;      // nanoseconds
+
+    public CreditController(int maxCredit) {
+        this.maxCredit = maxCredit;
+        this.minWindow = Math.min(MIN_WINDOW, maxCredit);
+        this.window = Math.min(INITIAL_WINDOW, maxCredit);
+    }
+
+    /**
+     * Called when the subscription's link is opened (or re-opened, after the connection to the
+     * server has been re-established).
+     *
+     * @return the credit to give the server.
+     */
+    public int initialCredit() {
+        return initialCredit(System.nanoTime());
+    }
+
+    int initialCredit(long now) {
+        sampleStart = now;
+        settledInSample = 0;
+        flowTime = now;
+        outstanding = window;
+        return window;
+    }
+
+    /**
+     * Called when a delivery is received.
+     */
+    public void deliveryReceived() {
+        if (flowTime >= 0) {
+            deliveryReceived(System.nanoTime());
+        }
+    }
+
+    void deliveryReceived(long now) {
+        if (flowTime >= 0) {
+            final long sample = now - flowTime;
+            flowTime = -1;
+            if (rtt == 0 || sample <= rtt || now - rttTime > RTT_EXPIRY_NANOS) {
+                rtt = Math.max(sample, 1);
+                rttTime = now;
+            }
+        }
+    }
+
+    /**
+     * Called once deliveries have been settled, to decide whether to give the server more credit.
+     *
+     * @param settled the number of deliveries settled since this method was last called.
+     * @param credit the credit that the server has not yet used.
+     * @param unsettled the number of deliveries received, but not yet settled.
+     * @return the credit to give the server, which is zero if no credit should be given yet.
+     */
+    public int creditToFlow(int settled, int credit, int unsettled) {
+        return creditToFlow(settled, credit, unsettled, System.nanoTime());
+    }
+
+    int creditToFlow(int settled, int credit, int unsettled, long now) {
+        settledInSample += settled;
+        final long elapsed = now - sampleStart;
+        if (elapsed >= RATE_INTERVAL_NANOS) {
+            final double sample = (double) settledInSample / elapsed;
+            rate = (rate == 0) ? sample : rate + RATE_WEIGHT * (sample - rate);
+            sampleStart = now;
+            settledInSample = 0;
+            if (rtt > 0) {
+                final double bdp = rate * rtt * GAIN;
+                window = (int) Math.max(minWindow, Math.min(maxCredit, Math.ceil(bdp)));
+            }
+        }
+
+        // Top up once a quarter of the window is free, or straight away if the server has no
+        // credit left - in which case the time until the next delivery is a round trip sample
+        final int available = window - credit - unsettled;
+        int result = 0;
+        if (available > 0 && (credit == 0 || available * 4 >= window)) {
+            if (credit == 0) {
+                flowTime = now;
+            }
+            result = available;
+        }
+        outstanding = credit + unsettled + result;
+        return result;
+    }
+
+    @Override
+    public int getMaxCredit() {
+        return maxCredit;
+    }
+
+    @Override
+    public int getCreditWindow() {
+        return window;
+    }
+
+    @Override
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+    @Override
+    public double getSettleRate() {
+        return rate * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getRoundTripTime(TimeUnit unit) {
+        return unit.convert(rtt, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "CreditController [maxCredit=" + maxCredit + ", window=" + window + ", outstanding=" + outstanding
+                + ", settleRate=" + getSettleRate() + ", rtt=" + rtt + "ns]";
+    }
+}
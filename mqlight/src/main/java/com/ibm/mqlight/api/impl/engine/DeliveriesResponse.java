@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import java.util.List;
+
+import com.ibm.mqlight.api.impl.Message;
+
+/**
+ * Sent from the Engine to the component that subscribed, once the deliveries from a
+ * {@link SettlementQueue} have been settled.  The deliveries are settled together: link credit is
+ * topped up, and the network written to, once rather than for each delivery.
+ */
+public class DeliveriesResponse extends Message {
+    public final List<DeliveryRequest> requests;
+    public DeliveriesResponse(List<DeliveryRequest> requests) {
+        this.requests = requests;
+    }
+}
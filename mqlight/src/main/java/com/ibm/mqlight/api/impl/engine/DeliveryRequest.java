@@ -18,28 +18,97 @@
  */
 package com.ibm.mqlight.api.impl.engine;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 import org.apache.qpid.proton.engine.Connection;
 import org.apache.qpid.proton.engine.Delivery;
 
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.impl.Message;
+import com.ibm.mqlight.api.impl.SubscriptionDescriptor;
 
 // Note: this is slightly unusual in that it is sent from the Engine to the
 //       component that issued the subscribe (rather than most messages in
 //       this package which are sent from some Component to the Engine component)
 public class DeliveryRequest extends Message {
 
-    public byte[] buf;
+    /**
+     * The message data, held in a (normally pooled) heap buffer.  Whoever takes the data from the
+     * request is responsible for releasing the buffer.
+     */
+    public ByteBuf buf;
     public final QOS qos;
     public final String topicPattern;
+    /**
+     * The subscription that the delivery was made for, as supplied when the subscription was made,
+     * or <code>null</code> if none was supplied.
+     */
+    public final SubscriptionDescriptor subscription;
     protected final Delivery delivery;
     protected final Connection protonConnection;
 
+    private static final int PENDING = 0;       // Awaiting confirmation
+    private static final int CONFIRMED = 1;     // Confirmed, and so settled (or about to be) by the Engine
+    private static final int INVALIDATED = 2;   // Can no longer be confirmed, as the link it arrived on has gone
+
+    private static final AtomicIntegerFieldUpdater<DeliveryRequest> stateUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(DeliveryRequest.class, "state");
+
+    /**
+     * Moves from pending to either confirmed or invalidated, exactly once, whichever thread gets
+     * there first - so that a delivery is only ever settled once, however it comes to be confirmed,
+     * and confirming a delivery needs no lookups in state owned by another thread.
+     */
+    private volatile int state = PENDING;
+
+    /**
+     * The order in which the delivery arrived at the component that subscribed, relative to the
+     * other deliveries for the same subscription.  Assigned by that component.
+     */
+    public long sequence;
+
     public DeliveryRequest(byte[] buf, QOS qos, String topicPattern, Delivery delivery, Connection protonConnection) {
+        this(buf == null ? null : Unpooled.wrappedBuffer(buf), qos, topicPattern, delivery, protonConnection);
+    }
+
+    public DeliveryRequest(ByteBuf buf, QOS qos, String topicPattern, Delivery delivery, Connection protonConnection) {
+        this(buf, qos, topicPattern, null, delivery, protonConnection);
+    }
+
+    public DeliveryRequest(ByteBuf buf, QOS qos, String topicPattern, SubscriptionDescriptor subscription, Delivery delivery, Connection protonConnection) {
         this.buf = buf;
         this.qos = qos;
         this.topicPattern = topicPattern;
+        this.subscription = subscription;
         this.delivery = delivery;
         this.protonConnection = protonConnection;
     }
+
+    /**
+     * Claims the delivery for confirmation.
+     *
+     * @return <code>true</code> if the delivery was pending, and the caller is now responsible for
+     *         having it settled.  <code>false</code> if it has already been confirmed or invalidated.
+     */
+    public boolean confirm() {
+        return stateUpdater.compareAndSet(this, PENDING, CONFIRMED);
+    }
+
+    /**
+     * Prevents a pending delivery from being confirmed, because the link it arrived on has gone.
+     */
+    public void invalidate() {
+        stateUpdater.compareAndSet(this, PENDING, INVALIDATED);
+    }
+
+    public boolean isConfirmed() {
+        return state == CONFIRMED;
+    }
+
+    public boolean isInvalidated() {
+        return state == INVALIDATED;
+    }
 }
@@ -18,14 +18,16 @@
  */
 package com.ibm.mqlight.api.impl.engine;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.util.EnumSet;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Symbol;
@@ -65,11 +67,9 @@ import com.ibm.mqlight.api.NotPermittedException;
 import com.ibm.mqlight.api.Promise;
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.ReplacedException;
-import com.ibm.mqlight.api.StateException;
 import com.ibm.mqlight.api.SubscribedException;
 import com.ibm.mqlight.api.impl.ComponentImpl;
 import com.ibm.mqlight.api.impl.Message;
-import com.ibm.mqlight.api.impl.SubscriptionTopic;
 import com.ibm.mqlight.api.impl.network.ConnectResponse;
 import com.ibm.mqlight.api.impl.network.ConnectionError;
 import com.ibm.mqlight.api.impl.network.DataRead;
@@ -114,10 +114,23 @@ public class Engine extends ComponentImpl implements Handler {
 
     private final NetworkService network;
     private final TimerService timer;
+    private final boolean eventLoopAffinity;
 
     public Engine(NetworkService network, TimerService timer) {
+        this(network, timer, false);
+    }
+
+    /**
+     * @param network used to establish network connections.
+     * @param timer used to drive keep-alives and idle timeouts.
+     * @param eventLoopAffinity when {@code true}, and the network channel for a connection
+     *        is also an {@link Executor}, all of the engine's processing is run by that
+     *        executor once the connection is established.  For the Netty network service,
+     *        this is the event loop performing the connection's I/O.
+     */
+    public Engine(NetworkService network, TimerService timer, boolean eventLoopAffinity) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, network, timer);
+        logger.entry(this, methodName, network, timer, eventLoopAffinity);
 
         if (network == null) {
           final IllegalArgumentException exception = new IllegalArgumentException("NetworkService argument cannot be null");
@@ -131,6 +144,7 @@ public class Engine extends ComponentImpl implements Handler {
         }
         this.network = network;
         this.timer = timer;
+        this.eventLoopAffinity = eventLoopAffinity;
 
         logger.exit(this, methodName);
     }
@@ -176,8 +190,13 @@ public class Engine extends ComponentImpl implements Handler {
 
                 EngineConnection engineConnection = new EngineConnection(protonConnection, session, or.getSender(), transport, collector, cr.channel);
                 engineConnection.openRequest = or;
+                engineConnection.maxRetainedLinks = or.maxRetainedLinks;
                 protonConnection.setContext(engineConnection);
                 cr.channel.setContext(engineConnection);
+                if (eventLoopAffinity && cr.channel instanceof Executor) {
+                    // Process everything for the connection on its I/O thread
+                    setExecutor((Executor)cr.channel);
+                }
 
                 // Write any data from Proton to the network.
                 writeToNetwork(engineConnection);
@@ -196,61 +215,21 @@ public class Engine extends ComponentImpl implements Handler {
             writeToNetwork(engineConnection);
         } else if (message instanceof SendRequest) {
             SendRequest sr = (SendRequest)message;
-
-            EngineConnection engineConnection = sr.connection;
-
-            // Look to see if there is already a suitable sending link, and open one if there is not...
-            Link link = sr.connection.connection.linkHead(EnumSet.of(EndpointState.ACTIVE),
-                EnumSet.of(EndpointState.ACTIVE, EndpointState.UNINITIALIZED));
-            Sender linkSender;
-            boolean linkOpened = false;
-            while(true) {
-              if (link == null) {
-                linkSender = sr.connection.session.sender(sr.topic);
-                Source source = new Source();
-                Target target = new Target();
-                source.setAddress(sr.topic);
-                target.setAddress(sr.topic);
-                linkSender.setSource(source);
-                linkSender.setTarget(target);
-                linkSender.open();
-                linkOpened = true;
-                break;
-              }
-              if ((link instanceof Sender) && sr.topic.equals(link.getName())) {
-                linkSender = (Sender)link;
-                break;
-              }
-              link = link.next(EnumSet.of(EndpointState.ACTIVE),
-                  EnumSet.of(EndpointState.ACTIVE, EndpointState.UNINITIALIZED));
-            }
-            Delivery d = linkSender.delivery(String.valueOf(engineConnection.deliveryTag++).getBytes(Charset.forName("UTF-8")));
-
-            linkSender.send(sr.buf.array(), 0, sr.length);
-
-            if (sr.qos == QOS.AT_MOST_ONCE) {
-              d.settle();
-              if (!sr.retainLink) {
-                linkSender.close();
-                linkSender.free();
-              }
-            } else {
-              engineConnection.inProgressOutboundDeliveries.put(d, sr);
+            processSendRequest(sr);
+            writeToNetwork(sr.connection);
+
+        } else if (message instanceof SendBatchRequest) {
+            // Transfer every message in the batch to proton before writing anything, so that the
+            // whole batch is flushed to the network as a single write
+            SendBatchRequest sbr = (SendBatchRequest)message;
+            EngineConnection engineConnection = null;
+            for (SendRequest sr : sbr.requests) {
+                processSendRequest(sr);
+                engineConnection = sr.connection;
             }
-            linkSender.advance();
-            engineConnection.drained = false;
-            int delta = engineConnection.transport.head().remaining();
-            // If the link was also opened as part of processing this request then increase the
-            // amount of data expected (as the linkSender.send() won't count against the amount of
-            // data in transport.head() unless there is link credit - which there won't be until
-            // the server responds to the link open).
-            if (linkOpened) {
-              delta += sr.length;
-            }
-            if (sr.qos == QOS.AT_MOST_ONCE) {
-              engineConnection.addInflightQos0(delta, new SendResponse(sr, null), sr.getSender(), this);
+            if (engineConnection != null) {
+                writeToNetwork(engineConnection);
             }
-            writeToNetwork(engineConnection);
 
         } else if (message instanceof SubscribeRequest) {
             SubscribeRequest sr = (SubscribeRequest) message;
@@ -261,7 +240,10 @@ public class Engine extends ComponentImpl implements Handler {
                 sr.getSender().tell(new SubscribeResponse(engineConnection, sr.topic, exception), this);
             } else {
                 Receiver linkReceiver = sr.connection.session.receiver(sr.topic.getTopic());
-                engineConnection.subscriptionData.put(sr.topic.toString(), new EngineConnection.SubscriptionData(sr.getSender(), sr.initialCredit, linkReceiver));
+                final EngineConnection.SubscriptionData subData =
+                        new EngineConnection.SubscriptionData(sr.getSender(), sr.initialCredit, linkReceiver, sr.creditController, sr.topic, sr.subscription);
+                engineConnection.subscriptionData.put(sr.topic.toString(), subData);
+                linkReceiver.setContext(subData);
                 Source source = new Source();
                 source.setAddress(sr.topic.getTopic());
                 Target target = new Target();
@@ -289,7 +271,11 @@ public class Engine extends ComponentImpl implements Handler {
                 }
 
                 linkReceiver.open();
-                linkReceiver.flow(sr.initialCredit);
+                // A link whose credit is driven by demand is given credit by a FlowRequest
+                final int credit = sr.creditController == null ? sr.initialCredit : sr.creditController.initialCredit();
+                if (credit > 0 && !subData.creditOnDemand) {
+                    linkReceiver.flow(credit);
+                }
 
                 writeToNetwork(engineConnection);
             }
@@ -320,33 +306,56 @@ public class Engine extends ComponentImpl implements Handler {
 
             writeToNetwork(engineConnection);
 
-        } else if (message instanceof DeliveryResponse) {
-            DeliveryResponse dr = (DeliveryResponse)message;
-            Delivery delivery = dr.request.delivery;
-            delivery.settle();
-
-            EngineConnection engineConnection = (EngineConnection)dr.request.protonConnection.getContext();
-            EngineConnection.SubscriptionData subData = engineConnection.subscriptionData.get(dr.request.topicPattern);
-            if (subData == null) {
-              if (dr.request.qos != QOS.AT_MOST_ONCE) {
-                throw new StateException("Client had unsubscribed from '" + dr.request.topicPattern + "' before delivery was confirmed");
-              }
+        } else if (message instanceof FlowRequest) {
+            FlowRequest fr = (FlowRequest) message;
+            EngineConnection engineConnection = fr.connection;
+            EngineConnection.SubscriptionData sd = engineConnection.subscriptionData.get(fr.topic.toString());
+            if (sd == null || engineConnection.closed) {
+                logger.data(this, methodName, "Not flowing credit as the link has gone: {}", fr.topic);
             } else {
-              subData.settled++;
-              subData.unsettled--;
-
-              double available = subData.maxLinkCredit - subData.unsettled;
-              if ((available / subData.settled) <= 1.25 ||
-                  (subData.unsettled == 0 && subData.settled > 0)) {
-                subData.receiver.flow(subData.settled);
-                subData.settled = 0;
-              }
+                sd.receiver.flow(fr.credit);
+                writeToNetwork(engineConnection);
             }
 
-            writeToNetwork(engineConnection);
+        } else if (message instanceof SettleRequest) {
+            // Settle all of the queued deliveries before considering whether to top up the credit
+            // of each link, so that credit is flowed (and the network written to) once per batch
+            List<DeliveryRequest> requests = ((SettleRequest)message).queue.drain();
+            List<DeliveryRequest> settled = new ArrayList<>(requests.size());
+            LinkedHashSet<EngineConnection> engineConnections = new LinkedHashSet<>();
+            LinkedHashSet<EngineConnection.SubscriptionData> subDatas = new LinkedHashSet<>();
+            for (DeliveryRequest request : requests) {
+                // Each request is settled on its own, so that one that fails does not stop the
+                // rest of the batch from being settled (and their credit from being flowed)
+                try {
+                    EngineConnection engineConnection = (EngineConnection)request.protonConnection.getContext();
+                    // The link may have gone while the delivery was queued
+                    if (engineConnection.closed ||
+                        (request.qos == QOS.AT_LEAST_ONCE && request.delivery.getLink().getContext() == null)) {
+                        logger.data(this, methodName, "Not settling delivery as its link has gone: {}", request);
+                    } else {
+                        engineConnections.add(engineConnection);
+                        EngineConnection.SubscriptionData subData = settleDelivery(request);
+                        if (subData != null) {
+                            subDatas.add(subData);
+                        }
+                        settled.add(request);
+                    }
+                } catch (RuntimeException e) {
+                    logger.ffdc(this, methodName, FFDCProbeId.PROBE_050, e, this, request);
+                }
+            }
+            for (EngineConnection.SubscriptionData subData : subDatas) {
+                flowCredit(subData);
+            }
+            for (EngineConnection engineConnection : engineConnections) {
+                writeToNetwork(engineConnection);
+            }
 
-            // send the DeliveryResponse back to indicate settlement has been actioned
-            engineConnection.requestor.tell(message, this);
+            // tell the component that queued the deliveries that settlement has been actioned
+            if (!settled.isEmpty()) {
+                message.getSender().tell(new DeliveriesResponse(settled), this);
+            }
 
         } else if (message instanceof WriteResponse) {
             // Message from network telling us that a write operation has completed...
@@ -355,7 +364,7 @@ public class Engine extends ComponentImpl implements Handler {
             EngineConnection engineConnection = (EngineConnection)wr.context;
             if (engineConnection != null) {
                 engineConnection.bytesWritten += wr.amount;
-                engineConnection.notifyInflightQos0(false);
+                engineConnection.notifyInflightQos0(false, this);
 
                 // If all buffered network data has been sent and the last send request could not be sent immediately
                 // then send a drain event to inform the client that it is ok to send more messages
@@ -386,6 +395,8 @@ public class Engine extends ComponentImpl implements Handler {
                         engineConnection.transport.process();
                         process(engineConnection.collector);
                     }
+                    engineConnection.notifySettledSends(this);
+                    engineConnection.notifyDeliveriesRead(this);
 
                     // Write any data from Proton to the network.
                     writeToNetwork(engineConnection);
@@ -399,7 +410,7 @@ public class Engine extends ComponentImpl implements Handler {
             CloseRequest cr = (CloseRequest)dr.context;
             if (cr != null) {
                 cr.connection.closed = true;
-                cr.connection.notifyInflightQos0(true);
+                cr.connection.notifyInflightQos0(true, this);
                 cr.getSender().tell(new CloseResponse(cr), this);
             }
         } else if (message instanceof ConnectionError) {
@@ -412,19 +423,34 @@ public class Engine extends ComponentImpl implements Handler {
                     engineConnection.timerPromise = null;
                     timer.cancel(tmp);
                 }
-                engineConnection.notifyInflightQos0(true);
+                engineConnection.notifyInflightQos0(true, this);
                 engineConnection.closed = true;
                 engineConnection.transport.close_tail();
                 engineConnection.requestor.tell(new DisconnectNotification(
                         engineConnection, ce.cause), this);
             }
         } else if (message instanceof PopResponse) {
+            // The timer for the connection has popped.  Proton's tick both sends
+            // any keep-alive needed by the server and checks the local idle
+            // timeout against the data received since the previous tick - so
+            // receiving data never needs to touch the timer.
             PopResponse pr = (PopResponse)message;
             EngineConnection engineConnection = (EngineConnection)pr.promise.getContext();
+            if (engineConnection.closed || engineConnection.timerPromise != pr.promise) {
+                logger.data(this, methodName, "Ignoring timer pop for closed connection or cancelled timer");
+                logger.exit(this, methodName);
+                return;
+            }
+            engineConnection.timerPromise = null;
             long now = System.currentTimeMillis();
             long timeout = engineConnection.transport.tick(now);
             logger.data(this, methodName, "Timeout: {}", timeout);
-            if (timeout > 0) {
+            if (engineConnection.closeRequest == null
+                    && engineConnection.connection.getLocalState() == EndpointState.CLOSED) {
+                // Nothing has been received from the server within the idle
+                // timeout, and Proton has closed the connection.
+                idleTimeoutExpired(engineConnection);
+            } else if (timeout > 0) {
                 TimerPromiseImpl promise = new TimerPromiseImpl(this, engineConnection);
                 engineConnection.timerPromise = promise;
                 logger.data(this, methodName, "Scheduling at: {}", timeout - now);
@@ -436,6 +462,113 @@ public class Engine extends ComponentImpl implements Handler {
         logger.exit(this, methodName);
     }
 
+    /**
+     * Transfers a message to proton, opening a sending link for the topic if required.  The
+     * caller is responsible for writing the resulting transport data to the network.
+     */
+    private void processSendRequest(SendRequest sr) {
+        final String methodName = "processSendRequest";
+        logger.entry(this, methodName, sr);
+
+        EngineConnection engineConnection = sr.connection;
+
+        // Look to see if there is already a suitable sending link, and open one if there is not...
+        Sender linkSender = engineConnection.senders.get(sr.topic);
+        boolean linkOpened = false;
+        if (linkSender != null && (linkSender.getLocalState() != EndpointState.ACTIVE
+                || linkSender.getRemoteState() == EndpointState.CLOSED)) {
+          // The link is closing, but the event that would have removed it has not yet been processed
+          engineConnection.removeSender(linkSender);
+          linkSender = null;
+        }
+        if (linkSender == null) {
+          linkSender = sr.connection.session.sender(sr.topic);
+          Source source = new Source();
+          Target target = new Target();
+          source.setAddress(sr.topic);
+          target.setAddress(sr.topic);
+          linkSender.setSource(source);
+          linkSender.setTarget(target);
+          linkSender.open();
+          linkOpened = true;
+          engineConnection.addSender(sr.topic, linkSender);
+          if (sr.retainLink) {
+            engineConnection.trimSenders(linkSender);
+          }
+        }
+        Delivery d = linkSender.delivery(engineConnection.nextDeliveryTag());
+
+        linkSender.send(sr.buf.array(), sr.buf.arrayOffset() + sr.buf.readerIndex(), sr.length);
+
+        if (sr.qos == QOS.AT_MOST_ONCE) {
+          d.settle();
+          if (!sr.retainLink) {
+            engineConnection.removeSender(linkSender);
+            linkSender.close();
+            linkSender.free();
+          }
+        } else {
+          engineConnection.inProgressOutboundDeliveries.put(d, sr);
+        }
+        linkSender.advance();
+        engineConnection.drained = false;
+        int delta = engineConnection.transport.head().remaining();
+        // If the link was also opened as part of processing this request then increase the
+        // amount of data expected (as the linkSender.send() won't count against the amount of
+        // data in transport.head() unless there is link credit - which there won't be until
+        // the server responds to the link open).
+        if (linkOpened) {
+          delta += sr.length;
+        }
+        if (sr.qos == QOS.AT_MOST_ONCE) {
+          engineConnection.addInflightQos0(delta, sr);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Settles a delivery, and accounts for it against the link that it was received on.
+     *
+     * @param request the delivery to settle.
+     * @return the subscription data for the link, or <code>null</code> if the client has since
+     *         unsubscribed from an at most once subscription.
+     */
+    private EngineConnection.SubscriptionData settleDelivery(DeliveryRequest request) {
+        EngineConnection.SubscriptionData subData = (EngineConnection.SubscriptionData)request.delivery.getLink().getContext();
+        request.delivery.settle();
+
+        if (subData != null) {
+          subData.settled++;
+          subData.unsettled--;
+        }
+        return subData;
+    }
+
+    /**
+     * Flows more link credit to the server, if enough deliveries have been settled since credit was
+     * last flowed (or, for adaptive credit, if enough of the credit window is free).  Credit is not
+     * flowed for a link whose credit is driven by demand, as it is asked for with a FlowRequest.
+     */
+    private static void flowCredit(EngineConnection.SubscriptionData subData) {
+        if (subData.creditOnDemand) {
+          subData.settled = 0;
+        } else if (subData.creditController != null) {
+          int credit = subData.creditController.creditToFlow(subData.settled, subData.receiver.getCredit(), subData.unsettled);
+          subData.settled = 0;
+          if (credit > 0) {
+            subData.receiver.flow(credit);
+          }
+        } else {
+          double available = subData.maxLinkCredit - subData.unsettled;
+          if ((available / subData.settled) <= 1.25 ||
+              (subData.unsettled == 0 && subData.settled > 0)) {
+            subData.receiver.flow(subData.settled);
+            subData.settled = 0;
+          }
+        }
+    }
+
     // Drains any pending data from a Proton transport object onto the network
     private void writeToNetwork(EngineConnection engineConnection) {
       final String methodName = "writeToNetwork";
@@ -452,43 +585,23 @@ public class Engine extends ComponentImpl implements Handler {
         logger.exit(this, methodName);
     }
 
-    /** Runs scheduled asynchronous Tasks. */
-    private final ScheduledExecutorService scheduler = java.util.concurrent.Executors.newScheduledThreadPool(1);
-    /** A scheduled task that runs if we receive no data from the client in the scheduled time. */
-    private ScheduledFuture<?> receiveScheduledFuture;
-
     /**
-     * Reset the local idle timers, now that we have received some data.
-     *
-     * If we have set an idle timeout the client must send some data at least that often,
-     * we double the timeout before checking.
+     * Reports a connection as disconnected because no data has been received from
+     * the server within the local idle timeout.
      */
-    private void resetReceiveIdleTimer(Event event) {
-        final String methodName = "resetReceiveIdleTimer";
-        logger.entry(this, methodName, event);
+    private void idleTimeoutExpired(EngineConnection engineConnection) {
+        final String methodName = "idleTimeoutExpired";
+        logger.entry(this, methodName, engineConnection);
+
+        engineConnection.notifyInflightQos0(true, this);
+        engineConnection.closed = true;
+        // Send the close frame that Proton has generated, before closing the channel.
+        writeToNetwork(engineConnection);
+        engineConnection.channel.close(new NetworkClosePromiseImpl(this, null));
+        engineConnection.requestor.tell(new DisconnectNotification(engineConnection,
+                new NetworkException("No data was received from the server within the idle timeout of "
+                        + engineConnection.transport.getIdleTimeout() + " milliseconds")), this);
 
-        if (receiveScheduledFuture != null) {
-            receiveScheduledFuture.cancel(false);
-        }
-
-        final Transport transport = event.getTransport();
-        if (transport != null) {
-            final int localIdleTimeOut = transport.getIdleTimeout();
-            if (localIdleTimeOut > 0) {
-                Runnable receiveTimeout = new Runnable() {
-                    @Override
-                    public void run() {
-                        final String methodName = "run";
-                        logger.entry(this, methodName);
-                        transport.process();
-                        transport.tick(System.currentTimeMillis());
-                        logger.exit(methodName);
-                    }
-                };
-                receiveScheduledFuture = scheduler.schedule(receiveTimeout,
-                        localIdleTimeOut, TimeUnit.MILLISECONDS);
-            }
-        }
         logger.exit(this, methodName);
     }
 
@@ -500,7 +613,6 @@ public class Engine extends ComponentImpl implements Handler {
             Event event = collector.peek();
             logger.data(this, methodName, "Processing event: {}", event.getType());
             event.dispatch(this);
-            resetReceiveIdleTimer(event);
 
             collector.pop();
         }
@@ -515,6 +627,8 @@ public class Engine extends ComponentImpl implements Handler {
         if (event.getConnection().getRemoteState() == EndpointState.CLOSED) {
             final ErrorCondition remoteCondition = event.getConnection().getRemoteCondition();
             final EngineConnection engineConnection = (EngineConnection)event.getConnection().getContext();
+            // Complete any sends settled earlier in the same read before reporting the connection as closed
+            engineConnection.notifySettledSends(this);
             if (engineConnection.timerPromise != null) {
                 TimerPromiseImpl tmp = engineConnection.timerPromise;
                 engineConnection.timerPromise = null;
@@ -523,7 +637,7 @@ public class Engine extends ComponentImpl implements Handler {
 
             if (event.getConnection().getLocalState() == EndpointState.CLOSED || engineConnection.openRequest == null) {
                 if (!engineConnection.closed) {
-                    engineConnection.notifyInflightQos0(true);
+                    engineConnection.notifyInflightQos0(true, this);
                     engineConnection.closed = true;
                     CloseRequest cr = engineConnection.closeRequest;
                     engineConnection.closeRequest = null;
@@ -538,7 +652,7 @@ public class Engine extends ComponentImpl implements Handler {
                 OpenRequest req = engineConnection.openRequest;
                 engineConnection.openRequest = null;
                 if (!engineConnection.closed) {
-                    engineConnection.notifyInflightQos0(true);
+                    engineConnection.notifyInflightQos0(true, this);
                     engineConnection.closed = true;
                     engineConnection.channel.close(null);
 
@@ -635,12 +749,12 @@ public class Engine extends ComponentImpl implements Handler {
                   final EngineConnection engineConnection = (EngineConnection)event.getConnection().getContext();
                   final EngineConnection.SubscriptionData sd = engineConnection.subscriptionData.get(link.getName());
                     if (link.getRemoteState() == EndpointState.ACTIVE) {
-                        sd.subscriber.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic(link.getName())), this);
+                        sd.subscriber.tell(new SubscribeResponse(engineConnection, sd.topic), this);
                     } else if (link.getRemoteState() == EndpointState.CLOSED) {
                         // link was immediately closed remotely after being ack'ed?
                         final ClientException clientException = getClientException(link.getRemoteCondition());
                         logger.data(this, methodName, event, clientException, this);
-                        sd.subscriber.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic(link.getName()), clientException), this);
+                        sd.subscriber.tell(new SubscribeResponse(engineConnection, sd.topic, clientException), this);
                     }
                 }
             } else if (eventType == Event.Type.LINK_REMOTE_CLOSE
@@ -660,11 +774,12 @@ public class Engine extends ComponentImpl implements Handler {
 
                     EngineConnection engineConnection = (EngineConnection)event.getConnection().getContext();
                     EngineConnection.SubscriptionData sd = engineConnection.subscriptionData.remove(link.getName());
+                    link.setContext(null);
 
                     if (sd == null) {
                       logger.ffdc(this, methodName, FFDCProbeId.PROBE_001, null, this, event);
                     } else {
-                        sd.subscriber.tell(new UnsubscribeResponse(engineConnection, new SubscriptionTopic(link.getName()), clientException), this);
+                        sd.subscriber.tell(new UnsubscribeResponse(engineConnection, sd.topic, clientException), this);
                     }
                 }
 
@@ -672,6 +787,7 @@ public class Engine extends ComponentImpl implements Handler {
         } else if (link instanceof Sender) {
             if (eventType == Event.Type.LINK_REMOTE_CLOSE &&
                     link.getRemoteState() == EndpointState.CLOSED) {
+                ((EngineConnection) event.getConnection().getContext()).removeSender(link);
                 if (link.getLocalState() != EndpointState.CLOSED) {
                     String msg = "The server indicated that our sending link was closed due to an error condition, ";
                     ErrorCondition remoteCondition = link.getRemoteCondition();
@@ -685,6 +801,7 @@ public class Engine extends ComponentImpl implements Handler {
                     }
                     logger.data(this, methodName, msg, link.getTarget().getAddress(), this);
                     EngineConnection engineConnection = (EngineConnection) event.getConnection().getContext();
+                    engineConnection.notifySettledSends(this);
                     for (Delivery delivery = link.head(); delivery != null; delivery = delivery.next()) {
                         SendRequest sr = engineConnection.inProgressOutboundDeliveries.remove(delivery);
                         if (sr != null && sr.getSender() != null) {
@@ -751,21 +868,34 @@ public class Engine extends ComponentImpl implements Handler {
               exception = new Exception("Message was modified");
           }
           if (!sr.retainLink) {
+              engineConnection.removeSender(event.getLink());
               event.getLink().close();
               event.getLink().free();
           }
-          sr.getSender().tell(new SendResponse(sr, exception), this);
+          if (exception == null) {
+              // Notified, along with any other sends settled by the same network read, once the read is processed
+              engineConnection.addSettledSend(sr);
+          } else {
+              engineConnection.notifySettledSends(this);
+              sr.getSender().tell(new SendResponse(sr, exception), this);
+          }
       } else if (delivery.isReadable() && !delivery.isPartial()) {    // Assuming link instanceof Receiver...
           Receiver receiver = (Receiver)event.getLink();
           int amount = delivery.pending();
-          byte[] data = new byte[amount];
-          receiver.recv(data, 0, amount);
+          // Received straight into a pooled buffer, which is released once the message is delivered
+          ByteBuf data = PooledByteBufAllocator.DEFAULT.heapBuffer(amount);
+          receiver.recv(data.array(), data.arrayOffset(), amount);
+          data.writerIndex(amount);
           receiver.advance();
 
-          EngineConnection.SubscriptionData subData = engineConnection.subscriptionData.get(event.getLink().getName());
+          EngineConnection.SubscriptionData subData = (EngineConnection.SubscriptionData)receiver.getContext();
           subData.unsettled++;
+          if (subData.creditController != null) {
+              subData.creditController.deliveryReceived();
+          }
           QOS qos = delivery.remotelySettled() ? QOS.AT_MOST_ONCE : QOS.AT_LEAST_ONCE;
-          subData.subscriber.tell(new DeliveryRequest(data, qos, event.getLink().getName(), delivery, event.getConnection()), this);
+          subData.subscriber.tell(new DeliveryRequest(data, qos, receiver.getName(), subData.subscription, delivery, event.getConnection()), this);
+          engineConnection.addDeliverySubscriber(subData.subscriber);
       }
 
       logger.exit(this, methodName);
@@ -18,17 +18,24 @@
  */
 package com.ibm.mqlight.api.impl.engine;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.apache.qpid.proton.engine.Collector;
 import org.apache.qpid.proton.engine.Connection;
 import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Link;
 import org.apache.qpid.proton.engine.Receiver;
+import org.apache.qpid.proton.engine.Sender;
 import org.apache.qpid.proton.engine.Session;
 import org.apache.qpid.proton.engine.Transport;
 
 import com.ibm.mqlight.api.impl.Component;
+import com.ibm.mqlight.api.impl.SubscriptionDescriptor;
+import com.ibm.mqlight.api.impl.SubscriptionTopic;
 import com.ibm.mqlight.api.impl.timer.TimerPromiseImpl;
 import com.ibm.mqlight.api.logging.Logger;
 import com.ibm.mqlight.api.logging.LoggerFactory;
@@ -42,63 +49,129 @@ public class EngineConnection {
     protected final Session session;
     protected final Component requestor;    // Used for sending "you've been disconnected notifications
 
-    protected static class PendingQos0Response{
-      
-        private static final Logger logger = LoggerFactory.getLogger(PendingQos0Response.class);
-      
-        long amount;
-        SendResponse response;
-        Component component;
-        Engine engine;
-        protected PendingQos0Response(long amount, SendResponse response, Component component, Engine engine) {
-            final String methodName = "<init>";
-            logger.entry(this, methodName, amount, response, component, engine);
-            
-            this.amount = amount;
-            this.response = response;
-            this.component = component;
-            this.engine = engine;
-            
-            logger.exit(this, methodName);
-        }
-    }
+    // The in-flight qos 0 transfers, in the order they were written to the AMQP transport.  These are held in
+    // a ring buffer, alongside the number of bytes that must have been written to the network before each one
+    // is complete, so that all of the transfers completed by a single network write can be notified together.
+    private SendRequest[] inflightQos0 = new SendRequest[16];
+    private long[] inflightQos0Offsets = new long[16];
+    private int inflightQos0Head = 0;
+    private int inflightQos0Count = 0;
 
-    // An (ordered) list of in-flight qos 0 transfers.  This is used to determine when to invoke
-    // the associated callback (as supplied to the send method) based on how much data has been
-    // written to the AMQP transport.
-    protected final LinkedList<PendingQos0Response> inflightQos0 = new LinkedList<>();
-
-    protected void addInflightQos0(int delta, SendResponse response, Component component, Engine engine) {
+    protected void addInflightQos0(int delta, SendRequest request) {
         final String methodName = "addInflightQos0";
-        logger.entry(this, methodName, delta, response, component, engine);
-      
-        inflightQos0.addLast(new PendingQos0Response(bytesWritten + delta, response, component, engine));
-        
+        logger.entry(this, methodName, delta, request);
+
+        if (inflightQos0Count == inflightQos0.length) {
+            final SendRequest[] requests = new SendRequest[inflightQos0.length * 2];
+            final long[] offsets = new long[inflightQos0.length * 2];
+            for (int i = 0; i < inflightQos0Count; ++i) {
+                final int index = (inflightQos0Head + i) & (inflightQos0.length - 1);
+                requests[i] = inflightQos0[index];
+                offsets[i] = inflightQos0Offsets[index];
+            }
+            inflightQos0 = requests;
+            inflightQos0Offsets = offsets;
+            inflightQos0Head = 0;
+        }
+        final int tail = (inflightQos0Head + inflightQos0Count) & (inflightQos0.length - 1);
+        inflightQos0[tail] = request;
+        inflightQos0Offsets[tail] = bytesWritten + delta;
+        ++inflightQos0Count;
+
         logger.exit(this, methodName);
     }
 
-    protected void notifyInflightQos0(boolean purge) {
+    protected void notifyInflightQos0(boolean purge, Component engine) {
         final String methodName = "notifyInflightQos0";
-        logger.entry(this, methodName, purge);
-      
-        while(!inflightQos0.isEmpty()) {
-            PendingQos0Response pendingResponse = inflightQos0.getFirst();
-            if (purge || (pendingResponse.amount <= bytesWritten)) {
-                inflightQos0.removeFirst();
-                pendingResponse.component.tell(pendingResponse.response, pendingResponse.engine);
-            } else {
+        logger.entry(this, methodName, purge, engine);
+
+        List<SendRequest> completed = null;
+        while (inflightQos0Count > 0) {
+            if (!purge && (inflightQos0Offsets[inflightQos0Head] > bytesWritten)) {
                 break;
             }
+            if (completed == null) {
+                completed = new ArrayList<>();
+            }
+            completed.add(inflightQos0[inflightQos0Head]);
+            inflightQos0[inflightQos0Head] = null;
+            inflightQos0Head = (inflightQos0Head + 1) & (inflightQos0.length - 1);
+            --inflightQos0Count;
         }
-        
+        if (completed != null) {
+            notifyCompleted(completed, engine);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    // At least once transfers that the server has settled successfully, but which have not yet been
+    // notified.  These are notified together, once all of the data from a network read has been processed.
+    private List<SendRequest> settledSends = new ArrayList<>();
+
+    protected void addSettledSend(SendRequest request) {
+        settledSends.add(request);
+    }
+
+    protected void notifySettledSends(Component engine) {
+        final String methodName = "notifySettledSends";
+        logger.entry(this, methodName, engine);
+
+        if (!settledSends.isEmpty()) {
+            final List<SendRequest> completed = settledSends;
+            settledSends = new ArrayList<>();
+            notifyCompleted(completed, engine);
+        }
+
         logger.exit(this, methodName);
     }
 
+    // The components that have been sent deliveries while processing the current network read.  Each
+    // is notified once all of the data from the read has been processed (normally there is only one).
+    private final List<Component> deliverySubscribers = new ArrayList<>(1);
+
+    protected void addDeliverySubscriber(Component subscriber) {
+        if (!deliverySubscribers.contains(subscriber)) {
+            deliverySubscribers.add(subscriber);
+        }
+    }
+
+    protected void notifyDeliveriesRead(Component engine) {
+        final String methodName = "notifyDeliveriesRead";
+        logger.entry(this, methodName, engine);
+
+        if (!deliverySubscribers.isEmpty()) {
+            for (Component subscriber : deliverySubscribers) {
+                subscriber.tell(new DeliveriesReadNotification(), engine);
+            }
+            deliverySubscribers.clear();
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Tells the component that made each of a list of send requests that they have completed successfully,
+     * using one message for each consecutive run of requests made by the same component.
+     */
+    private static void notifyCompleted(List<SendRequest> completed, Component engine) {
+        int start = 0;
+        for (int i = 1; i <= completed.size(); ++i) {
+            if (i == completed.size() || completed.get(i).getSender() != completed.get(start).getSender()) {
+                final List<SendRequest> requests = (start == 0 && i == completed.size()) ? completed : completed.subList(start, i);
+                completed.get(start).getSender().tell(new BatchedSendResponse(requests), engine);
+                start = i;
+            }
+        }
+    }
+
     protected final Transport transport;
     protected final Collector collector;
     protected final NetworkChannel channel;
     protected long deliveryTag = 0;
     protected final HashMap<Delivery, SendRequest> inProgressOutboundDeliveries = new HashMap<>();
+    // link name -> subscription.  The context of each receiver link also refers to the link's
+    // subscription data, for as long as it is in this map, so that deliveries need no lookup.
     protected final HashMap<String, SubscriptionData> subscriptionData = new HashMap<>();
     protected OpenRequest openRequest = null;
     protected CloseRequest closeRequest = null;
@@ -107,6 +180,81 @@ public class EngineConnection {
     protected boolean drained = true;
     protected long bytesWritten = 0;
 
+    /** Open sending links, keyed by topic, in least recently used order. */
+    protected final LinkedHashMap<String, Sender> senders = new LinkedHashMap<>(16, 0.75f, true);
+    /** The maximum number of sending links to keep open, or zero for no limit. */
+    protected int maxRetainedLinks = 0;
+
+    /**
+     * @return a tag for the next outbound delivery.  Tags are the shortest big-endian binary
+     *         encoding of an incrementing counter, which keeps them unique and as small as possible.
+     */
+    protected byte[] nextDeliveryTag() {
+        final long tag = deliveryTag++;
+        int length = 1;
+        for (long remaining = tag >>> 8; remaining != 0; remaining >>>= 8) {
+            ++length;
+        }
+        final byte[] result = new byte[length];
+        long remaining = tag;
+        for (int i = length - 1; i >= 0; --i) {
+            result[i] = (byte) remaining;
+            remaining >>>= 8;
+        }
+        return result;
+    }
+
+    /**
+     * Records a newly opened sending link.
+     */
+    protected void addSender(String topic, Sender sender) {
+        final String methodName = "addSender";
+        logger.entry(this, methodName, topic, sender);
+
+        senders.put(topic, sender);
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * If the number of open sending links is over the limit set by {@link #maxRetainedLinks} then
+     * closes the least recently used idle link.
+     */
+    protected void trimSenders(Sender inUse) {
+        final String methodName = "trimSenders";
+        logger.entry(this, methodName, inUse);
+
+        if (maxRetainedLinks > 0 && senders.size() > maxRetainedLinks) {
+            for (Iterator<Sender> it = senders.values().iterator(); it.hasNext(); ) {
+                final Sender eldest = it.next();
+                // Links with unsettled deliveries are left open, so as not to lose the outcome
+                if (eldest != inUse && eldest.getUnsettled() == 0 && eldest.getQueued() == 0) {
+                    logger.data(this, methodName, "closing least recently used link: {}", eldest.getName());
+                    it.remove();
+                    eldest.close();
+                    eldest.free();
+                    break;
+                }
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Stops tracking a sending link, because it has been (or is about to be) closed.
+     */
+    protected void removeSender(Link link) {
+        final String methodName = "removeSender";
+        logger.entry(this, methodName, link);
+
+        if (senders.get(link.getName()) == link) {
+            senders.remove(link.getName());
+        }
+
+        logger.exit(this, methodName);
+    }
+
     protected static class SubscriptionData {
       
         private static final Logger logger = LoggerFactory.getLogger(SubscriptionData.class);
@@ -116,13 +264,26 @@ public class EngineConnection {
         protected final Receiver receiver;
         protected int unsettled;
         protected int settled;
+        protected final CreditController creditController;
+        protected final SubscriptionTopic topic;
+        protected final SubscriptionDescriptor subscription;
+        // Credit is only flowed when asked for (by a FlowRequest), not as deliveries are settled
+        protected final boolean creditOnDemand;
         protected SubscriptionData(Component subscriber, int maxLinkCredit, Receiver receiver) {
+            this(subscriber, maxLinkCredit, receiver, null, null, null);
+        }
+        protected SubscriptionData(Component subscriber, int maxLinkCredit, Receiver receiver, CreditController creditController,
+                                   SubscriptionTopic topic, SubscriptionDescriptor subscription) {
             final String methodName = "<init>";
-            logger.entry(this, methodName, subscriber, subscriber, receiver);
+            logger.entry(this, methodName, subscriber, subscriber, receiver, creditController, topic, subscription);
             
             this.subscriber = subscriber;
             this.maxLinkCredit = maxLinkCredit;
             this.receiver = receiver;
+            this.creditController = creditController;
+            this.topic = topic;
+            this.subscription = subscription;
+            this.creditOnDemand = subscription != null && subscription.getCreditOnDemand();
             this.unsettled = 0;
             this.settled = 0;
             
@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import com.ibm.mqlight.api.impl.Message;
+import com.ibm.mqlight.api.impl.SubscriptionTopic;
+
+/**
+ * Asks the engine to give a subscription's link more credit.  Used for subscriptions whose credit
+ * is driven by the demand of the application, for which the engine does not replenish credit as
+ * deliveries are settled.
+ */
+public class FlowRequest extends Message {
+    public final EngineConnection connection;
+    public final SubscriptionTopic topic;
+    public final int credit;
+    public FlowRequest(EngineConnection connection, SubscriptionTopic topic, int credit) {
+        this.connection = connection;
+        this.topic = topic;
+        this.credit = credit;
+    }
+}
@@ -25,9 +25,15 @@ public class OpenRequest extends Message {
 
     public final Endpoint endpoint;
     public final String clientId;
-    
+    public final int maxRetainedLinks;
+
     public OpenRequest(Endpoint endpoint, String clientId) {
+        this(endpoint, clientId, 0);
+    }
+
+    public OpenRequest(Endpoint endpoint, String clientId, int maxRetainedLinks) {
         this.endpoint = endpoint;
         this.clientId = clientId;
+        this.maxRetainedLinks = maxRetainedLinks;
     }
 }
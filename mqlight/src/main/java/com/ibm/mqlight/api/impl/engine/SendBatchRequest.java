@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import java.util.List;
+
+import com.ibm.mqlight.api.impl.Component;
+import com.ibm.mqlight.api.impl.Message;
+
+/**
+ * A group of send requests that the engine processes as a unit, writing the resulting data to the
+ * network once.  A {@link SendResponse} is still sent for each individual request.
+ */
+public class SendBatchRequest extends Message {
+    public final List<SendRequest> requests;
+
+    public SendBatchRequest(List<SendRequest> requests) {
+        this.requests = requests;
+    }
+
+    @Override
+    protected void setSender(Component sender) {
+        super.setSender(sender);
+        for (SendRequest request : requests) {
+            request.setSender(sender);
+        }
+    }
+}
@@ -21,6 +21,7 @@ package com.ibm.mqlight.api.impl.engine;
 import io.netty.buffer.ByteBuf;
 
 import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.impl.Component;
 import com.ibm.mqlight.api.impl.Message;
 
 public class SendRequest extends Message {
@@ -39,8 +40,10 @@ public class SendRequest extends Message {
         this.qos = qos;
         this.retainLink = retainLink;
     }
-    
-    public void releaseBuf() {
-      buf.release();
+
+    // Overridden to make this method visible to SendBatchRequest
+    @Override
+    protected void setSender(Component sender) {
+        super.setSender(sender);
     }
 }
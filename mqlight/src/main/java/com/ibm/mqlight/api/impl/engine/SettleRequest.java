@@ -20,10 +20,12 @@ package com.ibm.mqlight.api.impl.engine;
 
 import com.ibm.mqlight.api.impl.Message;
 
-// Note: this is unusual for a response message in that it flows to the engine.
-public class DeliveryResponse extends Message {
-    public final DeliveryRequest request;
-    public DeliveryResponse(DeliveryRequest request) {
-        this.request = request;
+/**
+ * Sent to the Engine when a {@link SettlementQueue} has deliveries waiting to be settled.
+ */
+public class SettleRequest extends Message {
+    public final SettlementQueue queue;
+    public SettleRequest(SettlementQueue queue) {
+        this.queue = queue;
     }
 }
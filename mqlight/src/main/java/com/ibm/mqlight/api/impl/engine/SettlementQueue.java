@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ibm.mqlight.api.impl.Component;
+
+/**
+ * A lock-free queue of confirmed deliveries, waiting to be settled by the Engine.  Any thread may
+ * add to the queue.  The Engine is only told about the queue (with a {@link SettleRequest}) when it
+ * goes from empty to non-empty, and then settles everything in the queue together - so confirms
+ * made from many threads neither contend with each other nor each cost a message to the Engine.
+ */
+public class SettlementQueue {
+
+    private final ConcurrentLinkedQueue<DeliveryRequest> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Component engine;
+    private final Component requestor;
+
+    /**
+     * @param engine the Engine that settles the deliveries.
+     * @param requestor the component that confirms the deliveries.  It is the sender of each
+     *                  {@link SettleRequest}, so the Engine replies to it - with a
+     *                  {@link DeliveriesResponse} listing the deliveries that were settled.
+     */
+    public SettlementQueue(Component engine, Component requestor) {
+        this.engine = engine;
+        this.requestor = requestor;
+    }
+
+    /**
+     * Adds a delivery, that the caller has successfully claimed using {@link DeliveryRequest#confirm()}.
+     */
+    public void add(DeliveryRequest request) {
+        queue.offer(request);
+        schedule();
+    }
+
+    /**
+     * Adds deliveries, that the caller has successfully claimed using {@link DeliveryRequest#confirm()}.
+     */
+    public void addAll(Collection<DeliveryRequest> requests) {
+        queue.addAll(requests);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            engine.tell(new SettleRequest(this), requestor);
+        }
+    }
+
+    /**
+     * Takes everything from the queue.  Called by the Engine in response to a {@link SettleRequest}.
+     * Anything added after the queue has been emptied causes another <code>SettleRequest</code>.
+     */
+    public List<DeliveryRequest> drain() {
+        scheduled.set(false);
+        final List<DeliveryRequest> result = new ArrayList<>();
+        DeliveryRequest request;
+        while ((request = queue.poll()) != null) {
+            result.add(request);
+        }
+        return result;
+    }
+}
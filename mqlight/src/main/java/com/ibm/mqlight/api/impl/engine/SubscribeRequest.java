@@ -20,6 +20,7 @@ package com.ibm.mqlight.api.impl.engine;
 
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.impl.Message;
+import com.ibm.mqlight.api.impl.SubscriptionDescriptor;
 import com.ibm.mqlight.api.impl.SubscriptionTopic;
 
 public class SubscribeRequest extends Message {
@@ -28,12 +29,33 @@ public class SubscribeRequest extends Message {
     public final QOS qos;
     public final int initialCredit;
     public final long ttl;
-    
+    public final CreditController creditController;
+    public final SubscriptionDescriptor subscription;
+
     public SubscribeRequest(EngineConnection connection, SubscriptionTopic topic, QOS qos, int initialCredit, long ttl) {
+        this(connection, topic, qos, initialCredit, ttl, null);
+    }
+
+    /**
+     * @param creditController sizes the credit window for the subscription, or <code>null</code>
+     *                         for a fixed window of <code>initialCredit</code>.
+     */
+    public SubscribeRequest(EngineConnection connection, SubscriptionTopic topic, QOS qos, int initialCredit, long ttl, CreditController creditController) {
+        this(connection, topic, qos, initialCredit, ttl, creditController, null);
+    }
+
+    /**
+     * @param subscription describes the subscription, and is passed back (by reference) on each
+     *                     {@link DeliveryRequest} for it.  May be <code>null</code>.
+     */
+    public SubscribeRequest(EngineConnection connection, SubscriptionTopic topic, QOS qos, int initialCredit, long ttl,
+                            CreditController creditController, SubscriptionDescriptor subscription) {
         this.connection = connection;
         this.topic = topic;
         this.qos = qos;
         this.initialCredit = initialCredit;
         this.ttl = ttl;
+        this.creditController = creditController;
+        this.subscription = subscription;
     }
 }
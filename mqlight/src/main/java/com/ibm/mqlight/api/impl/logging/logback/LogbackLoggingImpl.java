@@ -44,6 +44,7 @@ import ch.qos.logback.core.joran.spi.JoranException;
 import ch.qos.logback.core.rolling.FixedWindowRollingPolicy;
 import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy;
+import ch.qos.logback.core.util.FileSize;
 import ch.qos.logback.core.util.StatusPrinter;
 
 import com.ibm.mqlight.api.ClientRuntimeException;
@@ -216,7 +217,7 @@ public class LogbackLoggingImpl {
 
       final SizeBasedTriggeringPolicy<ILoggingEvent> triggeringPolicy = new SizeBasedTriggeringPolicy<>();
       triggeringPolicy.setContext(context);
-      triggeringPolicy.setMaxFileSize(logOutput.getFileLimit());
+      triggeringPolicy.setMaxFileSize(FileSize.valueOf(logOutput.getFileLimit()));
       triggeringPolicy.start();
 
       rAppender.setRollingPolicy(rollingPolicy);
@@ -40,6 +40,7 @@ import java.nio.channels.UnresolvedAddressException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.LinkedList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
@@ -71,23 +72,39 @@ public class NettyNetworkService implements NetworkService {
     private static final Object bootstrapSync = new Object();
     private static Bootstrap bootstrap;
 
-    static class NettyInboundHandler extends ChannelInboundHandlerAdapter implements NetworkChannel {
+    /**
+     * The channel handler, which is also the {@link NetworkChannel} passed to the client.  As an
+     * {@link Executor}, it runs work on the event loop that performs the channel's I/O.
+     */
+    static class NettyInboundHandler extends ChannelInboundHandlerAdapter implements NetworkChannel, Executor {
 
         private static final Logger logger = LoggerFactory.getLogger(NettyInboundHandler.class);
 
         private final SocketChannel channel;
+        /** Whether the channel is counted as a use of the shared worker group. */
+        private final boolean sharedGroup;
         private NetworkListener listener = null;
         private final AtomicBoolean closed = new AtomicBoolean(false);
 
         protected NettyInboundHandler(SocketChannel channel) {
+            this(channel, true);
+        }
+
+        protected NettyInboundHandler(SocketChannel channel, boolean sharedGroup) {
             final String methodName = "<init>";
-            logger.entry(this, methodName, channel);
+            logger.entry(this, methodName, channel, sharedGroup);
 
             this.channel = channel;
+            this.sharedGroup = sharedGroup;
 
             logger.exit(this, methodName);
         }
 
+        @Override
+        public void execute(Runnable command) {
+            channel.eventLoop().execute(command);
+        }
+
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) {
             final String methodName = "channelRead";
@@ -163,7 +180,7 @@ public class NettyNetworkService implements NetworkService {
                 if (listener != null) {
                     listener.onClose(this);
                 }
-                decrementUseCount();
+                if (sharedGroup) decrementUseCount();
             }
 
             logger.exit(this, methodName);
@@ -191,10 +208,10 @@ public class NettyNetworkService implements NetworkService {
                         @Override
                         public void operationComplete(ChannelFuture future) throws Exception {
                             nwfuture.setSuccess(null);
-                            decrementUseCount();
+                            if (sharedGroup) decrementUseCount();
                         }
                     });
-                } else {
+                } else if (sharedGroup) {
                     decrementUseCount();
                 }
             } else if (nwfuture != null) {
@@ -357,7 +374,7 @@ public class NettyNetworkService implements NetworkService {
                 }
                 final ClientException cause = new NetworkException("Could not connect to server: " + message, cFuture.cause());
                 promise.setFailure(cause);
-                decrementUseCount();
+                if (group == null) decrementUseCount();
             }
 
             logger.exit(this, methodName);
@@ -370,6 +387,37 @@ public class NettyNetworkService implements NetworkService {
     /** Pattern of cipher suites to disable */
     final Pattern disabledCipherPattern = Pattern.compile(".*_(NULL|EXPORT|DES|RC4|MD5|PSK|SRP|CAMELLIA)_.*");
 
+    /**
+     * The event loop group used for this service's connections, or {@code null} if they
+     * use the worker group which is shared, and reference counted, across every instance
+     * of this class.
+     */
+    private final EventLoopGroup group;
+
+    /**
+     * Creates a network service whose connections use a worker group which is shared
+     * by all other instances created this way, and shut down once it has no connections.
+     */
+    public NettyNetworkService() {
+        this(null);
+    }
+
+    /**
+     * Creates a network service whose connections use the specified event loop group.
+     * The group remains owned by the caller, which is responsible for shutting it down.
+     *
+     * @param group the event loop group to use, or {@code null} to use the shared
+     *              worker group.
+     */
+    public NettyNetworkService(EventLoopGroup group) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, group);
+
+        this.group = group;
+
+        logger.exit(this, methodName);
+    }
+
     @Override
     public void connect(Endpoint endpoint, NetworkListener listener, Promise<NetworkChannel> promise) {
         final String methodName = "connect";
@@ -397,7 +445,7 @@ public class NettyNetworkService implements NetworkService {
                         public void initChannel(SocketChannel ch) throws Exception {
                             synchronized (bootstrapSync) {
                                 ch.pipeline().addFirst(new SslHandler(sslEngine));
-                                ch.pipeline().addLast(new NettyInboundHandler(ch));
+                                ch.pipeline().addLast(new NettyInboundHandler(ch, group == null));
                             }
                         }
                     };
@@ -406,12 +454,12 @@ public class NettyNetworkService implements NetworkService {
                         @Override
                         public void initChannel(SocketChannel ch) throws Exception {
                             synchronized (bootstrapSync) {
-                                ch.pipeline().addLast(new NettyInboundHandler(ch));
+                                ch.pipeline().addLast(new NettyInboundHandler(ch, group == null));
                             }
                        }
                     };
                 }
-                final Bootstrap bootstrap = getBootstrap(endpoint.useSsl(), handler);
+                final Bootstrap bootstrap = group == null ? getBootstrap(endpoint.useSsl(), handler) : newBootstrap(group, handler);
                 final ChannelFuture f = bootstrap.connect(endpoint.getHost(), endpoint.getPort());
                 f.addListener(new ConnectListener(endpoint, f, promise, listener));
             }
@@ -427,6 +475,16 @@ public class NettyNetworkService implements NetworkService {
         logger.exit(this, methodName);
     }
 
+    private static Bootstrap newBootstrap(EventLoopGroup group, ChannelHandler handler) {
+        final Bootstrap result = new Bootstrap();
+        result.group(group);
+        result.channel(NioSocketChannel.class);
+        result.option(ChannelOption.SO_KEEPALIVE, true);
+        result.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000);
+        result.handler(handler);
+        return result;
+    }
+
     private static int useCount = 0;
 
     /**
@@ -446,13 +504,7 @@ public class NettyNetworkService implements NetworkService {
 
         ++useCount;
         if (useCount == 1) {
-            EventLoopGroup workerGroup = new NioEventLoopGroup();
-            bootstrap = new Bootstrap();
-            bootstrap.group(workerGroup);
-            bootstrap.channel(NioSocketChannel.class);
-            bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
-            bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000);
-            bootstrap.handler(handler);
+            bootstrap = newBootstrap(new NioEventLoopGroup(), handler);
         }
 
         final Bootstrap result;
@@ -501,7 +553,9 @@ public class NettyNetworkService implements NetworkService {
         logger.entry(methodName);
 
         final boolean terminated;
-        if (bootstrap != null) {
+        if (group != null) {
+            terminated = group.awaitTermination(timeout, TimeUnit.SECONDS);
+        } else if (bootstrap != null) {
             terminated = bootstrap.group().awaitTermination(timeout, TimeUnit.SECONDS);
         } else {
             terminated = true;
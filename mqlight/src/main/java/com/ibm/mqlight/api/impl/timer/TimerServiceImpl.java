@@ -35,7 +35,8 @@ public class TimerServiceImpl implements TimerService {
     private static final Logger logger = LoggerFactory.getLogger(TimerServiceImpl.class);
 
     private static final int idleKeepAliveTimeMs = 500;
-    private static final ScheduledThreadPoolExecutor executor;
+    private static final ScheduledThreadPoolExecutor sharedExecutor;
+    private final ScheduledThreadPoolExecutor executor;
     private int timerCount = 0;
 
     static class TimerServiceThreadFactory implements ThreadFactory {
@@ -49,9 +50,36 @@ public class TimerServiceImpl implements TimerService {
     }
 
     static {
-        executor = new ScheduledThreadPoolExecutor(0, new TimerServiceThreadFactory());
-        executor.setKeepAliveTime(idleKeepAliveTimeMs, TimeUnit.MILLISECONDS);
-        executor.setRemoveOnCancelPolicy(true);
+        sharedExecutor = newExecutor();
+    }
+
+    /**
+     * @return a new executor, suitable for passing to {@link #TimerServiceImpl(ScheduledThreadPoolExecutor)}.
+     *         Its thread is only kept alive while timers are scheduled.
+     */
+    public static ScheduledThreadPoolExecutor newExecutor() {
+        final ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(0, new TimerServiceThreadFactory());
+        result.setKeepAliveTime(idleKeepAliveTimeMs, TimeUnit.MILLISECONDS);
+        result.setRemoveOnCancelPolicy(true);
+        return result;
+    }
+
+    /**
+     * Creates a timer service which schedules its timers on an executor shared by
+     * all other instances created this way.
+     */
+    public TimerServiceImpl() {
+        this(sharedExecutor);
+    }
+
+    /**
+     * Creates a timer service which schedules its timers on the specified executor.
+     * The executor remains owned by the caller, which is responsible for shutting it down.
+     *
+     * @param executor the executor to schedule timers on.
+     */
+    public TimerServiceImpl(ScheduledThreadPoolExecutor executor) {
+        this.executor = executor;
     }
 
     // Using a default ConcurrentHashMap, with concurrency level 16, which should be sufficient for most applications
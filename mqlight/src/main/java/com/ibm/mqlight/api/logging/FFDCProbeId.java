@@ -71,7 +71,8 @@ public enum FFDCProbeId {
   PROBE_046("FFDC_046"),
   PROBE_047("FFDC_047"),
   PROBE_048("FFDC_048"),
-  PROBE_049("FFDC_049");
+  PROBE_049("FFDC_049"),
+  PROBE_050("FFDC_050");
 
   private final String id;
 
@@ -18,6 +18,8 @@
  */
 package com.ibm.mqlight.api;
 
+import static org.junit.Assert.assertEquals;
+
 import junit.framework.AssertionFailedError;
 
 import org.junit.Test;
@@ -50,6 +52,39 @@ public class TestClientOptions {
         }
     }
 
+    @Test
+    public void maxRetainedLinks() {
+        assertEquals(0, ClientOptions.builder().build().getMaxRetainedLinks());
+        assertEquals(100, ClientOptions.builder().setMaxRetainedLinks(100).build().getMaxRetainedLinks());
+        try {
+            ClientOptions.builder().setMaxRetainedLinks(-1).build();
+            throw new AssertionFailedError("Negative value should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void waterMarks() {
+        ClientOptions options = ClientOptions.builder().build();
+        assertEquals(32 * 1024, options.getLowWaterMark());
+        assertEquals(64 * 1024, options.getHighWaterMark());
+        options = ClientOptions.builder().setWaterMarks(0, 1).build();
+        assertEquals(0, options.getLowWaterMark());
+        assertEquals(1, options.getHighWaterMark());
+        options = ClientOptions.builder().setWaterMarks(1000, 1000).build();
+        assertEquals(1000, options.getLowWaterMark());
+        assertEquals(1000, options.getHighWaterMark());
+        for (long[] marks : new long[][] {{-1, 100}, {0, 0}, {101, 100}}) {
+            try {
+                ClientOptions.builder().setWaterMarks(marks[0], marks[1]);
+                throw new AssertionFailedError("Water marks " + marks[0] + ", " + marks[1] + " should have been rejected");
+            } catch(IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
     @Test
     public void clientIdValidChars() {
         ClientOptions.builder().setId("abcdefghijklmnopqrstuvwxyz").build();
@@ -63,4 +98,38 @@ public class TestClientOptions {
             // Expected.
         }
     }
+
+    @Test
+    public void connections() {
+        ClientOptions options = ClientOptions.builder().build();
+        assertEquals(1, options.getConnections());
+        assertEquals(ClientOptions.SendDistribution.TOPIC, options.getSendDistribution());
+        options = ClientOptions.builder().setConnections(4).setSendDistribution(ClientOptions.SendDistribution.ROUND_ROBIN).build();
+        assertEquals(4, options.getConnections());
+        assertEquals(ClientOptions.SendDistribution.ROUND_ROBIN, options.getSendDistribution());
+        try {
+            ClientOptions.builder().setConnections(0);
+            throw new AssertionFailedError("Zero connections should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            ClientOptions.builder().setSendDistribution(null);
+            throw new AssertionFailedError("Null send distribution should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void copyBuilder() {
+        ClientOptions options = ClientOptions.builder().setId("client").setCredentials("user", "pass")
+                .setMaxRetainedLinks(10).setConnections(3).build();
+        ClientOptions copy = ClientOptions.builder(options).setId("copy").build();
+        assertEquals("copy", copy.getId());
+        assertEquals("user", copy.getUser());
+        assertEquals(10, copy.getMaxRetainedLinks());
+        assertEquals(3, copy.getConnections());
+        assertEquals(options.getSendDistribution(), copy.getSendDistribution());
+    }
 }
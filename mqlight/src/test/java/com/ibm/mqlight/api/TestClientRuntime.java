@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.AssertionFailedError;
+
+import org.junit.Test;
+
+public class TestClientRuntime {
+
+    private static class LatchPromise implements Promise<Void> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        @Override public boolean isComplete() { return latch.getCount() == 0; }
+        @Override public void setFailure(Exception exception) { latch.countDown(); }
+        @Override public void setSuccess(Void result) { latch.countDown(); }
+    }
+
+    @Test
+    public void builderValues() {
+        try {
+            ClientRuntime.builder().setCallbackThreads(0);
+            throw new AssertionFailedError("Expected zero callback threads to be rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+
+        try {
+            ClientRuntime.builder().setNetworkThreads(-1);
+            throw new AssertionFailedError("Expected a negative number of network threads to be rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void servicesAreShared() throws InterruptedException {
+        ClientRuntime runtime = ClientRuntime.builder().setCallbackThreads(2).setNetworkThreads(1).setEventLoopAffinity(true).build();
+        try {
+            assertTrue(runtime.getEventLoopAffinity());
+            assertNotNull(runtime.getCallbackService());
+            assertNotNull(runtime.getNetworkService());
+            assertNotNull(runtime.getTimerService());
+            assertSame(runtime.getCallbackService(), runtime.getCallbackService());
+            assertSame(runtime.getNetworkService(), runtime.getNetworkService());
+            assertSame(runtime.getTimerService(), runtime.getTimerService());
+
+            final LatchPromise callbackPromise = new LatchPromise();
+            runtime.getCallbackService().run(new Runnable() {
+                @Override public void run() {}
+            }, this, callbackPromise);
+            assertTrue("Expected callback to run", callbackPromise.latch.await(10, TimeUnit.SECONDS));
+
+            final LatchPromise timerPromise = new LatchPromise();
+            runtime.getTimerService().schedule(10, timerPromise);
+            assertTrue("Expected timer to pop", timerPromise.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            runtime.shutdown();
+        }
+        assertTrue("Expected runtime to terminate", runtime.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void createClient() throws InterruptedException {
+        try {
+            NonBlockingClient.create("amqp://localhost", null, null, null, null);
+            throw new AssertionFailedError("Expected a null runtime to be rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+
+        ClientRuntime runtime = ClientRuntime.builder().build();
+        assertFalse(runtime.getEventLoopAffinity());
+        assertFalse(runtime.isShutdown());
+        runtime.shutdown();
+        runtime.shutdown();
+        assertTrue(runtime.isShutdown());
+        try {
+            NonBlockingClient.create("amqp://localhost", null, runtime, null, null);
+            throw new AssertionFailedError("Expected a runtime which has been shut down to be rejected");
+        } catch(IllegalStateException e) {
+            // Expected
+        }
+        assertTrue("Expected runtime to terminate", runtime.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -23,8 +23,10 @@ import static org.junit.Assert.assertNull;
 
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.AssertionFailedError;
@@ -113,6 +115,15 @@ public class TestNonBlockingClient {
             return false;
         }
 
+        @Override
+        public <T> boolean sendBatch(String topic, List<?> data,
+                Map<String, Object> properties, SendOptions sendOptions,
+                CompletionListener<T> listener, T context)
+                throws StateException {
+            testAgainstExpectedValues(new Object[] {"sendBatch", topic, data, properties, sendOptions, listener, context});
+            return false;
+        }
+
         @Override
         public <T> NonBlockingClient subscribe(String topicPattern, SubscribeOptions subOptions,
                 DestinationListener<T> destListener, CompletionListener<T> compListener, T context)
@@ -136,6 +147,30 @@ public class TestNonBlockingClient {
             testAgainstExpectedValues(new Object[] {"unsubscribe", topicPattern, share, listener, context});
             return null;
         }
+
+        @Override
+        public void confirm(Collection<? extends Delivery> deliveries)
+                throws StateException, IllegalArgumentException {
+            testAgainstExpectedValues(new Object[] {"confirm", deliveries});
+        }
+
+        @Override
+        public <T> PullSubscription pullSubscribe(String topicPattern, SubscribeOptions subOptions, CompletionListener<T> compListener, T context) {
+            testAgainstExpectedValues(new Object[] {"pullSubscribe", topicPattern, subOptions, compListener, context});
+            return null;
+        }
+
+        @Override
+        public DeliveryPublisher createPublisher(String topicPattern, SubscribeOptions subOptions) {
+            testAgainstExpectedValues(new Object[] {"createPublisher", topicPattern, subOptions});
+            return null;
+        }
+
+        @Override
+        public CreditMetrics getCreditMetrics(String topicPattern, String share) {
+            testAgainstExpectedValues(new Object[] {"getCreditMetrics", topicPattern, share});
+            return null;
+        }
     }
 
     private class StubCompletionListener implements CompletionListener<Object> {
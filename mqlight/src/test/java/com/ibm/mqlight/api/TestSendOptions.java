@@ -82,4 +82,11 @@ public class TestSendOptions {
         SendOptions explicitRetainLinkTrueOpts = SendOptions.builder().setRetainLink(true).build();
         assertEquals(true, explicitRetainLinkTrueOpts.getRetainLink());
     }
+
+    @Test
+    public void batchedCompletionValues() {
+        assertEquals(false, SendOptions.builder().build().getBatchedCompletion());
+        assertEquals(true, SendOptions.builder().setBatchedCompletion(true).build().getBatchedCompletion());
+        assertEquals(false, SendOptions.builder().setBatchedCompletion(false).build().getBatchedCompletion());
+    }
 }
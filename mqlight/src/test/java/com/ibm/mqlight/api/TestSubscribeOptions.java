@@ -18,6 +18,10 @@
  */
 package com.ibm.mqlight.api;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.AssertionFailedError;
 
 import java.util.concurrent.TimeUnit;
@@ -108,4 +112,77 @@ public class TestSubscribeOptions {
         	// Expected
         }
     }
+
+    @Test
+    public void orderingValues() {
+        SubscribeOptions opts = SubscribeOptions.builder().build();
+        assertEquals(SubscribeOptions.Ordering.CLIENT, opts.getOrdering());
+        assertNull(opts.getOrderingKey());
+
+        opts = SubscribeOptions.builder().setOrdering(SubscribeOptions.Ordering.SUBSCRIPTION).build();
+        assertEquals(SubscribeOptions.Ordering.SUBSCRIPTION, opts.getOrdering());
+
+        opts = SubscribeOptions.builder().setOrderingKey("key").build();
+        assertEquals(SubscribeOptions.Ordering.MESSAGE_KEY, opts.getOrdering());
+        assertEquals("key", opts.getOrderingKey());
+
+        opts = SubscribeOptions.builder().setOrderingKey("key").setOrdering(SubscribeOptions.Ordering.CLIENT).build();
+        assertEquals(SubscribeOptions.Ordering.CLIENT, opts.getOrdering());
+        assertNull(opts.getOrderingKey());
+
+        try {
+            SubscribeOptions.builder().setOrdering(null);
+            throw new AssertionFailedError("setOrdering of null should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            SubscribeOptions.builder().setOrdering(SubscribeOptions.Ordering.MESSAGE_KEY);
+            throw new AssertionFailedError("setOrdering of MESSAGE_KEY without a key should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            SubscribeOptions.builder().setOrderingKey("");
+            throw new AssertionFailedError("setOrderingKey of empty string should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void pooledDeliveriesValues() {
+        assertFalse(SubscribeOptions.builder().build().getPooledDeliveries());
+        assertTrue(SubscribeOptions.builder().setPooledDeliveries(true).build().getPooledDeliveries());
+    }
+
+    @Test
+    public void batchValues() {
+        SubscribeOptions opts = SubscribeOptions.builder().build();
+        assertEquals(1024, opts.getBatchSize());
+        assertEquals(0, opts.getBatchDelay());
+
+        opts = SubscribeOptions.builder().setBatchSize(1).setBatchDelay(2, TimeUnit.SECONDS).build();
+        assertEquals(1, opts.getBatchSize());
+        assertEquals(2000, opts.getBatchDelay());
+
+        try {
+            SubscribeOptions.builder().setBatchSize(0);
+            throw new AssertionFailedError("setBatchSize of 0 should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            SubscribeOptions.builder().setBatchDelay(-1, TimeUnit.MILLISECONDS);
+            throw new AssertionFailedError("setBatchDelay of -1 should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void adaptiveCreditValues() {
+        assertFalse(SubscribeOptions.builder().build().getAdaptiveCredit());
+        assertTrue(SubscribeOptions.builder().setAdaptiveCredit(true).build().getAdaptiveCredit());
+    }
 }
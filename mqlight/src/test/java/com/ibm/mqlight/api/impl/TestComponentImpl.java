@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestComponentImpl {
+
+    private static class NumberedMessage extends Message {
+        private final int producer;
+        private final int sequence;
+        private NumberedMessage(int producer, int sequence) {
+            this.producer = producer;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class RecordingComponent extends ComponentImpl {
+        private final List<Message> received = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private volatile boolean concurrent = false;
+        private Thread delivering = null;
+        private RecordingComponent() {
+            super();
+        }
+        private RecordingComponent(ExecutorService executor) {
+            super(executor);
+        }
+        @Override protected void onReceive(Message message) {
+            synchronized(this) {
+                if (delivering != null) concurrent = true;
+                delivering = Thread.currentThread();
+            }
+            received.add(message);
+            threads.add(Thread.currentThread());
+            synchronized(this) {
+                delivering = null;
+                if (message instanceof NumberedMessage && ((NumberedMessage)message).sequence < 0) {
+                    throw new IllegalStateException("requested failure");
+                }
+                notifyAll();
+            }
+        }
+        private synchronized boolean awaitCount(int count, long timeoutMillis) throws InterruptedException {
+            final long end = System.currentTimeMillis() + timeoutMillis;
+            while (received.size() < count) {
+                final long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    @Test
+    public void deliversInlineWhenIdle() {
+        RecordingComponent component = new RecordingComponent();
+        Message message = new NumberedMessage(0, 0);
+        component.tell(message, ComponentImpl.NOBODY);
+        assertEquals(1, component.received.size());
+        assertSame(message, component.received.get(0));
+        assertSame(ComponentImpl.NOBODY, message.getSender());
+        assertSame(Thread.currentThread(), component.threads.get(0));
+    }
+
+    @Test
+    public void failedDeliveryDoesNotStopLaterDeliveries() {
+        RecordingComponent component = new RecordingComponent();
+        component.tell(new NumberedMessage(0, -1), ComponentImpl.NOBODY);
+        component.tell(new NumberedMessage(0, 1), ComponentImpl.NOBODY);
+        assertEquals(2, component.received.size());
+    }
+
+    @Test
+    public void sameMessageToldWhileQueued() {
+        final Message message = new NumberedMessage(0, 0);
+        final RecordingComponent other = new RecordingComponent();
+        // Tells the same message to itself, and another component, while it is
+        // still queued, so the mailbox cannot link it in as its own node.
+        ComponentImpl component = new ComponentImpl() {
+            private int count = 0;
+            @Override protected void onReceive(Message m) {
+                if (count++ == 0) {
+                    tell(message, this);
+                    tell(message, this);
+                }
+                other.tell(m, this);
+            }
+        };
+        component.tell(new NumberedMessage(1, 0), ComponentImpl.NOBODY);
+        assertEquals(3, other.received.size());
+        assertSame(message, other.received.get(1));
+        assertSame(message, other.received.get(2));
+
+        // The message can be queued again once it has been delivered.
+        other.tell(message, ComponentImpl.NOBODY);
+        assertEquals(4, other.received.size());
+    }
+
+    private void tellFromManyThreads(final RecordingComponent component, final int producers, final int messagesPerProducer) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; ++i) {
+            final int producer = i;
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < messagesPerProducer; ++j) {
+                        component.tell(new NumberedMessage(producer, j), ComponentImpl.NOBODY);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+    }
+
+    private void assertDeliveredInOrder(RecordingComponent component, int producers, int messagesPerProducer) {
+        assertFalse("onReceive called concurrently", component.concurrent);
+        synchronized(component) {
+            assertEquals(producers * messagesPerProducer, component.received.size());
+            final int[] expected = new int[producers];
+            for (Message message : component.received) {
+                NumberedMessage numbered = (NumberedMessage)message;
+                assertEquals(expected[numbered.producer]++, numbered.sequence);
+            }
+        }
+    }
+
+    @Test
+    public void manyProducersInline() throws InterruptedException {
+        final int producers = 8;
+        final int messagesPerProducer = 20000;
+        RecordingComponent component = new RecordingComponent();
+        tellFromManyThreads(component, producers, messagesPerProducer);
+        assertDeliveredInOrder(component, producers, messagesPerProducer);
+    }
+
+    @Test
+    public void manyProducersOnExecutor() throws InterruptedException {
+        final int producers = 8;
+        final int messagesPerProducer = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            RecordingComponent component = new RecordingComponent(executor);
+            tellFromManyThreads(component, producers, messagesPerProducer);
+            assertTrue("messages not delivered", component.awaitCount(producers * messagesPerProducer, 30000));
+            assertDeliveredInOrder(component, producers, messagesPerProducer);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void rejectedExecutorDeliversInline() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        RecordingComponent component = new RecordingComponent(executor);
+        component.tell(new NumberedMessage(0, 0), ComponentImpl.NOBODY);
+        assertEquals(1, component.received.size());
+        assertSame(Thread.currentThread(), component.threads.get(0));
+    }
+}
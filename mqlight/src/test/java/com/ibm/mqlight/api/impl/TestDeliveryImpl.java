@@ -19,13 +19,22 @@
 package com.ibm.mqlight.api.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.AssertionFailedError;
 
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.junit.Test;
 
 import com.google.gson.GsonBuilder;
@@ -52,20 +61,30 @@ public class TestDeliveryImpl {
     }
 
     private class MockClient extends NonBlockingClientImpl {
-        final boolean retvalFromDoDelivery;
-        public MockClient(boolean retvalFromDoDelivery) {
+        final AtomicInteger deliveries = new AtomicInteger();
+        public MockClient() {
             super(new StubEndpointService(),
                   new SameThreadCallbackService(),
                   new MockComponent(),
                   new StubTimerService(),
                   new GsonBuilder(),
                   null, null, null);
-            this.retvalFromDoDelivery = retvalFromDoDelivery;
         }
 
         @Override
-        protected boolean doDelivery(DeliveryRequest request) {
-            return retvalFromDoDelivery;
+        protected void doDelivery(DeliveryRequest request) {
+            deliveries.incrementAndGet();
+        }
+
+        // The requests passed to the client to confirm, along with those before them
+        final List<DeliveryRequest> confirmedUpTo = new ArrayList<>();
+
+        @Override
+        public void tell(Message message, Component self) {
+            if (message instanceof InternalConfirm) {
+                confirmedUpTo.add(((InternalConfirm)message).request);
+            }
+            super.tell(message, self);
         }
     }
 
@@ -77,6 +96,11 @@ public class TestDeliveryImpl {
             super(client, qos, share, topic, topicPattern, ttl, properties, deliveryRequest);
         }
 
+        protected MockDelivery(NonBlockingClientImpl client, QOS qos, String share, String topicPattern,
+                               org.apache.qpid.proton.message.Message msg, DeliveryRequest deliveryRequest) {
+            super(client, qos, share, topicPattern, msg, deliveryRequest);
+        }
+
         @Override
         public Type getType() {
             throw new AssertionFailedError("Should not have been called!");
@@ -86,14 +110,14 @@ public class TestDeliveryImpl {
 
     @Test
     public void getters() {
-        MockClient client = new MockClient(true);
+        MockClient client = new MockClient();
         QOS expectedQos = QOS.AT_LEAST_ONCE;
         String expectedShare = "share";
         String expectedTopic = "topic";
         String expectedTopicPattern = "topicPattern";
         long expectedTtl = 5;
         HashMap<String, Object> expectedProperties = new HashMap<>();
-        DeliveryRequest deliveryRequest = new DeliveryRequest(null, null, null, null, null);
+        DeliveryRequest deliveryRequest = new DeliveryRequest((byte[])null, null, null, null, null);
 
         MockDelivery delivery =
                 new MockDelivery(client, expectedQos, expectedShare, expectedTopic, expectedTopicPattern, expectedTtl, expectedProperties, deliveryRequest);
@@ -106,9 +130,40 @@ public class TestDeliveryImpl {
         assertEquals("ttl", expectedTtl, delivery.getTtl());
     }
 
+    @Test
+    public void gettersFromMessage() {
+        MockClient client = new MockClient();
+        org.apache.qpid.proton.message.Message msg = Proton.message();
+        msg.setAddress("amqp:///some/topic");
+        msg.setTtl(1234);
+        Map<String, Object> msgProperties = new HashMap<>();
+        msgProperties.put("string", "value");
+        msgProperties.put("binary", new Binary(new byte[] {1, 2}));
+        msgProperties.put("unsupported", new Object());
+        msg.setApplicationProperties(new ApplicationProperties(msgProperties));
+
+        MockDelivery delivery = new MockDelivery(client, QOS.AT_MOST_ONCE, "share", "topicPattern", msg, null);
+        assertEquals("ttl", 1234, delivery.getTtl());
+        assertEquals("topic", "some/topic", delivery.getTopic());
+        assertSame("topic should be cached", delivery.getTopic(), delivery.getTopic());
+        Map<String, Object> properties = delivery.getProperties();
+        assertEquals("properties", 2, properties.size());
+        assertEquals("value", properties.get("string"));
+        assertEquals(2, ((byte[])properties.get("binary")).length);
+        assertSame("properties should be cached", properties, delivery.getProperties());
+
+        msg.setAddress(null);
+        assertEquals("topic of message without an address", "", DeliveryImpl.getTopic(msg));
+
+        delivery = new MockDelivery(client, QOS.AT_MOST_ONCE, "share", "topicPattern", null, null);
+        assertEquals("ttl", 0, delivery.getTtl());
+        assertEquals("topic", "", delivery.getTopic());
+        assertEquals("properties", 0, delivery.getProperties().size());
+    }
+
     @Test
     public void confirmWhenAutoConfirm() {
-        MockClient client = new MockClient(true);
+        MockClient client = new MockClient();
         MockDelivery delivery =
                 new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, null);
         try {
@@ -121,7 +176,7 @@ public class TestDeliveryImpl {
     
     @Test
     public void confirmWhenQos0() {
-        MockClient client = new MockClient(true);
+        MockClient client = new MockClient();
         MockDelivery delivery =
                 new MockDelivery(client, QOS.AT_MOST_ONCE, null, "topic", "topic", 0, null, null);
         try {
@@ -134,8 +189,8 @@ public class TestDeliveryImpl {
 
     @Test
     public void confirmSuccessful() {
-        MockClient client = new MockClient(true);
-        DeliveryRequest deliveryRequest = new DeliveryRequest(null, null, null, null, null);
+        MockClient client = new MockClient();
+        DeliveryRequest deliveryRequest = new DeliveryRequest((byte[])null, null, null, null, null);
         MockDelivery delivery =
                 new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, deliveryRequest);
         delivery.confirm();
@@ -143,8 +198,9 @@ public class TestDeliveryImpl {
 
     @Test
     public void confirmNetworkLost() {
-        MockClient client = new MockClient(false);
-        DeliveryRequest deliveryRequest = new DeliveryRequest(null, null, null, null, null);
+        MockClient client = new MockClient();
+        DeliveryRequest deliveryRequest = new DeliveryRequest((byte[])null, null, null, null, null);
+        deliveryRequest.invalidate();
         MockDelivery delivery =
                 new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, deliveryRequest);
         try {
@@ -157,8 +213,8 @@ public class TestDeliveryImpl {
 
     @Test
     public void duplicateConfirm() {
-        MockClient client = new MockClient(true);
-        DeliveryRequest deliveryRequest = new DeliveryRequest(null, null, null, null, null);
+        MockClient client = new MockClient();
+        DeliveryRequest deliveryRequest = new DeliveryRequest((byte[])null, null, null, null, null);
         MockDelivery delivery =
                 new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, deliveryRequest);
         delivery.confirm();
@@ -169,4 +225,65 @@ public class TestDeliveryImpl {
             // Expected: duplicate attempt to confirm.
         }
     }
+
+    @Test
+    public void confirmFromManyThreads() throws Exception {
+        final MockClient client = new MockClient();
+        final MockDelivery delivery = new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null,
+                new DeliveryRequest((byte[])null, null, null, null, null));
+        final AtomicInteger confirmed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        delivery.confirm();
+                        confirmed.incrementAndGet();
+                    } catch (InterruptedException|StateException e) {
+                        // Expected: all but one of the threads should fail to confirm
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertEquals("Expected exactly one confirm to succeed", 1, confirmed.get());
+        assertEquals("Expected the delivery to be settled once", 1, client.deliveries.get());
+    }
+
+    @Test
+    public void confirmUpTo() {
+        // The request names the subscription's link, so that the client can look the subscription
+        // up when it processes the confirmation
+        MockClient client = new MockClient();
+        DeliveryRequest deliveryRequest = new DeliveryRequest((byte[])null, QOS.AT_LEAST_ONCE, "private:topic", null, null);
+        MockDelivery delivery =
+                new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, deliveryRequest);
+        delivery.confirmUpTo();
+        assertEquals("Expected the client to be asked to confirm up to the delivery", Arrays.asList(deliveryRequest), client.confirmedUpTo);
+        assertEquals("Expected nothing to be settled, as the client is not subscribed", 0, client.deliveries.get());
+
+        delivery.confirm();
+        delivery.confirmUpTo();  // Not an error to confirm up to an already confirmed delivery
+        assertEquals(2, client.confirmedUpTo.size());
+
+        try {
+            new MockDelivery(new MockClient(), QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, null).confirmUpTo();
+            fail("Expected StateException to be thrown");
+        } catch(StateException e) {
+            // Expected: delivery was auto-confirm
+        }
+        DeliveryRequest invalidated = new DeliveryRequest((byte[])null, null, null, null, null);
+        invalidated.invalidate();
+        try {
+            new MockDelivery(new MockClient(), QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, invalidated).confirmUpTo();
+            fail("Expected StateException to be thrown");
+        } catch(StateException e) {
+            // Expected: network was lost since delivery was made
+        }
+    }
 }
@@ -20,14 +20,27 @@ package com.ibm.mqlight.api.impl;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import junit.framework.AssertionFailedError;
 
@@ -42,7 +55,10 @@ import org.junit.Test;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
+import com.ibm.mqlight.api.BatchDestinationListener;
 import com.ibm.mqlight.api.BytesDelivery;
 import com.ibm.mqlight.api.ClientOptions;
 import com.ibm.mqlight.api.Delivery;
@@ -53,11 +69,13 @@ import com.ibm.mqlight.api.NonBlockingClient;
 import com.ibm.mqlight.api.Promise;
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.StringDelivery;
+import com.ibm.mqlight.api.SubscribeOptions;
 import com.ibm.mqlight.api.callback.CallbackService;
 import com.ibm.mqlight.api.endpoint.Endpoint;
 import com.ibm.mqlight.api.endpoint.EndpointPromise;
 import com.ibm.mqlight.api.endpoint.EndpointService;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+import com.ibm.mqlight.api.impl.timer.TimerPromiseImpl;
 import com.ibm.mqlight.api.network.NetworkChannel;
 import com.ibm.mqlight.api.network.NetworkListener;
 import com.ibm.mqlight.api.network.NetworkService;
@@ -79,6 +97,14 @@ public class TestDestinationListenerWrapper {
                       @Override public void cancel(Promise<Void> promise) {}
                   }, null, ClientOptions.builder().build(), null, null);
         }
+
+        // The deliveries confirmed, which are recorded rather than settled by the engine
+        private final List<DeliveryRequest> settled = new ArrayList<>();
+
+        @Override
+        protected void doDelivery(DeliveryRequest request) {
+            settled.add(request);
+        }
     }
 
     private static class MockListener implements DestinationListener<Object> {
@@ -396,4 +422,279 @@ public class TestDestinationListenerWrapper {
             assertEquals("Expected array element #"+i+" to match", expectedArray[i], actual);
         }
     }
+
+    @Test
+    public void onDeliveryJsonFromManyThreads() throws Exception {
+        // The subscription's Gson is built from the builder once, and used by every delivery
+        GsonBuilder gsonBuilder = new GsonBuilder().registerTypeAdapter(Integer.class, new JsonDeserializer<Integer>() {
+            @Override
+            public Integer deserialize(JsonElement json, java.lang.reflect.Type typeOfT, JsonDeserializationContext context) {
+                return json.getAsInt() * 2;
+            }
+        });
+        MockListener listener = new MockListener(MockListener.Method.ON_MESSAGE);
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(new StubClient(), gsonBuilder, listener, null);
+        final List<JsonDelivery> deliveries = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            byte[] msgData = createSerializedProtonMessage(new AmqpValue(Integer.toString(i + 1)), "/topic1", 0, null, null, "application/json");
+            wrapper.onDelivery(new MockCallbackService(), new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, "private:/#", null, null), QOS.AT_MOST_ONCE, true);
+            deliveries.add((JsonDelivery)listener.actualDelivery);
+        }
+        assertEquals(Integer.valueOf(2), deliveries.get(0).getData(Integer.class));
+        assertEquals(Integer.valueOf(4), deliveries.get(1).getData(Integer.class));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 1000; ++i) {
+                            assertEquals(Integer.valueOf(2), deliveries.get(0).getData(Integer.class));
+                            assertEquals(2, deliveries.get(1).getData().getAsInt());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class OrderingCallbackService extends MockCallbackService {
+        private final ArrayList<Object> orderingCtxs = new ArrayList<>();
+        @Override public void run(Runnable runnable, Object orderingCtx, Promise<Void> promise) {
+            orderingCtxs.add(orderingCtx);
+            super.run(runnable, orderingCtx, promise);
+        }
+    }
+
+    private Object deliverWithOrdering(DestinationListenerWrapper<Object> wrapper, String key) {
+        Map<String, String> properties = null;
+        if (key != null) {
+            properties = new HashMap<>();
+            properties.put("key", key);
+        }
+        byte[] msgData = createSerializedProtonMessage(new AmqpValue("data"), "/topic1", 0, properties, null, null);
+        DeliveryRequest request = new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, "private:/topic1", null, null);
+        OrderingCallbackService callbackService = new OrderingCallbackService();
+        wrapper.onDelivery(callbackService, request, QOS.AT_MOST_ONCE, false);
+        assertEquals("Expected one callback", 1, callbackService.orderingCtxs.size());
+        return callbackService.orderingCtxs.get(0);
+    }
+
+    @Test
+    public void orderingContexts() {
+        StubClient client = new StubClient();
+
+        DestinationListenerWrapper<Object> clientOrdered = new DestinationListenerWrapper<Object>(
+                client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null, SubscribeOptions.Ordering.CLIENT, null, false);
+        assertSame("Expected client ordering context", client, deliverWithOrdering(clientOrdered, null));
+        assertEquals("Expected a single ordering context", 1, clientOrdered.getOrderingContexts().length);
+
+        DestinationListenerWrapper<Object> subscriptionOrdered = new DestinationListenerWrapper<Object>(
+                client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null, SubscribeOptions.Ordering.SUBSCRIPTION, null, false);
+        Object subscriptionCtx = deliverWithOrdering(subscriptionOrdered, null);
+        assertNotSame("Expected a subscription specific ordering context", client, subscriptionCtx);
+        assertSame("Expected the same ordering context for each delivery", subscriptionCtx, deliverWithOrdering(subscriptionOrdered, null));
+
+        DestinationListenerWrapper<Object> keyOrdered = new DestinationListenerWrapper<Object>(
+                client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null, SubscribeOptions.Ordering.MESSAGE_KEY, "key", false);
+        Object keylessCtx = deliverWithOrdering(keyOrdered, null);
+        Object key1Ctx = deliverWithOrdering(keyOrdered, "key1");
+        assertSame("Expected the same ordering context for the same key", key1Ctx, deliverWithOrdering(keyOrdered, "key1"));
+        assertNotSame("Expected keyed deliveries to use a different context to keyless ones", keylessCtx, key1Ctx);
+        HashSet<Object> keyCtxs = new HashSet<>();
+        for (int i = 0; i < 100; ++i) {
+            keyCtxs.add(deliverWithOrdering(keyOrdered, "key" + i));
+        }
+        assertTrue("Expected different keys to be spread over several ordering contexts", keyCtxs.size() > 1);
+        assertEquals("Expected all ordering contexts to be reported",
+                DestinationListenerWrapper.ORDERING_KEY_STRIPES + 1, keyOrdered.getOrderingContexts().length);
+    }
+
+    private static ByteBuf pooledBuffer(byte[] data) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(data.length);
+        buf.writeBytes(data);
+        return buf;
+    }
+
+    @Test
+    public void onDeliveryCopiesFromBuffer() {
+        StubClient client = new StubClient();
+        MockListener listener = new MockListener(MockListener.Method.ON_MESSAGE);
+        byte[] expectedData = new byte[] {2, 7, 1, 8};
+        ByteBuf buf = pooledBuffer(createSerializedProtonMessage(new AmqpValue(new Binary(expectedData)), "/topic1", 0, null, null, null));
+
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), listener, null);
+        DeliveryRequest request = new DeliveryRequest(buf, QOS.AT_MOST_ONCE, "private:/#", null, null);
+        wrapper.onDelivery(new MockCallbackService(), request, QOS.AT_MOST_ONCE, true);
+
+        assertEquals("Expected buffer to have been released", 0, buf.refCnt());
+        assertEquals("Expected the delivery to have been settled", Arrays.asList(request), client.settled);
+        ByteBuffer data = ((BytesDelivery)listener.actualDelivery).getData();
+        assertTrue("Expected application to own the data", data.hasArray());
+        byte[] actualData = new byte[data.remaining()];
+        data.get(actualData);
+        assertArrayEquals("Expected delivery data to match", expectedData, actualData);
+        ((BytesDelivery)listener.actualDelivery).release();    // No effect
+    }
+
+    private static class PooledListener implements DestinationListener<Object> {
+        private final boolean retain;
+        private BytesDelivery delivery = null;
+        private byte[] data = null;
+        private PooledListener(boolean retain) {
+            this.retain = retain;
+        }
+        @Override public void onMessage(NonBlockingClient client, Object context, Delivery delivery) {
+            this.delivery = (BytesDelivery)delivery;
+            ByteBuffer buffer = this.delivery.getData();
+            data = new byte[buffer.remaining()];
+            buffer.get(data);
+            try {
+                buffer.put(0, (byte)0);
+                throw new AssertionFailedError("Pooled delivery data should be read-only");
+            } catch(ReadOnlyBufferException e) {
+                // Expected.
+            }
+            if (retain) this.delivery.retain();
+        }
+        @Override public void onMalformed(NonBlockingClient client, Object context, MalformedDelivery delivery) {
+            throw new AssertionFailedError("onMalformed should not have been called");
+        }
+        @Override public void onUnsubscribed(NonBlockingClient client, Object context, String topicPattern, String share, Exception error) {}
+    }
+
+    @Test
+    public void pooledDeliveries() {
+        StubClient client = new StubClient();
+        byte[] expectedData = new byte[300];
+        for (int i = 0; i < expectedData.length; ++i) expectedData[i] = (byte)i;
+        byte[] msgData = createSerializedProtonMessage(new AmqpValue(new Binary(expectedData)), "/topic1", 0, null, null, null);
+
+        // Released automatically when the listener returns
+        PooledListener listener = new PooledListener(false);
+        ByteBuf buf = pooledBuffer(msgData);
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(
+                client, new GsonBuilder(), listener, null, SubscribeOptions.Ordering.CLIENT, null, true);
+        wrapper.onDelivery(new MockCallbackService(), new DeliveryRequest(buf, QOS.AT_MOST_ONCE, "private:/#", null, null), QOS.AT_MOST_ONCE, true);
+        assertArrayEquals("Expected delivery data to match", expectedData, listener.data);
+        assertEquals("Expected buffer to have been released", 0, buf.refCnt());
+        try {
+            listener.delivery.getData();
+            throw new AssertionFailedError("Data should not be available once released");
+        } catch(IllegalStateException e) {
+            // Expected.
+        }
+
+        // Retained by the listener, until it releases the delivery
+        listener = new PooledListener(true);
+        buf = pooledBuffer(msgData);
+        wrapper = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), listener, null, SubscribeOptions.Ordering.CLIENT, null, true);
+        wrapper.onDelivery(new MockCallbackService(), new DeliveryRequest(buf, QOS.AT_MOST_ONCE, "private:/#", null, null), QOS.AT_MOST_ONCE, true);
+        assertEquals("Expected buffer to still be retained", 1, buf.refCnt());
+        assertEquals("Expected data to still be available", expectedData.length, listener.delivery.getData().limit());
+        listener.delivery.release();
+        assertEquals("Expected buffer to have been released", 0, buf.refCnt());
+        assertEquals("Expected both deliveries to have been settled", 2, client.settled.size());
+        try {
+            listener.delivery.release();
+            throw new AssertionFailedError("Delivery should not be released twice");
+        } catch(IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    private static class MockBatchListener implements BatchDestinationListener<Object> {
+        private final List<String> calls = new ArrayList<>();
+        @Override public void onMessage(NonBlockingClient client, Object context, Delivery delivery) {
+            throw new AssertionFailedError("onMessage should not have been called");
+        }
+        @Override public void onMessages(NonBlockingClient client, Object context, List<Delivery> deliveries) {
+            StringBuilder sb = new StringBuilder("onMessages");
+            for (Delivery delivery : deliveries) {
+                sb.append(' ').append(((StringDelivery)delivery).getData());
+            }
+            calls.add(sb.toString());
+        }
+        @Override public void onMalformed(NonBlockingClient client, Object context, MalformedDelivery delivery) {
+            calls.add("onMalformed");
+        }
+        @Override public void onUnsubscribed(NonBlockingClient client, Object context, String topicPattern, String share, Exception error) {
+            calls.add("onUnsubscribed");
+        }
+    }
+
+    private static DeliveryRequest stringDelivery(String data) {
+        byte[] msgData = createSerializedProtonMessage(new AmqpValue(data), "/topic1", 0, null, null, null);
+        return new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, "private:/#", null, null);
+    }
+
+    @Test
+    public void batchDeliveries() {
+        StubClient client = new StubClient();
+        MockCallbackService callbackService = new MockCallbackService();
+        MockBatchListener listener = new MockBatchListener();
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(
+                client, new GsonBuilder(), listener, null, SubscribeOptions.Ordering.CLIENT, null, false, 3, 0);
+
+        // A malformed delivery splits the batch, so that the listener sees the deliveries in order
+        assertTrue(wrapper.onDelivery(callbackService, stringDelivery("a"), QOS.AT_MOST_ONCE, true));
+        assertTrue(wrapper.onDelivery(callbackService, new DeliveryRequest(new byte[] {1, 2, 3}, QOS.AT_MOST_ONCE, "private:/#", null, null), QOS.AT_MOST_ONCE, true));
+        assertFalse("Expected a full batch to be delivered", wrapper.onDelivery(callbackService, stringDelivery("b"), QOS.AT_MOST_ONCE, true));
+        assertEquals(Arrays.asList("onMessages a", "onMalformed", "onMessages b"), listener.calls);
+        assertEquals("Expected the whole batch to have been settled", 3, client.settled.size());
+
+        listener.calls.clear();
+        assertTrue(wrapper.onDelivery(callbackService, stringDelivery("c"), QOS.AT_MOST_ONCE, true));
+        assertTrue(wrapper.onDelivery(callbackService, stringDelivery("d"), QOS.AT_MOST_ONCE, true));
+        assertEquals(0, listener.calls.size());
+        wrapper.onDeliveriesRead(callbackService, null);
+        assertEquals(Arrays.asList("onMessages c d"), listener.calls);
+
+        // Deliveries held in a batch are passed on before the notification of an unsubscribe
+        listener.calls.clear();
+        assertTrue(wrapper.onDelivery(callbackService, stringDelivery("e"), QOS.AT_MOST_ONCE, true));
+        wrapper.onUnsubscribed(callbackService, "/#", null, null);
+        assertEquals(Arrays.asList("onMessages e", "onUnsubscribed"), listener.calls);
+        assertEquals(6, client.settled.size());
+    }
+
+    @Test
+    public void batchDelay() {
+        final List<Promise<Void>> scheduled = new ArrayList<>();
+        TimerService timer = new TimerService() {
+            @Override public void schedule(long delay, Promise<Void> promise) {
+                assertEquals(250, delay);
+                scheduled.add(promise);
+            }
+            @Override public void cancel(Promise<Void> promise) {}
+        };
+        StubClient client = new StubClient();
+        MockCallbackService callbackService = new MockCallbackService();
+        MockBatchListener listener = new MockBatchListener();
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(
+                client, new GsonBuilder(), listener, null, SubscribeOptions.Ordering.CLIENT, null, false, 10, 250);
+
+        wrapper.onDelivery(callbackService, stringDelivery("a"), QOS.AT_MOST_ONCE, true);
+        wrapper.onDeliveriesRead(callbackService, timer);
+        wrapper.onDelivery(callbackService, stringDelivery("b"), QOS.AT_MOST_ONCE, true);
+        wrapper.onDeliveriesRead(callbackService, timer);
+        assertEquals("Expected a single timer for the batch", 1, scheduled.size());
+        assertEquals(0, listener.calls.size());
+
+        wrapper.onBatchTimer(callbackService, (TimerPromiseImpl)scheduled.get(0));
+        assertEquals(Arrays.asList("onMessages a b"), listener.calls);
+
+        // A timer that pops after its batch has been passed on is ignored
+        wrapper.onDelivery(callbackService, stringDelivery("c"), QOS.AT_MOST_ONCE, true);
+        wrapper.onBatchTimer(callbackService, (TimerPromiseImpl)scheduled.get(0));
+        assertEquals(1, listener.calls.size());
+    }
 }
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.BufferUnderflowException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.AssertionFailedError;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Footer;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.codec.DecodeException;
+import org.apache.qpid.proton.message.Message;
+import org.junit.Test;
+
+public class TestMessageDecoder {
+
+    private static Message createMessage(Object body) {
+        Message msg = Proton.message();
+        msg.setAddress("amqp:///some/topic");
+        msg.setTtl(1234);
+        msg.setDurable(true);
+        msg.setContentType("text/plain");
+        Map<Symbol, Object> annotations = new HashMap<>();
+        annotations.put(Symbol.valueOf("x-annotation"), "value");
+        msg.setDeliveryAnnotations(new DeliveryAnnotations(annotations));
+        msg.setMessageAnnotations(new MessageAnnotations(annotations));
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("key", "value");
+        msg.setApplicationProperties(new ApplicationProperties(properties));
+        msg.setFooter(new Footer(new HashMap<>(annotations)));
+        msg.setBody(new AmqpValue(body));
+        return msg;
+    }
+
+    /** Prefixes the encoded message with some bytes, so that it does not start at offset zero. */
+    private static ByteBuf encode(Message msg) {
+        final ByteBuf encoded = MessageEncoder.encode(msg);
+        try {
+            final ByteBuf buf = Unpooled.buffer(encoded.readableBytes() + 3);
+            buf.writeBytes(new byte[] {1, 2, 3});
+            buf.writeBytes(encoded);
+            buf.readerIndex(3);
+            return buf;
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private static void assertSectionsMatch(Message expected, Message actual) {
+        assertEquals(expected.getAddress(), actual.getAddress());
+        assertEquals(expected.getTtl(), actual.getTtl());
+        assertEquals(expected.isDurable(), actual.isDurable());
+        assertEquals(expected.getContentType(), actual.getContentType());
+        assertEquals(expected.getDeliveryAnnotations().getValue(), actual.getDeliveryAnnotations().getValue());
+        assertEquals(expected.getMessageAnnotations().getValue(), actual.getMessageAnnotations().getValue());
+        assertEquals(expected.getApplicationProperties().getValue(), actual.getApplicationProperties().getValue());
+        assertEquals(expected.getFooter().getValue(), actual.getFooter().getValue());
+    }
+
+    @Test
+    public void binaryBodiesAreNotCopied() {
+        for (int size : new int[] {0, 1, 255, 256, 70000}) {
+            final byte[] data = new byte[size];
+            for (int i = 0; i < size; ++i) data[i] = (byte) i;
+            final Message msg = createMessage(new Binary(data));
+            final ByteBuf buf = encode(msg);
+
+            final Message decoded = MessageDecoder.decode(buf);
+            assertSectionsMatch(msg, decoded);
+            final Binary body = (Binary) ((AmqpValue) decoded.getBody()).getValue();
+            assertSame("Body of " + size + " bytes should refer to the buffer", buf.array(), body.getArray());
+            assertEquals(new Binary(data), body);
+            assertEquals("Buffer should not have been read", 3, buf.readerIndex());
+        }
+    }
+
+    @Test
+    public void otherBodies() {
+        final Message msg = createMessage("a string");
+        final Message decoded = MessageDecoder.decode(encode(msg));
+        assertSectionsMatch(msg, decoded);
+        assertEquals("a string", ((AmqpValue) decoded.getBody()).getValue());
+    }
+
+    @Test
+    public void longFormDescriptor() {
+        final ByteBuf buf = Unpooled.buffer();
+        buf.writeBytes(new byte[] {0x00, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0x77, (byte) 0xb0, 0, 0, 0, 3, 7, 8, 9});
+        final Binary body = (Binary) ((AmqpValue) MessageDecoder.decode(buf).getBody()).getValue();
+        assertSame(buf.array(), body.getArray());
+        assertEquals(new Binary(new byte[] {7, 8, 9}), body);
+    }
+
+    @Test
+    public void invalidData() {
+        // A binary body that claims to be longer than the data, and data that is not a message section
+        for (byte[] data : new byte[][] { {0x00, 0x53, 0x77, (byte) 0xa0, 10, 1, 2}, {0x00, 0x53, 0x77, (byte) 0xb0, 0, 0, 1}, {0x41} }) {
+            try {
+                MessageDecoder.decode(Unpooled.wrappedBuffer(data));
+                throw new AssertionFailedError("Data should not have decoded");
+            } catch(BufferUnderflowException | DecodeException e) {
+                // Expected.
+            }
+        }
+    }
+}
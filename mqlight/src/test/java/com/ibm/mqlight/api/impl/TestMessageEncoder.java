@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+public class TestMessageEncoder {
+
+    private static Message createMessage(Object body) {
+        Message msg = Proton.message();
+        msg.setAddress("amqp:///some/topic/é中");
+        msg.setTtl(1234);
+        msg.setBody(new AmqpValue(body));
+        return msg;
+    }
+
+    private static void assertEncodedOnce(Message msg) {
+        final int estimate = MessageEncoder.estimateEncodedSize(msg);
+        final ByteBuf buf = MessageEncoder.encode(msg);
+        try {
+            assertTrue("Estimate of " + estimate + " bytes should not be less than the encoded size of " + buf.readableBytes(),
+                    estimate >= buf.readableBytes());
+            assertEquals("Buffer should not have been grown during encoding", estimate, buf.capacity());
+
+            Message decoded = Proton.message();
+            decoded.decode(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+            assertEquals(msg.getAddress(), decoded.getAddress());
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void binaryBodies() {
+        for (int size : new int[] {0, 1, 255, 256, 2 * 1024, 64 * 1024, 1024 * 1024}) {
+            assertEncodedOnce(createMessage(new Binary(new byte[size])));
+        }
+    }
+
+    @Test
+    public void stringBodies() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            sb.append("aé中😀");
+            if (i == 0 || i == 100 || i == 99999) {
+                final Message msg = createMessage(sb.toString());
+                msg.setContentType("application/json");
+                assertEncodedOnce(msg);
+            }
+        }
+    }
+
+    @Test
+    public void applicationProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("boolean", true);
+        properties.put("byte", (byte)1);
+        properties.put("short", (short)123);
+        properties.put("int", 4567);
+        properties.put("long", 121723L);
+        properties.put("float", 0.1234f);
+        properties.put("double", 543.1234);
+        properties.put("binary", new Binary(new byte[300]));
+        properties.put("string", "this is a string 中");
+        for (int i = 0; i < 100; ++i) {
+            properties.put("key" + i, i);
+        }
+        Message msg = createMessage("data");
+        msg.setApplicationProperties(new ApplicationProperties(properties));
+        assertEncodedOnce(msg);
+    }
+
+    @Test
+    public void reusableMessageClearedOnceEncoded() {
+        final byte[] data = new byte[] {1, 2, 3};
+        Message msg = MessageEncoder.reusableMessage(new Data(new Binary(data)), "application/octet-stream");
+        msg.setAddress("amqp:///some/topic");
+        msg.setApplicationProperties(new ApplicationProperties(new HashMap<String, Object>(Collections.singletonMap("key", "value"))));
+        final ByteBuf buf = MessageEncoder.encode(msg);
+        try {
+            assertNull("Body should be cleared once encoded", msg.getBody());
+            assertNull("Application properties should be cleared once encoded", msg.getApplicationProperties());
+
+            Message decoded = Proton.message();
+            decoded.decode(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+            assertEquals(new Binary(data), ((Data)decoded.getBody()).getValue());
+            assertEquals("value", decoded.getApplicationProperties().getValue().get("key"));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void utf8Length() {
+        for (String value : new String[] {"", "abc", "é", "߿", "ࠀ", "a中b￿"}) {
+            assertEquals("UTF-8 length of '" + value + "'",
+                    value.getBytes(Charset.forName("UTF-8")).length, MessageEncoder.utf8Length(value));
+        }
+        assertTrue(MessageEncoder.utf8Length("😀") >= "😀".getBytes(Charset.forName("UTF-8")).length);
+    }
+
+    private static Message decodeJson(Object json, java.lang.reflect.Type type, Gson gson) {
+        final Message msg = Proton.message();
+        msg.setAddress("amqp:///json");
+        msg.setContentType("application/json");
+        final ByteBuf buf = MessageEncoder.encodeJson(msg, gson, json, type);
+        try {
+            final Message decoded = Proton.message();
+            decoded.decode(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+            assertEquals(msg.getAddress(), decoded.getAddress());
+            assertEquals("application/json", decoded.getContentType());
+            return decoded;
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void jsonBodies() {
+        final Gson gson = new Gson();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            sb.append("aé中😀\"\n");
+            if (i == 0 || i == 100 || i == 19999) {
+                final Map<String, Object> json = new HashMap<>();
+                json.put("text", sb.toString());
+                json.put("number", i);
+                final Message decoded = decodeJson(json, null, gson);
+                assertEquals(gson.toJson(json), ((AmqpValue) decoded.getBody()).getValue());
+            }
+        }
+
+        final List<String> list = new ArrayList<>();
+        list.add("one");
+        list.add(null);
+        final java.lang.reflect.Type type = new TypeToken<List<String>>(){}.getType();
+        assertEquals(gson.toJson(list, type), ((AmqpValue) decodeJson(list, type, gson).getBody()).getValue());
+        assertEquals("null", ((AmqpValue) decodeJson(null, null, gson).getBody()).getValue());
+    }
+
+    @Test
+    public void jsonFromManyThreads() throws Exception {
+        final Gson gson = new Gson();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 1000; ++i) {
+                            final Map<String, Object> json = new HashMap<>();
+                            json.put("thread", thread);
+                            json.put("value", "value " + i);
+                            assertEquals(gson.toJson(json), ((AmqpValue) decodeJson(json, null, gson).getBody()).getValue());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void utf8Writer() {
+        final ByteBufUtf8Writer writer = new ByteBufUtf8Writer();
+        for (String value : new String[] {"", "abc", "é", "߿", "ࠀ", "a中b￿", "😀", "x\ud83dy", "\ude00z", "end\ud83d"}) {
+            final ByteBuf buf = Unpooled.buffer(1);
+            writer.setByteBuf(buf);
+            writer.write(value, 0, value.length());
+            writer.close();
+            final byte[] expected = value.getBytes(Charset.forName("UTF-8"));
+            final byte[] actual = new byte[buf.readableBytes()];
+            buf.readBytes(actual);
+            assertEquals("UTF-8 encoding of '" + value + "'", new String(expected, Charset.forName("ISO-8859-1")), new String(actual, Charset.forName("ISO-8859-1")));
+        }
+    }
+}
@@ -22,17 +22,24 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
 import java.math.BigDecimal;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
@@ -48,11 +55,19 @@ import org.junit.Test;
 
 import com.google.gson.GsonBuilder;
 import com.ibm.mqlight.api.ClientException;
+import com.ibm.mqlight.api.PullSubscription;
+import com.ibm.mqlight.api.BytesDelivery;
+import com.ibm.mqlight.api.BatchCompletionListener;
+import com.ibm.mqlight.api.BatchDestinationListener;
 import com.ibm.mqlight.api.ClientOptions;
 import com.ibm.mqlight.api.ClientOptions.SSLOptions;
 import com.ibm.mqlight.api.ClientState;
 import com.ibm.mqlight.api.CompletionListener;
+import com.ibm.mqlight.api.CreditMetrics;
 import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DeliveryPublisher;
+import com.ibm.mqlight.api.DeliverySubscriber;
+import com.ibm.mqlight.api.DeliverySubscription;
 import com.ibm.mqlight.api.DestinationAdapter;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.MalformedDelivery;
@@ -72,16 +87,21 @@ import com.ibm.mqlight.api.endpoint.Endpoint;
 import com.ibm.mqlight.api.endpoint.EndpointPromise;
 import com.ibm.mqlight.api.endpoint.EndpointService;
 import com.ibm.mqlight.api.impl.callback.SameThreadCallbackService;
+import com.ibm.mqlight.api.impl.engine.BatchedSendResponse;
 import com.ibm.mqlight.api.impl.engine.CloseRequest;
 import com.ibm.mqlight.api.impl.engine.CloseResponse;
+import com.ibm.mqlight.api.impl.engine.DeliveriesReadNotification;
+import com.ibm.mqlight.api.impl.engine.DeliveriesResponse;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
-import com.ibm.mqlight.api.impl.engine.DeliveryResponse;
 import com.ibm.mqlight.api.impl.engine.DisconnectNotification;
 import com.ibm.mqlight.api.impl.engine.EngineConnection;
+import com.ibm.mqlight.api.impl.engine.FlowRequest;
 import com.ibm.mqlight.api.impl.engine.OpenRequest;
 import com.ibm.mqlight.api.impl.engine.OpenResponse;
+import com.ibm.mqlight.api.impl.engine.SendBatchRequest;
 import com.ibm.mqlight.api.impl.engine.SendRequest;
 import com.ibm.mqlight.api.impl.engine.SendResponse;
+import com.ibm.mqlight.api.impl.engine.SettleRequest;
 import com.ibm.mqlight.api.impl.engine.SubscribeRequest;
 import com.ibm.mqlight.api.impl.engine.SubscribeResponse;
 import com.ibm.mqlight.api.impl.engine.UnsubscribeRequest;
@@ -496,7 +516,7 @@ public class TestNonBlockingClientImpl {
         assertEquals("Expected a single message to have been sent to the mock engine component", 1, client.getMessages().size());
         InternalSend<?> send = (InternalSend<?>)client.getMessages().get(0);
         byte[] msgData = new byte[send.length];
-        System.arraycopy(send.buf.array(), 0, msgData, 0, send.length);
+        send.buf.getBytes(send.buf.readerIndex(), msgData);
 
         DeliveryRequest dr = new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, "/kittens", null, null);
         TestDestinationListener destinationListener = new TestDestinationListener();
@@ -959,6 +979,173 @@ public class TestNonBlockingClientImpl {
         assertEquals("Exception passed to completion listener should match", exception, compListener.getException());
     }
 
+    @Test
+    public void testSendBatch() {
+        class TestClientListener extends MockNonBlockingClientListener {
+            public TestClientListener() { super(true); }
+            @Override public void onStarted(NonBlockingClient client, Void context) {}
+        }
+        MockComponent engine = new MockComponent();
+        TestClientListener listener = new TestClientListener();
+        EngineConnection engineConnection = new EngineConnection();
+
+        NonBlockingClientImpl client = openCommon(engine, listener);
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, engineConnection), engine);
+        assertEquals(ClientState.STARTED, client.getState());
+
+        MockCompletionListener compListener = new MockCompletionListener();
+        client.sendBatch("/kittens", Arrays.asList("one", ByteBuffer.wrap(new byte[] {2}), "three"), null, null, compListener, null);
+        assertEquals("Expected the whole batch to be passed to the engine as one message", 2, engine.getMessages().size());
+        assertTrue(engine.getMessages().get(1) instanceof SendBatchRequest);
+        SendBatchRequest batchRequest = (SendBatchRequest)engine.getMessages().get(1);
+        assertEquals(3, batchRequest.requests.size());
+
+        client.tell(new SendResponse(batchRequest.requests.get(0), null), engine);
+        client.tell(new SendResponse(batchRequest.requests.get(1), null), engine);
+        assertEquals("Listener should not be notified until every message has been sent", 1, compListener.latch.getCount());
+        client.tell(new SendResponse(batchRequest.requests.get(2), null), engine);
+        compListener.assertSuccess();
+    }
+
+    @Test
+    public void testBatchedSendResponse() {
+        class TestClientListener extends MockNonBlockingClientListener {
+            public TestClientListener() { super(true); }
+            @Override public void onStarted(NonBlockingClient client, Void context) {}
+        }
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new TestClientListener());
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+
+        SendOptions sendOptions = SendOptions.builder().setQos(QOS.AT_MOST_ONCE).build();
+        MockCompletionListener listener1 = new MockCompletionListener();
+        MockCompletionListener listener2 = new MockCompletionListener();
+        client.send("/kittens", "one", null, sendOptions, listener1, null);
+        client.send("/kittens", "two", null, sendOptions, listener2, null);
+        assertEquals(3, engine.getMessages().size());
+
+        client.tell(new BatchedSendResponse(Arrays.asList((SendRequest)engine.getMessages().get(1), (SendRequest)engine.getMessages().get(2))), engine);
+        listener1.assertSuccess();
+        listener2.assertSuccess();
+    }
+
+    @Test
+    public void testBatchedCompletion() {
+        class TestClientListener extends MockNonBlockingClientListener {
+            public TestClientListener() { super(true); }
+            @Override public void onStarted(NonBlockingClient client, Void context) {}
+        }
+        class TestBatchCompletionListener implements BatchCompletionListener<Integer> {
+            final List<List<Integer>> batches = new ArrayList<>();
+            final List<Integer> successes = new ArrayList<>();
+            @Override public void onSuccess(NonBlockingClient client, Integer context) { successes.add(context); }
+            @Override public void onError(NonBlockingClient client, Integer context, Exception exception) {
+                throw new AssertionFailedError("onError should not have been called");
+            }
+            @Override public void onSuccessBatch(NonBlockingClient client, List<Integer> contexts) { batches.add(contexts); }
+        }
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new TestClientListener());
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+
+        TestBatchCompletionListener listener = new TestBatchCompletionListener();
+        SendOptions batchedOptions = SendOptions.builder().setQos(QOS.AT_LEAST_ONCE).setBatchedCompletion(true).build();
+        SendOptions unbatchedOptions = SendOptions.builder().setQos(QOS.AT_LEAST_ONCE).build();
+        client.send("/kittens", "one", null, batchedOptions, listener, 1);
+        client.send("/kittens", "two", null, batchedOptions, listener, 2);
+        client.send("/kittens", "three", null, unbatchedOptions, listener, 3);
+        client.send("/kittens", "four", null, batchedOptions, listener, 4);
+        List<SendRequest> requests = new ArrayList<>();
+        for (int i = 1; i <= 4; ++i) {
+            requests.add((SendRequest)engine.getMessages().get(i));
+        }
+
+        client.tell(new BatchedSendResponse(requests), engine);
+        assertEquals("Expected the batched completions to be notified with one call", Arrays.asList(Arrays.asList(1, 2, 4)), listener.batches);
+        assertEquals("Expected the unbatched completion to be notified individually", Arrays.asList(3), listener.successes);
+
+        // A completion that arrives on its own is notified with onSuccess
+        client.send("/kittens", "five", null, batchedOptions, listener, 5);
+        client.tell(new SendResponse((SendRequest)engine.getMessages().get(5), null), engine);
+        assertEquals(Arrays.asList(5), listener.successes.subList(1, 2));
+    }
+
+    @Test
+    public void testSendWaterMarks() {
+        class TestClientListener extends MockNonBlockingClientListener {
+            int drains = 0;
+            public TestClientListener() { super(true); }
+            @Override public void onStarted(NonBlockingClient client, Void context) {}
+            @Override public void onDrain(NonBlockingClient client, Void context) { ++drains; }
+        }
+        MockComponent engine = new MockComponent();
+        TestClientListener listener = new TestClientListener();
+        ClientOptions options = ClientOptions.builder().setWaterMarks(1500, 2500).build();
+        NonBlockingClientImpl client =
+                new NonBlockingClientImpl(new MockEndpointService(), new SameThreadCallbackService(), engine, new MockTimerService(), null, options, listener, null);
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(ClientState.STARTED, client.getState());
+
+        final ByteBuffer data = ByteBuffer.wrap(new byte[1000]);
+        assertTrue("First send should be below the high water mark", client.send("/kittens", data.duplicate(), null));
+        assertTrue("Second send should be below the high water mark", client.send("/kittens", data.duplicate(), null));
+        assertFalse("Third send should cross the high water mark", client.send("/kittens", data.duplicate(), null));
+        assertEquals(4, engine.getMessages().size());
+
+        client.tell(new SendResponse((SendRequest)engine.getMessages().get(1), null), engine);
+        assertEquals("onDrain should not be called while above the low water mark", 0, listener.drains);
+        client.tell(new SendResponse((SendRequest)engine.getMessages().get(2), null), engine);
+        assertEquals("onDrain should be called on reaching the low water mark", 1, listener.drains);
+        client.tell(new SendResponse((SendRequest)engine.getMessages().get(3), null), engine);
+        assertEquals("onDrain should only be called once for each send that returned false", 1, listener.drains);
+
+        assertTrue("Sends should be accepted once the backlog has drained", client.send("/kittens", data.duplicate(), null));
+    }
+
+    @Test
+    public void testSendBatchFails() {
+        class TestClientListener extends MockNonBlockingClientListener {
+            public TestClientListener() { super(true); }
+            @Override public void onStarted(NonBlockingClient client, Void context) {}
+        }
+        MockComponent engine = new MockComponent();
+        TestClientListener listener = new TestClientListener();
+        EngineConnection engineConnection = new EngineConnection();
+
+        NonBlockingClientImpl client = openCommon(engine, listener);
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, engineConnection), engine);
+
+        MockCompletionListener compListener = new MockCompletionListener();
+        client.sendBatch("/kittens", Arrays.asList("one", "two", "three"), null, null, compListener, null);
+        SendBatchRequest batchRequest = (SendBatchRequest)engine.getMessages().get(1);
+
+        final Exception exception = new Exception("something nasty, I'm sure");
+        client.tell(new SendResponse(batchRequest.requests.get(0), null), engine);
+        client.tell(new SendResponse(batchRequest.requests.get(1), exception), engine);
+        client.tell(new SendResponse(batchRequest.requests.get(2), new Exception("a later failure")), engine);
+
+        compListener.assertFailure();
+        assertEquals("Exception passed to completion listener should be the first failure", exception, compListener.getException());
+
+        try {
+            client.sendBatch("/kittens", Arrays.asList("one", new Object()), null, null, null, null);
+            throw new AssertionFailedError("Batch containing an unsupported type should have thrown an exception");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            client.sendBatch("/kittens", new LinkedList<String>(), null, null, null, null);
+            throw new AssertionFailedError("Empty batch should have thrown an exception");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
     @Test
     public void testThrowingExceptionInCallbackStopsClient() {
         final RuntimeException exception = new RuntimeException("");
@@ -1050,10 +1237,121 @@ public class TestNonBlockingClientImpl {
 
     private org.apache.qpid.proton.message.Message decodeProtonMessage(InternalSend<?> send) {
         org.apache.qpid.proton.message.Message result = Proton.message();
-        result.decode(send.buf.array(), 0, send.length);
+        result.decode(send.buf.array(), send.buf.arrayOffset() + send.buf.readerIndex(), send.length);
         return result;
     }
 
+    @Test
+    public void testSendReusesThreadMessage() {
+        class MockClient extends NonBlockingClientImpl {
+
+            private final LinkedList<InternalSend<?>> sends = new LinkedList<>();
+
+            protected <T> MockClient(EndpointService endpointService,
+                    CallbackService callbackService, ComponentImpl engine,
+                    TimerService timerService, GsonBuilder gsonBuilder,
+                    ClientOptions options,
+                    NonBlockingClientListener<T> listener, T context) {
+                super(endpointService, callbackService, engine, timerService, gsonBuilder,
+                        options, listener, context);
+            }
+
+            @Override
+            public void tell(Message message, Component self) {
+                if (message instanceof InternalSend<?>) {
+                    sends.addLast((InternalSend<?>)message);
+                }
+                super.tell(message, self);
+            }
+        }
+        MockComponent engine = new MockComponent();
+        MockClient client =
+                new MockClient(new MockEndpointService(), new SameThreadCallbackService(), engine, new MockTimerService(), null, null, null, null);
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(ClientState.STARTED, client.getState());
+
+        // Each send from this thread is built in the thread's reusable message, which is left
+        // addressed to the last topic but without the last body or properties
+        final org.apache.qpid.proton.message.Message reusable = MessageEncoder.reusableMessage(null, null);
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("colour", "tabby");
+        client.send("/kittens", "first", properties, null, null, null);
+        assertSame("Send should reuse this thread's message", reusable, MessageEncoder.reusableMessage(null, null));
+        assertSame("The address of the last topic should be reused", MessageEncoder.address("/kittens"), reusable.getAddress());
+        assertNull(reusable.getApplicationProperties());
+        org.apache.qpid.proton.message.Message msg = decodeProtonMessage(client.sends.getLast());
+        assertEquals("first", ((AmqpValue)msg.getBody()).getValue());
+        assertEquals("tabby", msg.getApplicationProperties().getValue().get("colour"));
+
+        // A send without properties builds no properties section, and none is left over from the previous send
+        client.send("/cats", "second", null);
+        assertSame(reusable, MessageEncoder.reusableMessage(null, null));
+        assertSame(MessageEncoder.address("/cats"), reusable.getAddress());
+        msg = decodeProtonMessage(client.sends.getLast());
+        assertEquals("second", ((AmqpValue)msg.getBody()).getValue());
+        assertNull("No application properties should be sent", msg.getApplicationProperties());
+    }
+
+    @Test
+    public void testSendByteBufferIsNotCopied() {
+        class MockClient extends NonBlockingClientImpl {
+
+            private final LinkedList<InternalSend<?>> sends = new LinkedList<>();
+
+            protected <T> MockClient(EndpointService endpointService,
+                    CallbackService callbackService, ComponentImpl engine,
+                    TimerService timerService, GsonBuilder gsonBuilder,
+                    ClientOptions options,
+                    NonBlockingClientListener<T> listener, T context) {
+                super(endpointService, callbackService, engine, timerService, gsonBuilder,
+                        options, listener, context);
+            }
+
+            @Override
+            public void tell(Message message, Component self) {
+                if (message instanceof InternalSend<?>) {
+                    sends.addLast((InternalSend<?>)message);
+                }
+                super.tell(message, self);
+            }
+        }
+        MockComponent engine = new MockComponent();
+        MockClient client =
+                new MockClient(new MockEndpointService(), new SameThreadCallbackService(), engine, new MockTimerService(), null, null, null, null);
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(ClientState.STARTED, client.getState());
+
+        // Send a payload from the middle of a larger heap buffer, so that the array offset is non-zero
+        final int payloadLength = 64 * 1024;
+        final byte[] backingArray = new byte[payloadLength + 32];
+        for (int i = 0; i < backingArray.length; ++i) backingArray[i] = (byte)i;
+        final ByteBuffer payload = ByteBuffer.wrap(backingArray, 16, payloadLength).slice();
+
+        // The message body wraps the application's array, rather than a copy of it
+        final Binary wrapped = NonBlockingClientImpl.toBinary(payload);
+        assertSame("Message body should wrap the application's array", backingArray, wrapped.getArray());
+        assertEquals(16, wrapped.getArrayOffset());
+        assertEquals(payloadLength, wrapped.getLength());
+
+        // ... and the only copy of the payload is the one into the pooled encode buffer
+        client.send("/kittens", payload, (Map<String, Object>)null, null, null, null);
+        final InternalSend<?> send = client.sends.getLast();
+        assertTrue("Encoded message should be held in a pooled buffer", send.buf.alloc() instanceof PooledByteBufAllocator);
+        client.tell(new SendResponse((SendRequest)engine.getMessages().getLast(), null), engine);
+        assertEquals("Encoded message buffer should have been released when the send completed", 0, send.buf.refCnt());
+        assertEquals("Application buffer position should not have been changed", 0, payload.position());
+
+        final byte[] expected = new byte[payloadLength];
+        System.arraycopy(backingArray, 16, expected, 0, payloadLength);
+        client.send("/kittens", payload, (Map<String, Object>)null, null, null, null);
+        final org.apache.qpid.proton.message.Message msg = decodeProtonMessage(client.sends.getLast());
+        final Binary body = (Binary)((AmqpValue)msg.getBody()).getValue();
+        assertEquals(payloadLength, body.getLength());
+        assertTrue("Body should match the application buffer", ByteBuffer.wrap(expected).equals(body.asByteBuffer()));
+    }
+
     @Test
     public void testSendPayloads() {
 
@@ -1155,7 +1453,7 @@ public class TestNonBlockingClientImpl {
         client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null)), engine);
         assertTrue("Client failed to subscribe within timeout. ", done.tryAcquire(4, TimeUnit.SECONDS));
         // add an entry to pendingDeliveries so that the next InternalUnsubscribe is added to sd.pending
-        client.tell(new DeliveryRequest(null, QOS.AT_LEAST_ONCE, "/kittens", null, null), engine);
+        client.tell(new DeliveryRequest((byte[])null, QOS.AT_LEAST_ONCE, "/kittens", null, null), engine);
         client.unsubscribe("/kittens", null, null);
         Thread.sleep(100L);
         // expect breakInboundLinks to complete quickly
@@ -1256,6 +1554,31 @@ public class TestNonBlockingClientImpl {
         stopListener.assertSuccess();
     }
 
+    /**
+     * Holds callbacks until the test runs them, either for a single ordering context or for all of them.
+     */
+    private static class DeferredCallbackService implements CallbackService {
+        private final LinkedList<Object[]> queued = new LinkedList<>();
+        @Override public void run(Runnable runnable, Object orderingCtx, Promise<Void> promise) {
+            queued.add(new Object[] {runnable, orderingCtx, promise});
+        }
+        @SuppressWarnings("unchecked")
+        void runAll(Object orderingCtx) {
+            boolean ran = true;
+            while (ran) {
+                ran = false;
+                for (Object[] entry : new ArrayList<>(queued)) {
+                    if (orderingCtx == null || entry[1] == orderingCtx) {
+                        queued.remove(entry);
+                        ((Runnable)entry[0]).run();
+                        ((Promise<Void>)entry[2]).setSuccess(null);
+                        ran = true;
+                    }
+                }
+            }
+        }
+    }
+
     private void unsubscribeFromWithinMessageCallbackTemplate(QOS qos, final boolean shared, boolean autoConfirm,
             final boolean confirmBeforeUnsubscribe, final boolean confirmAfterUnsubscribe) throws Exception {
         MockComponent engine = new MockComponent();
@@ -1313,11 +1636,13 @@ public class TestNonBlockingClientImpl {
         assertEquals("Event #" + (i + 1) + " should have been OpenRequest", OpenRequest.class, messages.get(i++).getClass());
         assertEquals("Event #" + (i + 1) + " should have been SubscribeRequest", SubscribeRequest.class, messages.get(i++).getClass());
         if (!notConfirmed) {
-            assertEquals("Event #" + (i + 1) + " should have been DeliveryResponse", DeliveryResponse.class, messages.get(i++).getClass());
+            assertEquals("Event #" + (i + 1) + " should have been SettleRequest", SettleRequest.class, messages.get(i++).getClass());
         }
         assertEquals("Event #" + (i + 1) + " should have been UnsubscribeRequest", UnsubscribeRequest.class, messages.get(i++).getClass());
 
-        client.tell(messages.get(2), engine);
+        if (!notConfirmed) {
+            client.tell(new DeliveriesResponse(((SettleRequest)messages.get(2)).queue.drain()), engine);
+        }
         client.tell(new UnsubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", shared ? "share" : null), null), engine);
         unsubscribeListener.assertSuccess();
     }
@@ -1418,4 +1743,552 @@ public class TestNonBlockingClientImpl {
 
         unsubscribeBeforeConfirmedMessageReceiptTemplate(false);
     }
+
+    @Test
+    public void testBatchDestinationListener() {
+        class BatchListener extends DestinationAdapter<Void> implements BatchDestinationListener<Void> {
+            private final List<Integer> batchSizes = new ArrayList<>();
+            @Override
+            public void onMessage(NonBlockingClient client, Void context, Delivery delivery) {
+                throw new AssertionFailedError("onMessage should not have been called");
+            }
+            @Override
+            public void onMessages(NonBlockingClient client, Void context, List<Delivery> deliveries) {
+                batchSizes.add(deliveries.size());
+            }
+        }
+
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        BatchListener immediate = new BatchListener();
+        client.subscribe("/kittens", SubscribeOptions.builder().setBatchSize(3).build(), immediate, null, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null)), engine);
+        BatchListener delayed = new BatchListener();
+        client.subscribe("/cats", SubscribeOptions.builder().setBatchDelay(100, TimeUnit.MILLISECONDS).build(), delayed, null, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/cats", null)), engine);
+
+        byte[] amqpMessageData = TestDestinationListenerWrapper.createSerializedProtonMessage(
+                new AmqpValue(new Binary(new byte[]{1})), "/kittens", 0, null, null, null);
+        for (int i = 0; i < 5; ++i) {
+            client.tell(new DeliveryRequest(amqpMessageData, QOS.AT_MOST_ONCE, "private:/kittens", null, null), engine);
+            client.tell(new DeliveryRequest(amqpMessageData, QOS.AT_MOST_ONCE, "private:/cats", null, null), engine);
+        }
+        assertEquals("Expected a full batch to be delivered straight away", 1, immediate.batchSizes.size());
+        assertEquals("Expected no delivery before the end of the read", 0, delayed.batchSizes.size());
+
+        // The mock timer service pops as soon as the batch delay timer is scheduled
+        client.tell(new DeliveriesReadNotification(), engine);
+        assertEquals("Expected the rest of the read to be delivered", Arrays.asList(3, 2), immediate.batchSizes);
+        assertEquals("Expected the delayed deliveries as one batch", Arrays.asList(5), delayed.batchSizes);
+        assertEquals("The batch delay timer should not affect the client state", ClientState.STARTED, client.getState());
+    }
+
+    @Test
+    public void testDeliveryCarriesSubscription() {
+        final List<Delivery> deliveries = new ArrayList<>();
+        final DestinationAdapter<Void> destListener = new DestinationAdapter<Void>() {
+            @Override
+            public void onMessage(NonBlockingClient client, Void context, Delivery delivery) {
+                deliveries.add(delivery);
+            }
+        };
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        client.subscribe("/kittens", SubscribeOptions.builder().setShare("share1").build(), destListener, null, null);
+        SubscribeRequest subscribeRequest = (SubscribeRequest)engine.getMessages().get(1);
+        SubscriptionDescriptor subscription = subscribeRequest.subscription;
+        assertNotNull("Expected the subscribe request to describe the subscription", subscription);
+        assertSame(subscribeRequest.topic, subscription.getTopic());
+        assertEquals("/kittens", subscription.getTopicPattern());
+        assertEquals("share1", subscription.getShare());
+        assertEquals(QOS.AT_MOST_ONCE, subscription.getQOS());
+        assertTrue(subscription.getAutoConfirm());
+        client.tell(new SubscribeResponse(engineConnection, subscribeRequest.topic), engine);
+
+        // The topic pattern of the delivery is not used, as the delivery refers to its subscription
+        byte[] amqpMessageData = TestDestinationListenerWrapper.createSerializedProtonMessage(
+                new AmqpValue(new Binary(new byte[]{1})), "/kittens", 0, null, null, null);
+        client.tell(new DeliveryRequest(Unpooled.wrappedBuffer(amqpMessageData), QOS.AT_MOST_ONCE, "not-a-link-name", subscription, null, null), engine);
+        assertEquals(1, deliveries.size());
+        assertEquals("/kittens", deliveries.get(0).getTopicPattern());
+        assertEquals("share1", deliveries.get(0).getShare());
+
+        // Once unsubscribed, a delivery for the old subscription is not passed to a new subscription
+        client.unsubscribe("/kittens", "share1", 0, null, null);
+        client.tell(new UnsubscribeResponse(engineConnection, subscribeRequest.topic, null), engine);
+        client.subscribe("/kittens", SubscribeOptions.builder().setShare("share1").build(), destListener, null, null);
+        SubscribeRequest resubscribeRequest = (SubscribeRequest)engine.getMessages().getLast();
+        assertNotSame(subscription, resubscribeRequest.subscription);
+        client.tell(new SubscribeResponse(engineConnection, resubscribeRequest.topic), engine);
+        client.tell(new DeliveryRequest(Unpooled.wrappedBuffer(amqpMessageData), QOS.AT_MOST_ONCE, "not-a-link-name", subscription, null, null), engine);
+        assertEquals(1, deliveries.size());
+        client.tell(new DeliveryRequest(Unpooled.wrappedBuffer(amqpMessageData), QOS.AT_MOST_ONCE, "not-a-link-name", resubscribeRequest.subscription, null, null), engine);
+        assertEquals(2, deliveries.size());
+    }
+
+    @Test
+    public void testPullSubscription() throws InterruptedException {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        MockCompletionListener subscribeListener = new MockCompletionListener();
+        SubscribeOptions opts = SubscribeOptions.builder().setQos(QOS.AT_LEAST_ONCE).setCredit(5).setPooledDeliveries(true).build();
+        PullSubscription subscription = client.pullSubscribe("/kittens", opts, subscribeListener, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null)), engine);
+        subscribeListener.assertSuccess();
+        assertEquals("Expected nothing to poll for", 0, subscription.poll(0, TimeUnit.MILLISECONDS, 10).size());
+
+        byte[] amqpMessageData = TestDestinationListenerWrapper.createSerializedProtonMessage(
+                new AmqpValue(new Binary(new byte[]{1})), "/kittens", 0, null, null, null);
+        final List<DeliveryRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            requests.add(new DeliveryRequest(amqpMessageData, QOS.AT_LEAST_ONCE, "private:/kittens", null, null));
+            client.tell(requests.get(i), engine);
+        }
+        assertEquals("Expected the deliveries to be buffered", 3, subscription.getBufferedCount());
+
+        // Deliveries are only confirmed (so credit is only flowed) as they are polled for
+        int engineMessages = engine.getMessages().size();
+        List<Delivery> deliveries = subscription.poll(1, TimeUnit.SECONDS, 2);
+        assertEquals(2, deliveries.size());
+        assertEquals(1, subscription.getBufferedCount());
+        assertEquals("/kittens", deliveries.get(0).getTopicPattern());
+        assertEquals(ByteBuffer.wrap(new byte[] {1}), ((BytesDelivery)deliveries.get(1)).getData());
+        for (Delivery delivery : deliveries) {
+            ((BytesDelivery)delivery).release();
+        }
+        assertEquals("Expected the polled deliveries to be settled", engineMessages + 1, engine.getMessages().size());
+        SettleRequest settleRequest = (SettleRequest)engine.getMessages().get(engineMessages);
+        assertEquals(requests.subList(0, 2), settleRequest.queue.drain());
+
+        // A delivery that can no longer be confirmed is dropped, and polling returns straight away
+        // once unsubscribed
+        client.tell(new UnsubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null), null), engine);
+        assertTrue(subscription.isUnsubscribed());
+        assertEquals(0, subscription.poll(1, TimeUnit.DAYS, 10).size());
+        assertEquals(0, subscription.getBufferedCount());
+
+        try {
+            subscription.poll(0, TimeUnit.SECONDS, 0);
+            throw new AssertionFailedError("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            subscription.poll(-1, TimeUnit.SECONDS, 1);
+            throw new AssertionFailedError("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // Polling ends once a subscribe fails
+        subscribeListener = new MockCompletionListener();
+        subscription = client.pullSubscribe("/cats", null, subscribeListener, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/cats", null), new ClientException("no")), engine);
+        subscribeListener.assertFailure(ClientException.class);
+        assertTrue(subscription.isUnsubscribed());
+    }
+
+    @Test
+    public void testPullSubscriptionPooledDeliveries() throws InterruptedException {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        SubscribeOptions opts = SubscribeOptions.builder().setPooledDeliveries(true).build();
+        PullSubscription subscription = client.pullSubscribe("/kittens", opts, null, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null)), engine);
+
+        byte[] amqpMessageData = TestDestinationListenerWrapper.createSerializedProtonMessage(
+                new AmqpValue(new Binary(new byte[]{1, 2, 3})), "/kittens", 0, null, null, null);
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(false);
+        final ByteBuf[] bufs = new ByteBuf[2];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i] = allocator.heapBuffer(amqpMessageData.length).writeBytes(amqpMessageData);
+            client.tell(new DeliveryRequest(bufs[i], QOS.AT_MOST_ONCE, "private:/kittens", null, null), engine);
+        }
+
+        // A polled delivery keeps its pooled buffer until the application releases it
+        List<Delivery> deliveries = subscription.poll(1, TimeUnit.SECONDS, 1);
+        assertEquals(1, deliveries.size());
+        BytesDelivery delivery = (BytesDelivery)deliveries.get(0);
+        assertEquals(1, bufs[0].refCnt());
+        assertEquals(ByteBuffer.wrap(new byte[] {1, 2, 3}), delivery.getData());
+        delivery.release();
+        assertEquals(0, bufs[0].refCnt());
+        try {
+            delivery.getData();
+            throw new AssertionFailedError("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // A delivery that is never polled for is released when the subscription ends
+        assertEquals(1, subscription.getBufferedCount());
+        client.tell(new UnsubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null), null), engine);
+        assertEquals(0, subscription.getBufferedCount());
+        assertEquals(0, bufs[1].refCnt());
+    }
+
+    @Test
+    public void testDeliveryPublisher() {
+        class Subscriber implements DeliverySubscriber {
+            private DeliverySubscription subscription;
+            private final List<Delivery> deliveries = new ArrayList<>();
+            private Throwable error;
+            @Override
+            public void onSubscribe(DeliverySubscription subscription) {
+                this.subscription = subscription;
+            }
+            @Override
+            public void onNext(Delivery delivery) {
+                deliveries.add(delivery);
+            }
+            @Override
+            public void onError(Throwable error) {
+                this.error = error;
+            }
+            @Override
+            public void onComplete() {
+                throw new AssertionFailedError("onComplete should not have been called");
+            }
+        }
+
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        DeliveryPublisher publisher = client.createPublisher("/kittens", SubscribeOptions.builder().setCredit(8).build());
+        Subscriber subscriber = new Subscriber();
+        publisher.subscribe(subscriber);
+        assertNotNull("Expected onSubscribe to have been called", subscriber.subscription);
+        assertEquals("Expected only a subscribe request, as nothing has been requested", 2, engine.getMessages().size());
+        SubscribeRequest subscribeRequest = (SubscribeRequest)engine.getMessages().get(1);
+        assertTrue(subscribeRequest.subscription.getCreditOnDemand());
+
+        // Demand is given to the server as link credit
+        subscriber.subscription.request(3);
+        assertEquals(3, ((FlowRequest)engine.getMessages().getLast()).credit);
+        client.tell(new SubscribeResponse(engineConnection, subscribeRequest.topic), engine);
+
+        // ... capped at the subscription's credit
+        subscriber.subscription.request(100);
+        assertEquals(5, ((FlowRequest)engine.getMessages().getLast()).credit);
+        int engineMessages = engine.getMessages().size();
+
+        // ... and topped up once a quarter of the credit has been used
+        byte[] amqpMessageData = TestDestinationListenerWrapper.createSerializedProtonMessage(
+                new AmqpValue(new Binary(new byte[]{1})), "/kittens", 0, null, null, null);
+        client.tell(new DeliveryRequest(amqpMessageData, QOS.AT_MOST_ONCE, "private:/kittens", null, null), engine);
+        assertEquals(1, subscriber.deliveries.size());
+        assertEquals("Expected the settlement to be queued, but no more credit", engineMessages + 1, engine.getMessages().size());
+        assertTrue(engine.getMessages().getLast() instanceof SettleRequest);
+        client.tell(new DeliveryRequest(amqpMessageData, QOS.AT_MOST_ONCE, "private:/kittens", null, null), engine);
+        assertEquals(2, subscriber.deliveries.size());
+        assertEquals(2, ((FlowRequest)engine.getMessages().getLast()).credit);
+
+        // Only one subscriber is allowed
+        Subscriber another = new Subscriber();
+        publisher.subscribe(another);
+        assertTrue(another.error instanceof IllegalStateException);
+
+        // Requesting nothing is an error, which cancels the subscription
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(engine.getMessages().getLast() instanceof UnsubscribeRequest);
+
+        try {
+            publisher.subscribe(null);
+            throw new AssertionFailedError("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testDeliveryPublisherCancelledFromOnSubscribe() {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        // Cancelling from onSubscribe means that no subscription is made (so none is left behind)
+        DeliveryPublisher publisher = client.createPublisher("/kittens", SubscribeOptions.builder().build());
+        publisher.subscribe(new DeliverySubscriber() {
+            @Override
+            public void onSubscribe(DeliverySubscription subscription) {
+                subscription.cancel();
+            }
+            @Override
+            public void onNext(Delivery delivery) {
+                throw new AssertionFailedError("onNext should not have been called");
+            }
+            @Override
+            public void onError(Throwable error) {
+                throw new AssertionFailedError("onError should not have been called");
+            }
+            @Override
+            public void onComplete() {
+                throw new AssertionFailedError("onComplete should not have been called");
+            }
+        });
+        assertEquals("Expected no subscribe or unsubscribe request", 1, engine.getMessages().size());
+    }
+
+    @Test
+    public void testDeliveryPublisherErrorsUseCallbackService() {
+        DeferredCallbackService callbackService = new DeferredCallbackService();
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client =
+                new NonBlockingClientImpl(new MockEndpointService(), callbackService, engine, new MockTimerService(), null, null, null, null);
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+        callbackService.runAll(null);
+
+        class RecordingSubscriber implements DeliverySubscriber {
+            private DeliverySubscription subscription;
+            private final List<Throwable> errors = new ArrayList<>();
+            @Override public void onSubscribe(DeliverySubscription subscription) { this.subscription = subscription; }
+            @Override public void onNext(Delivery delivery) {}
+            @Override public void onError(Throwable error) { errors.add(error); }
+            @Override public void onComplete() {}
+        }
+
+        // An invalid request, made on the application's thread, is reported on the subscription's ordering context
+        DeliveryPublisher publisher = client.createPublisher("/kittens",
+                SubscribeOptions.builder().setOrdering(SubscribeOptions.Ordering.SUBSCRIPTION).build());
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null)), engine);
+        callbackService.runAll(null);
+        subscriber.subscription.request(0);
+        assertTrue("onError should not be called on the requesting thread", subscriber.errors.isEmpty());
+        assertEquals(1, callbackService.queued.size());
+        assertTrue("Expected the subscription's ordering context", callbackService.queued.getFirst()[1] instanceof DestinationListenerWrapper);
+        callbackService.runAll(null);
+        assertEquals(1, subscriber.errors.size());
+        assertTrue(subscriber.errors.get(0) instanceof IllegalArgumentException);
+
+        // ... as is a failure to subscribe
+        client.subscribe("/cats", new DestinationAdapter<Void>() {}, null, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/cats", null)), engine);
+        callbackService.runAll(null);
+        publisher = client.createPublisher("/cats", SubscribeOptions.builder().build());
+        subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue("onError should not be called on the subscribing thread", subscriber.errors.isEmpty());
+        callbackService.runAll(null);
+        assertEquals(1, subscriber.errors.size());
+        assertTrue(subscriber.errors.get(0) instanceof SubscribedException);
+
+        // ... and a subscribe that throws
+        client.stop(null, null);
+        client.tell(new CloseResponse((CloseRequest)engine.getMessages().getLast()), engine);
+        callbackService.runAll(null);
+        publisher = client.createPublisher("/dogs", SubscribeOptions.builder().build());
+        subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue("onError should not be called on the subscribing thread", subscriber.errors.isEmpty());
+        callbackService.runAll(null);
+        assertEquals(1, subscriber.errors.size());
+        assertTrue(subscriber.errors.get(0) instanceof StoppedException);
+    }
+
+    @Test
+    public void testConfirmManyDeliveries() {
+        final List<Delivery> deliveries = new ArrayList<>();
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        SubscribeOptions opts = SubscribeOptions.builder().setQos(QOS.AT_LEAST_ONCE).setAutoConfirm(false).build();
+        client.subscribe("/kittens", opts, new DestinationAdapter<Void>() {
+            @Override
+            public void onMessage(NonBlockingClient client, Void context, Delivery delivery) {
+                deliveries.add(delivery);
+            }
+        }, null, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null)), engine);
+
+        byte[] amqpMessageData = TestDestinationListenerWrapper.createSerializedProtonMessage(
+                new AmqpValue(new Binary(new byte[]{1})), "/kittens", 0, null, null, null);
+        final List<DeliveryRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            requests.add(new DeliveryRequest(amqpMessageData, QOS.AT_LEAST_ONCE, "private:/kittens", null, null));
+            client.tell(requests.get(i), engine);
+        }
+        assertEquals("Expected all of the messages to be delivered", 5, deliveries.size());
+
+        // Confirming a collection queues all of the deliveries for the engine to settle at once
+        int engineMessages = engine.getMessages().size();
+        client.confirm(deliveries.subList(0, 2));
+        assertEquals("Expected one more message to be sent to the engine", engineMessages + 1, engine.getMessages().size());
+        SettleRequest settleRequest = (SettleRequest)engine.getMessages().get(engineMessages);
+        assertEquals(requests.subList(0, 2), settleRequest.queue.drain());
+
+        try {
+            client.confirm(deliveries.subList(1, 3));
+            throw new AssertionFailedError("Expected a StateException for an already confirmed delivery");
+        } catch (StateException e) {
+            // Expected
+        }
+        try {
+            deliveries.get(1).confirm();
+            throw new AssertionFailedError("Expected a StateException for an already confirmed delivery");
+        } catch (StateException e) {
+            // Expected
+        }
+
+        // Cumulative confirmation skips those deliveries already confirmed.  The engine is only
+        // told about the queue once, however many deliveries are added before it is drained
+        deliveries.get(2).confirm();
+        deliveries.get(3).confirmUpTo();
+        assertEquals("Expected one more message to be sent to the engine", engineMessages + 2, engine.getMessages().size());
+        assertEquals(requests.subList(2, 4), settleRequest.queue.drain());
+
+        // Once settled, the deliveries are no longer pending
+        client.tell(new DeliveriesResponse(requests.subList(0, 4)), engine);
+        deliveries.get(4).confirmUpTo();
+        assertEquals(requests.subList(4, 5), settleRequest.queue.drain());
+
+        // Deliveries can't be confirmed once the link they arrived on has gone
+        client.tell(new DeliveryRequest(amqpMessageData, QOS.AT_LEAST_ONCE, "private:/kittens", null, null), engine);
+        client.tell(new UnsubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null), null), engine);
+        try {
+            deliveries.get(5).confirm();
+            throw new AssertionFailedError("Expected a StateException once unsubscribed");
+        } catch (StateException e) {
+            // Expected
+        }
+        try {
+            client.confirm(deliveries.subList(5, 6));
+            throw new AssertionFailedError("Expected a StateException once unsubscribed");
+        } catch (StateException e) {
+            // Expected
+        }
+
+        try {
+            client.confirm(null);
+            throw new AssertionFailedError("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testAdaptiveCreditMetrics() {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        client.subscribe("/kittens", SubscribeOptions.builder().setAdaptiveCredit(true).setCredit(100).build(), new DestinationAdapter<Void>() {}, null, null);
+        SubscribeRequest request = (SubscribeRequest)engine.getMessages().get(engine.getMessages().size() - 1);
+        assertNotNull("Expected a credit controller to be passed to the engine", request.creditController);
+        CreditMetrics metrics = client.getCreditMetrics("/kittens", null);
+        assertSame(request.creditController, metrics);
+        assertEquals(100, metrics.getMaxCredit());
+
+        client.subscribe("/cats", SubscribeOptions.builder().build(), new DestinationAdapter<Void>() {}, null, null);
+        request = (SubscribeRequest)engine.getMessages().get(engine.getMessages().size() - 1);
+        assertNull(request.creditController);
+        assertNull(client.getCreditMetrics("/cats", null));
+        assertNull(client.getCreditMetrics("/dogs", null));
+    }
+
+    @Test
+    public void testCreditMetricsWhileSubscribing() throws Exception {
+        final MockComponent engine = new MockComponent();
+        final NonBlockingClientImpl client = openCommon(engine, new MockNonBlockingClientListener(false));
+        final EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        // The client subscribes and unsubscribes on one thread, while this thread reads credit metrics
+        final int topics = 64;
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread subscriber = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final SubscribeOptions options = SubscribeOptions.builder().setAdaptiveCredit(true).build();
+                    for (int round = 0; round < 50; ++round) {
+                        for (int i = 0; i < topics; ++i) {
+                            client.subscribe("/kittens/" + i, options, new DestinationAdapter<Void>() {}, null, null);
+                            client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens/" + i, null)), engine);
+                        }
+                        for (int i = 0; i < topics; ++i) {
+                            client.unsubscribe("/kittens/" + i, null, null, null);
+                            client.tell(new UnsubscribeResponse(engineConnection, new SubscriptionTopic("/kittens/" + i, null), null), engine);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                } finally {
+                    done.set(true);
+                }
+            }
+        };
+        subscriber.start();
+
+        while (!done.get()) {
+            for (int i = 0; i < topics; ++i) {
+                final CreditMetrics metrics = client.getCreditMetrics("/kittens/" + i, null);
+                if (metrics != null) {
+                    assertTrue(metrics.getMaxCredit() > 0);
+                }
+            }
+        }
+        subscriber.join();
+        assertNull("Subscriber thread failed: " + failure.get(), failure.get());
+        for (int i = 0; i < topics; ++i) {
+            assertNull(client.getCreditMetrics("/kittens/" + i, null));
+        }
+    }
+
+    @Test
+    public void testStopWaitsForUnsubscribedSubscriptionCallbacks() {
+        final List<String> events = new ArrayList<>();
+        MockNonBlockingClientListener listener = new MockNonBlockingClientListener(false) {
+            @Override public void onStopped(NonBlockingClient client, Void context, ClientException exception) {
+                events.add("onStopped");
+            }
+        };
+        DeferredCallbackService callbackService = new DeferredCallbackService();
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client =
+                new NonBlockingClientImpl(new MockEndpointService(), callbackService, engine, new MockTimerService(), null, null, listener, null);
+        EngineConnection engineConnection = new EngineConnection();
+        client.tell(new OpenResponse((OpenRequest)engine.getMessages().get(0), engineConnection), engine);
+
+        // Subscribe and unsubscribe, leaving the onUnsubscribed callback queued on the subscription's context
+        client.subscribe("/kittens", SubscribeOptions.builder().setOrdering(SubscribeOptions.Ordering.SUBSCRIPTION).build(), new DestinationAdapter<Void>() {
+            @Override public void onUnsubscribed(NonBlockingClient client, Void context, String topicPattern, String share, Exception error) {
+                events.add("onUnsubscribed");
+            }
+        }, null, null);
+        client.tell(new SubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null)), engine);
+        client.unsubscribe("/kittens", null, null, null);
+        client.tell(new UnsubscribeResponse(engineConnection, new SubscriptionTopic("/kittens", null), null), engine);
+
+        client.stop(null, null);
+        client.tell(new CloseResponse((CloseRequest)engine.getMessages().getLast()), engine);
+        callbackService.runAll(client);
+        assertTrue("Client should not report stopped before the subscription's callbacks have run: " + events, events.isEmpty());
+
+        callbackService.runAll(null);
+        assertEquals(Arrays.asList("onUnsubscribed", "onStopped"), events);
+        assertEquals(ClientState.STOPPED, client.getState());
+    }
 }
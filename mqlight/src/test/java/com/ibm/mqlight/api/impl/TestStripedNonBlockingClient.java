@@ -0,0 +1,473 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.AssertionFailedError;
+
+import org.junit.Test;
+
+import com.ibm.mqlight.api.ClientException;
+import com.ibm.mqlight.api.ClientOptions;
+import com.ibm.mqlight.api.ClientOptions.SendDistribution;
+import com.ibm.mqlight.api.ClientState;
+import com.ibm.mqlight.api.CompletionListener;
+import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DestinationListener;
+import com.ibm.mqlight.api.MalformedDelivery;
+import com.ibm.mqlight.api.NonBlockingClient;
+import com.ibm.mqlight.api.NonBlockingClientListener;
+import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.PullSubscription;
+import com.ibm.mqlight.api.SendOptions;
+import com.ibm.mqlight.api.SubscribeOptions;
+import com.ibm.mqlight.api.UnsubscribedException;
+import com.ibm.mqlight.api.endpoint.Endpoint;
+import com.ibm.mqlight.api.endpoint.EndpointPromise;
+import com.ibm.mqlight.api.endpoint.EndpointService;
+import com.ibm.mqlight.api.impl.callback.SameThreadCallbackService;
+import com.ibm.mqlight.api.timer.TimerService;
+
+public class TestStripedNonBlockingClient {
+
+    private static class StubEndpointService implements EndpointService {
+        @Override public void lookup(EndpointPromise promise) {}
+        @Override public void onSuccess(Endpoint endpoint) {}
+    }
+
+    private static class StubTimerService implements TimerService {
+        @Override public void schedule(long delay, Promise<Void> promise) {}
+        @Override public void cancel(Promise<Void> promise) {}
+    }
+
+    private static class MockStripe extends NonBlockingClientImpl {
+        private final List<String> sends = new ArrayList<>();
+        private final List<String> subscribes = new ArrayList<>();
+        private final List<String> unsubscribes = new ArrayList<>();
+        private final Set<SubscriptionTopic> subscribed = new HashSet<>();
+        private final List<Delivery> confirmed = new ArrayList<>();
+        private DestinationListener<?> destListener;
+        private CompletionListener<?> compListener;
+        private final NonBlockingClientListener<Integer> listener;
+        private ClientState state = null;
+
+        private MockStripe(ClientOptions options, NonBlockingClient facade, NonBlockingClientListener<Integer> listener, Integer stripe) {
+            super(new StubEndpointService(), new SameThreadCallbackService(), new MockComponent(), new StubTimerService(),
+                  null, options, facade, listener, stripe);
+            this.listener = listener;
+        }
+
+        @Override
+        public <T> boolean send(String topic, String data, Map<String, Object> properties, SendOptions sendOptions,
+                CompletionListener<T> listener, T context) {
+            sends.add(topic);
+            return true;
+        }
+
+        @Override
+        public <T> NonBlockingClient subscribe(String topicPattern, SubscribeOptions subOptions,
+                DestinationListener<T> destListener, CompletionListener<T> compListener, T context) {
+            subscribes.add(topicPattern);
+            subscribed.add(new SubscriptionTopic(topicPattern, subOptions == null ? null : subOptions.getShareName()));
+            this.destListener = destListener;
+            this.compListener = compListener;
+            return this;
+        }
+
+        @Override
+        public <T> PullSubscription pullSubscribe(String topicPattern, SubscribeOptions subOptions,
+                CompletionListener<T> compListener, T context) {
+            subscribes.add(topicPattern);
+            subscribed.add(new SubscriptionTopic(topicPattern, subOptions == null ? null : subOptions.getShareName()));
+            this.compListener = compListener;
+            return null;
+        }
+
+        @Override
+        public <T> NonBlockingClient unsubscribe(String topicPattern, String share, CompletionListener<T> listener, T context) {
+            if (!subscribed.remove(new SubscriptionTopic(topicPattern, share))) {
+                throw new UnsubscribedException("Not subscribed to " + topicPattern);
+            }
+            unsubscribes.add(topicPattern);
+            if (listener != null) listener.onSuccess(this, context);
+            return this;
+        }
+
+        @Override
+        public <T> NonBlockingClient unsubscribe(String topicPattern, String share, int ttl, CompletionListener<T> listener, T context) {
+            return unsubscribe(topicPattern, share, listener, context);
+        }
+
+        @Override
+        public void confirm(Collection<? extends Delivery> deliveries) {
+            confirmed.addAll(deliveries);
+        }
+
+        @Override
+        public ClientState getState() {
+            return state == null ? super.getState() : state;
+        }
+    }
+
+    private static class MockStripeFactory implements StripedNonBlockingClient.StripeFactory {
+        private final List<MockStripe> stripes = new ArrayList<>();
+        @Override
+        public NonBlockingClientImpl create(ClientOptions options, NonBlockingClient facade,
+                                            NonBlockingClientListener<Integer> listener, Integer stripe) {
+            final MockStripe result = new MockStripe(options, facade, listener, stripe);
+            stripes.add(result);
+            return result;
+        }
+    }
+
+    private static class MockDelivery extends DeliveryImpl {
+        private MockDelivery(NonBlockingClientImpl client) {
+            super(client, null, null, "topic", "topic", 0, null, null);
+        }
+        @Override
+        public Type getType() {
+            throw new AssertionFailedError("Should not have been called!");
+        }
+    }
+
+    private static class MockClientListener implements NonBlockingClientListener<Void> {
+        private int started = 0;
+        private int stopped = 0;
+        private ClientException stoppedException = null;
+        @Override public void onStarted(NonBlockingClient client, Void context) { ++started; }
+        @Override public void onStopped(NonBlockingClient client, Void context, ClientException exception) {
+            ++stopped;
+            stoppedException = exception;
+        }
+        @Override public void onRestarted(NonBlockingClient client, Void context) {}
+        @Override public void onRetrying(NonBlockingClient client, Void context, ClientException exception) {}
+        @Override public void onDrain(NonBlockingClient client, Void context) {}
+    }
+
+    private static class MockDestinationListener implements DestinationListener<Void> {
+        private int unsubscribed = 0;
+        @Override public void onMessage(NonBlockingClient client, Void context, Delivery delivery) {}
+        @Override public void onMalformed(NonBlockingClient client, Void context, MalformedDelivery delivery) {}
+        @Override public void onUnsubscribed(NonBlockingClient client, Void context, String topicPattern, String share, Exception error) {
+            ++unsubscribed;
+        }
+    }
+
+    @Test
+    public void stripeIds() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setId("client").setConnections(3).build(), factory, null, null);
+        assertEquals("client", client.getId());
+        assertEquals(3, client.getConnections());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("client_" + i, factory.stripes.get(i).getId());
+        }
+
+        client = new StripedNonBlockingClient(ClientOptions.builder().setConnections(2).build(), factory, null, null);
+        assertTrue("Expected auto generated client ID to start with string 'AUTO_'", client.getId().startsWith("AUTO_"));
+        assertEquals(client.getId() + "_1", factory.stripes.get(4).getId());
+
+        StringBuilder longId = new StringBuilder();
+        while (longId.length() < 256) longId.append('a');
+        assertEquals(256, StripedNonBlockingClient.stripeId(longId.toString(), 10).length());
+        assertTrue(StripedNonBlockingClient.stripeId(longId.toString(), 10).endsWith("a_10"));
+    }
+
+    @Test
+    public void sendByTopic() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(4).build(), factory, null, null);
+        for (int i = 0; i < 20; ++i) {
+            client.send("topic" + (i % 5), "data", null);
+        }
+        int total = 0;
+        for (MockStripe stripe : factory.stripes) {
+            // Every message for a topic is sent over the same connection
+            for (String topic : stripe.sends) {
+                for (MockStripe other : factory.stripes) {
+                    if (other != stripe) assertTrue("Topic " + topic + " sent over two connections", !other.sends.contains(topic));
+                }
+            }
+            total += stripe.sends.size();
+        }
+        assertEquals(20, total);
+    }
+
+    @Test
+    public void sendRoundRobin() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(3).setSendDistribution(SendDistribution.ROUND_ROBIN).build(),
+                factory, null, null);
+        for (int i = 0; i < 9; ++i) {
+            client.send("topic", "data", null);
+        }
+        for (MockStripe stripe : factory.stripes) {
+            assertEquals(3, stripe.sends.size());
+        }
+    }
+
+    @Test
+    public void subscribe() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(3).build(), factory, null, null);
+
+        // A private subscription is made over one connection
+        client.subscribe("private", SubscribeOptions.builder().build(), new MockDestinationListener(), null, null);
+        int subscribed = 0;
+        for (MockStripe stripe : factory.stripes) subscribed += stripe.subscribes.size();
+        assertEquals(1, subscribed);
+
+        // A shared subscription is made over every connection, and reported unsubscribed once all are
+        MockDestinationListener destListener = new MockDestinationListener();
+        client.subscribe("shared", SubscribeOptions.builder().setShare("share").build(), destListener, null, null);
+        for (MockStripe stripe : factory.stripes) {
+            assertTrue(stripe.subscribes.contains("shared"));
+            @SuppressWarnings("unchecked")
+            DestinationListener<Void> stripeListener = (DestinationListener<Void>)stripe.destListener;
+            assertEquals(0, destListener.unsubscribed);
+            stripeListener.onUnsubscribed(client, null, "shared", "share", null);
+        }
+        assertEquals(1, destListener.unsubscribed);
+    }
+
+    @Test
+    public void sharedSubscribeCompletion() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(2).build(), factory, null, null);
+        final int[] results = new int[2];
+        client.subscribe("shared", SubscribeOptions.builder().setShare("share").build(), new MockDestinationListener(),
+                new CompletionListener<Void>() {
+                    @Override public void onSuccess(NonBlockingClient client, Void context) { ++results[0]; }
+                    @Override public void onError(NonBlockingClient client, Void context, Exception exception) { ++results[1]; }
+                }, null);
+        @SuppressWarnings("unchecked")
+        CompletionListener<Void> first = (CompletionListener<Void>)factory.stripes.get(0).compListener;
+        @SuppressWarnings("unchecked")
+        CompletionListener<Void> second = (CompletionListener<Void>)factory.stripes.get(1).compListener;
+        first.onSuccess(client, null);
+        assertEquals(0, results[0]);
+        second.onSuccess(client, null);
+        assertEquals(1, results[0]);
+        assertEquals(0, results[1]);
+    }
+
+    private static class MockCompletionListener implements CompletionListener<Void> {
+        private int successes = 0;
+        private final List<Exception> errors = new ArrayList<>();
+        @Override public void onSuccess(NonBlockingClient client, Void context) { ++successes; }
+        @Override public void onError(NonBlockingClient client, Void context, Exception exception) { errors.add(exception); }
+    }
+
+    @Test
+    public void unsubscribeOnlyHolders() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(3).build(), factory, null, null);
+
+        // A shared pull subscription is made on one stripe, and only unsubscribed from that stripe
+        client.pullSubscribe("pull", SubscribeOptions.builder().setShare("share").build(), null, null);
+        MockCompletionListener listener = new MockCompletionListener();
+        client.unsubscribe("pull", "share", listener, null);
+        assertEquals(1, listener.successes);
+        assertTrue(listener.errors.isEmpty());
+        int unsubscribed = 0;
+        for (MockStripe stripe : factory.stripes) unsubscribed += stripe.unsubscribes.size();
+        assertEquals(1, unsubscribed);
+
+        // A shared subscription is unsubscribed from every stripe
+        client.subscribe("shared", SubscribeOptions.builder().setShare("share").build(), null, null, null);
+        listener = new MockCompletionListener();
+        client.unsubscribe("shared", "share", 0, listener, null);
+        assertEquals(1, listener.successes);
+        assertTrue(listener.errors.isEmpty());
+        for (MockStripe stripe : factory.stripes) {
+            assertTrue(stripe.unsubscribes.contains("shared"));
+        }
+
+        // Once unsubscribed, there is no subscription to remove
+        try {
+            client.unsubscribe("shared", "share", null, null);
+            throw new AssertionFailedError("Expected an UnsubscribedException");
+        } catch (UnsubscribedException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void sharedSubscribeRollback() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(3).build(), factory, null, null);
+        MockDestinationListener destListener = new MockDestinationListener();
+        MockCompletionListener listener = new MockCompletionListener();
+        client.subscribe("shared", SubscribeOptions.builder().setShare("share").build(), destListener, listener, null);
+
+        // One stripe subscribes, then another fails - the first is unsubscribed straight away, and
+        // the last as soon as it has subscribed
+        Exception error = new Exception("subscribe failed");
+        @SuppressWarnings("unchecked")
+        CompletionListener<Void> first = (CompletionListener<Void>)factory.stripes.get(0).compListener;
+        @SuppressWarnings("unchecked")
+        CompletionListener<Void> second = (CompletionListener<Void>)factory.stripes.get(1).compListener;
+        @SuppressWarnings("unchecked")
+        CompletionListener<Void> third = (CompletionListener<Void>)factory.stripes.get(2).compListener;
+        first.onSuccess(client, null);
+        factory.stripes.get(1).subscribed.clear();
+        second.onError(client, null, error);
+        assertEquals(Arrays.asList("shared"), factory.stripes.get(0).unsubscribes);
+        assertTrue(factory.stripes.get(2).unsubscribes.isEmpty());
+        assertTrue("Expected the error to be reported once every stripe has completed", listener.errors.isEmpty());
+        third.onSuccess(client, null);
+        assertEquals(Arrays.asList("shared"), factory.stripes.get(2).unsubscribes);
+        assertEquals(0, listener.successes);
+        assertEquals(Arrays.asList(error), listener.errors);
+
+        // The rolled back stripes do not report the subscription as unsubscribed
+        for (MockStripe stripe : factory.stripes) {
+            @SuppressWarnings("unchecked")
+            DestinationListener<Void> stripeListener = (DestinationListener<Void>)stripe.destListener;
+            stripeListener.onUnsubscribed(client, null, "shared", "share", null);
+        }
+        assertEquals(0, destListener.unsubscribed);
+
+        // The subscription no longer exists
+        try {
+            client.unsubscribe("shared", "share", null, null);
+            throw new AssertionFailedError("Expected an UnsubscribedException");
+        } catch (UnsubscribedException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void lifecycle() {
+        MockStripeFactory factory = new MockStripeFactory();
+        MockClientListener listener = new MockClientListener();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(2).build(), factory, listener, null);
+        NonBlockingClientListener<Integer> stripeListener = factory.stripes.get(0).listener;
+
+        stripeListener.onStarted(client, 0);
+        assertEquals(0, listener.started);
+        stripeListener.onStarted(client, 1);
+        assertEquals(1, listener.started);
+
+        ClientException exception = new ClientException("stripe failed");
+        stripeListener.onStopped(client, 1, exception);
+        assertEquals(0, listener.stopped);
+        stripeListener.onStopped(client, 0, null);
+        assertEquals(1, listener.stopped);
+        assertSame(exception, listener.stoppedException);
+    }
+
+    @Test
+    public void listenerCalledOutsideLock() throws Exception {
+        MockStripeFactory factory = new MockStripeFactory();
+        final AtomicBoolean otherStripeReported = new AtomicBoolean();
+        final List<NonBlockingClientListener<Integer>> stripeListeners = new ArrayList<>();
+        MockClientListener listener = new MockClientListener() {
+            @Override public void onStarted(final NonBlockingClient client, Void context) {
+                super.onStarted(client, context);
+                // Wait for another stripe's callback, made on another thread
+                final Thread other = new Thread() {
+                    @Override public void run() {
+                        stripeListeners.get(0).onRetrying(client, 1, null);
+                        otherStripeReported.set(true);
+                    }
+                };
+                other.start();
+                try {
+                    other.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(2).build(), factory, listener, null);
+        stripeListeners.add(factory.stripes.get(0).listener);
+
+        stripeListeners.get(0).onStarted(client, 0);
+        stripeListeners.get(0).onStarted(client, 1);
+        assertEquals(1, listener.started);
+        assertTrue("Another stripe's callback should not have been blocked by the application's listener", otherStripeReported.get());
+    }
+
+    @Test
+    public void state() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(2).build(), factory, null, null);
+        MockStripe first = factory.stripes.get(0);
+        MockStripe second = factory.stripes.get(1);
+
+        first.state = second.state = ClientState.STARTED;
+        assertEquals(ClientState.STARTED, client.getState());
+        second.state = ClientState.STARTING;
+        assertEquals(ClientState.STARTING, client.getState());
+        second.state = ClientState.RETRYING;
+        assertEquals(ClientState.RETRYING, client.getState());
+
+        // A stripe that has stopped, while another is still started, is not restarted by the client
+        second.state = ClientState.STOPPED;
+        assertEquals(ClientState.STOPPING, client.getState());
+        first.state = ClientState.STOPPED;
+        assertEquals(ClientState.STOPPED, client.getState());
+    }
+
+    @Test
+    public void confirm() {
+        MockStripeFactory factory = new MockStripeFactory();
+        StripedNonBlockingClient client = new StripedNonBlockingClient(
+                ClientOptions.builder().setConnections(2).build(), factory, null, null);
+        MockStripe first = factory.stripes.get(0);
+        MockStripe second = factory.stripes.get(1);
+        Delivery d1 = new MockDelivery(first);
+        Delivery d2 = new MockDelivery(second);
+        Delivery d3 = new MockDelivery(first);
+        client.confirm(Arrays.asList(d1, d2, d3));
+        assertEquals(Arrays.asList(d1, d3), first.confirmed);
+        assertEquals(Arrays.asList(d2), second.confirmed);
+
+        try {
+            client.confirm(Arrays.asList(d1, new MockDelivery(new MockStripe(ClientOptions.builder().build(), null, null, null))));
+            throw new AssertionFailedError("A delivery received by another client should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(2, first.confirmed.size());
+    }
+}
@@ -44,6 +44,7 @@ public class MockNetworkChannel implements NetworkChannel {
     private final Transport transport;
     private final Collector collector;
     private Object context = null;
+    private int writeCount = 0;
 
     public MockNetworkChannel(NetworkListener listener, Handler handler) {
         this.listener = listener;
@@ -68,6 +69,7 @@ public class MockNetworkChannel implements NetworkChannel {
 
     @Override
     public void write(ByteBuffer buffer, Promise<Boolean> promise) {
+        ++writeCount;
         promise.setSuccess(true);
         while(buffer.remaining() > 0) {
             ByteBuffer tail = transport.tail();
@@ -98,6 +100,10 @@ public class MockNetworkChannel implements NetworkChannel {
         }
     }
 
+    public int getWriteCount() {
+        return writeCount;
+    }
+
     @Override
     public void setContext(Object context) {
         this.context = context;
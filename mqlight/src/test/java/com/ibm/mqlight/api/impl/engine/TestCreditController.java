@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestCreditController {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void initialWindow() {
+        assertEquals(CreditController.INITIAL_WINDOW, new CreditController(1024).initialCredit(0));
+        assertEquals(10, new CreditController(10).initialCredit(0));
+        assertEquals(0, new CreditController(0).initialCredit(0));
+        assertEquals(0, new CreditController(0).creditToFlow(0, 0, 0, 0));
+    }
+
+    @Test
+    public void topUpOnceAQuarterOfTheWindowIsFree() {
+        CreditController controller = new CreditController(1024);
+        controller.initialCredit(0);
+        assertEquals("Less than a quarter free", 0, controller.creditToFlow(14, 40, 10, 1));
+        assertEquals("A quarter free", 24, controller.creditToFlow(10, 30, 10, 2));
+        assertEquals("No credit left", 4, controller.creditToFlow(4, 0, 60, 3));
+        assertEquals(64, controller.getOutstanding());
+    }
+
+    @Test
+    public void windowGrowsForFastConsumer() {
+        CreditController controller = new CreditController(1024);
+        long now = 0;
+        controller.initialCredit(now);
+        controller.deliveryReceived(now + MS);
+        assertEquals(1, controller.getRoundTripTime(TimeUnit.MILLISECONDS));
+
+        // The whole window is settled every round trip, so the window is what limits the rate
+        int window = controller.getCreditWindow();
+        for (int i = 0; i < 10; ++i) {
+            now += MS;
+            controller.creditToFlow(window, 0, 0, now);
+            controller.deliveryReceived(now + MS);
+        }
+        assertEquals(2 * window, controller.getCreditWindow());
+        assertEquals(window * 1000.0, controller.getSettleRate(), 0.001);
+
+        // And the window stops at the maximum credit
+        for (int i = 0; i < 100; ++i) {
+            now += MS;
+            controller.creditToFlow(controller.getCreditWindow(), 0, 0, now);
+            controller.deliveryReceived(now + MS);
+        }
+        assertEquals(1024, controller.getCreditWindow());
+    }
+
+    @Test
+    public void windowShrinksForSlowConsumer() {
+        CreditController controller = new CreditController(1024);
+        long now = 0;
+        controller.initialCredit(now);
+        controller.deliveryReceived(now + MS);
+        for (int i = 0; i < 100; ++i) {
+            now += 10 * MS;
+            controller.creditToFlow(1, 0, 63, now);
+        }
+        assertEquals(CreditController.MIN_WINDOW, controller.getCreditWindow());
+        assertEquals("No credit while the window is over-full", 0, controller.creditToFlow(1, 0, 62, now + 1));
+    }
+
+    @Test
+    public void roundTripTimeIsMinimumRecentSample() {
+        CreditController controller = new CreditController(1024);
+        controller.initialCredit(0);
+        controller.deliveryReceived(2 * MS);
+        controller.deliveryReceived(3 * MS);   // Not awaiting a delivery, so not a sample
+        assertEquals(2, controller.getRoundTripTime(TimeUnit.MILLISECONDS));
+
+        controller.creditToFlow(64, 0, 0, 10 * MS);
+        controller.deliveryReceived(15 * MS);
+        assertEquals("Larger sample ignored", 2, controller.getRoundTripTime(TimeUnit.MILLISECONDS));
+
+        final long later = TimeUnit.SECONDS.toNanos(11);
+        controller.creditToFlow(64, 0, 0, later);
+        controller.deliveryReceived(later + 5 * MS);
+        assertEquals("Minimum expired", 5, controller.getRoundTripTime(TimeUnit.MILLISECONDS));
+    }
+}
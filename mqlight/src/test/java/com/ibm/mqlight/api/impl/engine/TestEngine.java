@@ -19,7 +19,9 @@
 package com.ibm.mqlight.api.impl.engine;
 
 import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -27,11 +29,18 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.Accepted;
 import org.apache.qpid.proton.amqp.transport.ErrorCondition;
 import org.apache.qpid.proton.engine.BaseHandler;
 import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.EndpointState;
 import org.apache.qpid.proton.engine.Event;
 import org.apache.qpid.proton.engine.Handler;
 import org.apache.qpid.proton.engine.Receiver;
@@ -47,6 +56,7 @@ import com.ibm.mqlight.api.impl.ComponentImpl;
 import com.ibm.mqlight.api.impl.MockComponent;
 import com.ibm.mqlight.api.impl.SubscriptionTopic;
 import com.ibm.mqlight.api.impl.network.ConnectionError;
+import com.ibm.mqlight.api.impl.timer.TimerPromiseImpl;
 import com.ibm.mqlight.api.network.NetworkChannel;
 import com.ibm.mqlight.api.network.NetworkListener;
 import com.ibm.mqlight.api.network.NetworkService;
@@ -141,6 +151,40 @@ public class TestEngine {
         }
     }
 
+    private class ExecutorNetworkChannel extends MockNetworkChannel implements Executor {
+        private final LinkedList<Runnable> tasks = new LinkedList<>();
+        private ExecutorNetworkChannel(NetworkListener listener, Handler handler) {
+            super(listener, handler);
+        }
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.addLast(command);
+        }
+        private void runTasks() {
+            while(true) {
+                Runnable task;
+                synchronized(this) {
+                    if (tasks.isEmpty()) break;
+                    task = tasks.removeFirst();
+                }
+                task.run();
+            }
+        }
+    }
+
+    private class ExecutorNetworkService implements NetworkService {
+        private final Handler handler;
+        private ExecutorNetworkChannel channel = null;
+        private ExecutorNetworkService(Handler handler) {
+            this.handler = handler;
+        }
+        @Override
+        public void connect(Endpoint endpoint, NetworkListener listener, Promise<NetworkChannel> promise) {
+            channel = new ExecutorNetworkChannel(listener, handler);
+            promise.setSuccess(channel);
+        }
+    }
+
     private class MockTimerService implements TimerService {
 
         @Override
@@ -157,6 +201,19 @@ public class TestEngine {
 
     }
 
+    private class RecordingTimerService implements TimerService {
+        private final List<Promise<Void>> scheduled = new ArrayList<>();
+        private final List<Promise<Void>> cancelled = new ArrayList<>();
+        @Override
+        public void schedule(long delay, Promise<Void> promise) {
+            scheduled.add(promise);
+        }
+        @Override
+        public void cancel(Promise<Void> promise) {
+            cancelled.add(promise);
+        }
+    }
+
     protected class StubEndpoint implements Endpoint {
         @Override public String getHost() { return null; }
         @Override public int getPort() { return 0; }
@@ -231,7 +288,160 @@ public class TestEngine {
         engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE, true), component);
         assertEquals("Expected two more messages to have been sent to component", 3, component.getMessages().size());
         assertTrue("Expected message 2 to be of type DrainNotification", component.getMessages().get(1) instanceof DrainNotification);
-        assertTrue("Expected message 3 to be of type SendResponse", component.getMessages().get(2) instanceof SendResponse);
+        assertTrue("Expected message 3 to be of type BatchedSendResponse", component.getMessages().get(2) instanceof BatchedSendResponse);
+    }
+
+    @Test
+    public void sendBatch() {
+        MockNetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        // Send a message to open the link, so that only the batch itself is being written below
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE, true), component);
+        component.getMessages().clear();
+
+        final int writesBefore = network.channel.getWriteCount();
+        List<SendRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            requests.add(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{(byte)i}), 1, QOS.AT_MOST_ONCE, true));
+        }
+        engine.tell(new SendBatchRequest(requests), component);
+
+        assertEquals("Expected the batch to be written to the network once", 1, network.channel.getWriteCount() - writesBefore);
+        List<BatchedSendResponse> sendResponses = new ArrayList<>();
+        for (Object message : component.getMessages()) {
+            assertFalse("Expected no individual SendResponse messages", message instanceof SendResponse);
+            if (message instanceof BatchedSendResponse) {
+                sendResponses.add((BatchedSendResponse)message);
+            }
+        }
+        assertEquals("Expected the sends completed by one network write to be notified together", 1, sendResponses.size());
+        assertEquals("Expected responses in the order the batch was sent", requests, sendResponses.get(0).requests);
+    }
+
+    @Test
+    public void qos1SettlementsFromOneReadAreBatched() {
+        MockNetworkService network = new MockNetworkService(new MockHandler() {
+            @Override
+            public void onDelivery(Event e) {
+                // Accept each message as soon as it has been received
+                Delivery delivery = e.getDelivery();
+                if (e.getLink() instanceof Receiver && delivery.isReadable() && !delivery.isPartial()) {
+                    Receiver receiver = (Receiver)e.getLink();
+                    receiver.recv(new byte[delivery.pending()], 0, delivery.pending());
+                    receiver.advance();
+                    delivery.disposition(Accepted.getInstance());
+                    delivery.settle();
+                }
+            }
+        });
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        component.getMessages().clear();
+
+        List<SendRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            requests.add(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{(byte)i}), 1, QOS.AT_LEAST_ONCE, true));
+        }
+        engine.tell(new SendBatchRequest(requests), component);
+
+        List<BatchedSendResponse> sendResponses = new ArrayList<>();
+        for (Object message : component.getMessages()) {
+            assertFalse("Expected no individual SendResponse messages", message instanceof SendResponse);
+            if (message instanceof BatchedSendResponse) {
+                sendResponses.add((BatchedSendResponse)message);
+            }
+        }
+        assertEquals("Expected the sends settled by one network read to be notified together", 1, sendResponses.size());
+        assertEquals("Expected responses in the order the batch was sent", requests, sendResponses.get(0).requests);
+    }
+
+    @Test
+    public void inflightQos0() {
+        MockComponent component = new MockComponent();
+        EngineConnection engineConnection = new EngineConnection();
+        List<SendRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 130; ++i) {
+            SendRequest request = new SendRequest(engineConnection, "topic1", wrappedBuffer(new byte[]{1}), 1, QOS.AT_MOST_ONCE, true);
+            request.setSender(component);
+            requests.add(request);
+            if (i < 100) {
+                engineConnection.addInflightQos0(10 * (i + 1), request);
+            }
+        }
+
+        engineConnection.bytesWritten = 255;
+        engineConnection.notifyInflightQos0(false, component);
+        assertEquals("Expected one response for the sends completed by the write", 1, component.getMessages().size());
+        assertEquals(requests.subList(0, 25), ((BatchedSendResponse)component.getMessages().get(0)).requests);
+
+        // Add more sends, so that the ring buffer wraps around
+        for (int i = 100; i < 130; ++i) {
+            engineConnection.addInflightQos0(10 * (i + 1) - 255, requests.get(i));
+        }
+        engineConnection.bytesWritten = 1000;
+        engineConnection.notifyInflightQos0(false, component);
+        assertEquals(2, component.getMessages().size());
+        assertEquals(requests.subList(25, 100), ((BatchedSendResponse)component.getMessages().get(1)).requests);
+
+        engineConnection.notifyInflightQos0(false, component);
+        assertEquals("Expected no response when no sends have completed", 2, component.getMessages().size());
+
+        engineConnection.notifyInflightQos0(true, component);
+        assertEquals(3, component.getMessages().size());
+        assertEquals(requests.subList(100, 130), ((BatchedSendResponse)component.getMessages().get(2)).requests);
+    }
+
+    @Test
+    public void retainedSendLinks() {
+        MockNetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id", 2), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        EngineConnection engineConnection = openResponse.connection;
+
+        engine.tell(new SendRequest(engineConnection, "topic1", wrappedBuffer(new byte[]{1}), 1, QOS.AT_MOST_ONCE, true), component);
+        final Sender topic1Sender = engineConnection.senders.get("topic1");
+        assertNotNull("Expected a sending link to have been opened for topic1", topic1Sender);
+        engine.tell(new SendRequest(engineConnection, "topic1", wrappedBuffer(new byte[]{1}), 1, QOS.AT_MOST_ONCE, true), component);
+        assertSame("Expected the sending link to have been reused", topic1Sender, engineConnection.senders.get("topic1"));
+
+        engine.tell(new SendRequest(engineConnection, "topic2", wrappedBuffer(new byte[]{2}), 1, QOS.AT_MOST_ONCE, true), component);
+        engine.tell(new SendRequest(engineConnection, "topic3", wrappedBuffer(new byte[]{3}), 1, QOS.AT_MOST_ONCE, true), component);
+        assertEquals("Expected the number of retained links to be capped", 2, engineConnection.senders.size());
+        assertNull("Expected the least recently used link to have been closed", engineConnection.senders.get("topic1"));
+        assertEquals(EndpointState.CLOSED, topic1Sender.getLocalState());
+
+        engine.tell(new SendRequest(engineConnection, "topic4", wrappedBuffer(new byte[]{4}), 1, QOS.AT_MOST_ONCE, false), component);
+        assertNull("Expected a link that is not retained to have been removed", engineConnection.senders.get("topic4"));
+        assertEquals(2, engineConnection.senders.size());
+    }
+
+    @Test
+    public void deliveryTags() {
+        EngineConnection engineConnection = new EngineConnection();
+        assertArrayEquals(new byte[] {0}, engineConnection.nextDeliveryTag());
+        assertArrayEquals(new byte[] {1}, engineConnection.nextDeliveryTag());
+        engineConnection.deliveryTag = 255;
+        assertArrayEquals(new byte[] {(byte)0xff}, engineConnection.nextDeliveryTag());
+        assertArrayEquals(new byte[] {1, 0}, engineConnection.nextDeliveryTag());
+        engineConnection.deliveryTag = Long.MAX_VALUE;
+        assertArrayEquals(new byte[] {0x7f, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff}, engineConnection.nextDeliveryTag());
     }
 
     @Test
@@ -247,9 +457,10 @@ public class TestEngine {
         OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
 
         engine.tell(new SubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), QOS.AT_MOST_ONCE, 10, 0), component);
-        assertEquals("Expected two more messages to have been sent to component", 3, component.getMessages().size());
+        assertEquals("Expected three more messages to have been sent to component", 4, component.getMessages().size());
         assertTrue("Expected message 2 to be of type SubscribeResponse", component.getMessages().get(1) instanceof SubscribeResponse);
         assertTrue("Expected message 3 to be of type DeliveryRequest", component.getMessages().get(2) instanceof DeliveryRequest);
+        assertTrue("Expected message 4 to be of type DeliveriesReadNotification", component.getMessages().get(3) instanceof DeliveriesReadNotification);
     }
 
     @Test
@@ -266,14 +477,55 @@ public class TestEngine {
         OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
 
         engine.tell(new SubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), QOS.AT_LEAST_ONCE, 10, 0), component);
-        assertEquals("Expected two more messages to have been sent to component", 3, component.getMessages().size());
+        assertEquals("Expected three more messages to have been sent to component", 4, component.getMessages().size());
         assertTrue("Expected message 2 to be of type SubscribeResponse", component.getMessages().get(1) instanceof SubscribeResponse);
         assertTrue("Expected message 3 to be of type DeliveryRequest", component.getMessages().get(2) instanceof DeliveryRequest);
+        assertTrue("Expected message 4 to be of type DeliveriesReadNotification", component.getMessages().get(3) instanceof DeliveriesReadNotification);
 
-        engine.tell(new DeliveryResponse((DeliveryRequest)component.getMessages().get(2)), component);
+        DeliveryRequest request = (DeliveryRequest)component.getMessages().get(2);
+        assertTrue(request.confirm());
+        new SettlementQueue(engine, component).add(request);
         assertTrue("Delivery should have been marked as settled", handler.delivery.remotelySettled());
     }
 
+    @Test
+    public void settlementQueue() {
+        MockHandler handler = new MockHandler();
+        MockNetworkService network = new MockNetworkService(handler);
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        OpenRequest expectedOpenRequest = new OpenRequest(endpoint, "client-id");
+        engine.tell(expectedOpenRequest, component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        engine.tell(new SubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), QOS.AT_LEAST_ONCE, 10, 0), component);
+        assertEquals("Expected three more messages to have been sent to component", 4, component.getMessages().size());
+        DeliveryRequest request = (DeliveryRequest)component.getMessages().get(2);
+
+        // Only the first addition to an empty queue tells the engine
+        MockComponent mockEngine = new MockComponent();
+        SettlementQueue settlements = new SettlementQueue(mockEngine, component);
+        settlements.add(request);
+        settlements.add(request);
+        assertEquals(1, mockEngine.getMessages().size());
+        SettleRequest settleRequest = (SettleRequest)mockEngine.getMessages().get(0);
+        assertSame(settlements, settleRequest.queue);
+
+        engine.tell(new SettleRequest(new SettlementQueue(engine, component)), component);
+        assertEquals("Expected no response when there is nothing to settle", 4, component.getMessages().size());
+
+        settlements.drain();
+        settlements.add(request);
+        engine.tell(mockEngine.getMessages().get(1), component);
+        assertTrue("Delivery should have been marked as settled", handler.delivery.remotelySettled());
+        assertEquals("Expected one more message to have been sent to component", 5, component.getMessages().size());
+        DeliveriesResponse response = (DeliveriesResponse)component.getMessages().get(4);
+        assertEquals(Collections.singletonList(request), response.requests);
+    }
+
     @Test
     public void unsubscribe() {
         MockHandler handler = new MockHandler();
@@ -290,8 +542,8 @@ public class TestEngine {
         engine.tell(new SubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), QOS.AT_MOST_ONCE, 10, 0), component);
 
         engine.tell(new UnsubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), true), component);
-        assertEquals("Expected to have received 4 messages to the component", 4, component.getMessages().size());
-        assertTrue("Expected 4th message to be of type unsubscribe response", component.getMessages().get(3) instanceof UnsubscribeResponse);
+        assertEquals("Expected to have received 5 messages to the component", 5, component.getMessages().size());
+        assertTrue("Expected 5th message to be of type unsubscribe response", component.getMessages().get(4) instanceof UnsubscribeResponse);
     }
 
     @Test
@@ -327,4 +579,76 @@ public class TestEngine {
         engine.tell(new SubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), QOS.AT_MOST_ONCE, 10, 0), component);
         System.out.println(component.getMessages());
     }
+
+    @Test
+    public void localIdleTimeout() throws InterruptedException {
+        MockNetworkService network = new MockNetworkService(new MockHandler());
+        RecordingTimerService timer = new RecordingTimerService();
+        Endpoint endpoint = new StubEndpoint() {
+            @Override public int getIdleTimeout() { return 50; }
+        };
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        assertEquals("Expected one message to have been sent to component", 1, component.getMessages().size());
+        assertEquals("Expected the idle timer to have been scheduled once the connection opened", 1, timer.scheduled.size());
+
+        // A pop inside the idle timeout just schedules the next check
+        timer.scheduled.get(0).setSuccess(null);
+        assertEquals("Expected the idle timer to have been rescheduled", 2, timer.scheduled.size());
+        assertEquals("Expected no more messages to have been sent to component", 1, component.getMessages().size());
+
+        // A pop for a timer which is no longer current is ignored
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        new TimerPromiseImpl(engine, openResponse.connection).setSuccess(null);
+        assertEquals("Expected the stale pop not to reschedule the timer", 2, timer.scheduled.size());
+
+        // Nothing is received from the server, so the next pop after the idle timeout disconnects
+        Thread.sleep(100);
+        timer.scheduled.get(1).setSuccess(null);
+        assertEquals("Expected one more message to have been sent to component", 2, component.getMessages().size());
+        assertTrue("Expected message to be of type DisconnectNotification", component.getMessages().get(1) instanceof DisconnectNotification);
+        DisconnectNotification notification = (DisconnectNotification)component.getMessages().get(1);
+        assertTrue("Expected a NetworkException, but got: " + notification.error, notification.error instanceof NetworkException);
+        assertEquals("Expected the idle timer not to be rescheduled", 2, timer.scheduled.size());
+    }
+
+    @Test
+    public void eventLoopAffinity() {
+        ExecutorNetworkService network = new ExecutorNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer, true);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        assertEquals("Expected one message to have been sent to component", 1, component.getMessages().size());
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        assertNull("Expected no exception in openResponse", openResponse.exception);
+
+        // Once connected, work is handed to the channel's executor rather than run by the caller
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE, true), component);
+        assertEquals("Expected the send not to have been processed by the calling thread", 1, component.getMessages().size());
+        network.channel.runTasks();
+        assertEquals("Expected two more messages to have been sent to component", 3, component.getMessages().size());
+        assertTrue("Expected message 2 to be of type DrainNotification", component.getMessages().get(1) instanceof DrainNotification);
+        assertTrue("Expected message 3 to be of type BatchedSendResponse", component.getMessages().get(2) instanceof BatchedSendResponse);
+    }
+
+    @Test
+    public void noEventLoopAffinity() {
+        ExecutorNetworkService network = new ExecutorNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE, true), component);
+        assertEquals("Expected the send to have been processed by the calling thread", 3, component.getMessages().size());
+        assertTrue("Expected no work to have been handed to the channel", network.channel.tasks.isEmpty());
+    }
 }